@@ -127,6 +127,16 @@ public abstract class Folder<T extends Message> {
     public abstract void fetch(List<T> messages, FetchProfile fp,
                                MessageRetrievalListener<T> listener) throws MessagingException;
 
+    /**
+     * Populate a list of messages based upon a FetchProfile, creating message bodies with the supplied
+     * {@link BodyFactory}. Stores that don't support streaming bodies into a custom {@code BodyFactory} simply fall
+     * back to {@link #fetch(List, FetchProfile, MessageRetrievalListener)}.
+     */
+    public void fetch(List<T> messages, FetchProfile fp, MessageRetrievalListener<T> listener,
+            BodyFactory bodyFactory) throws MessagingException {
+        fetch(messages, fp, listener);
+    }
+
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
             BodyFactory bodyFactory) throws MessagingException {
         // This is causing trouble. Disabled for now. See issue 1733
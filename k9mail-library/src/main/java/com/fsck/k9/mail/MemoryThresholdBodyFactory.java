@@ -0,0 +1,146 @@
+package com.fsck.k9.mail;
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.util.MimeUtil;
+import timber.log.Timber;
+
+
+/**
+ * A {@link BodyFactory} that keeps small bodies in memory and only spills bodies exceeding a size threshold to disk.
+ * <p>
+ * Bodies up to {@code memoryThreshold} bytes are returned as {@link BinaryMemoryBody} so they can be stored without
+ * first being written to and read back from a temporary file. Larger bodies are streamed into a file created in
+ * {@code spillDirectory}. When that directory is on the same file system as the final storage location the file can
+ * later be moved into place by renaming it.
+ * <p>
+ * Spill files that aren't moved into place are not cleaned up automatically. Call {@link #deleteSpillFiles()} in a
+ * {@code finally} block once the bodies created by this factory have been stored or are no longer needed. Files left
+ * behind when the process is killed can be removed with {@link #deleteSpillFilesOlderThan(File, long)}.
+ */
+public class MemoryThresholdBodyFactory implements BodyFactory {
+    // File names used by BinaryTempFileBody
+    private static final String SPILL_FILE_PREFIX = "body";
+    private static final String SPILL_FILE_SUFFIX = ".tmp";
+
+
+    private final int memoryThreshold;
+    private final File spillDirectory;
+    private final List<File> spillFiles = new ArrayList<>();
+
+
+    public MemoryThresholdBodyFactory(int memoryThreshold, File spillDirectory) {
+        this.memoryThreshold = memoryThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException {
+
+        if (contentTransferEncoding != null) {
+            contentTransferEncoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null);
+        }
+
+        if (MimeUtil.isMessage(contentType)) {
+            BinaryTempFileBody tempBody = new BinaryTempFileMessageBody(contentTransferEncoding, spillDirectory);
+            writeToFile(tempBody, null, 0, inputStream);
+            return tempBody;
+        }
+
+        byte[] buffer = new byte[memoryThreshold + 1];
+        int length = IOUtils.read(inputStream, buffer);
+        if (length <= memoryThreshold) {
+            return new BinaryMemoryBody(Arrays.copyOf(buffer, length), contentTransferEncoding);
+        }
+
+        BinaryTempFileBody tempBody = new BinaryTempFileBody(contentTransferEncoding, spillDirectory);
+        writeToFile(tempBody, buffer, length, inputStream);
+        return tempBody;
+    }
+
+    /**
+     * Deletes the files of all bodies created by this factory that still exist in the spill directory, i.e. that
+     * haven't been moved into place.
+     */
+    public synchronized void deleteSpillFiles() {
+        for (File file : spillFiles) {
+            if (file.exists() && !file.delete()) {
+                Timber.w("Failed to delete spill file: %s", file.getName());
+            }
+        }
+        spillFiles.clear();
+    }
+
+    /**
+     * Deletes the spill files in {@code spillDirectory} that were last modified before {@code cutoffTime}.
+     * <p>
+     * Use a cutoff time before any factory using {@code spillDirectory} was created, so files that are still being
+     * written aren't deleted.
+     */
+    public static void deleteSpillFilesOlderThan(File spillDirectory, long cutoffTime) {
+        File[] files = spillDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        int deletedFiles = 0;
+        for (File file : files) {
+            if (file.lastModified() < cutoffTime) {
+                if (file.delete()) {
+                    deletedFiles++;
+                } else {
+                    Timber.w("Failed to delete stale spill file: %s", file.getName());
+                }
+            }
+        }
+
+        if (deletedFiles > 0) {
+            Timber.i("Deleted %d stale spill file(s)", deletedFiles);
+        }
+    }
+
+    private void writeToFile(BinaryTempFileBody tempBody, byte[] prefix, int prefixLength, InputStream inputStream)
+            throws IOException {
+        OutputStream outputStream = tempBody.getOutputStream();
+        File file = tempBody.getFile();
+        synchronized (this) {
+            spillFiles.add(file);
+        }
+
+        boolean success = false;
+        try {
+            try {
+                if (prefix != null) {
+                    outputStream.write(prefix, 0, prefixLength);
+                }
+                IOUtils.copy(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+            success = true;
+        } finally {
+            if (!success && !file.delete()) {
+                Timber.w("Failed to delete incomplete spill file: %s", file.getName());
+            }
+        }
+    }
+}
@@ -45,6 +45,16 @@ public abstract class Store {
 
     public void sendMessages(List<? extends Message> messages) throws MessagingException { }
 
+    /**
+     * Opens a connection to the server, if necessary, so it's ready to be used by the next operation.
+     */
+    public void prewarmConnection() throws MessagingException { }
+
+    /**
+     * Releases the resources held by this store. Called when the store is no longer used.
+     */
+    public void close() { }
+
     public Pusher getPusher(PushReceiver receiver) {
         return null;
     }
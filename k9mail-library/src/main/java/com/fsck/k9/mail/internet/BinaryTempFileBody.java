@@ -26,6 +26,7 @@ import timber.log.Timber;
 public class BinaryTempFileBody implements RawDataBody, SizeAware {
     private static File mTempDirectory;
 
+    private final File mDirectory;
     private File mFile;
 
     String mEncoding = null;
@@ -54,7 +55,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         }
 
         try {
-            File newFile = File.createTempFile("body", null, mTempDirectory);
+            File newFile = File.createTempFile("body", null, mDirectory);
             final OutputStream out = new FileOutputStream(newFile);
             try {
                 OutputStream wrappedOut;
@@ -89,11 +90,28 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
             throw new RuntimeException("setTempDirectory has not been called on BinaryTempFileBody!");
         }
 
+        mDirectory = mTempDirectory;
+        mEncoding = encoding;
+    }
+
+    /**
+     * Creates a body whose backing file is created in {@code directory} instead of the global temp directory.
+     * <p>
+     * Use this when the body is going to end up in a known location, e.g. the attachment directory of a local store.
+     * Creating the file on the same file system allows the file to be moved into place by renaming it instead of
+     * copying its contents.
+     */
+    public BinaryTempFileBody(String encoding, File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+
+        mDirectory = directory;
         mEncoding = encoding;
     }
 
     public OutputStream getOutputStream() throws IOException {
-        mFile = File.createTempFile("body", null, mTempDirectory);
+        mFile = File.createTempFile("body", null, mDirectory);
         mFile.deleteOnExit();
         return new FileOutputStream(mFile);
     }
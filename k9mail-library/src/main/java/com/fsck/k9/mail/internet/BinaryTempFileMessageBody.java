@@ -1,6 +1,8 @@
 package com.fsck.k9.mail.internet;
 
 
+import java.io.File;
+
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.MessagingException;
 import org.apache.james.mime4j.util.MimeUtil;
@@ -14,6 +16,10 @@ public class BinaryTempFileMessageBody extends BinaryTempFileBody implements Bod
         super(encoding);
     }
 
+    public BinaryTempFileMessageBody(String encoding, File directory) {
+        super(encoding, directory);
+    }
+
     @Override
     public void setEncoding(String encoding) throws MessagingException {
         if (!MimeUtil.ENC_7BIT.equalsIgnoreCase(encoding)
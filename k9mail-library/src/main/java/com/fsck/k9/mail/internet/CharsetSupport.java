@@ -7,11 +7,14 @@ import com.fsck.k9.mail.Part;
 import org.apache.commons.io.IOUtils;
 import timber.log.Timber;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.fsck.k9.mail.internet.JisSupport.SHIFT_JIS;
 
@@ -29,6 +32,13 @@ public class CharsetSupport {
             {".*", "US-ASCII"}
     };
 
+    /**
+     * The charsets looked up by {@link #getSupportedCharset(String)}, keyed by the requested name. The names come
+     * from messages, so the number of entries is limited.
+     */
+    private static final ConcurrentMap<String, Charset> SUPPORTED_CHARSETS = new ConcurrentHashMap<>();
+    private static final int MAX_SUPPORTED_CHARSETS = 64;
+
 
     public static void setCharset(String charset, Part part) throws MessagingException {
         part.setHeader(MimeHeader.HEADER_CONTENT_TYPE,
@@ -92,6 +102,75 @@ public class CharsetSupport {
             charset = SHIFT_JIS;
         }
 
+        /*
+         * Convert and return as new String
+         */
+        String str = IOUtils.toString(in, getSupportedCharset(charset));
+
+        if (isIphoneString)
+            str = importStringFromIphone(str);
+        return str;
+    }
+
+    /**
+     * Decodes {@code bytes} the same way {@link #readToString(InputStream, String)} does, without the overhead of
+     * reading from a stream. Input that only consists of 7-bit characters is copied directly if the charset is a
+     * superset of US-ASCII.
+     */
+    static String decodeToString(byte[] bytes, String charset) throws IOException {
+        if (charset.startsWith("x-")) {
+            // JIS variants might need to be converted while reading
+            return readToString(new ByteArrayInputStream(bytes), charset);
+        }
+
+        Charset supportedCharset = getSupportedCharset(charset);
+        if (isAsciiCompatible(supportedCharset)) {
+            String ascii = asciiToString(bytes);
+            if (ascii != null) {
+                return ascii;
+            }
+        }
+
+        return new String(bytes, supportedCharset);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return name.equals("US-ASCII") || name.equals("UTF-8") || name.startsWith("ISO-8859-") ||
+                name.startsWith("windows-125") || name.startsWith("KOI8-");
+    }
+
+    /**
+     * Returns the string for {@code bytes} if they only contain 7-bit characters, {@code null} otherwise.
+     */
+    private static String asciiToString(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                return null;
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the charset to decode text in the MIME charset {@code charset} with. Unsupported charsets are replaced
+     * according to {@link #CHARSET_FALLBACK_MAP}.
+     */
+    static Charset getSupportedCharset(String charset) {
+        Charset supportedCharset = SUPPORTED_CHARSETS.get(charset);
+        if (supportedCharset == null) {
+            supportedCharset = Charset.forName(findSupportedCharsetName(charset));
+            if (SUPPORTED_CHARSETS.size() < MAX_SUPPORTED_CHARSETS) {
+                SUPPORTED_CHARSETS.put(charset, supportedCharset);
+            }
+        }
+        return supportedCharset;
+    }
+
+    private static String findSupportedCharsetName(String charset) {
         /*
          * See if there is conversion from the MIME charset to the Java one.
          * this function may also throw an exception if the charset name is not known
@@ -119,14 +198,7 @@ public class CharsetSupport {
             }
         }
 
-        /*
-         * Convert and return as new String
-         */
-        String str = IOUtils.toString(in, charset);
-
-        if (isIphoneString)
-            str = importStringFromIphone(str);
-        return str;
+        return charset;
     }
 
     private static String importStringFromIphone(String str) {
@@ -7,6 +7,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.codec.Base64InputStream;
 import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.CharsetUtil;
@@ -21,6 +22,8 @@ import timber.log.Timber;
  * it has to be determined with the sender address, the mailer and so on.
  */
 class DecoderUtil {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
     /**
      * Decodes an encoded word encoded with the 'B' encoding (described in
      * RFC 2047) found in a header field body.
@@ -30,11 +33,11 @@ class DecoderUtil {
      * @return the decoded string.
      */
     private static String decodeB(String encodedWord, String charset) {
-        byte[] bytes = encodedWord.getBytes(Charset.forName("US-ASCII"));
+        byte[] bytes = encodedWord.getBytes(US_ASCII);
 
         Base64InputStream is = new Base64InputStream(new ByteArrayInputStream(bytes));
         try {
-            return CharsetSupport.readToString(is, charset);
+            return CharsetSupport.decodeToString(IOUtils.toByteArray(is), charset);
         } catch (IOException e) {
             return null;
         }
@@ -50,10 +53,20 @@ class DecoderUtil {
      */
     private static String decodeQ(String encodedWord, String charset) {
 
+        if (encodedWord.indexOf('=') == -1) {
+            // Nothing to decode except for the underscores representing spaces
+            byte[] bytes = encodedWord.replace('_', ' ').getBytes(US_ASCII);
+            try {
+                return CharsetSupport.decodeToString(bytes, charset);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
         /*
          * Replace _ with =20
          */
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(encodedWord.length() + 16);
         for (int i = 0; i < encodedWord.length(); i++) {
             char c = encodedWord.charAt(i);
             if (c == '_') {
@@ -63,11 +76,11 @@ class DecoderUtil {
             }
         }
 
-        byte[] bytes = sb.toString().getBytes(Charset.forName("US-ASCII"));
+        byte[] bytes = sb.toString().getBytes(US_ASCII);
 
         QuotedPrintableInputStream is = new QuotedPrintableInputStream(new ByteArrayInputStream(bytes));
         try {
-            return CharsetSupport.readToString(is, charset);
+            return CharsetSupport.decodeToString(IOUtils.toByteArray(is), charset);
         } catch (IOException e) {
             return null;
         }
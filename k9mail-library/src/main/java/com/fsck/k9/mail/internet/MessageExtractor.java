@@ -20,6 +20,7 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.Viewable.Flowed;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
 import timber.log.Timber;
 
@@ -115,6 +116,28 @@ public class MessageExtractor {
         }
     }
 
+    /**
+     * Returns the number of bytes of the decoded body of a part, or {@code limit + 1} if the decoded body is larger
+     * than {@code limit} bytes.
+     * <p>
+     * At most {@code limit + 1} bytes of the body are decoded.
+     */
+    public static long getDecodedBodySize(Part part, long limit) throws IOException, MessagingException {
+        Body body = part.getBody();
+        if (body == null) {
+            return 0;
+        }
+
+        InputStream in = MimeUtility.decodeBody(body);
+        try {
+            return IOUtils.skip(in, limit + 1);
+        } finally {
+            try {
+                MimeUtility.closeInputStreamWithoutDeletingTemporaryFiles(in);
+            } catch (IOException e) { /* Ignore */ }
+        }
+    }
+
     public static boolean hasMissingParts(Part part) {
         Body body = part.getBody();
         if (body == null) {
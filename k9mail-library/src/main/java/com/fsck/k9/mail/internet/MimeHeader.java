@@ -18,28 +18,43 @@ public class MimeHeader implements Cloneable {
     public static final String HEADER_CONTENT_ID = "Content-ID";
 
     private List<Field> mFields = new ArrayList<Field>();
+    /** The fields of {@link #mFields} grouped by lower case name, so lookups don't have to scan all fields */
+    private Map<String, List<Field>> mFieldsByName = new HashMap<String, List<Field>>();
     private String mCharset = null;
 
     public void clear() {
         mFields.clear();
+        mFieldsByName.clear();
     }
 
     public String getFirstHeader(String name) {
-        String[] header = getHeader(name);
-        if (header.length == 0) {
+        List<Field> fields = mFieldsByName.get(toKey(name));
+        if (fields == null) {
             return null;
         }
-        return header[0];
+        return fields.get(0).getValue();
     }
 
     public void addHeader(String name, String value) {
         Field field = Field.newNameValueField(name, MimeUtility.foldAndEncode(value));
-        mFields.add(field);
+        addField(field);
     }
 
     void addRawHeader(String name, String raw) {
         Field field = Field.newRawField(name, raw);
+        addField(field);
+    }
+
+    private void addField(Field field) {
         mFields.add(field);
+
+        String key = toKey(field.getName());
+        List<Field> fields = mFieldsByName.get(key);
+        if (fields == null) {
+            fields = new ArrayList<Field>(1);
+            mFieldsByName.put(key, fields);
+        }
+        fields.add(field);
     }
 
     public void setHeader(String name, String value) {
@@ -61,23 +76,33 @@ public class MimeHeader implements Cloneable {
 
     @NonNull
     public String[] getHeader(String name) {
-        List<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                values.add(field.getValue());
-            }
+        List<Field> fields = mFieldsByName.get(toKey(name));
+        if (fields == null) {
+            return new String[0];
+        }
+
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).getValue();
         }
-        return values.toArray(new String[values.size()]);
+        return values;
     }
 
     public void removeHeader(String name) {
-        List<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                removeFields.add(field);
-            }
+        List<Field> removeFields = mFieldsByName.remove(toKey(name));
+        if (removeFields == null) {
+            return;
+        }
+
+        if (removeFields.size() == 1) {
+            mFields.remove(removeFields.get(0));
+        } else {
+            mFields.removeAll(removeFields);
         }
-        mFields.removeAll(removeFields);
+    }
+
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.US);
     }
 
     public String toString() {
@@ -224,6 +249,10 @@ public class MimeHeader implements Cloneable {
         try {
             MimeHeader header = (MimeHeader) super.clone();
             header.mFields = new ArrayList<Field>(mFields);
+            header.mFieldsByName = new HashMap<String, List<Field>>(mFieldsByName.size());
+            for (Map.Entry<String, List<Field>> entry : mFieldsByName.entrySet()) {
+                header.mFieldsByName.put(entry.getKey(), new ArrayList<Field>(entry.getValue()));
+            }
             return header;
         } catch(CloneNotSupportedException e) {
             throw new AssertionError(e);
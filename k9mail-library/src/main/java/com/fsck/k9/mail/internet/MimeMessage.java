@@ -26,6 +26,8 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.dom.field.DateTimeField;
@@ -43,6 +45,9 @@ import org.apache.james.mime4j.stream.MimeConfig;
  * RFC 2045 style headers.
  */
 public class MimeMessage extends Message {
+    // Includes the time spent reading from the input stream, i.e. the network when streaming a FETCH response
+    private static final Histogram PARSE_TIME = Metrics.histogram("mime.parse_us");
+
     private MimeHeader mHeader = new MimeHeader();
     protected Address[] mFrom;
     protected Address[] mSender;
@@ -61,6 +66,11 @@ public class MimeMessage extends Message {
     private Date mSentDate;
     private SimpleDateFormat mDateFormat;
 
+    // Decoded header values, cleared whenever a header changes (decoding may depend on other headers, see JisSupport)
+    private String mSubject;
+    private String mContentType;
+    private String mMimeType;
+
     private Body mBody;
     protected int mSize;
     private String serverExtra;
@@ -68,7 +78,7 @@ public class MimeMessage extends Message {
 
     public static MimeMessage parseMimeMessage(InputStream in, boolean recurse) throws IOException, MessagingException {
         MimeMessage mimeMessage = new MimeMessage();
-        mimeMessage.parse(in, recurse);
+        mimeMessage.parse(in, recurse, new DefaultBodyFactory());
         return mimeMessage;
     }
 
@@ -80,11 +90,22 @@ public class MimeMessage extends Message {
      * Does not recurse through nested bodyparts.
      */
     public final void parse(InputStream in) throws IOException, MessagingException {
-        parse(in, false);
+        parse(in, false, new DefaultBodyFactory());
+    }
+
+    /**
+     * Parse the given InputStream using Apache Mime4J to build a MimeMessage.
+     * Does not recurse through nested bodyparts. The bodies of leaf parts are created by {@code bodyFactory} while the
+     * data is streamed from {@code in}.
+     */
+    public final void parse(InputStream in, BodyFactory bodyFactory) throws IOException, MessagingException {
+        parse(in, false, bodyFactory);
     }
 
-    private void parse(InputStream in, boolean recurse) throws IOException, MessagingException {
+    private void parse(InputStream in, boolean recurse, BodyFactory bodyFactory)
+            throws IOException, MessagingException {
         mHeader.clear();
+        clearDecodedHeaders();
         mFrom = null;
         mTo = null;
         mCc = null;
@@ -108,14 +129,17 @@ public class MimeMessage extends Message {
         // REALLY long References: headers
         parserConfig.setMaxHeaderCount(-1); // Disable the check for header count.
         MimeStreamParser parser = new MimeStreamParser(parserConfig);
-        parser.setContentHandler(new MimeMessageBuilder(new DefaultBodyFactory()));
+        parser.setContentHandler(new MimeMessageBuilder(bodyFactory));
         if (recurse) {
             parser.setRecurse();
         }
+        long startTime = Metrics.startTimer();
         try {
             parser.parse(new EOLConvertingInputStream(in));
         } catch (MimeException me) {
             throw new MessagingException(me.getMessage(), me);
+        } finally {
+            PARSE_TIME.recordElapsed(startTime);
         }
     }
 
@@ -166,8 +190,11 @@ public class MimeMessage extends Message {
 
     @Override
     public String getContentType() {
-        String contentType = getFirstHeader(MimeHeader.HEADER_CONTENT_TYPE);
-        return (contentType == null) ? "text/plain" : MimeUtility.unfoldAndDecode(contentType);
+        if (mContentType == null) {
+            String contentType = getFirstHeader(MimeHeader.HEADER_CONTENT_TYPE);
+            mContentType = (contentType == null) ? "text/plain" : MimeUtility.unfoldAndDecode(contentType);
+        }
+        return mContentType;
     }
 
     @Override
@@ -182,7 +209,10 @@ public class MimeMessage extends Message {
 
     @Override
     public String getMimeType() {
-        return MimeUtility.getHeaderParameter(getContentType(), null);
+        if (mMimeType == null) {
+            mMimeType = MimeUtility.getHeaderParameter(getContentType(), null);
+        }
+        return mMimeType;
     }
 
     @Override
@@ -303,7 +333,10 @@ public class MimeMessage extends Message {
      */
     @Override
     public String getSubject() {
-        return MimeUtility.unfoldAndDecode(getFirstHeader("Subject"), this);
+        if (mSubject == null) {
+            mSubject = MimeUtility.unfoldAndDecode(getFirstHeader("Subject"), this);
+        }
+        return mSubject;
     }
 
     @Override
@@ -337,7 +370,10 @@ public class MimeMessage extends Message {
 
     @Override
     public Address[] getSender() {
-        return Address.parse(MimeUtility.unfold(getFirstHeader("Sender")));
+        if (mSender == null) {
+            mSender = Address.parse(MimeUtility.unfold(getFirstHeader("Sender")));
+        }
+        return mSender;
     }
 
     @Override
@@ -451,16 +487,19 @@ public class MimeMessage extends Message {
     @Override
     public void addHeader(String name, String value) {
         mHeader.addHeader(name, value);
+        clearDecodedHeaders();
     }
 
     @Override
     public void addRawHeader(String name, String raw) {
         mHeader.addRawHeader(name, raw);
+        clearDecodedHeaders();
     }
 
     @Override
     public void setHeader(String name, String value) {
         mHeader.setHeader(name, value);
+        clearDecodedHeaders();
     }
 
     @NonNull
@@ -472,6 +511,14 @@ public class MimeMessage extends Message {
     @Override
     public void removeHeader(String name) {
         mHeader.removeHeader(name);
+        clearDecodedHeaders();
+    }
+
+    private void clearDecodedHeaders() {
+        mSubject = null;
+        mSender = null;
+        mContentType = null;
+        mMimeType = null;
     }
 
     @Override
@@ -668,6 +715,11 @@ public class MimeMessage extends Message {
         destination.mDateFormat = mDateFormat;
         destination.mSize = mSize;
 
+        destination.mSubject = mSubject;
+        destination.mSender = mSender;
+        destination.mContentType = mContentType;
+        destination.mMimeType = mMimeType;
+
         // These arrays are not supposed to be modified, so it's okay to reuse the references
         destination.mFrom = mFrom;
         destination.mTo = mTo;
@@ -0,0 +1,38 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A monotonically increasing count, e.g. the number of bytes received from a server.
+ */
+public class Counter {
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    void reset() {
+        value.set(0);
+    }
+}
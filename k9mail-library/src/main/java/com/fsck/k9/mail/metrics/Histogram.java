@@ -0,0 +1,90 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Records the distribution of non-negative values, e.g. durations or queue lengths.
+ * <p>
+ * Values are sorted into buckets with power-of-two upper bounds. This keeps recording lock-free and allocation-free,
+ * and is precise enough to tell whether a phase takes microseconds, milliseconds, or seconds.
+ * <p>
+ * Timers record durations in microseconds. Use {@link Metrics#startTimer()} to get a start time and pass it to
+ * {@link #recordElapsed(long)} when done.
+ */
+public class Histogram {
+    private static final int BUCKET_COUNT = 64;
+
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    Histogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (value > currentMax && !max.compareAndSet(currentMax, value));
+    }
+
+    /**
+     * Records the time in microseconds that has passed since {@code startNanos}.
+     *
+     * @param startNanos
+     *         The value returned by {@link Metrics#startTimer()}.
+     */
+    public void recordElapsed(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    HistogramSnapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = buckets.get(i);
+        }
+
+        return new HistogramSnapshot(name, count.get(), sum.get(), max.get(), bucketCounts);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the index of the bucket for {@code value}. Bucket {@code i} holds values up to {@code 2^i - 1}.
+     */
+    static int bucketIndex(long value) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    static long bucketUpperBound(int index) {
+        return (index >= 63) ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+}
@@ -0,0 +1,70 @@
+package com.fsck.k9.mail.metrics;
+
+
+/**
+ * Immutable copy of the state of a {@link Histogram}.
+ */
+public class HistogramSnapshot {
+    private final String name;
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final long[] buckets;
+
+
+    HistogramSnapshot(String name, long count, long sum, long max, long[] buckets) {
+        this.name = name;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return (count == 0) ? 0 : sum / count;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile.
+     *
+     * @param percentile
+     *         A value between 0 and 100.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= threshold) {
+                return Math.min(Histogram.bucketUpperBound(i), max);
+            }
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,47 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Adds the number of bytes read from the wrapped stream to a {@link Counter}.
+ */
+public class MeteredInputStream extends FilterInputStream {
+    private final Counter counter;
+
+
+    public MeteredInputStream(InputStream in, Counter counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int data = super.read();
+        if (data != -1) {
+            counter.increment();
+        }
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count > 0) {
+            counter.add(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        if (skipped > 0) {
+            counter.add(skipped);
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Adds the number of bytes written to the wrapped stream to a {@link Counter}.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+    private final Counter counter;
+
+
+    public MeteredOutputStream(OutputStream out, Counter counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        counter.increment();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        counter.add(length);
+    }
+}
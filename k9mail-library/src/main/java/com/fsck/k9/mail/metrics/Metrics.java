@@ -0,0 +1,80 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Process-wide registry of counters and histograms used to instrument network, parsing, and storage code.
+ * <p>
+ * Metric names use dots to separate the component from the measured quantity. Histograms recording durations end in
+ * {@code _us} (microseconds), e.g. {@code imap.command_rtt_us}.
+ * <p>
+ * Metrics are cheap enough to be always on. Use {@link #snapshot()} to export the current values. In debug mode a
+ * snapshot is logged after each mail check.
+ */
+public class Metrics {
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter(name);
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram(name);
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns a start time to be passed to {@link Histogram#recordElapsed(long)}.
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            counterValues.put(counter.getName(), counter.get());
+        }
+
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Histogram histogram : histograms.values()) {
+            histogramValues.put(histogram.getName(), histogram.snapshot());
+        }
+
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, histogramValues);
+    }
+
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
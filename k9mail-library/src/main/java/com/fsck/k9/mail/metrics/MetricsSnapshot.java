@@ -0,0 +1,68 @@
+package com.fsck.k9.mail.metrics;
+
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Immutable copy of all metrics at a point in time.
+ */
+public class MetricsSnapshot {
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+
+    MetricsSnapshot(long timestamp, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.timestamp = timestamp;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Writes a human-readable representation of this snapshot, one metric per line.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(String.format(Locale.US, "# metrics snapshot at %d\n", timestamp));
+
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            writer.write(String.format(Locale.US, "%s count=%d\n", entry.getKey(), entry.getValue()));
+        }
+
+        for (HistogramSnapshot histogram : histograms.values()) {
+            writer.write(String.format(Locale.US, "%s count=%d mean=%d p50=%d p95=%d p99=%d max=%d\n",
+                    histogram.getName(), histogram.getCount(), histogram.getMean(), histogram.getPercentile(50),
+                    histogram.getPercentile(95), histogram.getPercentile(99), histogram.getMax()));
+        }
+
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toString();
+    }
+}
@@ -7,7 +7,9 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.net.SSLCertificateSocketFactory;
@@ -93,6 +95,19 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
             "SSLv3"
     };
 
+    /**
+     * {@link SSLContext} instances by host and port.
+     * <p>
+     * TLS sessions are cached per context, so using the same context for all connections to a server allows the
+     * session of a previous connection to be resumed instead of doing a full handshake. A resumed session skips the
+     * trust manager, so all contexts are dropped when the {@link LocalKeyStore} changes. Otherwise a session
+     * established with a certificate the user has removed could still be resumed. Contexts using a client certificate
+     * aren't cached, because {@link KeyChainKeyManager} retrieves the certificate only once and we want to notice when
+     * it has been removed.
+     */
+    private static final Map<String, SSLContext> SSL_CONTEXTS = new HashMap<String, SSLContext>();
+    private static int sslContextsKeyStoreVersion = -1;
+
     static {
         String[] enabledCiphers = null;
         String[] supportedProtocols = null;
@@ -181,14 +196,7 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
     public Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias)
             throws NoSuchAlgorithmException, KeyManagementException, MessagingException, IOException {
 
-        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(host, port) };
-        KeyManager[] keyManagers = null;
-        if (!TextUtils.isEmpty(clientCertificateAlias)) {
-            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
-        }
-
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(keyManagers, trustManagers, null);
+        SSLContext sslContext = getSslContext(host, port, clientCertificateAlias);
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
         Socket trustedSocket;
         if (socket == null) {
@@ -206,6 +214,46 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
         return trustedSocket;
     }
 
+    private SSLContext getSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+
+        if (!TextUtils.isEmpty(clientCertificateAlias)) {
+            return createSslContext(host, port, clientCertificateAlias);
+        }
+
+        String key = host + ":" + port;
+        synchronized (SSL_CONTEXTS) {
+            int keyStoreVersion = LocalKeyStore.getInstance().getVersion();
+            if (keyStoreVersion != sslContextsKeyStoreVersion) {
+                SSL_CONTEXTS.clear();
+                sslContextsKeyStoreVersion = keyStoreVersion;
+            }
+
+            SSLContext sslContext = SSL_CONTEXTS.get(key);
+            if (sslContext == null) {
+                sslContext = createSslContext(host, port, null);
+                SSL_CONTEXTS.put(key, sslContext);
+            }
+
+            return sslContext;
+        }
+    }
+
+    private SSLContext createSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+
+        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(host, port) };
+        KeyManager[] keyManagers = null;
+        if (!TextUtils.isEmpty(clientCertificateAlias)) {
+            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
+        }
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+
+        return sslContext;
+    }
+
     private static void hardenSocket(SSLSocket sock) {
         if (ENABLED_CIPHERS != null) {
             sock.setEnabledCipherSuites(ENABLED_CIPHERS);
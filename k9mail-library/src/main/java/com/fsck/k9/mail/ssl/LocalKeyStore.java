@@ -35,6 +35,7 @@ public class LocalKeyStore {
 
     private File mKeyStoreFile;
     private KeyStore mKeyStore;
+    private volatile int mVersion = 0;
 
 
     private LocalKeyStore() {
@@ -98,9 +99,17 @@ public class LocalKeyStore {
             mKeyStoreFile = null;
         } finally {
             IOUtils.closeQuietly(fis);
+            mVersion++;
         }
     }
 
+    /**
+     * Returns a number that changes whenever certificates are added to or removed from the key store.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
     public synchronized void addCertificate(String host, int port,
             X509Certificate certificate) throws CertificateException {
         if (mKeyStore == null) {
@@ -112,6 +121,8 @@ public class LocalKeyStore {
         } catch (KeyStoreException e) {
             throw new CertificateException(
                     "Failed to add certificate to local key store", e);
+        } finally {
+            mVersion++;
         }
         writeCertificateFile();
     }
@@ -170,6 +181,8 @@ public class LocalKeyStore {
             // Ignore: most likely there was no cert. found
         } catch (CertificateException e) {
             Timber.e(e, "Error updating the local key store file");
+        } finally {
+            mVersion++;
         }
     }
 
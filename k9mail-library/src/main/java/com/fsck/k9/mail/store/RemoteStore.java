@@ -86,7 +86,15 @@ public abstract class RemoteStore extends Store {
             throw new RuntimeException("Asked to get non-local Store object but given " +
                     "LocalStore URI");
         }
-        sStores.remove(uri);
+
+        Store store;
+        synchronized (RemoteStore.class) {
+            store = sStores.remove(uri);
+        }
+
+        if (store != null) {
+            store.close();
+        }
     }
 
     /**
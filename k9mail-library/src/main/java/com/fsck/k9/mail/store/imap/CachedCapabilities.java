@@ -0,0 +1,33 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * The capabilities a server reported after authentication, together with the capabilities it advertised before.
+ * <p>
+ * A new connection can use the post-authentication capabilities instead of sending another CAPABILITY command as long
+ * as the server still advertises the same capabilities before authentication. If those have changed, the server was
+ * most likely upgraded or replaced, and everything we know about it has to be retrieved again.
+ */
+class CachedCapabilities {
+    private final Set<String> preAuthCapabilities;
+    private final Set<String> postAuthCapabilities;
+
+
+    CachedCapabilities(Set<String> preAuthCapabilities, Set<String> postAuthCapabilities) {
+        this.preAuthCapabilities = Collections.unmodifiableSet(new HashSet<String>(preAuthCapabilities));
+        this.postAuthCapabilities = Collections.unmodifiableSet(new HashSet<String>(postAuthCapabilities));
+    }
+
+    boolean isValidFor(Set<String> preAuthCapabilities) {
+        return this.preAuthCapabilities.equals(preAuthCapabilities);
+    }
+
+    Set<String> getPostAuthCapabilities() {
+        return postAuthCapabilities;
+    }
+}
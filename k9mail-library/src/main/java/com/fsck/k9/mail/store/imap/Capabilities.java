@@ -13,4 +13,5 @@ class Capabilities {
     public static final String COMPRESS_DEFLATE = "COMPRESS=DEFLATE";
     public static final String STARTTLS = "STARTTLS";
     public static final String SPECIAL_USE = "SPECIAL-USE";
+    public static final String ESEARCH = "ESEARCH";
 }
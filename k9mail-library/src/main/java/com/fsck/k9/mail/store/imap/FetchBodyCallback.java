@@ -4,6 +4,7 @@ package com.fsck.k9.mail.store.imap;
 import java.io.IOException;
 import java.util.Map;
 
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
@@ -11,9 +12,11 @@ import com.fsck.k9.mail.filter.FixedLengthInputStream;
 
 class FetchBodyCallback implements ImapResponseCallback {
     private Map<String, Message> mMessageMap;
+    private final BodyFactory bodyFactory;
 
-    FetchBodyCallback(Map<String, Message> messageMap) {
+    FetchBodyCallback(Map<String, Message> messageMap, BodyFactory bodyFactory) {
         mMessageMap = messageMap;
+        this.bodyFactory = bodyFactory;
     }
 
     @Override
@@ -25,7 +28,12 @@ class FetchBodyCallback implements ImapResponseCallback {
             String uid = fetchList.getKeyedString("UID");
 
             ImapMessage message = (ImapMessage) mMessageMap.get(uid);
-            message.parse(literal);
+            if (message == null) {
+                // UID not seen yet; let the parser read the literal and handle it in ImapFolder.fetch()
+                return null;
+            }
+
+            message.parse(literal, bodyFactory);
 
             // Return placeholder object
             return 1;
@@ -23,8 +23,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.regex.Pattern;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -38,11 +36,15 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.filter.PeekableInputStream;
+import com.fsck.k9.mail.metrics.Counter;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.MeteredInputStream;
+import com.fsck.k9.mail.metrics.MeteredOutputStream;
+import com.fsck.k9.mail.metrics.Metrics;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.jcraft.jzlib.JZlib;
-import com.jcraft.jzlib.ZOutputStream;
 import javax.net.ssl.SSLException;
 import org.apache.commons.io.IOUtils;
 import timber.log.Timber;
@@ -58,7 +60,23 @@ import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
  * A cacheable class that stores the details for a single IMAP connection.
  */
 class ImapConnection {
-    private static final int BUFFER_SIZE = 1024;
+    /**
+     * Stream buffer sizes. Mobile connections use smaller buffers to save memory, because the amount of data they
+     * transfer is usually limited by the network rather than by the number of reads and writes.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MOBILE_BUFFER_SIZE = 4 * 1024;
+
+    private static final Histogram CONNECT_TIME = Metrics.histogram("imap.connect_us");
+    private static final Histogram COMMAND_RTT = Metrics.histogram("imap.command_rtt_us");
+    private static final Counter BYTES_IN = Metrics.counter("imap.bytes_in");
+    private static final Counter BYTES_OUT = Metrics.counter("imap.bytes_out");
+    private static final Counter COMPRESSED_BYTES_IN = Metrics.counter("imap.compress.wire_bytes_in");
+    private static final Counter COMPRESSED_BYTES_OUT = Metrics.counter("imap.compress.wire_bytes_out");
+    private static final Counter UNCOMPRESSED_BYTES_IN = Metrics.counter("imap.compress.bytes_in");
+    private static final Counter UNCOMPRESSED_BYTES_OUT = Metrics.counter("imap.compress.bytes_out");
+    private static final Counter INFLATE_CPU_TIME = Metrics.counter("imap.compress.inflate_cpu_ns");
+    private static final Counter DEFLATE_CPU_TIME = Metrics.counter("imap.compress.deflate_cpu_ns");
 
 
     private final ConnectivityManager connectivityManager;
@@ -74,9 +92,11 @@ class ImapConnection {
     private int nextCommandTag;
     private Set<String> capabilities = new HashSet<String>();
     private ImapSettings settings;
+    private NetworkType networkType;
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private volatile long lastActivityTime = System.nanoTime();
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -111,8 +131,10 @@ class ImapConnection {
         open = true;
         boolean authSuccess = false;
         nextCommandTag = 1;
+        long startTime = Metrics.startTimer();
 
         adjustDNSCacheTTL();
+        networkType = getNetworkType();
 
         try {
             socket = connect();
@@ -123,17 +145,19 @@ class ImapConnection {
             requestCapabilitiesIfNecessary();
 
             upgradeToTlsIfNecessary();
+            Set<String> preAuthCapabilities = capabilities;
 
             List<ImapResponse> responses = authenticate();
             authSuccess = true;
 
-            extractOrRequestCapabilities(responses);
+            extractOrRequestCapabilities(responses, preAuthCapabilities);
 
             enableCompressionIfRequested();
 
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
 
+            CONNECT_TIME.recordElapsed(startTime);
         } catch (SSLException e) {
             handleSslException(e);
         } catch (ConnectException e) {
@@ -173,6 +197,20 @@ class ImapConnection {
                 socket.isConnected() && !socket.isClosed();
     }
 
+    /**
+     * Returns {@code true} once {@link #close()} has been called. A closed connection can't be opened again.
+     */
+    boolean isClosed() {
+        return stacktraceForClose != null;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the last command sent or response read on this connection.
+     */
+    long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
     private void adjustDNSCacheTTL() {
         try {
             Security.setProperty("networkaddress.cache.ttl", "0");
@@ -233,13 +271,26 @@ class ImapConnection {
     }
 
     private void setUpStreamsAndParserFromSocket() throws IOException {
-        setUpStreamsAndParser(socket.getInputStream(), socket.getOutputStream());
+        setUpStreamsAndParser(getSocketInputStream(), getSocketOutputStream());
+    }
+
+    private InputStream getSocketInputStream() throws IOException {
+        return new MeteredInputStream(socket.getInputStream(), BYTES_IN);
+    }
+
+    private OutputStream getSocketOutputStream() throws IOException {
+        return new MeteredOutputStream(socket.getOutputStream(), BYTES_OUT);
     }
 
     private void setUpStreamsAndParser(InputStream input, OutputStream output) {
-        inputStream = new PeekableInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        int bufferSize = getBufferSize();
+        inputStream = new PeekableInputStream(new BufferedInputStream(input, bufferSize));
         responseParser = new ImapResponseParser(inputStream);
-        outputStream = new BufferedOutputStream(output, BUFFER_SIZE);
+        outputStream = new BufferedOutputStream(output, bufferSize);
+    }
+
+    private int getBufferSize() {
+        return (networkType == NetworkType.MOBILE) ? MOBILE_BUFFER_SIZE : BUFFER_SIZE;
     }
 
     private void readInitialResponse() throws IOException {
@@ -262,18 +313,34 @@ class ImapConnection {
         return responses;
     }
 
-    private List<ImapResponse> extractOrRequestCapabilities(List<ImapResponse> responses)
-            throws IOException, MessagingException {
+    private List<ImapResponse> extractOrRequestCapabilities(List<ImapResponse> responses,
+            Set<String> preAuthCapabilities) throws IOException, MessagingException {
+        CachedCapabilities cachedCapabilities = settings.getCachedCapabilities();
+        boolean cacheValid = cachedCapabilities != null && cachedCapabilities.isValidFor(preAuthCapabilities);
+
         CapabilityResponse capabilityResponse = CapabilityResponse.parse(responses);
         if (capabilityResponse != null) {
             Set<String> receivedCapabilities = capabilityResponse.getCapabilities();
             Timber.d("Saving %s capabilities for %s", receivedCapabilities, getLogId());
             capabilities = receivedCapabilities;
+        } else if (cacheValid) {
+            Timber.d("Using cached post-auth capabilities for %s", getLogId());
+            capabilities = cachedCapabilities.getPostAuthCapabilities();
         } else {
             Timber.i("Did not get capabilities in post-auth banner, requesting CAPABILITY for %s", getLogId());
             requestCapabilities();
         }
 
+        if (cachedCapabilities != null && !cacheValid) {
+            Timber.i("Server capabilities changed, retrieving path delimiter again for %s", getLogId());
+            settings.setPathDelimiter(null);
+            settings.setCombinedPrefix(null);
+        }
+
+        if (!cacheValid || capabilityResponse != null) {
+            settings.setCachedCapabilities(new CachedCapabilities(preAuthCapabilities, capabilities));
+        }
+
         return responses;
     }
 
@@ -556,17 +623,24 @@ class ImapConnection {
         }
     }
 
+    private NetworkType getNetworkType() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return null;
+        }
+
+        int type = networkInfo.getType();
+        if (K9MailLib.isDebug()) {
+            Timber.d("On network type %s", type);
+        }
+
+        return NetworkType.fromConnectivityManagerType(type);
+    }
+
     private boolean shouldEnableCompression() {
         boolean useCompression = true;
 
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null) {
-            int type = networkInfo.getType();
-            if (K9MailLib.isDebug()) {
-                Timber.d("On network type %s", type);
-            }
-
-            NetworkType networkType = NetworkType.fromConnectivityManagerType(type);
+        if (networkType != null) {
             useCompression = settings.useCompression(networkType);
         }
 
@@ -586,11 +660,19 @@ class ImapConnection {
         }
 
         try {
-            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
-            ZOutputStream output = new ZOutputStream(socket.getOutputStream(), JZlib.Z_BEST_SPEED, true);
-            output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
+            int bufferSize = getBufferSize();
 
-            setUpStreamsAndParser(input, output);
+            InputStream compressedInput = new MeteredInputStream(getSocketInputStream(), COMPRESSED_BYTES_IN);
+            InputStream input = new ImapInflaterInputStream(compressedInput, bufferSize, INFLATE_CPU_TIME);
+
+            // Collect the compressed output so it isn't written to the socket in many small pieces
+            OutputStream compressedOutput = new BufferedOutputStream(
+                    new MeteredOutputStream(getSocketOutputStream(), COMPRESSED_BYTES_OUT), bufferSize);
+            OutputStream output = new ImapDeflaterOutputStream(compressedOutput, getCompressionLevel(), bufferSize,
+                    DEFLATE_CPU_TIME);
+
+            setUpStreamsAndParser(new MeteredInputStream(input, UNCOMPRESSED_BYTES_IN),
+                    new MeteredOutputStream(output, UNCOMPRESSED_BYTES_OUT));
 
             if (K9MailLib.isDebug()) {
                 Timber.i("Compression enabled for %s", getLogId());
@@ -601,6 +683,13 @@ class ImapConnection {
         }
     }
 
+    /**
+     * Spend more CPU time on compressing data when the network is slow.
+     */
+    private int getCompressionLevel() {
+        return (networkType == NetworkType.MOBILE) ? JZlib.Z_DEFAULT_COMPRESSION : JZlib.Z_BEST_SPEED;
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
         if (settings.getPathPrefix() != null) {
             return;
@@ -724,10 +813,13 @@ class ImapConnection {
             commandToLog = "*sensitive*";
         }
 
+        long startTime = Metrics.startTimer();
         String tag = sendCommand(command, sensitive);
 
         try {
-            return responseParser.readStatusResponse(tag, commandToLog, getLogId(), null);
+            List<ImapResponse> responses = responseParser.readStatusResponse(tag, commandToLog, getLogId(), null);
+            COMMAND_RTT.recordElapsed(startTime);
+            return responses;
         } catch (IOException e) {
             close();
             throw e;
@@ -744,6 +836,7 @@ class ImapConnection {
         try {
             open();
 
+            lastActivityTime = System.nanoTime();
             String tag = Integer.toString(nextCommandTag++);
             String commandToSend = tag + " " + command + " " + initialClientResponse + "\r\n";
             outputStream.write(commandToSend.getBytes());
@@ -768,6 +861,7 @@ class ImapConnection {
         try {
             open();
 
+            lastActivityTime = System.nanoTime();
             String tag = Integer.toString(nextCommandTag++);
             String commandToSend = tag + " " + command + "\r\n";
             outputStream.write(commandToSend.getBytes());
@@ -789,6 +883,7 @@ class ImapConnection {
     }
 
     public void sendContinuation(String continuation) throws IOException {
+        lastActivityTime = System.nanoTime();
         outputStream.write(continuation.getBytes());
         outputStream.write('\r');
         outputStream.write('\n');
@@ -806,6 +901,7 @@ class ImapConnection {
     public ImapResponse readResponse(ImapResponseCallback callback) throws IOException {
         try {
             ImapResponse response = responseParser.readResponse(callback);
+            lastActivityTime = System.nanoTime();
 
             if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
                 Timber.v("%s<<<%s", getLogId(), response);
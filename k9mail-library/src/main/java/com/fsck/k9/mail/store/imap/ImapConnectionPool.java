@@ -0,0 +1,352 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.metrics.Counter;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
+import timber.log.Timber;
+
+
+/**
+ * Keeps track of the connections of an {@link ImapStore}.
+ * <p>
+ * The number of connections that are checked out or idle never exceeds {@code maxConnections}, so we stay below the
+ * per-user connection limit most servers enforce. Threads that need a connection while the limit is reached wait in
+ * the order they arrived, for at most {@code waitTimeoutMillis}.
+ * <p>
+ * Idle connections are probed with NOOP before they're handed out. Connections that have been idle for longer than
+ * {@code idleTimeoutMillis} are closed the next time the pool is used, except for the {@code minIdleConnections} most
+ * recently used ones. Those are kept until {@code maxIdleTimeMillis}, which should be below the server's autologout
+ * timer.
+ * <p>
+ * A checked out connection that has been closed, or hasn't sent or received anything for {@code abandonTimeoutMillis},
+ * no longer takes up a slot. The latter is closed, since the server will have logged it out by then anyway.
+ * <p>
+ * Connections that aren't managed by the pool, like the ones used for push, reserve a slot with
+ * {@link #reserveSlot()}. At least one slot is always left for the pool, so the app can still synchronize when
+ * there are more pushing folders than connections.
+ */
+class ImapConnectionPool {
+    private static final Counter CHECKOUTS = Metrics.counter("imap.pool.checkouts");
+    private static final Counter CONNECTIONS_CREATED = Metrics.counter("imap.pool.created");
+    private static final Counter CONNECTIONS_EVICTED = Metrics.counter("imap.pool.evicted");
+    private static final Counter CONNECTIONS_ABANDONED = Metrics.counter("imap.pool.abandoned");
+    private static final Counter PROBE_FAILURES = Metrics.counter("imap.pool.probe_failures");
+    private static final Counter WAIT_TIMEOUTS = Metrics.counter("imap.pool.wait_timeouts");
+    private static final Histogram WAIT_TIME = Metrics.histogram("imap.pool.wait_us");
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxConnections;
+    private final int minIdleConnections;
+    private final long idleTimeoutNanos;
+    private final long maxIdleTimeNanos;
+    private final long waitTimeoutNanos;
+    private final long abandonTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition connectionAvailable = lock.newCondition();
+    private final Deque<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+    // Checked out connections, mapped to the time they were checked out
+    private final Map<ImapConnection, Long> activeConnections = new IdentityHashMap<ImapConnection, Long>();
+    private final List<ImapConnection> abandonedConnections = new ArrayList<ImapConnection>();
+    private int reservedSlots = 0;
+
+
+    ImapConnectionPool(ConnectionFactory connectionFactory, int maxConnections, int minIdleConnections,
+            long idleTimeoutMillis, long maxIdleTimeMillis, long waitTimeoutMillis, long abandonTimeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.maxConnections = maxConnections;
+        this.minIdleConnections = minIdleConnections;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.maxIdleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTimeMillis);
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        this.abandonTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(abandonTimeoutMillis);
+    }
+
+    /**
+     * Returns a connection that was found to be alive, or a new connection that hasn't been opened yet.
+     */
+    ImapConnection checkout() throws MessagingException {
+        CHECKOUTS.increment();
+
+        while (true) {
+            List<ImapConnection> evictedConnections = null;
+            IdleConnection idleConnection;
+            ImapConnection connection;
+            lock.lock();
+            try {
+                evictedConnections = removeExpiredIdleConnections();
+                waitForConnection();
+
+                idleConnection = idleConnections.pollFirst();
+                if (idleConnection != null) {
+                    connection = idleConnection.connection;
+                } else {
+                    connection = connectionFactory.createConnection();
+                    CONNECTIONS_CREATED.increment();
+                }
+
+                activeConnections.put(connection, System.nanoTime());
+            } finally {
+                List<ImapConnection> connectionsToClose = takeAbandonedConnections();
+                lock.unlock();
+                closeConnections(evictedConnections);
+                closeAbandonedConnections(connectionsToClose);
+            }
+
+            if (idleConnection == null) {
+                return connection;
+            }
+
+            try {
+                connection.executeSimpleCommand(Commands.NOOP);
+                return connection;
+            } catch (IOException | MessagingException e) {
+                PROBE_FAILURES.increment();
+                discard(connection);
+            }
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Connections that are no longer connected are dropped.
+     */
+    void release(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        List<ImapConnection> evictedConnections;
+        List<ImapConnection> connectionsToClose;
+        lock.lock();
+        try {
+            activeConnections.remove(connection);
+            if (connection.isConnected()) {
+                idleConnections.addFirst(new IdleConnection(connection, System.nanoTime()));
+            }
+
+            evictedConnections = removeExpiredIdleConnections();
+            connectionAvailable.signal();
+            connectionsToClose = takeAbandonedConnections();
+        } finally {
+            lock.unlock();
+        }
+
+        closeConnections(evictedConnections);
+        closeAbandonedConnections(connectionsToClose);
+    }
+
+    /**
+     * Closes a checked out connection that can't be used anymore and frees its slot.
+     */
+    void discard(ImapConnection connection) {
+        connection.close();
+
+        lock.lock();
+        try {
+            activeConnections.remove(connection);
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves a slot for a connection that is opened outside of the pool. Idle connections that exceed the lowered
+     * limit are closed.
+     */
+    void reserveSlot() {
+        List<ImapConnection> evictedConnections;
+        lock.lock();
+        try {
+            reservedSlots++;
+            evictedConnections = removeExpiredIdleConnections();
+        } finally {
+            lock.unlock();
+        }
+
+        closeConnections(evictedConnections);
+    }
+
+    /**
+     * Frees a slot reserved with {@link #reserveSlot()}.
+     */
+    void releaseSlot() {
+        lock.lock();
+        try {
+            reservedSlots--;
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getConnectionCount() {
+        lock.lock();
+        try {
+            return activeConnections.size() + idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void waitForConnection() throws MessagingException {
+        if (isConnectionAvailable()) {
+            return;
+        }
+
+        long startTime = Metrics.startTimer();
+        long remainingNanos = waitTimeoutNanos;
+        try {
+            while (!isConnectionAvailable()) {
+                if (remainingNanos <= 0) {
+                    WAIT_TIMEOUTS.increment();
+                    throw new MessagingException("Timed out waiting for a free IMAP connection");
+                }
+
+                remainingNanos = connectionAvailable.awaitNanos(remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for a free IMAP connection", e);
+        } finally {
+            WAIT_TIME.recordElapsed(startTime);
+        }
+    }
+
+    private boolean isConnectionAvailable() {
+        if (!idleConnections.isEmpty()) {
+            return true;
+        }
+
+        reclaimActiveConnections();
+        return activeConnections.size() < getConnectionLimit();
+    }
+
+    private int getConnectionLimit() {
+        return Math.max(1, maxConnections - reservedSlots);
+    }
+
+    /**
+     * Forgets checked out connections that have been closed or abandoned without being returned to the pool, so they
+     * don't take up a slot forever. Abandoned connections are closed once the lock has been released.
+     */
+    private void reclaimActiveConnections() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<ImapConnection, Long>> iterator = activeConnections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ImapConnection, Long> entry = iterator.next();
+            ImapConnection connection = entry.getKey();
+            if (connection.isClosed()) {
+                iterator.remove();
+                continue;
+            }
+
+            long lastUse = entry.getValue();
+            long lastActivityTime = connection.getLastActivityTime();
+            if (lastActivityTime - lastUse > 0) {
+                lastUse = lastActivityTime;
+            }
+
+            if (now - lastUse >= abandonTimeoutNanos) {
+                iterator.remove();
+                abandonedConnections.add(connection);
+            }
+        }
+    }
+
+    private List<ImapConnection> takeAbandonedConnections() {
+        if (abandonedConnections.isEmpty()) {
+            return null;
+        }
+
+        List<ImapConnection> connections = new ArrayList<ImapConnection>(abandonedConnections);
+        abandonedConnections.clear();
+        return connections;
+    }
+
+    private List<ImapConnection> removeExpiredIdleConnections() {
+        List<ImapConnection> evictedConnections = null;
+        long now = System.nanoTime();
+        int maxIdleConnections = Math.max(0, getConnectionLimit() - activeConnections.size());
+
+        int index = 0;
+        int keptConnections = 0;
+        Iterator<IdleConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            long idleTime = now - idleConnection.idleSince;
+            long timeout = (index < minIdleConnections) ? maxIdleTimeNanos : idleTimeoutNanos;
+            index++;
+
+            // Connections beyond the limit are left over from before slots were reserved
+            if (idleTime >= timeout || keptConnections >= maxIdleConnections) {
+                iterator.remove();
+                if (evictedConnections == null) {
+                    evictedConnections = new ArrayList<ImapConnection>();
+                }
+                evictedConnections.add(idleConnection.connection);
+            } else {
+                keptConnections++;
+            }
+        }
+
+        return evictedConnections;
+    }
+
+    private void closeConnections(List<ImapConnection> connections) {
+        if (connections == null) {
+            return;
+        }
+
+        for (ImapConnection connection : connections) {
+            Timber.d("Closing idle IMAP connection %s", connection.getLogId());
+            CONNECTIONS_EVICTED.increment();
+            connection.close();
+        }
+    }
+
+
+    private void closeAbandonedConnections(List<ImapConnection> connections) {
+        if (connections == null) {
+            return;
+        }
+
+        for (ImapConnection connection : connections) {
+            Timber.w("Closing IMAP connection %s that was checked out but not used for too long",
+                    connection.getLogId());
+            CONNECTIONS_ABANDONED.increment();
+            connection.close();
+        }
+    }
+
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long idleSince;
+
+        IdleConnection(ImapConnection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.os.Debug;
+
+import com.fsck.k9.mail.metrics.Counter;
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+
+/**
+ * Compresses everything written to it using raw deflate, as required by the IMAP COMPRESS extension (RFC 4978).
+ * <p>
+ * Unlike {@link com.jcraft.jzlib.ZOutputStream} with a flush mode, compressed data is only pushed to the underlying
+ * stream with {@code Z_SYNC_FLUSH} when {@link #flush()} is called, i.e. once per command. The CPU time spent
+ * compressing is added to a {@link Counter} in nanoseconds.
+ */
+class ImapDeflaterOutputStream extends OutputStream {
+    private final ZStream stream = new ZStream();
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final byte[] singleByte = new byte[1];
+    private final Counter cpuTime;
+    private boolean closed = false;
+
+
+    ImapDeflaterOutputStream(OutputStream out, int level, int bufferSize, Counter cpuTime) {
+        this.out = out;
+        this.cpuTime = cpuTime;
+        buffer = new byte[bufferSize];
+
+        int result = stream.deflateInit(level, true);
+        if (result != JZlib.Z_OK) {
+            throw new IllegalStateException("Couldn't initialize deflater: " + result);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length == 0) {
+            return;
+        }
+
+        stream.next_in = data;
+        stream.next_in_index = offset;
+        stream.avail_in = length;
+        try {
+            deflate(JZlib.Z_NO_FLUSH);
+        } finally {
+            stream.next_in = null;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        deflate(JZlib.Z_SYNC_FLUSH);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // The connection is going away, so there's no point in finishing the compressed stream
+        try {
+            stream.deflateEnd();
+            stream.free();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deflate(int flushMode) throws IOException {
+        do {
+            stream.next_out = buffer;
+            stream.next_out_index = 0;
+            stream.avail_out = buffer.length;
+
+            long startTime = Debug.threadCpuTimeNanos();
+            int result = stream.deflate(flushMode);
+            cpuTime.add(Math.max(Debug.threadCpuTimeNanos() - startTime, 0));
+
+            // Z_BUF_ERROR only means no progress was possible, e.g. when flushing without new data
+            if (result != JZlib.Z_OK && result != JZlib.Z_BUF_ERROR) {
+                throw new IOException("Error compressing data: " + result);
+            }
+
+            int count = buffer.length - stream.avail_out;
+            if (count > 0) {
+                out.write(buffer, 0, count);
+            }
+        } while (stream.avail_in > 0 || stream.avail_out == 0);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.text.TextUtils;
 
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.DefaultBodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
@@ -81,7 +82,7 @@ class ImapFolder extends Folder<ImapMessage> {
             ImapConnection connection;
             synchronized (this) {
                 if (this.connection == null) {
-                    connection = store.getConnection();
+                    connection = acquireConnection();
                 } else {
                     connection = this.connection;
                 }
@@ -93,7 +94,7 @@ class ImapFolder extends Folder<ImapMessage> {
                 throw new MessagingException("Unable to get IMAP prefix", ioe);
             } finally {
                 if (this.connection == null) {
-                    store.releaseConnection(connection);
+                    releaseConnection(connection);
                 }
             }
 
@@ -129,10 +130,10 @@ class ImapFolder extends Folder<ImapMessage> {
             }
         }
 
-        store.releaseConnection(connection);
+        releaseConnection(connection);
 
         synchronized (this) {
-            connection = store.getConnection();
+            connection = acquireConnection();
         }
 
         try {
@@ -213,10 +214,10 @@ class ImapFolder extends Folder<ImapMessage> {
             if (inSearch && connection != null) {
                 Timber.i("IMAP search was aborted, shutting down connection.");
                 connection.close();
-            } else {
-                store.releaseConnection(connection);
             }
 
+            releaseConnection(connection);
+
             connection = null;
         }
     }
@@ -254,7 +255,7 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapConnection connection;
         synchronized (this) {
             if (this.connection == null) {
-                connection = store.getConnection();
+                connection = acquireConnection();
             } else {
                 connection = this.connection;
             }
@@ -274,7 +275,7 @@ class ImapFolder extends Folder<ImapMessage> {
             throw ioExceptionHandler(connection, ioe);
         } finally {
             if (this.connection == null) {
-                store.releaseConnection(connection);
+                releaseConnection(connection);
             }
         }
     }
@@ -289,7 +290,7 @@ class ImapFolder extends Folder<ImapMessage> {
         ImapConnection connection;
         synchronized (this) {
             if (this.connection == null) {
-                connection = store.getConnection();
+                connection = acquireConnection();
             } else {
                 connection = this.connection;
             }
@@ -307,7 +308,7 @@ class ImapFolder extends Folder<ImapMessage> {
             throw ioExceptionHandler(this.connection, ioe);
         } finally {
             if (this.connection == null) {
-                store.releaseConnection(connection);
+                releaseConnection(connection);
             }
         }
     }
@@ -652,6 +653,12 @@ class ImapFolder extends Folder<ImapMessage> {
     @Override
     public void fetch(List<ImapMessage> messages, FetchProfile fetchProfile,
             MessageRetrievalListener<ImapMessage> listener) throws MessagingException {
+        fetch(messages, fetchProfile, listener, new DefaultBodyFactory());
+    }
+
+    @Override
+    public void fetch(List<ImapMessage> messages, FetchProfile fetchProfile,
+            MessageRetrievalListener<ImapMessage> listener, BodyFactory bodyFactory) throws MessagingException {
         if (messages == null || messages.isEmpty()) {
             return;
         }
@@ -711,10 +718,14 @@ class ImapFolder extends Folder<ImapMessage> {
                 ImapResponse response;
                 int messageNumber = 0;
 
+                // Parse header and body literals straight from the connection's input stream. BODYSTRUCTURE may
+                // contain literals itself, so we only do this for envelope-only fetches if no structure is requested.
                 ImapResponseCallback callback = null;
                 if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
+                        fetchProfile.contains(FetchProfile.Item.BODY_SANE) ||
+                        (fetchProfile.contains(FetchProfile.Item.ENVELOPE) &&
+                                !fetchProfile.contains(FetchProfile.Item.STRUCTURE))) {
+                    callback = new FetchBodyCallback(messageMap, bodyFactory);
                 }
 
                 do {
@@ -754,9 +765,10 @@ class ImapFolder extends Folder<ImapMessage> {
 
                         if (literal != null) {
                             if (literal instanceof String) {
+                                // The UID wasn't known when the literal was read (UID listed after the literal)
                                 String bodyString = (String) literal;
                                 InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
+                                imapMessage.parse(bodyStream, bodyFactory);
                             } else if (literal instanceof Integer) {
                                 // All the work was done in FetchBodyCallback.foundLiteral()
                             } else {
@@ -1353,6 +1365,18 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    /**
+     * Returns a connection from the store's pool. Overridden by {@link ImapFolderPusher}, which keeps its connection
+     * for as long as it's pushing.
+     */
+    ImapConnection acquireConnection() throws MessagingException {
+        return store.getConnection();
+    }
+
+    void releaseConnection(ImapConnection connection) {
+        store.releaseConnection(connection);
+    }
+
     private MessagingException ioExceptionHandler(ImapConnection connection, IOException ioe) {
         Timber.e(ioe, "IOException for %s", getLogId());
 
@@ -1413,82 +1437,7 @@ class ImapFolder extends Folder<ImapMessage> {
         final ImapSearcher searcher = new ImapSearcher() {
             @Override
             public List<ImapResponse> search() throws IOException, MessagingException {
-                String imapQuery = "UID SEARCH ";
-                if (requiredFlags != null) {
-                    for (Flag flag : requiredFlags) {
-                        switch (flag) {
-                            case DELETED: {
-                                imapQuery += "DELETED ";
-                                break;
-                            }
-                            case SEEN: {
-                                imapQuery += "SEEN ";
-                                break;
-                            }
-                            case ANSWERED: {
-                                imapQuery += "ANSWERED ";
-                                break;
-                            }
-                            case FLAGGED: {
-                                imapQuery += "FLAGGED ";
-                                break;
-                            }
-                            case DRAFT: {
-                                imapQuery += "DRAFT ";
-                                break;
-                            }
-                            case RECENT: {
-                                imapQuery += "RECENT ";
-                                break;
-                            }
-                            default: {
-                                break;
-                            }
-                        }
-                    }
-                }
-
-                if (forbiddenFlags != null) {
-                    for (Flag flag : forbiddenFlags) {
-                        switch (flag) {
-                            case DELETED: {
-                                imapQuery += "UNDELETED ";
-                                break;
-                            }
-                            case SEEN: {
-                                imapQuery += "UNSEEN ";
-                                break;
-                            }
-                            case ANSWERED: {
-                                imapQuery += "UNANSWERED ";
-                                break;
-                            }
-                            case FLAGGED: {
-                                imapQuery += "UNFLAGGED ";
-                                break;
-                            }
-                            case DRAFT: {
-                                imapQuery += "UNDRAFT ";
-                                break;
-                            }
-                            case RECENT: {
-                                imapQuery += "UNRECENT ";
-                                break;
-                            }
-                            default: {
-                                break;
-                            }
-                        }
-                    }
-                }
-
-                String encodedQuery = ImapUtility.encodeString(queryString);
-                if (store.getStoreConfig().isRemoteSearchFullText()) {
-                    imapQuery += "TEXT " + encodedQuery;
-                } else {
-                    imapQuery += "OR SUBJECT " + encodedQuery + " FROM " + encodedQuery;
-                }
-
+                String imapQuery = buildSearchCommand(queryString, requiredFlags, forbiddenFlags);
                 return executeSimpleCommand(imapQuery);
             }
         };
@@ -1505,6 +1454,93 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private String buildSearchCommand(String queryString, Set<Flag> requiredFlags, Set<Flag> forbiddenFlags) {
+        StringBuilder command = new StringBuilder("UID SEARCH ");
+
+        // With ESEARCH (RFC 4731) the server returns the result as a sequence set, e.g. "1:4000,4002", instead of
+        // listing every single UID. This keeps the response small when searching large folders.
+        if (connection.hasCapability(Capabilities.ESEARCH)) {
+            command.append("RETURN (ALL) ");
+        }
+
+        if (requiredFlags != null) {
+            for (Flag flag : requiredFlags) {
+                switch (flag) {
+                    case DELETED: {
+                        command.append("DELETED ");
+                        break;
+                    }
+                    case SEEN: {
+                        command.append("SEEN ");
+                        break;
+                    }
+                    case ANSWERED: {
+                        command.append("ANSWERED ");
+                        break;
+                    }
+                    case FLAGGED: {
+                        command.append("FLAGGED ");
+                        break;
+                    }
+                    case DRAFT: {
+                        command.append("DRAFT ");
+                        break;
+                    }
+                    case RECENT: {
+                        command.append("RECENT ");
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (forbiddenFlags != null) {
+            for (Flag flag : forbiddenFlags) {
+                switch (flag) {
+                    case DELETED: {
+                        command.append("UNDELETED ");
+                        break;
+                    }
+                    case SEEN: {
+                        command.append("UNSEEN ");
+                        break;
+                    }
+                    case ANSWERED: {
+                        command.append("UNANSWERED ");
+                        break;
+                    }
+                    case FLAGGED: {
+                        command.append("UNFLAGGED ");
+                        break;
+                    }
+                    case DRAFT: {
+                        command.append("UNDRAFT ");
+                        break;
+                    }
+                    case RECENT: {
+                        command.append("UNRECENT ");
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+            }
+        }
+
+        String encodedQuery = ImapUtility.encodeString(queryString);
+        if (store.getStoreConfig().isRemoteSearchFullText()) {
+            command.append("TEXT ").append(encodedQuery);
+        } else {
+            command.append("OR SUBJECT ").append(encodedQuery).append(" FROM ").append(encodedQuery);
+        }
+
+        return command.toString();
+    }
+
     private static String combine(Object[] parts, char separator) {
         if (parts == null) {
             return null;
@@ -55,6 +55,18 @@ class ImapFolderPusher extends ImapFolder {
         wakeLock.setReferenceCounted(false);
     }
 
+    @Override
+    ImapConnection acquireConnection() {
+        return store.createPushConnection();
+    }
+
+    @Override
+    void releaseConnection(ImapConnection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
     public void start() {
         synchronized (threadLock) {
             if (listeningThread != null) {
@@ -129,6 +141,15 @@ class ImapFolderPusher extends ImapFolder {
 
         @Override
         public void run() {
+            store.reservePushConnectionSlot();
+            try {
+                push();
+            } finally {
+                store.releasePushConnectionSlot();
+            }
+        }
+
+        private void push() {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
             if (K9MailLib.isDebug()) {
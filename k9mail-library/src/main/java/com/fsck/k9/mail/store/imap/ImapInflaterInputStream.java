@@ -0,0 +1,131 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import android.os.Debug;
+import android.support.annotation.VisibleForTesting;
+
+import com.fsck.k9.mail.metrics.Counter;
+
+
+/**
+ * Decompresses raw deflate data sent by the server after COMPRESS=DEFLATE has been negotiated.
+ * <p>
+ * {@link Inflater} instances hold native memory that is only released by {@link Inflater#end()}, so they are returned
+ * to a small pool when the stream is closed and reused by the next connection. The CPU time spent decompressing, not
+ * including reading from the underlying stream, is added to a {@link Counter} in nanoseconds.
+ * <p>
+ * The stream may be closed by another thread while a read is blocked, e.g. when a pusher is stopped. In that case the
+ * inflater is still in use, so it's ended by the reading thread once the read returns instead of being pooled.
+ */
+class ImapInflaterInputStream extends InflaterInputStream {
+    private static final int MAX_POOLED_INFLATERS = 4;
+    private static final Deque<Inflater> INFLATER_POOL = new ArrayDeque<>();
+
+
+    private final Counter cpuTime;
+    private long fillCpuTime;
+
+    // Guarded by this
+    private boolean closed = false;
+    private int activeReads = 0;
+
+
+    ImapInflaterInputStream(InputStream in, int bufferSize, Counter cpuTime) {
+        super(in, obtainInflater(), bufferSize);
+        this.cpuTime = cpuTime;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            activeReads++;
+        }
+
+        fillCpuTime = 0;
+        long startTime = Debug.threadCpuTimeNanos();
+        try {
+            return super.read(buffer, offset, length);
+        } finally {
+            long inflateCpuTime = Debug.threadCpuTimeNanos() - startTime - fillCpuTime;
+            cpuTime.add(Math.max(inflateCpuTime, 0));
+
+            boolean endInflater;
+            synchronized (this) {
+                activeReads--;
+                endInflater = closed && activeReads == 0;
+            }
+            if (endInflater) {
+                inf.end();
+            }
+        }
+    }
+
+    @Override
+    protected void fill() throws IOException {
+        long startTime = Debug.threadCpuTimeNanos();
+        try {
+            super.fill();
+        } finally {
+            fillCpuTime += Debug.threadCpuTimeNanos() - startTime;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean readInProgress;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            readInProgress = activeReads > 0;
+        }
+
+        // Don't call super.close(), some implementations end the inflater there. Closing the underlying stream first
+        // makes a blocked read return.
+        in.close();
+
+        if (!readInProgress) {
+            releaseInflater(inf);
+        }
+    }
+
+    @VisibleForTesting
+    Inflater getInflater() {
+        return inf;
+    }
+
+    private static Inflater obtainInflater() {
+        synchronized (INFLATER_POOL) {
+            Inflater inflater = INFLATER_POOL.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+
+        return new Inflater(true);
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+
+        synchronized (INFLATER_POOL) {
+            if (INFLATER_POOL.size() < MAX_POOLED_INFLATERS) {
+                INFLATER_POOL.push(inflater);
+                return;
+            }
+        }
+
+        inflater.end();
+    }
+}
@@ -5,11 +5,9 @@ import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +37,21 @@ import timber.log.Timber;
  * </pre>
  */
 public class ImapStore extends RemoteStore {
+    /**
+     * Connection pool limits for sync, fetch and other short-lived work. Push connections are not taken from the pool
+     * (see {@link #createPushConnection()}), but each pushing folder lowers the pool limit by one, down to a single
+     * connection. Dovecot allows 10 connections per user and IP address by default, other servers are similar. Idle connections are closed after a
+     * few minutes, except for one that is kept until shortly before the server would log it out (RFC 3501 requires
+     * the autologout timer to be at least 30 minutes). Checked out connections that haven't been used for longer than
+     * that are considered abandoned and their slot is reclaimed.
+     */
+    static final int MAX_CONNECTIONS = 10;
+    private static final int MIN_IDLE_CONNECTIONS = 1;
+    private static final long IDLE_CONNECTION_TIMEOUT = 5 * 60 * 1000;
+    private static final long MAX_IDLE_TIME = 25 * 60 * 1000;
+    private static final long CONNECTION_WAIT_TIMEOUT = 60 * 1000;
+    private static final long ABANDONED_CONNECTION_TIMEOUT = 30 * 60 * 1000;
+
     private Set<Flag> permanentFlagsIndex = EnumSet.noneOf(Flag.class);
     private ConnectivityManager connectivityManager;
     private OAuth2TokenProvider oauthTokenProvider;
@@ -53,7 +66,16 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private volatile CachedCapabilities cachedCapabilities;
+    private final ImapConnectionPool connectionPool = new ImapConnectionPool(
+            new ImapConnectionPool.ConnectionFactory() {
+                @Override
+                public ImapConnection createConnection() {
+                    return createImapConnection();
+                }
+            },
+            MAX_CONNECTIONS, MIN_IDLE_CONNECTIONS, IDLE_CONNECTION_TIMEOUT, MAX_IDLE_TIME, CONNECTION_WAIT_TIMEOUT,
+            ABANDONED_CONNECTION_TIMEOUT);
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -309,36 +331,46 @@ public class ImapStore extends RemoteStore {
         }
     }
 
-    ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
-
-        if (connection == null) {
-            connection = createImapConnection();
+    @Override
+    public void prewarmConnection() throws MessagingException {
+        ImapConnection connection = getConnection();
+        try {
+            connection.open();
+        } catch (IOException ioe) {
+            connection.close();
+            throw new MessagingException("Unable to connect", ioe);
         }
 
-        return connection;
+        releaseConnection(connection);
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
-        }
+    ImapConnection getConnection() throws MessagingException {
+        return connectionPool.checkout();
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
-        }
+        connectionPool.release(connection);
+    }
+
+    /**
+     * Returns a new connection that isn't managed by the pool. IDLE keeps a connection busy for as long as a folder is
+     * pushed, so the caller owns it and has to close it when done. The slot it takes up is reserved with
+     * {@link #reservePushConnectionSlot()}.
+     */
+    ImapConnection createPushConnection() {
+        return createImapConnection();
+    }
+
+    /**
+     * Counts a pushing folder's connection against the connection limit. Must be balanced by a call to
+     * {@link #releasePushConnectionSlot()} once the folder stops pushing.
+     */
+    void reservePushConnectionSlot() {
+        connectionPool.reserveSlot();
+    }
+
+    void releasePushConnectionSlot() {
+        connectionPool.releaseSlot();
     }
 
     ImapConnection createImapConnection() {
@@ -468,5 +500,15 @@ public class ImapStore extends RemoteStore {
         public void setCombinedPrefix(String prefix) {
             combinedPrefix = prefix;
         }
+
+        @Override
+        public CachedCapabilities getCachedCapabilities() {
+            return cachedCapabilities;
+        }
+
+        @Override
+        public void setCachedCapabilities(CachedCapabilities capabilities) {
+            cachedCapabilities = capabilities;
+        }
     }
 }
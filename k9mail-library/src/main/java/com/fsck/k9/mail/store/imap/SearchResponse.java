@@ -26,7 +26,16 @@ class SearchResponse {
     }
 
     private static void parseSingleLine(ImapResponse response, List<Long> numbers) {
-        if (response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.SEARCH)) {
+        if (response.isTagged() || response.size() < 2) {
+            return;
+        }
+
+        if (equalsIgnoreCase(response.get(0), Responses.ESEARCH)) {
+            parseEsearchLine(response, numbers);
+            return;
+        }
+
+        if (!equalsIgnoreCase(response.get(0), Responses.SEARCH)) {
             return;
         }
 
@@ -42,7 +51,50 @@ class SearchResponse {
     }
 
     /**
-     * @return A mutable list of numbers from the SEARCH response(s).
+     * Parses an ESEARCH response (RFC 4731), e.g. {@code * ESEARCH (TAG "A1") UID ALL 4:7,9}.
+     * <p>
+     * Only the {@code ALL} result option is used. Other result options like {@code COUNT} are skipped.
+     */
+    private static void parseEsearchLine(ImapResponse response, List<Long> numbers) {
+        int index = 1;
+        if (response.isList(index)) {
+            // Search correlator
+            index++;
+        }
+        if (index < response.size() && equalsIgnoreCase(response.get(index), "UID")) {
+            index++;
+        }
+
+        for (int end = response.size() - 1; index < end; index += 2) {
+            if (equalsIgnoreCase(response.get(index), "ALL") && response.isString(index + 1)) {
+                try {
+                    parseSequenceSet(response.getString(index + 1), numbers);
+                } catch (NumberFormatException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void parseSequenceSet(String sequenceSet, List<Long> numbers) {
+        for (String part : sequenceSet.split(",")) {
+            int colonIndex = part.indexOf(':');
+            if (colonIndex == -1) {
+                numbers.add(Long.parseLong(part));
+            } else {
+                long first = Long.parseLong(part.substring(0, colonIndex));
+                long last = Long.parseLong(part.substring(colonIndex + 1));
+                long start = Math.min(first, last);
+                long end = Math.max(first, last);
+                for (long number = start; number <= end; number++) {
+                    numbers.add(number);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A mutable list of numbers from the SEARCH or ESEARCH response(s).
      */
     public List<Long> getNumbers() {
         return numbers;
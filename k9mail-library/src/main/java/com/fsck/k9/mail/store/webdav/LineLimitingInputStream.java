@@ -0,0 +1,69 @@
+package com.fsck.k9.mail.store.webdav;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that ends after the given number of lines of the wrapped stream.
+ * <p>
+ * Used to download only the beginning of large messages without buffering the lines in memory.
+ */
+class LineLimitingInputStream extends FilterInputStream {
+    private int remainingLines;
+
+
+    LineLimitingInputStream(InputStream in, int maxLines) {
+        super(in);
+        remainingLines = maxLines;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remainingLines <= 0) {
+            return -1;
+        }
+
+        int b = in.read();
+        if (b == '\n') {
+            remainingLines--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remainingLines <= 0) {
+            return -1;
+        }
+
+        int count = in.read(buffer, offset, length);
+        for (int i = 0; i < count; i++) {
+            if (buffer[offset + i] == '\n') {
+                remainingLines--;
+                if (remainingLines == 0) {
+                    // Anything after the last line is not part of this stream's data
+                    return i + 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        int count = read(buffer, 0, buffer.length);
+        return count == -1 ? 0 : count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return remainingLines <= 0 ? 0 : super.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
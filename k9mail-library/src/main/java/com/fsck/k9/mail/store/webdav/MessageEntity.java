@@ -0,0 +1,70 @@
+package com.fsck.k9.mail.store.webdav;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * HTTP entity that writes a message in RFC 822 format directly to the connection, using chunked transfer encoding.
+ * <p>
+ * This avoids keeping a serialized copy of the whole message, including attachments, in memory while uploading it.
+ */
+@SuppressWarnings("deprecation")
+class MessageEntity extends AbstractHttpEntity {
+    private static final int BUFFER_SIZE = 8192;
+
+
+    private final Message message;
+
+
+    MessageEntity(Message message) {
+        this.message = message;
+        setContentType("message/rfc822");
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Only meant for callers that can't deal with {@link #writeTo(OutputStream)}; this buffers the whole message.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                new BufferedOutputStream(outstream, BUFFER_SIZE));
+        try {
+            message.writeTo(msgOut);
+        } catch (MessagingException e) {
+            throw new IOException("Unable to write message", e);
+        }
+        msgOut.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -7,22 +7,17 @@ import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
-import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -32,6 +27,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_WEBDAV;
 import static com.fsck.k9.mail.helper.UrlEncodingHelper.encodeUtf8;
@@ -329,113 +329,169 @@ class WebDavFolder extends Folder<WebDavMessage> {
 
     /**
      * Fetches the full messages or up to {@param lines} lines and passes them to the message parser.
+     * <p>
+     * Up to {@link WebDavStore#MAX_CONCURRENT_FETCHES} messages are downloaded at the same time. Each message is
+     * parsed while it is downloaded, and the listener is notified on the calling thread as soon as a message is
+     * complete, so the order of {@link MessageRetrievalListener#messageFinished(Message, int, int)} calls may differ
+     * from the order of {@code messages}.
      */
-    private void fetchMessages(List<WebDavMessage> messages, MessageRetrievalListener<WebDavMessage> listener, int lines)
-            throws MessagingException {
-        WebDavHttpClient httpclient;
-        httpclient = store.getHttpClient();
+    private void fetchMessages(List<WebDavMessage> messages, MessageRetrievalListener<WebDavMessage> listener,
+            final int lines) throws MessagingException {
+        final WebDavHttpClient httpclient = store.getMessageFetchHttpClient();
 
-        /**
-         * We can't hand off to processRequest() since we need the stream to parse.
-         */
-        for (int i = 0, count = messages.size(); i < count; i++) {
-            WebDavMessage wdMessage = messages.get(i);
-            int statusCode = 0;
+        resolveMissingMessageUrls(messages);
 
-            if (listener != null) {
-                listener.messageStarted(wdMessage.getUid(), i, count);
+        int count = messages.size();
+        CompletionService<Integer> completionService =
+                new ExecutorCompletionService<Integer>(store.getMessageFetchExecutor());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                final WebDavMessage wdMessage = messages.get(i);
+                final int index = i;
+
+                if (listener != null) {
+                    listener.messageStarted(wdMessage.getUid(), i, count);
+                }
+
+                futures.add(completionService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws MessagingException {
+                        fetchMessage(httpclient, wdMessage, lines);
+                        return index;
+                    }
+                }));
             }
 
-            /**
-             * If fetch is called outside of the initial list (ie, a locally stored message), it may not have a URL
-             * associated. Verify and fix that
-             */
-            if (wdMessage.getUrl().equals("")) {
-                wdMessage.setUrl(getMessageUrls(new String[]{wdMessage.getUid()}).get(wdMessage.getUid()));
-                Timber.i("Fetching messages with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
-                if (wdMessage.getUrl().equals("")) {
-                    throw new MessagingException("Unable to get URL for message");
+            for (int i = 0; i < count; i++) {
+                int index = takeFetchedMessage(completionService);
+
+                if (listener != null) {
+                    listener.messageFinished(messages.get(index), index, count);
                 }
             }
+        } finally {
+            // The executor is shared with other folders of the store, so only stop the downloads started here
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
 
-            try {
-                Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
-                HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
-                HttpResponse response;
-                HttpEntity entity;
-
-                httpget.setHeader("translate", "f");
-                if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
-                    httpget.setHeader("Authorization", store.getAuthString());
-                }
-                response = httpclient.executeOverride(httpget, store.getHttpContext());
+    private int takeFetchedMessage(CompletionService<Integer> completionService) throws MessagingException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while fetching messages", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            throw new MessagingException("Error while fetching messages", cause);
+        }
+    }
+
+    /**
+     * If fetch is called outside of the initial list (ie, a locally stored message), messages may not have a URL
+     * associated. Looks up the URLs of all such messages with a single request.
+     */
+    private void resolveMissingMessageUrls(List<WebDavMessage> messages) throws MessagingException {
+        List<WebDavMessage> messagesWithoutUrl = new ArrayList<WebDavMessage>();
+        for (WebDavMessage message : messages) {
+            if (message.getUrl().equals("")) {
+                messagesWithoutUrl.add(message);
+            }
+        }
 
-                statusCode = response.getStatusLine().getStatusCode();
+        if (messagesWithoutUrl.isEmpty()) {
+            return;
+        }
 
-                entity = response.getEntity();
+        String[] uids = new String[messagesWithoutUrl.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = messagesWithoutUrl.get(i).getUid();
+        }
 
-                if (statusCode < 200 ||
-                        statusCode > 300) {
-                    throw new IOException("Error during with code " + statusCode + " during fetch: "
-                            + response.getStatusLine().toString());
-                }
+        Map<String, String> uidToUrl = getMessageUrls(uids);
+        for (WebDavMessage message : messagesWithoutUrl) {
+            String url = uidToUrl.get(message.getUid());
+            if (url != null) {
+                message.setUrl(url);
+            }
+
+            Timber.i("Fetching messages with UID = '%s', URL = '%s'", message.getUid(), message.getUrl());
+            if (message.getUrl().equals("")) {
+                throw new MessagingException("Unable to get URL for message");
+            }
+        }
+    }
 
+    private void fetchMessage(WebDavHttpClient httpclient, WebDavMessage wdMessage, int lines)
+            throws MessagingException {
+        int statusCode = 0;
+        try {
+            Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
+            HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
+            HttpResponse response;
+            HttpEntity entity;
+
+            httpget.setHeader("translate", "f");
+            if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
+                httpget.setHeader("Authorization", store.getAuthString());
+            }
+
+            // The shared context isn't thread-safe, so only use it to look up the authentication cookies
+            HttpContext httpContext = new BasicHttpContext(store.getHttpContext());
+            response = httpclient.executeOverride(httpget, httpContext);
+
+            statusCode = response.getStatusLine().getStatusCode();
+
+            entity = response.getEntity();
+
+            if (statusCode < 200 ||
+                    statusCode > 300) {
                 if (entity != null) {
-                    InputStream istream = null;
-                    StringBuilder buffer = new StringBuilder();
-                    String tempText;
-                    String resultText;
-                    BufferedReader reader = null;
-                    int currentLines = 0;
-
-                    try {
-                        istream = WebDavHttpClient.getUngzippedContent(entity);
-
-                        if (lines != -1) {
-                            //Convert the ungzipped input stream into a StringBuilder
-                            //containing the given line count
-                            reader = new BufferedReader(new InputStreamReader(istream), 8192);
-
-                            while ((tempText = reader.readLine()) != null &&
-                                    (currentLines < lines)) {
-                                buffer.append(tempText).append("\r\n");
-                                currentLines++;
-                            }
-
-                            IOUtils.closeQuietly(istream);
-
-                            resultText = buffer.toString();
-                            istream = new ByteArrayInputStream(resultText.getBytes("UTF-8"));
-                        }
-                        //Parse either the entire message stream, or a stream of the given lines
-                        wdMessage.parse(istream);
-
-                    } catch (IOException ioe) {
-                        Timber.e(ioe, "IOException during message parsing");
-                        throw new MessagingException("I/O Error", ioe);
-                    } finally {
-                        IOUtils.closeQuietly(reader);
-                        IOUtils.closeQuietly(istream);
-                    }
-                } else {
-                    Timber.v("Empty response");
+                    // Release the connection
+                    entity.consumeContent();
                 }
-
-            } catch (IllegalArgumentException iae) {
-                Timber.e(iae, "IllegalArgumentException caught");
-                throw new MessagingException("IllegalArgumentException caught", iae);
-            } catch (URISyntaxException use) {
-                Timber.e(use, "URISyntaxException caught");
-                throw new MessagingException("URISyntaxException caught", use);
-            } catch (IOException ioe) {
-                Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
-                        statusCode, wdMessage.getUrl());
-                throw new MessagingException("Failure code " + statusCode, ioe);
+                throw new IOException("Error during with code " + statusCode + " during fetch: "
+                        + response.getStatusLine().toString());
             }
 
-            if (listener != null) {
-                listener.messageFinished(wdMessage, i, count);
+            if (entity != null) {
+                InputStream istream = null;
+
+                try {
+                    istream = WebDavHttpClient.getUngzippedContent(entity);
+
+                    if (lines != -1) {
+                        istream = new LineLimitingInputStream(istream, lines);
+                    }
+                    //Parse either the entire message stream, or a stream of the given lines
+                    wdMessage.parse(istream);
+
+                } catch (IOException ioe) {
+                    Timber.e(ioe, "IOException during message parsing");
+                    throw new MessagingException("I/O Error", ioe);
+                } finally {
+                    IOUtils.closeQuietly(istream);
+                }
+            } else {
+                Timber.v("Empty response");
             }
+
+        } catch (IllegalArgumentException iae) {
+            Timber.e(iae, "IllegalArgumentException caught");
+            throw new MessagingException("IllegalArgumentException caught", iae);
+        } catch (URISyntaxException use) {
+            Timber.e(use, "URISyntaxException caught");
+            throw new MessagingException("URISyntaxException caught", use);
+        } catch (IOException ioe) {
+            Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
+                    statusCode, wdMessage.getUrl());
+            throw new MessagingException("Failure code " + statusCode, ioe);
         }
     }
 
@@ -642,28 +698,10 @@ class WebDavFolder extends Folder<WebDavMessage> {
         WebDavHttpClient httpclient = store.getHttpClient();
 
         for (Message message : messages) {
-            HttpGeneric httpmethod;
-            HttpResponse response;
-            StringEntity bodyEntity;
-            int statusCode;
-
             try {
-                ByteArrayOutputStream out;
-
-                long size = message.getSize();
-                if (size > Integer.MAX_VALUE) {
-                    throw new MessagingException("message size > Integer.MAX_VALUE!");
-                }
-                out = new ByteArrayOutputStream((int) size);
-
                 open(Folder.OPEN_MODE_RW);
-                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                        new BufferedOutputStream(out, 1024));
-                message.writeTo(msgOut);
-                msgOut.flush();
 
-                bodyEntity = new StringEntity(out.toString(), "UTF-8");
-                bodyEntity.setContentType("message/rfc822");
+                MessageEntity bodyEntity = new MessageEntity(message);
 
                 String messageURL = mFolderUrl;
                 if (!messageURL.endsWith("/")) {
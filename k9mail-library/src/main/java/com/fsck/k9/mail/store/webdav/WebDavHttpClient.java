@@ -5,7 +5,16 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
@@ -30,11 +39,51 @@ public class WebDavHttpClient extends DefaultHttpClient {
      * the License for the specific language governing permissions and limitations under the License.
      */
 
+    /** The number of connections kept alive by a client created with {@link WebDavHttpClientFactory#createPooled()} */
+    static final int MAX_POOLED_CONNECTIONS = 4;
+
     public static class WebDavHttpClientFactory {
 
         public WebDavHttpClient create() {
             return new WebDavHttpClient();
         }
+
+        /**
+         * Creates a client that can execute requests from several threads at the same time. The connection of a
+         * request is only released once the response has been consumed or its content stream has been closed.
+         */
+        public WebDavHttpClient createPooled() {
+            return new WebDavHttpClient(true);
+        }
+    }
+
+
+    private final boolean pooled;
+
+
+    public WebDavHttpClient() {
+        this(false);
+    }
+
+    private WebDavHttpClient(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    @Override
+    protected ClientConnectionManager createClientConnectionManager() {
+        if (!pooled) {
+            return super.createClientConnectionManager();
+        }
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        HttpParams params = getParams();
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_POOLED_CONNECTIONS));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_POOLED_CONNECTIONS);
+
+        return new ThreadSafeClientConnManager(params, registry);
     }
 
     public static void modifyRequestToAcceptGzipResponse(HttpRequest request) {
@@ -15,6 +15,12 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.ConnectionSecurity;
@@ -28,7 +34,6 @@ import com.fsck.k9.mail.store.RemoteStore;
 import com.fsck.k9.mail.store.StoreConfig;
 import javax.net.ssl.SSLException;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -60,6 +65,10 @@ import static com.fsck.k9.mail.helper.UrlEncodingHelper.decodeUtf8;
  */
 @SuppressWarnings("deprecation")
 public class WebDavStore extends RemoteStore {
+    private static final SAXParserFactory SAX_PARSER_FACTORY = createSaxParserFactory();
+    private static final ThreadLocal<XMLReader> XML_READERS = new ThreadLocal<>();
+    static final int MAX_CONCURRENT_FETCHES = WebDavHttpClient.MAX_POOLED_CONNECTIONS;
+    private static final int FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
 
     public static WebDavStoreSettings decodeUri(String uri) {
         return WebDavStoreUriDecoder.decode(uri);
@@ -82,6 +91,8 @@ public class WebDavStore extends RemoteStore {
 
     private final WebDavHttpClient.WebDavHttpClientFactory httpClientFactory;
     private WebDavHttpClient httpClient = null;
+    private WebDavHttpClient messageFetchHttpClient = null;
+    private ThreadPoolExecutor messageFetchExecutor = null;
     private HttpContext httpContext = null;
     private String authString;
     private CookieStore authCookies = null;
@@ -800,30 +811,86 @@ public class WebDavStore extends RemoteStore {
     public WebDavHttpClient getHttpClient() throws MessagingException {
         if (httpClient == null) {
             httpClient = httpClientFactory.create();
-            // Disable automatic redirects on the http client.
-            httpClient.getParams().setBooleanParameter("http.protocol.handle-redirects", false);
+            configureHttpClient(httpClient);
 
             // Setup a cookie store for forms-based authentication.
             httpContext = new BasicHttpContext();
             authCookies = new BasicCookieStore();
             httpContext.setAttribute(ClientContext.COOKIE_STORE, authCookies);
-
-            SchemeRegistry reg = httpClient.getConnectionManager().getSchemeRegistry();
-            try {
-                Scheme s = new Scheme("https", new WebDavSocketFactory(hostname, 443), 443);
-                reg.register(s);
-            } catch (NoSuchAlgorithmException nsa) {
-                Timber.e(nsa, "NoSuchAlgorithmException in getHttpClient");
-                throw new MessagingException("NoSuchAlgorithmException in getHttpClient: ", nsa);
-            } catch (KeyManagementException kme) {
-                Timber.e(kme, "KeyManagementException in getHttpClient");
-                throw new MessagingException("KeyManagementException in getHttpClient: ", kme);
-            }
         }
         return httpClient;
     }
 
-    protected InputStream sendRequest(String url, String method, StringEntity messageBody,
+    /**
+     * Returns the client used by {@link WebDavFolder} to download several messages at once. It keeps its own pool of
+     * connections to the server, so it must only be used for requests that always consume or close the response.
+     * Authentication cookies are shared via {@link #getHttpContext()}.
+     */
+    synchronized WebDavHttpClient getMessageFetchHttpClient() throws MessagingException {
+        if (messageFetchHttpClient == null) {
+            getHttpClient();
+
+            messageFetchHttpClient = httpClientFactory.createPooled();
+            configureHttpClient(messageFetchHttpClient);
+        }
+        return messageFetchHttpClient;
+    }
+
+    /**
+     * Returns the executor used by {@link WebDavFolder} to download up to {@link #MAX_CONCURRENT_FETCHES} messages at
+     * once. Its threads are stopped when they have been idle for a while.
+     */
+    synchronized ExecutorService getMessageFetchExecutor() {
+        if (messageFetchExecutor == null) {
+            messageFetchExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                    FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, "WebDavFetch-" + threadNumber.getAndIncrement());
+                        }
+                    });
+            messageFetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return messageFetchExecutor;
+    }
+
+    /**
+     * Stops the message download threads and closes the connections kept open for them.
+     */
+    @Override
+    public synchronized void close() {
+        if (messageFetchExecutor != null) {
+            messageFetchExecutor.shutdownNow();
+            messageFetchExecutor = null;
+        }
+
+        if (messageFetchHttpClient != null) {
+            messageFetchHttpClient.getConnectionManager().shutdown();
+            messageFetchHttpClient = null;
+        }
+    }
+
+    private void configureHttpClient(WebDavHttpClient client) throws MessagingException {
+        // Disable automatic redirects on the http client.
+        client.getParams().setBooleanParameter("http.protocol.handle-redirects", false);
+
+        SchemeRegistry reg = client.getConnectionManager().getSchemeRegistry();
+        try {
+            Scheme s = new Scheme("https", new WebDavSocketFactory(hostname, 443), 443);
+            reg.register(s);
+        } catch (NoSuchAlgorithmException nsa) {
+            Timber.e(nsa, "NoSuchAlgorithmException in getHttpClient");
+            throw new MessagingException("NoSuchAlgorithmException in getHttpClient: ", nsa);
+        } catch (KeyManagementException kme) {
+            Timber.e(kme, "KeyManagementException in getHttpClient");
+            throw new MessagingException("KeyManagementException in getHttpClient: ", kme);
+        }
+    }
+
+    protected InputStream sendRequest(String url, String method, HttpEntity messageBody,
             Map<String, String> headers, boolean tryAuth)
             throws MessagingException {
         if (url == null || method == null) {
@@ -944,10 +1011,7 @@ public class WebDavStore extends RemoteStore {
             if (istream != null &&
                     needsParsing) {
                 try {
-                    SAXParserFactory spf = SAXParserFactory.newInstance();
-                    spf.setNamespaceAware(true); //This should be a no-op on Android, but makes the tests work
-                    SAXParser sp = spf.newSAXParser();
-                    XMLReader xr = sp.getXMLReader();
+                    XMLReader xr = getXmlReader();
                     WebDavHandler myHandler = new WebDavHandler();
 
                     xr.setContentHandler(myHandler);
@@ -976,6 +1040,27 @@ public class WebDavStore extends RemoteStore {
         return dataset;
     }
 
+    /**
+     * Returns an {@link XMLReader} for the current thread. Looking up the parser implementation and creating the
+     * reader is much more expensive than parsing a typical response, so readers are reused.
+     */
+    private static XMLReader getXmlReader() throws ParserConfigurationException, SAXException {
+        XMLReader xmlReader = XML_READERS.get();
+        if (xmlReader == null) {
+            synchronized (SAX_PARSER_FACTORY) {
+                xmlReader = SAX_PARSER_FACTORY.newSAXParser().getXMLReader();
+            }
+            XML_READERS.set(xmlReader);
+        }
+        return xmlReader;
+    }
+
+    private static SAXParserFactory createSaxParserFactory() {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true); //This should be a no-op on Android, but makes the tests work
+        return spf;
+    }
+
     @Override
     public boolean isSendCapable() {
         return true;
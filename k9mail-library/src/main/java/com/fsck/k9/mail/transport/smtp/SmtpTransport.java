@@ -5,6 +5,7 @@ package com.fsck.k9.mail.transport.smtp;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -43,6 +44,11 @@ import com.fsck.k9.mail.filter.LineWrapOutputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.filter.SmtpDataStuffing;
 import com.fsck.k9.mail.internet.CharsetSupport;
+import com.fsck.k9.mail.metrics.Counter;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.MeteredInputStream;
+import com.fsck.k9.mail.metrics.MeteredOutputStream;
+import com.fsck.k9.mail.metrics.Metrics;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
@@ -58,6 +64,11 @@ public class SmtpTransport extends Transport {
     private static final int SMTP_CONTINUE_REQUEST = 334;
     private static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
 
+    private static final Histogram COMMAND_RTT = Metrics.histogram("smtp.command_rtt_us");
+    private static final Histogram MESSAGE_UPLOAD_TIME = Metrics.histogram("smtp.message_upload_us");
+    private static final Counter BYTES_IN = Metrics.counter("smtp.bytes_in");
+    private static final Counter BYTES_OUT = Metrics.counter("smtp.bytes_out");
+
 
     private final TrustedSocketFactory trustedSocketFactory;
     private final OAuth2TokenProvider oauthTokenProvider;
@@ -136,8 +147,7 @@ public class SmtpTransport extends Transport {
             // RFC 1047
             socket.setSoTimeout(SOCKET_READ_TIMEOUT);
 
-            inputStream = new PeekableInputStream(new BufferedInputStream(socket.getInputStream(), 1024));
-            outputStream = new BufferedOutputStream(socket.getOutputStream(), 1024);
+            setUpStreams();
 
             // Eat the banner
             executeCommand(null);
@@ -176,9 +186,7 @@ public class SmtpTransport extends Transport {
                             port,
                             clientCertificateAlias);
 
-                    inputStream = new PeekableInputStream(new BufferedInputStream(socket.getInputStream(),
-                            1024));
-                    outputStream = new BufferedOutputStream(socket.getOutputStream(), 1024);
+                    setUpStreams();
                     /*
                      * Now resend the EHLO. Required by RFC2487 Sec. 5.2, and more specifically,
                      * Exim.
@@ -449,8 +457,10 @@ public class SmtpTransport extends Transport {
             EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
                     new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
 
+            long startTime = Metrics.startTimer();
             message.writeTo(msgOut);
             msgOut.endWithCrLfAndFlush();
+            MESSAGE_UPLOAD_TIME.recordElapsed(startTime);
 
             entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
             executeCommand(".");
@@ -539,6 +549,14 @@ public class SmtpTransport extends Transport {
         return executeCommand(true, format, args);
     }
 
+    private void setUpStreams() throws IOException {
+        InputStream socketInputStream = new MeteredInputStream(socket.getInputStream(), BYTES_IN);
+        OutputStream socketOutputStream = new MeteredOutputStream(socket.getOutputStream(), BYTES_OUT);
+
+        inputStream = new PeekableInputStream(new BufferedInputStream(socketInputStream, 1024));
+        outputStream = new BufferedOutputStream(socketOutputStream, 1024);
+    }
+
     private CommandResponse executeCommand(String format, Object... args) throws IOException, MessagingException {
         return executeCommand(false, format, args);
     }
@@ -546,12 +564,14 @@ public class SmtpTransport extends Transport {
     private CommandResponse executeCommand(boolean sensitive, String format, Object... args)
             throws IOException, MessagingException {
         List<String> results = new ArrayList<>();
+        long startTime = Metrics.startTimer();
         if (format != null) {
             String command = String.format(Locale.ROOT, format, args);
             writeLine(command, sensitive);
         }
 
         String line = readCommandResponseLine(results);
+        COMMAND_RTT.recordElapsed(startTime);
 
         int length = line.length();
         if (length < 1) {
@@ -0,0 +1,156 @@
+package com.fsck.k9.mail;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class MemoryThresholdBodyFactoryTest {
+    private static final int MEMORY_THRESHOLD = 16;
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File spillDirectory;
+    private MemoryThresholdBodyFactory bodyFactory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        spillDirectory = temporaryFolder.newFolder();
+        bodyFactory = new MemoryThresholdBodyFactory(MEMORY_THRESHOLD, spillDirectory);
+    }
+
+    @Test
+    public void createBody_withDataBelowThreshold_shouldReturnMemoryBody() throws Exception {
+        byte[] data = createData(MEMORY_THRESHOLD);
+
+        Body body = bodyFactory.createBody("7bit", "text/plain", toStream(data));
+
+        assertTrue(body instanceof BinaryMemoryBody);
+        assertArrayEquals(data, toByteArray(body));
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test
+    public void createBody_withDataAboveThreshold_shouldSpillToFileInSpillDirectory() throws Exception {
+        byte[] data = createData(MEMORY_THRESHOLD + 1);
+
+        Body body = bodyFactory.createBody("7bit", "text/plain", toStream(data));
+
+        assertTrue(body instanceof BinaryTempFileBody);
+        assertEquals(spillDirectory, ((BinaryTempFileBody) body).getFile().getParentFile());
+        assertArrayEquals(data, toByteArray(body));
+    }
+
+    @Test
+    public void createBody_withMessageContentType_shouldReturnMessageBody() throws Exception {
+        byte[] data = createData(1);
+
+        Body body = bodyFactory.createBody("7bit", "message/rfc822", toStream(data));
+
+        assertTrue(body instanceof BinaryTempFileMessageBody);
+        assertArrayEquals(data, toByteArray(body));
+    }
+
+    @Test
+    public void createBody_shouldStripParametersFromTransferEncoding() throws Exception {
+        Body body = bodyFactory.createBody("base64; foo=bar", "text/plain", toStream(createData(1)));
+
+        assertEquals("base64", ((BinaryMemoryBody) body).getEncoding());
+    }
+
+    @Test
+    public void deleteSpillFiles_shouldDeleteFilesNotMovedIntoPlace() throws Exception {
+        bodyFactory.createBody("7bit", "text/plain", toStream(createData(MEMORY_THRESHOLD + 1)));
+        bodyFactory.createBody("7bit", "message/rfc822", toStream(createData(1)));
+
+        bodyFactory.deleteSpillFiles();
+
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test
+    public void deleteSpillFiles_shouldNotTouchFilesMovedIntoPlace() throws Exception {
+        Body body = bodyFactory.createBody("7bit", "text/plain", toStream(createData(MEMORY_THRESHOLD + 1)));
+        File destination = new File(spillDirectory, "stored");
+        assertTrue(((BinaryTempFileBody) body).getFile().renameTo(destination));
+
+        bodyFactory.deleteSpillFiles();
+
+        assertTrue(destination.exists());
+    }
+
+    @Test
+    public void deleteSpillFilesOlderThan_shouldOnlyDeleteOldSpillFiles() throws Exception {
+        File staleSpillFile = File.createTempFile("body", null, spillDirectory);
+        assertTrue(staleSpillFile.setLastModified(1000));
+        File newSpillFile = File.createTempFile("body", null, spillDirectory);
+        File storedFile = new File(spillDirectory, "42");
+        assertTrue(storedFile.createNewFile());
+        assertTrue(storedFile.setLastModified(1000));
+
+        MemoryThresholdBodyFactory.deleteSpillFilesOlderThan(spillDirectory, 2000);
+
+        assertFalse(staleSpillFile.exists());
+        assertTrue(newSpillFile.exists());
+        assertTrue(storedFile.exists());
+    }
+
+    @Test
+    public void createBody_withFailingInputStream_shouldDeleteSpillFile() throws Exception {
+        InputStream inputStream = new SequenceInputStream(toStream(createData(MEMORY_THRESHOLD + 1)),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("Connection lost");
+                    }
+                });
+
+        try {
+            bodyFactory.createBody("7bit", "text/plain", inputStream);
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertEquals(0, spillDirectory.list().length);
+        }
+    }
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + (i % 26));
+        }
+        return data;
+    }
+
+    private InputStream toStream(byte[] data) {
+        return new ByteArrayInputStream(data);
+    }
+
+    private byte[] toByteArray(Body body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.writeTo(output);
+        return output.toByteArray();
+    }
+}
@@ -99,4 +99,29 @@ public class CharsetSupportTest {
         expect = "x-kddi-shift_jis-2007";
         assertEquals(expect, CharsetSupport.fixupCharset(charsetOnMail, message));
     }
+
+    @Test
+    public void decodeToString_withAsciiOnly_shouldReturnText() throws Exception {
+        assertEquals("abc def", CharsetSupport.decodeToString("abc def".getBytes("US-ASCII"), "utf-8"));
+    }
+
+    @Test
+    public void decodeToString_withUtf8_shouldDecodeText() throws Exception {
+        byte[] bytes = { 'G', 'r', (byte) 0xC3, (byte) 0xBC, (byte) 0xC3, (byte) 0x9F, 'e' };
+
+        assertEquals("Gr\u00fc\u00dfe", CharsetSupport.decodeToString(bytes, "utf-8"));
+    }
+
+    @Test
+    public void decodeToString_withUnknownCharset_shouldFallBackToAscii() throws Exception {
+        assertEquals("abc", CharsetSupport.decodeToString("abc".getBytes("US-ASCII"), "unknown-charset"));
+        assertEquals("US-ASCII", CharsetSupport.getSupportedCharset("unknown-charset").name());
+    }
+
+    @Test
+    public void decodeToString_withUtf16_shouldNotUseAsciiShortcut() throws Exception {
+        byte[] bytes = { 0, 'a', 0, 'b' };
+
+        assertEquals("ab", CharsetSupport.decodeToString(bytes, "utf-16be"));
+    }
 }
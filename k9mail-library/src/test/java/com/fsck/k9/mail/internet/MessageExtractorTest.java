@@ -119,4 +119,26 @@ public class MessageExtractorTest {
         assertNotNull(result);
         assertEquals(bodyText, result);
     }
+
+    @Test
+    public void getDecodedBodySize_withBase64BodyBelowLimit_shouldReturnDecodedSize() throws Exception {
+        part.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain");
+        BinaryMemoryBody body = new BinaryMemoryBody("U2FtcGxlIHRleHQgYm9keQ==".getBytes(), MimeUtil.ENC_BASE64);
+        part.setBody(body);
+
+        long result = MessageExtractor.getDecodedBodySize(part, 20);
+
+        assertEquals(16, result);
+    }
+
+    @Test
+    public void getDecodedBodySize_withBase64BodyAboveLimit_shouldReturnLimitPlusOne() throws Exception {
+        part.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain");
+        BinaryMemoryBody body = new BinaryMemoryBody("U2FtcGxlIHRleHQgYm9keQ==".getBytes(), MimeUtil.ENC_BASE64);
+        part.setBody(body);
+
+        long result = MessageExtractor.getDecodedBodySize(part, 10);
+
+        assertEquals(11, result);
+    }
 }
@@ -0,0 +1,51 @@
+package com.fsck.k9.mail.internet;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class MimeHeaderTest {
+    @Test
+    public void getHeader_shouldIgnoreCaseAndKeepOrder() throws Exception {
+        MimeHeader header = new MimeHeader();
+        header.addHeader("Received", "one");
+        header.addRawHeader("Subject", "Subject: test");
+        header.addHeader("RECEIVED", "two");
+
+        assertArrayEquals(new String[] { "one", "two" }, header.getHeader("received"));
+        assertEquals("test", header.getFirstHeader("SUBJECT"));
+        assertEquals("Received: one\r\nSubject: test\r\nRECEIVED: two\r\n", header.toString());
+    }
+
+    @Test
+    public void removeHeader_shouldRemoveAllFieldsWithName() throws Exception {
+        MimeHeader header = new MimeHeader();
+        header.addHeader("To", "one");
+        header.addHeader("Cc", "two");
+        header.addHeader("to", "three");
+
+        header.removeHeader("TO");
+
+        assertNull(header.getFirstHeader("To"));
+        assertEquals(0, header.getHeader("to").length);
+        assertEquals("Cc: two\r\n", header.toString());
+    }
+
+    @Test
+    public void clone_shouldNotShareFields() throws Exception {
+        MimeHeader header = new MimeHeader();
+        header.addHeader("Subject", "original");
+
+        MimeHeader clone = header.clone();
+        clone.setHeader("Subject", "changed");
+        clone.addHeader("To", "someone");
+
+        assertEquals("original", header.getFirstHeader("Subject"));
+        assertNull(header.getFirstHeader("To"));
+        assertEquals("changed", clone.getFirstHeader("Subject"));
+    }
+}
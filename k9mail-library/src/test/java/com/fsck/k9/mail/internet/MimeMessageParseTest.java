@@ -332,5 +332,34 @@ public class MimeMessageParseTest {
         assertEquals(new Address("<test@mail.com>"), xEnvelopeToAddresses[0]);
     }
 
+    @Test
+    public void getSubject_afterHeaderChange_shouldReturnNewValue() throws Exception {
+        MimeMessage msg = parseWithoutRecurse(toStream(
+                "From: <adam@example.org>\r\n" +
+                        "Subject: =?UTF-8?Q?Gr=C3=BC=C3=9Fe?=\r\n" +
+                        "Content-type: text/plain\r\n" +
+                        "\r\n" +
+                        "this is some test text."));
+        assertEquals("Gr\u00fc\u00dfe", msg.getSubject());
+
+        msg.setSubject("Changed");
+
+        assertEquals("Changed", msg.getSubject());
+    }
+
+    @Test
+    public void getMimeType_afterContentTypeChange_shouldReturnNewValue() throws Exception {
+        MimeMessage msg = parseWithoutRecurse(toStream(
+                "From: <adam@example.org>\r\n" +
+                        "Content-type: text/plain\r\n" +
+                        "\r\n" +
+                        "this is some test text."));
+        assertEquals("text/plain", msg.getMimeType());
+
+        msg.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/html; charset=utf-8");
+
+        assertEquals("text/html", msg.getMimeType());
+    }
+
 
 }
@@ -0,0 +1,71 @@
+package com.fsck.k9.mail.metrics;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class HistogramTest {
+    @Test
+    public void bucketIndex_shouldUsePowerOfTwoBuckets() throws Exception {
+        assertEquals(0, Histogram.bucketIndex(0));
+        assertEquals(1, Histogram.bucketIndex(1));
+        assertEquals(2, Histogram.bucketIndex(2));
+        assertEquals(2, Histogram.bucketIndex(3));
+        assertEquals(3, Histogram.bucketIndex(4));
+        assertEquals(63, Histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void snapshot_shouldContainCountSumAndMax() throws Exception {
+        Histogram histogram = new Histogram("test");
+
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(30);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(60, snapshot.getSum());
+        assertEquals(30, snapshot.getMax());
+        assertEquals(20, snapshot.getMean());
+    }
+
+    @Test
+    public void getPercentile_shouldReturnUpperBoundOfBucket() throws Exception {
+        Histogram histogram = new Histogram("test");
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5);
+        }
+        histogram.record(1000);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(7, snapshot.getPercentile(50));
+        assertEquals(7, snapshot.getPercentile(99));
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void record_withNegativeValue_shouldRecordZero() throws Exception {
+        Histogram histogram = new Histogram("test");
+
+        histogram.record(-5);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getSum());
+    }
+
+    @Test
+    public void reset_shouldClearValues() throws Exception {
+        Histogram histogram = new Histogram("test");
+        histogram.record(42);
+
+        histogram.reset();
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(50));
+    }
+}
@@ -0,0 +1,261 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.fsck.k9.mail.MessagingException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class ImapConnectionPoolTest {
+    private final Deque<ImapConnection> newConnections = new ArrayDeque<>();
+    private final ImapConnectionPool.ConnectionFactory connectionFactory = new ImapConnectionPool.ConnectionFactory() {
+        @Override
+        public ImapConnection createConnection() {
+            if (newConnections.isEmpty()) {
+                throw new AssertionError("Unexpectedly tried to create an ImapConnection instance");
+            }
+            return newConnections.pop();
+        }
+    };
+
+
+    @Test
+    public void checkout_afterRelease_shouldProbeAndReturnIdleConnection() throws Exception {
+        ImapConnectionPool pool = createPool(2, 0, 60000);
+        ImapConnection connection = enqueueConnection();
+        pool.release(pool.checkout());
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connection, result);
+        verify(connection).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void checkout_withFailingProbe_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnectionPool pool = createPool(1, 0, 60000);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.release(pool.checkout());
+        doThrow(IOException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void checkout_withProbeFailingWithMessagingException_shouldCloseConnectionAndCreateNewOne()
+            throws Exception {
+        ImapConnectionPool pool = createPool(1, 0, 60000);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.release(pool.checkout());
+        doThrow(MessagingException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void checkout_withReservedSlot_shouldLowerLimit() throws Exception {
+        ImapConnectionPool pool = new ImapConnectionPool(connectionFactory, 2, 0, 60000, 60000, 0, 60000);
+        enqueueConnection();
+        pool.reserveSlot();
+        pool.checkout();
+
+        try {
+            pool.checkout();
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals("Timed out waiting for a free IMAP connection", e.getMessage());
+        }
+    }
+
+    @Test
+    public void checkout_withAllSlotsReserved_shouldStillHandOutOneConnection() throws Exception {
+        ImapConnectionPool pool = createPool(1, 0, 60000);
+        ImapConnection connection = enqueueConnection();
+        pool.reserveSlot();
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connection, result);
+    }
+
+    @Test
+    public void checkout_afterReleasingReservedSlot_shouldRestoreLimit() throws Exception {
+        ImapConnectionPool pool = createPool(2, 0, 60000);
+        enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.reserveSlot();
+        pool.checkout();
+        pool.releaseSlot();
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connectionTwo, result);
+    }
+
+    @Test
+    public void reserveSlot_withIdleConnectionsAboveLimit_shouldCloseLeastRecentlyUsedOne() throws Exception {
+        ImapConnectionPool pool = createPool(2, 2, 60000);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.checkout();
+        pool.checkout();
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        pool.reserveSlot();
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void checkout_withMaxConnectionsReached_shouldThrowAfterTimeout() throws Exception {
+        ImapConnectionPool pool = new ImapConnectionPool(connectionFactory, 1, 0, 60000, 60000, 0, 60000);
+        enqueueConnection();
+        pool.checkout();
+
+        try {
+            pool.checkout();
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals("Timed out waiting for a free IMAP connection", e.getMessage());
+        }
+    }
+
+    @Test
+    public void checkout_withMaxConnectionsReached_shouldWaitForRelease() throws Exception {
+        final ImapConnectionPool pool = createPool(1, 0, 60000);
+        final ImapConnection connection = enqueueConnection();
+        pool.checkout();
+        Thread releaseThread = new Thread() {
+            @Override
+            public void run() {
+                pool.release(connection);
+            }
+        };
+
+        releaseThread.start();
+        ImapConnection result = pool.checkout();
+
+        assertSame(connection, result);
+        releaseThread.join();
+    }
+
+    @Test
+    public void checkout_withClosedConnectionNotReleased_shouldNotCountAgainstLimit() throws Exception {
+        ImapConnectionPool pool = new ImapConnectionPool(connectionFactory, 1, 0, 60000, 60000, 0, 60000);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.checkout();
+        when(connectionOne.isClosed()).thenReturn(true);
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connectionTwo, result);
+    }
+
+    @Test
+    public void checkout_withAbandonedConnection_shouldCloseItAndFreeSlot() throws Exception {
+        ImapConnectionPool pool = new ImapConnectionPool(connectionFactory, 1, 0, 60000, 60000, 0, 0);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.checkout();
+
+        ImapConnection result = pool.checkout();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void checkout_withRecentlyUsedConnection_shouldNotTreatItAsAbandoned() throws Exception {
+        ImapConnectionPool pool = new ImapConnectionPool(connectionFactory, 1, 0, 60000, 60000, 0, 60000);
+        ImapConnection connection = enqueueConnection();
+        pool.checkout();
+        when(connection.getLastActivityTime()).thenReturn(System.nanoTime());
+
+        try {
+            pool.checkout();
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals("Timed out waiting for a free IMAP connection", e.getMessage());
+        }
+        verify(connection, never()).close();
+    }
+
+    @Test
+    public void release_withDisconnectedConnection_shouldFreeSlot() throws Exception {
+        ImapConnectionPool pool = createPool(1, 0, 60000);
+        ImapConnection connection = enqueueConnection();
+        pool.checkout();
+        when(connection.isConnected()).thenReturn(false);
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getConnectionCount());
+    }
+
+    @Test
+    public void release_withIdleTimeoutExpired_shouldCloseConnection() throws Exception {
+        ImapConnectionPool pool = createPool(2, 0, 0);
+        ImapConnection connection = enqueueConnection();
+
+        pool.release(pool.checkout());
+
+        verify(connection).close();
+        assertEquals(0, pool.getConnectionCount());
+    }
+
+    @Test
+    public void release_withMinIdleConnections_shouldKeepMostRecentlyUsedConnection() throws Exception {
+        ImapConnectionPool pool = createPool(2, 1, 0);
+        ImapConnection connectionOne = enqueueConnection();
+        ImapConnection connectionTwo = enqueueConnection();
+        pool.checkout();
+        pool.checkout();
+
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+
+    private ImapConnectionPool createPool(int maxConnections, int minIdleConnections, long idleTimeoutMillis) {
+        return new ImapConnectionPool(connectionFactory, maxConnections, minIdleConnections, idleTimeoutMillis,
+                60000, 10000, 60000);
+    }
+
+    private ImapConnection enqueueConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        newConnections.add(connection);
+        return connection;
+    }
+}
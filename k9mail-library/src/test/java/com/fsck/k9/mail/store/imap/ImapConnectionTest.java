@@ -283,6 +283,53 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withUnchangedPreAuthCapabilities_shouldUseCachedCapabilities() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        preAuthenticationDialog(server);
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK LOGIN completed");
+        postAuthenticationDialogRequestingCapabilities(server);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.open();
+        imapConnection.close();
+        MockImapServer secondServer = new MockImapServer();
+        preAuthenticationDialog(secondServer);
+        secondServer.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        secondServer.output("2 OK LOGIN completed");
+        ImapConnection secondConnection = startServerAndCreateImapConnection(secondServer);
+
+        secondConnection.open();
+
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void open_withChangedPreAuthCapabilities_shouldRequestCapabilitiesAndPathDelimiter() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        preAuthenticationDialog(server);
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK LOGIN completed");
+        postAuthenticationDialogRequestingCapabilities(server);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.open();
+        imapConnection.close();
+        MockImapServer secondServer = new MockImapServer();
+        preAuthenticationDialog(secondServer, "ID");
+        secondServer.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        secondServer.output("2 OK LOGIN completed");
+        postAuthenticationDialogRequestingCapabilities(secondServer);
+        ImapConnection secondConnection = startServerAndCreateImapConnection(secondServer);
+
+        secondConnection.open();
+
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_authCramMd5() throws Exception {
         settings.setAuthType(AuthType.CRAM_MD5);
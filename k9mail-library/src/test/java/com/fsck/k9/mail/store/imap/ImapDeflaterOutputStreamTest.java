@@ -0,0 +1,92 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.metrics.Counter;
+import com.fsck.k9.mail.metrics.Metrics;
+import com.jcraft.jzlib.JZlib;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapDeflaterOutputStreamTest {
+    private static final Counter CPU_TIME = Metrics.counter("test.deflate_cpu_ns");
+
+
+    @Test
+    public void write_withoutFlush_shouldBufferCompressedData() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImapDeflaterOutputStream deflaterOutputStream = createDeflaterOutputStream(out);
+
+        deflaterOutputStream.write("1 NOOP\r\n".getBytes());
+
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void flush_shouldMakeAllDataAvailableToInflater() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImapDeflaterOutputStream deflaterOutputStream = createDeflaterOutputStream(out);
+
+        deflaterOutputStream.write("1 NOOP\r\n".getBytes());
+        deflaterOutputStream.flush();
+        deflaterOutputStream.write("2 LOGOUT\r\n".getBytes());
+        deflaterOutputStream.flush();
+
+        assertArrayEquals("1 NOOP\r\n2 LOGOUT\r\n".getBytes(), inflate(out.toByteArray()));
+    }
+
+    @Test
+    public void write_withDataLargerThanBuffer_shouldCompressEverything() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImapDeflaterOutputStream deflaterOutputStream = createDeflaterOutputStream(out);
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + (i * 7 + i / 13) % 26);
+        }
+
+        deflaterOutputStream.write(data);
+        deflaterOutputStream.flush();
+
+        assertArrayEquals(data, inflate(out.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void write_afterClose_shouldThrow() throws Exception {
+        ImapDeflaterOutputStream deflaterOutputStream = createDeflaterOutputStream(new ByteArrayOutputStream());
+        deflaterOutputStream.close();
+
+        deflaterOutputStream.write(1);
+    }
+
+
+    private ImapDeflaterOutputStream createDeflaterOutputStream(ByteArrayOutputStream out) {
+        return new ImapDeflaterOutputStream(out, JZlib.Z_BEST_SPEED, 64, CPU_TIME);
+    }
+
+    private byte[] inflate(byte[] compressed) throws Exception {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inflater.inflate(buffer)) > 0) {
+            result.write(buffer, 0, count);
+        }
+
+        assertTrue(inflater.needsInput());
+        inflater.end();
+
+        return result.toByteArray();
+    }
+}
@@ -1091,6 +1091,19 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("UID SEARCH OR SUBJECT \"query\" FROM \"query\"");
     }
 
+    @Test
+    public void search_withEsearchCapability_shouldRequestSequenceSet() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        when(storeConfig.allowRemoteSearch()).thenReturn(true);
+        when(storeConfig.isRemoteSearchFullText()).thenReturn(true);
+        when(imapConnection.hasCapability(Capabilities.ESEARCH)).thenReturn(true);
+
+        folder.search("query", Collections.<Flag>emptySet(), newSet(Flag.DELETED));
+
+        verify(imapConnection).executeSimpleCommand("UID SEARCH RETURN (ALL) UNDELETED TEXT \"query\"");
+    }
+
     @Test
     public void search_withRemoteSearchDisabled_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
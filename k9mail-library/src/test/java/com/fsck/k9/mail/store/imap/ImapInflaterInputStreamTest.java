@@ -0,0 +1,120 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.metrics.Counter;
+import com.fsck.k9.mail.metrics.Metrics;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapInflaterInputStreamTest {
+    private static final Counter CPU_TIME = Metrics.counter("test.inflate_cpu_ns");
+
+
+    @Test
+    public void read_shouldDecompressData() throws Exception {
+        ImapInflaterInputStream inputStream = createInflaterInputStream("* OK DEFLATE active\r\n");
+
+        String result = IOUtils.toString(inputStream, "US-ASCII");
+
+        assertEquals("* OK DEFLATE active\r\n", result);
+    }
+
+    @Test
+    public void read_afterPreviousStreamWasClosed_shouldStartWithFreshInflaterState() throws Exception {
+        ImapInflaterInputStream firstInputStream = createInflaterInputStream("first connection\r\n");
+        assertEquals('f', firstInputStream.read());
+        firstInputStream.close();
+
+        ImapInflaterInputStream secondInputStream = createInflaterInputStream("second connection\r\n");
+        String result = IOUtils.toString(secondInputStream, "US-ASCII");
+
+        assertEquals("second connection\r\n", result);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_afterClose_shouldThrow() throws Exception {
+        ImapInflaterInputStream inputStream = createInflaterInputStream("data");
+        inputStream.close();
+
+        inputStream.read();
+    }
+
+    @Test
+    public void close_whileReadIsBlocked_shouldNotPoolInflater() throws Exception {
+        final ImapInflaterInputStream blockedInputStream =
+                new ImapInflaterInputStream(new BlockingInputStream(), 16, CPU_TIME);
+        Thread readThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    blockedInputStream.read();
+                } catch (IOException e) {
+                    // Expected when the stream is closed
+                }
+            }
+        };
+        readThread.start();
+        while (readThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+
+        blockedInputStream.close();
+        readThread.join();
+
+        ImapInflaterInputStream nextInputStream = createInflaterInputStream("next connection\r\n");
+        assertNotSame(blockedInputStream.getInflater(), nextInputStream.getInflater());
+        assertEquals("next connection\r\n", IOUtils.toString(nextInputStream, "US-ASCII"));
+    }
+
+
+    private ImapInflaterInputStream createInflaterInputStream(String data) {
+        return new ImapInflaterInputStream(new ByteArrayInputStream(deflate(data.getBytes())), 16, CPU_TIME);
+    }
+
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(data);
+        deflater.finish();
+
+        byte[] buffer = new byte[data.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+
+    private static class BlockingInputStream extends InputStream {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Stream closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -293,6 +293,20 @@ public class ImapStoreTest {
         assertSame(imapConnectionTwo, result);
     }
 
+    @Test
+    public void getConnection_withAllPushersIdle_shouldNotWaitForFreeSlot() throws Exception {
+        for (int i = 0; i < ImapStore.MAX_CONNECTIONS; i++) {
+            imapStore.enqueueImapConnection(mock(ImapConnection.class));
+            imapStore.createPushConnection();
+        }
+        ImapConnection syncConnection = mock(ImapConnection.class);
+        imapStore.enqueueImapConnection(syncConnection);
+
+        ImapConnection result = imapStore.getConnection();
+
+        assertSame(syncConnection, result);
+    }
+
     private StoreConfig createStoreConfig() {
         StoreConfig storeConfig = mock(StoreConfig.class);
         when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
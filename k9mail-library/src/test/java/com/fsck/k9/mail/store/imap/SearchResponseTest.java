@@ -65,4 +65,34 @@ public class SearchResponseTest {
         assertNotNull(result);
         assertEquals(Collections.emptyList(), result.getNumbers());
     }
+
+    @Test
+    public void parse_withEsearchResponse_shouldExpandSequenceSet() throws Exception {
+        List<ImapResponse> responses = singletonList(createImapResponse("* ESEARCH (TAG \"A1\") UID ALL 4:6,9,12:11"));
+
+        SearchResponse result = SearchResponse.parse(responses);
+
+        assertNotNull(result);
+        assertEquals(asList(4L, 5L, 6L, 9L, 11L, 12L), result.getNumbers());
+    }
+
+    @Test
+    public void parse_withEsearchResponseContainingOtherResultOptions_shouldOnlyUseAll() throws Exception {
+        List<ImapResponse> responses = singletonList(createImapResponse("* ESEARCH (TAG \"A1\") UID COUNT 2 ALL 3,7"));
+
+        SearchResponse result = SearchResponse.parse(responses);
+
+        assertNotNull(result);
+        assertEquals(asList(3L, 7L), result.getNumbers());
+    }
+
+    @Test
+    public void parse_withEmptyEsearchResponse_shouldReturnEmptyList() throws Exception {
+        List<ImapResponse> responses = singletonList(createImapResponse("* ESEARCH (TAG \"A1\") UID"));
+
+        SearchResponse result = SearchResponse.parse(responses);
+
+        assertNotNull(result);
+        assertEquals(Collections.emptyList(), result.getNumbers());
+    }
 }
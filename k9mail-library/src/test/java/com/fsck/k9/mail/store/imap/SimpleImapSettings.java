@@ -16,6 +16,7 @@ class SimpleImapSettings implements ImapSettings {
     private String pathPrefix;
     private String pathDelimiter;
     private String combinedPrefix;
+    private CachedCapabilities cachedCapabilities;
     private boolean useCompression = false;
 
 
@@ -89,6 +90,16 @@ class SimpleImapSettings implements ImapSettings {
         combinedPrefix = prefix;
     }
 
+    @Override
+    public CachedCapabilities getCachedCapabilities() {
+        return cachedCapabilities;
+    }
+
+    @Override
+    public void setCachedCapabilities(CachedCapabilities capabilities) {
+        cachedCapabilities = capabilities;
+    }
+
     void setHost(String host) {
         this.host = host;
     }
@@ -0,0 +1,48 @@
+package com.fsck.k9.mail.store.webdav;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LineLimitingInputStreamTest {
+    @Test
+    public void read_shouldStopAfterMaxLines() throws Exception {
+        InputStream stream = createStream("one\r\ntwo\r\nthree\r\n", 2);
+
+        assertEquals("one\r\ntwo\r\n", IOUtils.toString(stream, "US-ASCII"));
+    }
+
+    @Test
+    public void read_withFewerLines_shouldReturnEverything() throws Exception {
+        InputStream stream = createStream("one\r\ntwo", 5);
+
+        assertEquals("one\r\ntwo", IOUtils.toString(stream, "US-ASCII"));
+    }
+
+    @Test
+    public void read_withZeroLines_shouldReturnNothing() throws Exception {
+        InputStream stream = createStream("one\r\n", 0);
+
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void readSingleBytes_shouldStopAfterMaxLines() throws Exception {
+        InputStream stream = createStream("a\nb\n", 1);
+
+        assertEquals('a', stream.read());
+        assertEquals('\n', stream.read());
+        assertEquals(-1, stream.read());
+    }
+
+
+    private static InputStream createStream(String data, int maxLines) throws Exception {
+        return new LineLimitingInputStream(new ByteArrayInputStream(data.getBytes("US-ASCII")), maxLines);
+    }
+}
@@ -8,12 +8,13 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.store.StoreConfig;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.protocol.HttpContext;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -38,6 +39,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -47,15 +49,19 @@ import static org.mockito.Mockito.when;
 import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @SuppressWarnings("deprecation")
 @RunWith(K9LibRobolectricTestRunner.class)
@@ -79,11 +85,12 @@ public class WebDavFolderTest {
     @Captor
     private ArgumentCaptor<String> urlCaptor;
     @Captor
-    private ArgumentCaptor<StringEntity> entityCaptor;
+    private ArgumentCaptor<HttpEntity> entityCaptor;
 
     private WebDavFolder folder;
 
     private WebDavFolder destinationFolder;
+    private ExecutorService fetchExecutor;
     private String storeUrl = "https://localhost/webDavStoreUrl";
     private String folderName = "testFolder";
     private String moveOrCopyXml = "<xml>MoveOrCopyXml</xml>";
@@ -95,12 +102,20 @@ public class WebDavFolderTest {
         MockitoAnnotations.initMocks(this);
         when(mockStore.getUrl()).thenReturn(storeUrl);
         when(mockStore.getHttpClient()).thenReturn(mockHttpClient);
+        when(mockStore.getMessageFetchHttpClient()).thenReturn(mockHttpClient);
+        fetchExecutor = Executors.newSingleThreadExecutor();
+        when(mockStore.getMessageFetchExecutor()).thenReturn(fetchExecutor);
         when(mockStore.getStoreConfig()).thenReturn(mockStoreConfig);
         folder = new WebDavFolder(mockStore, folderName);
 
         setupTempDirectory();
     }
 
+    @After
+    public void tearDown() {
+        fetchExecutor.shutdownNow();
+    }
+
     private void setupTempDirectory() {
         File tempDirectory = new File("temp");
         if (!tempDirectory.exists()) {
@@ -291,6 +306,43 @@ public class WebDavFolderTest {
         return messages;
     }
 
+    @Test
+    public void folder_looks_up_missing_message_urls_with_single_request() throws Exception {
+        setupStoreForMessageFetching();
+        List<WebDavMessage> messages = new ArrayList<>();
+        Map<String, String> uidToUrl = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(new WebDavMessage("message" + i, folder));
+            uidToUrl.put("message" + i, "http://example.org/Exchange/user/Inbox/message" + i + ".EML");
+        }
+        String getUrlsXml = "<xml>GetUrls</xml>";
+        when(mockStore.getMessageUrlsXml(new String[] { "message0", "message1", "message2" })).thenReturn(getUrlsXml);
+        when(mockStore.processRequest(anyString(), eq("SEARCH"), eq(getUrlsXml), anyMapOf(String.class, String.class)))
+                .thenReturn(mockDataSet);
+        when(mockDataSet.getUidToUrl()).thenReturn(uidToUrl);
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        HttpResponse httpResponse = mock(HttpResponse.class);
+                        StatusLine statusLine = mock(StatusLine.class);
+                        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+                        when(statusLine.getStatusCode()).thenReturn(200);
+                        return httpResponse;
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY);
+        folder.fetch(messages, profile, listener);
+
+        verify(mockStore, times(1)).processRequest(anyString(), anyString(), anyString(),
+                anyMapOf(String.class, String.class));
+        verify(mockHttpClient, times(3)).executeOverride(any(HttpUriRequest.class), any(HttpContext.class));
+        assertEquals("http://example.org/Exchange/user/Inbox/message1.EML", messages.get(1).getUrl());
+        verify(listener, times(3)).messageFinished(any(WebDavMessage.class), anyInt(), eq(3));
+    }
+
     @Test
     public void folder_can_handle_empty_response_to_body_request() throws MessagingException, IOException {
         setupStoreForMessageFetching();
@@ -549,4 +601,31 @@ public class WebDavFolderTest {
         assertTrue(urlCaptor.getValue().startsWith(storeUrl + "/" + folderName + "/" + messageUid));
         assertTrue(urlCaptor.getValue().endsWith(".eml"));
     }
+
+    @Test
+    public void appendWebDavMessages_streamsMessageWithCrLfLineEndings() throws Exception {
+        List<Message> existingMessages = new ArrayList<>();
+        Message existingMessage = mock(Message.class);
+        existingMessages.add(existingMessage);
+        when(existingMessage.getUid()).thenReturn("testMessageUid");
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                OutputStream out = (OutputStream) invocation.getArguments()[0];
+                out.write("Subject: Test\n\nBody\n".getBytes("US-ASCII"));
+                return null;
+            }
+        }).when(existingMessage).writeTo(any(OutputStream.class));
+
+        folder.appendWebDavMessages(existingMessages);
+
+        verify(mockStore).sendRequest(anyString(), eq("PUT"), entityCaptor.capture(),
+                Matchers.<Map<String, String>>eq(null), eq(true));
+        HttpEntity entity = entityCaptor.getValue();
+        assertTrue(entity.isChunked());
+        assertEquals("message/rfc822", entity.getContentType().getValue());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertEquals("Subject: Test\r\n\r\nBody\r\n", out.toString("US-ASCII"));
+    }
 }
@@ -0,0 +1,84 @@
+package com.fsck.k9;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import timber.log.Timber;
+
+
+/**
+ * Runs initialization work that isn't needed to show the first screen after {@link K9#onCreate()} has returned.
+ * <p>
+ * Tasks run one after another on a background thread in the order they were added. A task that fails is logged and
+ * doesn't keep the remaining tasks from running. The thread goes away once all tasks are done.
+ */
+class DeferredStartupTasks {
+    private static final String THREAD_NAME = "DeferredStartup";
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+
+    private final Executor executor;
+    private final List<Runnable> tasks = new ArrayList<>();
+
+
+    DeferredStartupTasks() {
+        this(createExecutor());
+    }
+
+    @VisibleForTesting
+    DeferredStartupTasks(Executor executor) {
+        this.executor = executor;
+    }
+
+    DeferredStartupTasks add(Runnable task) {
+        tasks.add(task);
+        return this;
+    }
+
+    /**
+     * Schedules the tasks added so far and returns without waiting for them.
+     */
+    void start() {
+        final List<Runnable> scheduledTasks = new ArrayList<>(tasks);
+        tasks.clear();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable task : scheduledTasks) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        Timber.e(e, "Deferred startup task failed");
+                    }
+                }
+            }
+        });
+    }
+
+    private static Executor createExecutor() {
+        return new ThreadPoolExecutor(0, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, THREAD_NAME);
+                    }
+                });
+    }
+}
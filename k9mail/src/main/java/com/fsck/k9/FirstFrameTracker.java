@@ -0,0 +1,99 @@
+package com.fsck.k9;
+
+
+import java.util.concurrent.TimeUnit;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Application.ActivityLifecycleCallbacks;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
+import timber.log.Timber;
+
+
+/**
+ * Measures the time from process start until the first activity is about to draw its first frame.
+ * <p>
+ * The result is recorded in the {@code startup.time_to_first_frame_us} histogram and logged. Process start is only
+ * known on Android 7.0 and newer; on older versions the time {@link K9#onCreate()} was entered is used instead.
+ * <p>
+ * Only the first activity shown by a process is measured. If the process was started for a service or broadcast
+ * receiver, the measurement also includes the time until the user opened the app.
+ */
+class FirstFrameTracker implements ActivityLifecycleCallbacks {
+    private static final Histogram TIME_TO_FIRST_FRAME = Metrics.histogram("startup.time_to_first_frame_us");
+
+
+    private final Application application;
+    private final long startTime;
+
+
+    FirstFrameTracker(Application application, long applicationCreateTime) {
+        this.application = application;
+        startTime = getProcessStartTime(applicationCreateTime);
+    }
+
+    void start() {
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        application.unregisterActivityLifecycleCallbacks(this);
+
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                recordFirstFrame();
+                return true;
+            }
+        });
+    }
+
+    private void recordFirstFrame() {
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        TIME_TO_FIRST_FRAME.record(TimeUnit.MILLISECONDS.toMicros(elapsed));
+
+        Timber.i("Time to first frame: %d ms", elapsed);
+    }
+
+    private static long getProcessStartTime(long applicationCreateTime) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return applicationCreateTime;
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -5,11 +5,13 @@ package com.fsck.k9;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.SynchronousQueue;
 
 import android.app.Application;
@@ -26,6 +28,7 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.StrictMode;
+import android.os.SystemClock;
 
 import com.fsck.k9.Account.SortType;
 import com.fsck.k9.activity.MessageCompose;
@@ -38,6 +41,7 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.ssl.LocalKeyStore;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.MessageViewInfoExtractor;
 import com.fsck.k9.power.DeviceIdleManager;
 import com.fsck.k9.preferences.Storage;
 import com.fsck.k9.preferences.StorageEditor;
@@ -46,6 +50,7 @@ import com.fsck.k9.service.BootReceiver;
 import com.fsck.k9.service.MailService;
 import com.fsck.k9.service.ShutdownReceiver;
 import com.fsck.k9.service.StorageGoneReceiver;
+import com.fsck.k9.ui.message.MessageViewPrerenderer;
 import com.fsck.k9.widget.list.MessageListWidgetProvider;
 import timber.log.Timber;
 import timber.log.Timber.DebugTree;
@@ -528,6 +533,8 @@ public class K9 extends Application {
 
     @Override
     public void onCreate() {
+        long startTime = SystemClock.elapsedRealtime();
+
         if (K9.DEVELOPER_MODE) {
             StrictMode.enableDefaults();
         }
@@ -538,6 +545,8 @@ public class K9 extends Application {
         app = this;
         Globals.setContext(this);
 
+        new FirstFrameTracker(this, startTime).start();
+
         K9MailLib.setDebugStatus(new K9MailLib.DebugStatus() {
             @Override public boolean enabled() {
                 return DEBUG;
@@ -561,11 +570,6 @@ public class K9 extends Application {
 
         LocalKeyStore.setKeyStoreLocation(getDir("KeyStore", MODE_PRIVATE).toString());
 
-        /*
-         * Enable background sync of messages
-         */
-
-        setServicesEnabled(this);
         registerReceivers();
 
         MessagingController.getInstance(this).addListener(new SimpleMessagingListener() {
@@ -648,7 +652,87 @@ public class K9 extends Application {
 
         });
 
+        MessagingController.getInstance(this).addListener(
+                new MessageViewPrerenderer(MessageViewInfoExtractor.getInstance()));
+
         notifyObservers();
+
+        runDeferredStartupTasks();
+
+        Timber.i("Application start took %d ms", SystemClock.elapsedRealtime() - startTime);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // The process may be killed any time while in the background. Save preference changes that are still
+            // waiting to be written. The write happens on the storage thread; onTrimMemory() runs on the main thread.
+            Preferences.getPreferences(this).getStorage().flushPendingWritesInBackground();
+        }
+    }
+
+    /**
+     * Runs initialization work that isn't needed to show the first screen on a background thread.
+     * <p>
+     * Loading the accounts, enabling background sync (which schedules {@link MailService} and sets up push) and
+     * opening the account databases used to happen in {@link #onCreate()} and delayed the first frame considerably
+     * when many accounts were configured.
+     */
+    private void runDeferredStartupTasks() {
+        new DeferredStartupTasks()
+                .add(new Runnable() {
+                    @Override
+                    public void run() {
+                        /*
+                         * Enable background sync of messages
+                         */
+                        setServicesEnabled(K9.this);
+                    }
+                })
+                .add(new Runnable() {
+                    @Override
+                    public void run() {
+                        openLocalStores();
+                    }
+                })
+                .start();
+    }
+
+    /**
+     * Opens the databases of all available accounts in parallel, so the first access from the UI finds them ready.
+     * <p>
+     * Nothing is opened while database upgrades are pending; {@link UpgradeDatabases} takes care of those.
+     */
+    private void openLocalStores() {
+        if (!areDatabasesUpToDate()) {
+            return;
+        }
+
+        Collection<Account> accounts = Preferences.getPreferences(this).getAvailableAccounts();
+        final CountDownLatch latch = new CountDownLatch(accounts.size());
+        for (final Account account : accounts) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        account.getLocalStore();
+                    } catch (Exception e) {
+                        Timber.e(e, "Failed to open local store for account %s", account.getUuid());
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            latch.await();
+            Timber.i("Opened %d local store(s)", accounts.size());
+        } catch (InterruptedException e) {
+            Timber.w(e, "Interrupted while opening local stores");
+        }
     }
 
     /**
@@ -2017,7 +2017,8 @@ public class Accounts extends K9ListActivity implements OnItemClickListener {
     /**
      * Handles importing of global settings and/or accounts in a background thread.
      */
-    private static class ImportAsyncTask extends ExtendedAsyncTask<Void, Void, Boolean> {
+    private static class ImportAsyncTask extends ExtendedAsyncTask<Void, String, Boolean>
+            implements SettingsImporter.ImportProgressListener {
         private boolean mIncludeGlobals;
         private List<String> mAccountUuids;
         private boolean mOverwrite;
@@ -2046,7 +2047,7 @@ public class Accounts extends K9ListActivity implements OnItemClickListener {
                 InputStream is = mContext.getContentResolver().openInputStream(mUri);
                 try {
                     mImportResults = SettingsImporter.importSettings(mContext, is,
-                                     mIncludeGlobals, mAccountUuids, mOverwrite);
+                                     mIncludeGlobals, mAccountUuids, mOverwrite, this);
                 } finally {
                     try {
                         is.close();
@@ -2067,6 +2068,19 @@ public class Accounts extends K9ListActivity implements OnItemClickListener {
             return true;
         }
 
+        @Override
+        public void onFolderSettingsImported(String accountName, int importedFolders, int totalFolders) {
+            publishProgress(mContext.getString(R.string.settings_importing_folders, accountName, importedFolders,
+                    totalFolders));
+        }
+
+        @Override
+        protected void onProgressUpdate(String... values) {
+            if (mProgressDialog != null) {
+                mProgressDialog.setMessage(values[0]);
+            }
+        }
+
         @Override
         protected void onPostExecute(Boolean success) {
             Accounts activity = (Accounts) mActivity;
@@ -27,6 +27,7 @@ import com.fsck.k9.helper.RetainFragment;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.MessageViewInfo;
+import com.fsck.k9.mailstore.MessageViewInfoExtractor;
 import com.fsck.k9.ui.crypto.MessageCryptoAnnotations;
 import com.fsck.k9.ui.crypto.MessageCryptoCallback;
 import com.fsck.k9.ui.crypto.MessageCryptoHelper;
@@ -89,6 +90,7 @@ public class MessageLoaderHelper {
     private LocalMessage localMessage;
     private MessageCryptoAnnotations messageCryptoAnnotations;
     private OpenPgpDecryptionResult cachedDecryptionResult;
+    private long textSizeLimit = MessageViewInfoExtractor.DEFAULT_TEXT_SIZE_LIMIT;
 
     private MessageCryptoHelper messageCryptoHelper;
 
@@ -108,6 +110,7 @@ public class MessageLoaderHelper {
     public void asyncStartOrResumeLoadingMessage(MessageReference messageReference, Parcelable cachedDecryptionResult) {
         this.messageReference = messageReference;
         this.account = Preferences.getPreferences(context).getAccount(messageReference.getAccountUuid());
+        this.textSizeLimit = MessageViewInfoExtractor.DEFAULT_TEXT_SIZE_LIMIT;
 
         if (cachedDecryptionResult != null) {
             if (cachedDecryptionResult instanceof OpenPgpDecryptionResult) {
@@ -136,6 +139,14 @@ public class MessageLoaderHelper {
         }
     }
 
+    /** Decodes the message again, displaying more of its text than before. */
+    @UiThread
+    public void asyncShowMoreMessageContent() {
+        textSizeLimit = Math.min(textSizeLimit * 4, MessageViewInfoExtractor.MAX_TEXT_SIZE_LIMIT);
+        cancelAndClearDecodeLoader();
+        startOrResumeDecodeMessage();
+    }
+
     /** Cancels all loading processes, prevents future callbacks, and destroys all loading state. */
     @UiThread
     public void onDestroy() {
@@ -335,7 +346,8 @@ public class MessageLoaderHelper {
     private void startOrResumeDecodeMessage() {
         LocalMessageExtractorLoader loader =
                 (LocalMessageExtractorLoader) loaderManager.<MessageViewInfo>getLoader(DECODE_MESSAGE_LOADER_ID);
-        boolean isLoaderStale = (loader == null) || !loader.isCreatedFor(localMessage, messageCryptoAnnotations);
+        boolean isLoaderStale = (loader == null) ||
+                !loader.isCreatedFor(localMessage, messageCryptoAnnotations, textSizeLimit);
 
         if (isLoaderStale) {
             Timber.d("Creating new decode message loader");
@@ -376,7 +388,7 @@ public class MessageLoaderHelper {
             if (id != DECODE_MESSAGE_LOADER_ID) {
                 throw new IllegalStateException("loader id must be message decoder id");
             }
-            return new LocalMessageExtractorLoader(context, localMessage, messageCryptoAnnotations);
+            return new LocalMessageExtractorLoader(context, localMessage, messageCryptoAnnotations, textSizeLimit);
         }
 
         @Override
@@ -0,0 +1,406 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
+import timber.log.Timber;
+
+
+/**
+ * Runs {@link MessagingController} commands on a shared, bounded thread pool.
+ * <p>
+ * Every command is assigned to a lane; there's one lane per account and one global lane for commands that are not
+ * tied to a single account. Commands in the same lane are executed one at a time, foreground commands first and
+ * otherwise in the order they were submitted. Commands in different lanes run in parallel, limited by the size of the
+ * thread pool. So a slow command for one account no longer delays commands for other accounts.
+ * <p>
+ * Commands can be cancelled and can have a deadline. A command that is cancelled or whose deadline has passed before
+ * it was started is skipped. Running commands aren't interrupted, they have to check
+ * {@link #isCurrentCommandCancelled()} at points where they can stop safely.
+ */
+class CommandScheduler {
+    static final String GLOBAL_LANE = "global";
+
+    private static final long UNAVAILABLE_ACCOUNT_RETRY_DELAY = 30 * 1000;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final Histogram QUEUE_DEPTH = Metrics.histogram("controller.queue_depth");
+    private static final Histogram QUEUE_WAIT_TIME = Metrics.histogram("controller.queue_wait_us");
+    private static final Histogram COMMAND_TIME = Metrics.histogram("controller.command_us");
+
+    private static final ThreadLocal<Command> CURRENT_COMMAND = new ThreadLocal<>();
+
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger sequencing = new AtomicInteger(0);
+
+    // Guarded by "lanes". Idle lanes are removed from the map.
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private int queuedCommandCount = 0;
+    private boolean stopped = false;
+
+
+    CommandScheduler(int poolSize) {
+        executor = new ThreadPoolExecutor(poolSize, poolSize, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CommandThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "MessagingController-Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds a command to the end of a lane.
+     *
+     * @param laneKey
+     *         The lane to execute the command in, usually an account UUID or {@link #GLOBAL_LANE}.
+     * @param timeoutMillis
+     *         Maximum time in milliseconds until the command has to be finished. {@code 0} means no deadline.
+     *
+     * @return The {@link Command} instance that can be used to cancel the command.
+     */
+    Command submit(String laneKey, String description, Runnable runnable, boolean isForeground, long timeoutMillis) {
+        return submit(laneKey, description, runnable, isForeground, timeoutMillis, true);
+    }
+
+    private Command submit(String laneKey, String description, Runnable runnable, boolean isForeground,
+            long timeoutMillis, boolean isCancellable) {
+        Command command = new Command(isCancellable);
+        command.laneKey = laneKey;
+        command.description = description;
+        command.runnable = runnable;
+        command.isForegroundPriority = isForeground;
+        command.sequence = sequencing.getAndIncrement();
+        command.deadline = (timeoutMillis > 0) ? SystemClock.elapsedRealtime() + timeoutMillis : 0;
+
+        enqueue(command);
+
+        return command;
+    }
+
+    /**
+     * Runs a command in the global lane once all commands that are currently queued or running in any lane have
+     * finished.
+     * <p>
+     * The barrier commands added to the lanes and the command itself can't be cancelled. Otherwise cancelling a lane
+     * would keep the command from ever running.
+     */
+    void submitAfterPending(final String description, final Runnable runnable) {
+        List<Lane> activeLanes;
+        synchronized (lanes) {
+            activeLanes = new ArrayList<>(lanes.values());
+        }
+
+        if (activeLanes.isEmpty()) {
+            submit(GLOBAL_LANE, description, runnable, false, 0, false);
+            return;
+        }
+
+        final AtomicInteger remainingLanes = new AtomicInteger(activeLanes.size());
+        Runnable barrier = new Runnable() {
+            @Override
+            public void run() {
+                if (remainingLanes.decrementAndGet() == 0) {
+                    submit(GLOBAL_LANE, description, runnable, false, 0, false);
+                }
+            }
+        };
+
+        for (Lane lane : activeLanes) {
+            submit(lane.key, "barrier for " + description, barrier, false, 0, false);
+        }
+    }
+
+    /**
+     * Returns whether the command running on the current thread has been cancelled or has exceeded its deadline.
+     * <p>
+     * Long-running commands should call this between steps and return early if it returns {@code true}.
+     */
+    static boolean isCurrentCommandCancelled() {
+        Command command = CURRENT_COMMAND.get();
+        return command != null && command.isCancelled();
+    }
+
+    /**
+     * Cancels all queued and running commands of a lane.
+     */
+    void cancelLane(String laneKey) {
+        List<Command> commands = new ArrayList<>();
+        synchronized (lanes) {
+            Lane lane = lanes.get(laneKey);
+            if (lane == null) {
+                return;
+            }
+
+            commands.addAll(lane.queue);
+            if (lane.currentCommand != null) {
+                commands.add(lane.currentCommand);
+            }
+        }
+
+        for (Command command : commands) {
+            command.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting to be executed in all lanes.
+     */
+    int getQueuedCommandCount() {
+        synchronized (lanes) {
+            return queuedCommandCount;
+        }
+    }
+
+    void stop(long timeoutMillis) throws InterruptedException {
+        synchronized (lanes) {
+            stopped = true;
+            for (Lane lane : lanes.values()) {
+                queuedCommandCount -= lane.queue.size();
+                lane.queue.clear();
+            }
+        }
+
+        timer.shutdownNow();
+        executor.shutdownNow();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void enqueue(Command command) {
+        synchronized (lanes) {
+            if (stopped) {
+                Timber.w("Dropping command '%s' because the controller has been stopped", command.description);
+                return;
+            }
+
+            Lane lane = lanes.get(command.laneKey);
+            if (lane == null) {
+                lane = new Lane(command.laneKey);
+                lanes.put(command.laneKey, lane);
+            }
+
+            command.enqueueTime = Metrics.startTimer();
+            lane.queue.add(command);
+            queuedCommandCount++;
+            QUEUE_DEPTH.record(queuedCommandCount);
+
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                execute(lane);
+            }
+        }
+    }
+
+    // Must be called while holding the "lanes" lock
+    private void execute(Lane lane) {
+        try {
+            executor.execute(lane);
+        } catch (RejectedExecutionException e) {
+            Timber.e(e, "Unable to schedule commands for lane %s", lane.key);
+            lane.scheduled = false;
+        }
+    }
+
+    private void runCommand(final Command command) {
+        if (command.isCancelled()) {
+            Timber.i("Skipping cancelled command '%s'", command.description);
+            return;
+        }
+
+        if (command.isExpired()) {
+            Timber.w("Skipping command '%s', its deadline has passed", command.description);
+            return;
+        }
+
+        QUEUE_WAIT_TIME.recordElapsed(command.enqueueTime);
+        long startTime = Metrics.startTimer();
+
+        Timber.i("Running command '%s', seq = %s (%s priority)",
+                command.description,
+                command.sequence,
+                command.isForegroundPriority ? "foreground" : "background");
+
+        ScheduledFuture<?> deadlineFuture = null;
+        try {
+            CURRENT_COMMAND.set(command);
+
+            if (command.deadline != 0) {
+                long remainingTime = command.deadline - SystemClock.elapsedRealtime();
+                deadlineFuture = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        Timber.w("Command '%s' exceeded its deadline", command.description);
+                        command.cancel();
+                    }
+                }, remainingTime, TimeUnit.MILLISECONDS);
+            }
+
+            command.runnable.run();
+
+            COMMAND_TIME.recordElapsed(startTime);
+            Timber.i(" Command '%s' completed", command.description);
+        } catch (UnavailableAccountException e) {
+            retryLater(command);
+        } catch (Exception e) {
+            Timber.e(e, "Error running command '%s'", command.description);
+        } finally {
+            if (deadlineFuture != null) {
+                deadlineFuture.cancel(false);
+            }
+
+            CURRENT_COMMAND.remove();
+        }
+    }
+
+    private void retryLater(final Command command) {
+        Timber.i("Account unavailable, retrying command '%s' in %d ms", command.description,
+                UNAVAILABLE_ACCOUNT_RETRY_DELAY);
+
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    enqueue(command);
+                }
+            }, UNAVAILABLE_ACCOUNT_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Timber.w("Dropping command '%s' because the controller has been stopped", command.description);
+        }
+    }
+
+
+    private class Lane implements Runnable {
+        final String key;
+        final PriorityQueue<Command> queue = new PriorityQueue<>();
+        boolean scheduled;
+        Command currentCommand;
+
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Runs the next command of this lane and then gives the thread back to the pool so lanes are served in a
+         * round-robin fashion.
+         */
+        @Override
+        public void run() {
+            Command command;
+            synchronized (lanes) {
+                command = queue.poll();
+                if (command != null) {
+                    queuedCommandCount--;
+                }
+                currentCommand = command;
+            }
+
+            if (command != null) {
+                runCommand(command);
+            }
+
+            synchronized (lanes) {
+                currentCommand = null;
+
+                if (stopped) {
+                    scheduled = false;
+                } else if (queue.isEmpty()) {
+                    scheduled = false;
+                    lanes.remove(key);
+                } else {
+                    execute(this);
+                }
+            }
+        }
+    }
+
+    static class Command implements Comparable<Command> {
+        String laneKey;
+        Runnable runnable;
+        String description;
+        boolean isForegroundPriority;
+        int sequence;
+        long deadline;
+        long enqueueTime;
+
+        private final boolean isCancellable;
+        private volatile boolean cancelled;
+
+
+        Command(boolean isCancellable) {
+            this.isCancellable = isCancellable;
+        }
+
+        /**
+         * Cancels this command, unless it's not cancellable. A command that is already running stops the next time it
+         * checks {@link CommandScheduler#isCurrentCommandCancelled()}.
+         */
+        void cancel() {
+            if (isCancellable) {
+                cancelled = true;
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isExpired() {
+            return deadline != 0 && SystemClock.elapsedRealtime() >= deadline;
+        }
+
+        @Override
+        public int compareTo(@NonNull Command other) {
+            if (other.isForegroundPriority && !isForegroundPriority) {
+                return 1;
+            } else if (!other.isForegroundPriority && isForegroundPriority) {
+                return -1;
+            } else {
+                return (sequence - other.sequence);
+            }
+        }
+    }
+
+    private static class CommandThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            });
+            thread.setName("MessagingController-" + threadNumber.getAndIncrement());
+            return thread;
+        }
+    }
+}
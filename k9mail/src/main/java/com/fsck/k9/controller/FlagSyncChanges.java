@@ -0,0 +1,99 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.MessageFlagState;
+
+
+/**
+ * Collects the differences between the flags of remote messages and their local copies.
+ * <p>
+ * Changes are grouped by flag and new state, so {@link #apply(LocalStore, LocalFolder)} can write them using one
+ * {@code UPDATE ... WHERE id IN (...)} statement per group instead of updating every message on its own. Observers
+ * are notified once after all groups have been written. Messages that were deleted on the server are loaded together
+ * but still go through {@link LocalMessage#setFlag(Flag, boolean)}, because their local content has to be removed as
+ * well.
+ */
+class FlagSyncChanges {
+    private final Set<Flag> syncFlags;
+    private final boolean syncRemoteDeletions;
+    private final Map<Flag, List<Long>> setFlags = new EnumMap<>(Flag.class);
+    private final Map<Flag, List<Long>> clearedFlags = new EnumMap<>(Flag.class);
+    private final List<String> deletedUids = new ArrayList<>();
+    private final List<String> changedUids = new ArrayList<>();
+
+
+    FlagSyncChanges(Set<Flag> syncFlags, boolean syncRemoteDeletions) {
+        this.syncFlags = syncFlags;
+        this.syncRemoteDeletions = syncRemoteDeletions;
+    }
+
+    /**
+     * Compares the flags of a remote message with the local state. {@code localState} is {@code null} if there's no
+     * local copy or it has been deleted.
+     */
+    void add(MessageFlagState localState, Message remoteMessage) {
+        if (localState == null) {
+            return;
+        }
+
+        String uid = remoteMessage.getUid();
+        if (remoteMessage.isSet(Flag.DELETED)) {
+            if (syncRemoteDeletions) {
+                deletedUids.add(uid);
+                changedUids.add(uid);
+            }
+            return;
+        }
+
+        boolean messageChanged = false;
+        for (Flag flag : syncFlags) {
+            boolean remoteState = remoteMessage.isSet(flag);
+            if (remoteState != localState.isSet(flag)) {
+                Map<Flag, List<Long>> changes = remoteState ? setFlags : clearedFlags;
+                List<Long> messageIds = changes.get(flag);
+                if (messageIds == null) {
+                    messageIds = new ArrayList<>();
+                    changes.put(flag, messageIds);
+                }
+
+                messageIds.add(localState.getDatabaseId());
+                messageChanged = true;
+            }
+        }
+
+        if (messageChanged) {
+            changedUids.add(uid);
+        }
+    }
+
+    void apply(LocalStore localStore, LocalFolder localFolder) throws MessagingException {
+        if (!setFlags.isEmpty() || !clearedFlags.isEmpty()) {
+            localStore.setFlags(setFlags, clearedFlags);
+        }
+
+        if (!deletedUids.isEmpty()) {
+            for (LocalMessage localMessage : localFolder.getMessagesByUids(deletedUids)) {
+                localMessage.setFlag(Flag.DELETED, true);
+            }
+        }
+    }
+
+    /**
+     * Returns the UIDs of all messages whose flags differ from the server, in the order they were added.
+     */
+    List<String> getChangedUids() {
+        return changedUids;
+    }
+}
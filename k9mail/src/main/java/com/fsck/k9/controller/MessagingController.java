@@ -18,14 +18,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -67,14 +65,13 @@ import com.fsck.k9.controller.ProgressBodyFactory.ProgressListener;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.AuthenticationFailedException;
-import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.CertificateValidationException;
-import com.fsck.k9.mail.DefaultBodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.MemoryThresholdBodyFactory;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -90,6 +87,8 @@ import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
 import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
 import com.fsck.k9.mail.store.pop3.Pop3Store;
@@ -97,6 +96,7 @@ import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.MessageFlagState;
 import com.fsck.k9.mailstore.MessageRemovalListener;
 import com.fsck.k9.mailstore.UnavailableStorageException;
 import com.fsck.k9.notification.NotificationController;
@@ -114,9 +114,9 @@ import static com.fsck.k9.mail.Flag.X_REMOTE_COPY_STARTED;
 
 
 /**
- * Starts a long running (application) Thread that will run through commands
- * that require remote mailbox access. This class is used to serialize and
- * prioritize these commands. Each method that will submit a command requires a
+ * Runs commands that require remote mailbox access on a {@link CommandScheduler}.
+ * Commands are serialized and prioritized per account, while commands for
+ * different accounts are executed in parallel. Each method that will submit a command requires a
  * MessagingListener instance to be provided. It is expected that that listener
  * has also been added as a registered listener using addListener(). When a
  * command is to be executed, if the listener that was provided with the command
@@ -131,6 +131,34 @@ public class MessagingController {
 
     private static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
 
+    private static final int COMMAND_THREAD_POOL_SIZE = 4;
+    /**
+     * Number of remote search results that are downloaded and stored together.
+     */
+    private static final int REMOTE_SEARCH_PAGE_SIZE = 10;
+    /**
+     * Limits for the groups of small messages that are stored in one transaction during sync. A group is stored when
+     * any of the limits is reached.
+     */
+    private static final int SMALL_MESSAGE_BATCH_MAX_COUNT = 25;
+    private static final long SMALL_MESSAGE_BATCH_MAX_BYTES = 1024 * 1024;
+    private static final long SMALL_MESSAGE_BATCH_MAX_AGE = 1000;
+
+    /**
+     * Maximum time new-mail notifications are held back during sync so they can be posted together.
+     */
+    private static final long NEW_MAIL_NOTIFICATION_MAX_DELAY = 1000;
+
+    /**
+     * Minimum time between two attempts to pre-warm the connection to an account's incoming server.
+     */
+    private static final long PREWARM_CONNECTION_INTERVAL = 60 * 1000;
+
+    private static final Histogram SYNC_FOLDER_TIME = Metrics.histogram("sync.folder_us");
+    private static final Histogram SYNC_PENDING_COMMANDS_TIME = Metrics.histogram("sync.pending_commands_us");
+    private static final Histogram SYNC_LIST_TIME = Metrics.histogram("sync.list_us");
+    private static final Histogram SYNC_DOWNLOAD_TIME = Metrics.histogram("sync.download_us");
+
 
     private static MessagingController inst = null;
 
@@ -139,19 +167,17 @@ public class MessagingController {
     private final Contacts contacts;
     private final NotificationController notificationController;
 
-    private final Thread controllerThread;
-
-    private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
+    private final CommandScheduler commandScheduler;
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lastConnectionPrewarm = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final TransportProvider transportProvider;
 
 
     private MessagingListener checkMailListener = null;
-    private volatile boolean stopped = false;
 
 
     public static synchronized MessagingController getInstance(Context context) {
@@ -174,92 +200,31 @@ public class MessagingController {
         this.contacts = contacts;
         this.transportProvider = transportProvider;
 
-        controllerThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                runInBackground();
-            }
-        });
-        controllerThread.setName("MessagingController");
-        controllerThread.start();
+        commandScheduler = new CommandScheduler(COMMAND_THREAD_POOL_SIZE);
         addListener(memorizingMessagingListener);
     }
 
     @VisibleForTesting
     void stop() throws InterruptedException {
-        stopped = true;
-        controllerThread.interrupt();
-        controllerThread.join(1000L);
-    }
-
-    private void runInBackground() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = queuedCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
-
-                    Timber.i("Running command '%s', seq = %s (%s priority)",
-                            command.description,
-                            command.sequence,
-                            command.isForegroundPriority ? "foreground" : "background");
-
-                    try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    queuedCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Timber.e("Interrupted while putting a pending command for an unavailable account " +
-                                            "back into the queue. THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        }.start();
-                    }
-
-                    Timber.i(" Command '%s' completed", command.description);
-                }
-            } catch (Exception e) {
-                Timber.e(e, "Error running command '%s'", commandDescription);
-            }
-        }
+        commandScheduler.stop(1000L);
     }
 
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, true);
+    private void put(Account account, String description, MessagingListener listener, Runnable runnable) {
+        putCommand(account, description, runnable, true);
     }
 
-    private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, false);
+    private void putBackground(Account account, String description, MessagingListener listener,
+            Runnable runnable) {
+        putCommand(account, description, runnable, false);
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
-            Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+    /**
+     * Queues a command. Commands for the same account are executed in order, commands for different accounts may run
+     * in parallel. Commands without an account are executed in the global lane.
+     */
+    private void putCommand(Account account, String description, Runnable runnable, boolean isForeground) {
+        String laneKey = (account != null) ? account.getUuid() : CommandScheduler.GLOBAL_LANE;
+        commandScheduler.submit(laneKey, description, runnable, isForeground, 0);
     }
 
     public void addListener(MessagingListener listener) {
@@ -415,7 +380,7 @@ public class MessagingController {
     }
 
     private void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener, new Runnable() {
+        put(account, "doRefreshRemote", listener, new Runnable() {
             @Override
             public void run() {
                 refreshRemoteSynchronous(account, listener);
@@ -671,6 +636,12 @@ public class MessagingController {
         });
     }
 
+    /**
+     * Downloads the messages in pages of {@link #REMOTE_SEARCH_PAGE_SIZE}, so the first results show up in the message
+     * list as soon as their envelopes have been stored instead of after all results have been downloaded.
+     * <p>
+     * Stops between pages if the thread was interrupted, i.e. the search was cancelled.
+     */
     private void loadSearchResultsSynchronous(List<Message> messages, LocalFolder localFolder, Folder remoteFolder,
             MessagingListener listener) throws MessagingException {
         final FetchProfile header = new FetchProfile();
@@ -679,17 +650,30 @@ public class MessagingController {
         final FetchProfile structure = new FetchProfile();
         structure.add(FetchProfile.Item.STRUCTURE);
 
-        int i = 0;
-        for (Message message : messages) {
-            i++;
-            LocalMessage localMsg = localFolder.getMessage(message.getUid());
+        int count = messages.size();
+        for (int start = 0; start < count; start += REMOTE_SEARCH_PAGE_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                Timber.i("Remote search cancelled after loading %d of %d messages", start, count);
+                return;
+            }
+
+            int end = Math.min(start + REMOTE_SEARCH_PAGE_SIZE, count);
+            List<Message> missingMessages = new ArrayList<>(end - start);
+            for (Message message : messages.subList(start, end)) {
+                if (localFolder.getMessage(message.getUid()) == null) {
+                    missingMessages.add(message);
+                }
+            }
 
-            if (localMsg == null) {
-                remoteFolder.fetch(Collections.singletonList(message), header, null);
+            if (!missingMessages.isEmpty()) {
+                remoteFolder.fetch(missingMessages, header, null);
                 //fun fact: ImapFolder.fetch can't handle getting STRUCTURE at same time as headers
-                remoteFolder.fetch(Collections.singletonList(message), structure, null);
-                localFolder.appendMessages(Collections.singletonList(message));
-                localMsg = localFolder.getMessage(message.getUid());
+                remoteFolder.fetch(missingMessages, structure, null);
+                localFolder.appendMessages(missingMessages);
+            }
+
+            if (listener != null) {
+                listener.remoteSearchMessagesLoaded(localFolder.getName(), end, count);
             }
         }
     }
@@ -715,7 +699,7 @@ public class MessagingController {
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putBackground(account, "synchronizeMailbox", listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -752,11 +736,14 @@ public class MessagingController {
         }
 
         Exception commandException = null;
+        long syncStartTime = Metrics.startTimer();
         try {
             Timber.d("SYNC: About to process pending commands for account %s", account.getDescription());
 
+            long pendingCommandsStartTime = Metrics.startTimer();
             try {
                 processPendingCommandsSynchronous(account);
+                SYNC_PENDING_COMMANDS_TIME.recordElapsed(pendingCommandsStartTime);
             } catch (Exception e) {
                 addErrorMessage(account, null, e);
 
@@ -862,8 +849,10 @@ public class MessagingController {
                 }
 
 
+                long listStartTime = Metrics.startTimer();
                 List<? extends Message> remoteMessageArray =
                         remoteFolder.getMessages(remoteStart, remoteMessageCount, earliestDate, null);
+                SYNC_LIST_TIME.recordElapsed(listStartTime);
 
                 int messageCount = remoteMessageArray.size();
 
@@ -924,7 +913,9 @@ public class MessagingController {
             /*
              * Now we download the actual content of messages.
              */
+            long downloadStartTime = Metrics.startTimer();
             int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            SYNC_DOWNLOAD_TIME.recordElapsed(downloadStartTime);
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -957,6 +948,7 @@ public class MessagingController {
                 }
             }
 
+            SYNC_FOLDER_TIME.recordElapsed(syncStartTime);
             Timber.i("Done synchronizing folder %s:%s", account.getDescription(), folder);
 
         } catch (AuthenticationFailedException e) {
@@ -1162,16 +1154,26 @@ public class MessagingController {
         fp.add(FetchProfile.Item.BODY);
         //        fp.add(FetchProfile.Item.FLAGS);
         //        fp.add(FetchProfile.Item.ENVELOPE);
-        downloadSmallMessages(account, remoteFolder, localFolder, smallMessages, progress, unreadBeforeStart,
-                newMessages, todo, fp);
+        NewMailNotificationCollector notificationCollector = new NewMailNotificationCollector(notificationController,
+                contacts, account, unreadBeforeStart, NEW_MAIL_NOTIFICATION_MAX_DELAY);
+        try {
+            downloadSmallMessages(account, remoteFolder, localFolder, smallMessages, progress, notificationCollector,
+                    newMessages, todo, fp);
+        } finally {
+            notificationCollector.flush();
+        }
         smallMessages.clear();
         /*
          * Now do the large messages that require more round trips.
          */
         fp = new FetchProfile();
         fp.add(FetchProfile.Item.STRUCTURE);
-        downloadLargeMessages(account, remoteFolder, localFolder, largeMessages, progress, unreadBeforeStart,
-                newMessages, todo, fp);
+        try {
+            downloadLargeMessages(account, remoteFolder, localFolder, largeMessages, progress, notificationCollector,
+                    newMessages, todo, fp);
+        } finally {
+            notificationCollector.flush();
+        }
         largeMessages.clear();
 
         /*
@@ -1345,7 +1347,7 @@ public class MessagingController {
             final LocalFolder localFolder,
             List<T> smallMessages,
             final AtomicInteger progress,
-            final int unreadBeforeStart,
+            final NewMailNotificationCollector notificationCollector,
             final AtomicInteger newMessages,
             final int todo,
             FetchProfile fp) throws MessagingException {
@@ -1355,72 +1357,115 @@ public class MessagingController {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
-        remoteFolder.fetch(smallMessages,
-                fp, new MessageRetrievalListener<T>() {
+        final SmallMessageBatch<T> batch = new SmallMessageBatch<>(SMALL_MESSAGE_BATCH_MAX_COUNT,
+                SMALL_MESSAGE_BATCH_MAX_BYTES, SMALL_MESSAGE_BATCH_MAX_AGE, new SmallMessageBatch.Callback<T>() {
                     @Override
-                    public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
+                    public void onGroupComplete(List<T> messages) {
+                        storeSmallMessages(account, localFolder, messages, progress, notificationCollector,
+                                newMessages, todo);
+                    }
+                });
 
+        MemoryThresholdBodyFactory bodyFactory = localFolder.getBodyFactory();
+        try {
+            remoteFolder.fetch(smallMessages,
+                    fp, new MessageRetrievalListener<T>() {
+                        @Override
+                        public void messageFinished(final T message, int number, int ofTotal) {
                             if (!shouldImportMessage(account, message, earliestDate)) {
                                 progress.incrementAndGet();
 
                                 return;
                             }
 
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
+                            batch.add(message);
+                        }
 
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
-                            }
+                        @Override
+                        public void messageStarted(String uid, int number, int ofTotal) {
+                        }
 
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
+                        @Override
+                        public void messagesFinished(int total) {
+                        }
+                    }, bodyFactory);
+        } finally {
+            try {
+                // Store the messages that were downloaded before the fetch failed, too
+                batch.flush();
+            } finally {
+                bodyFactory.deleteSpillFiles();
+            }
+        }
 
-                            // Update the listener with what we've found
-                            for (MessagingListener l : getListeners()) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                                }
-                            }
-                            // Send a notification of this message
+        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+    }
 
-                            if (shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
+    private <T extends Message> void storeSmallMessages(Account account, LocalFolder localFolder, List<T> messages,
+            AtomicInteger progress, NewMailNotificationCollector notificationCollector, AtomicInteger newMessages,
+            int todo) {
+        String folder = localFolder.getName();
+        try {
+            // Store the updated messages locally
+            List<LocalMessage> localMessages = localFolder.storeSmallMessages(messages);
+            progress.addAndGet(messages.size());
 
-                        } catch (MessagingException me) {
-                            addErrorMessage(account, null, me);
-                            Timber.e(me, "SYNC: fetch small messages");
-                        }
-                    }
+            Timber.v("About to notify listeners that we got %d new small messages %s:%s",
+                    messages.size(), account, folder);
 
-                    @Override
-                    public void messageStarted(String uid, int number, int ofTotal) {
-                    }
+            // Update the listener with what we've found
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+            }
 
-                    @Override
-                    public void messagesFinished(int total) {
+            for (int i = 0, count = localMessages.size(); i < count; i++) {
+                LocalMessage localMessage = localMessages.get(i);
+
+                // Increment the number of "new messages" if the newly downloaded message is
+                // not marked as read.
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+
+                    for (MessagingListener l : getListeners()) {
+                        l.synchronizeMailboxNewMessage(account, folder, localMessage);
                     }
-                });
+                }
 
-        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+                // Send a notification of this message
+                if (shouldNotifyForMessage(account, localFolder, messages.get(i), notificationCollector)) {
+                    // Notify with the localMessage so that we don't have to recalculate the content preview.
+                    notificationCollector.add(localMessage);
+                }
+            }
+        } catch (MessagingException me) {
+            if (messages.size() > 1) {
+                // Don't let a single message that can't be stored prevent storing the others. Bodies that the failed
+                // attempt already moved out of the spill directory can't be stored again, so those messages fail
+                // again and are skipped, too.
+                Timber.w(me, "SYNC: Unable to store %d small messages, storing them one by one", messages.size());
+                for (T message : messages) {
+                    storeSmallMessages(account, localFolder, Collections.singletonList(message), progress,
+                            notificationCollector, newMessages, todo);
+                }
+                return;
+            }
+
+            // The message isn't marked as downloaded, so the next sync fetches it again
+            progress.incrementAndGet();
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+            }
+
+            addErrorMessage(account, null, me);
+            Timber.e(me, "SYNC: Unable to store small message %s", messages.get(0).getUid());
+        }
     }
 
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
             final LocalFolder localFolder,
             List<T> largeMessages,
             final AtomicInteger progress,
-            final int unreadBeforeStart,
+            final NewMailNotificationCollector notificationCollector,
             final AtomicInteger newMessages,
             final int todo,
             FetchProfile fp) throws MessagingException {
@@ -1462,9 +1507,9 @@ public class MessagingController {
                 }
             }
             // Send a notification of this message
-            if (shouldNotifyForMessage(account, localFolder, message)) {
+            if (shouldNotifyForMessage(account, localFolder, message, notificationCollector)) {
                 // Notify with the localMessage so that we don't have to recalculate the content preview.
-                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                notificationCollector.add(localMessage);
             }
         }
 
@@ -1485,12 +1530,16 @@ public class MessagingController {
         /*
          * Now download the parts we're interested in storing.
          */
-        BodyFactory bodyFactory = new DefaultBodyFactory();
-        for (Part part : viewables) {
-            remoteFolder.fetchPart(message, part, null, bodyFactory);
+        MemoryThresholdBodyFactory bodyFactory = localFolder.getBodyFactory();
+        try {
+            for (Part part : viewables) {
+                remoteFolder.fetchPart(message, part, null, bodyFactory);
+            }
+            // Store the updated message locally
+            localFolder.appendMessages(Collections.singletonList(message));
+        } finally {
+            bodyFactory.deleteSpillFiles();
         }
-        // Store the updated message locally
-        localFolder.appendMessages(Collections.singletonList(message));
 
         Message localMessage = localFolder.getMessage(message.getUid());
 
@@ -1515,10 +1564,15 @@ public class MessagingController {
                  *  they equal we can mark this SYNCHRONIZED instead of PARTIALLY_SYNCHRONIZED
                  */
 
-        remoteFolder.fetch(Collections.singletonList(message), fp, null);
+        MemoryThresholdBodyFactory bodyFactory = localFolder.getBodyFactory();
+        try {
+            remoteFolder.fetch(Collections.singletonList(message), fp, null, bodyFactory);
 
-        // Store the updated message locally
-        localFolder.appendMessages(Collections.singletonList(message));
+            // Store the updated message locally
+            localFolder.appendMessages(Collections.singletonList(message));
+        } finally {
+            bodyFactory.deleteSpillFiles();
+        }
 
         Message localMessage = localFolder.getMessage(message.getUid());
 
@@ -1568,54 +1622,42 @@ public class MessagingController {
             }
 
             remoteFolder.fetch(undeletedMessages, fp, null);
+
+            Map<String, MessageFlagState> localFlagStates = localFolder.getMessageFlagStates();
+            FlagSyncChanges flagChanges = new FlagSyncChanges(SYNC_FLAGS, localFolder.syncRemoteDeletions());
             for (Message remoteMessage : syncFlagMessages) {
-                LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
-                boolean messageChanged = syncFlags(localMessage, remoteMessage);
-                if (messageChanged) {
-                    boolean shouldBeNotifiedOf = false;
-                    if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
-                        for (MessagingListener l : getListeners()) {
-                            l.synchronizeMailboxRemovedMessage(account, folder, localMessage);
-                        }
-                    } else {
-                        if (shouldNotifyForMessage(account, localFolder, localMessage)) {
-                            shouldBeNotifiedOf = true;
-                        }
-                    }
+                flagChanges.add(localFlagStates.get(remoteMessage.getUid()), remoteMessage);
+            }
+
+            flagChanges.apply(account.getLocalStore(), localFolder);
 
-                    // we're only interested in messages that need removing
-                    if (!shouldBeNotifiedOf) {
-                        MessageReference messageReference = localMessage.makeMessageReference();
-                        notificationController.removeNewMailNotification(account, messageReference);
+            List<String> changedUids = flagChanges.getChangedUids();
+            List<LocalMessage> changedMessages = changedUids.isEmpty() ?
+                    Collections.<LocalMessage>emptyList() : localFolder.getMessagesByUids(changedUids);
+            for (LocalMessage localMessage : changedMessages) {
+                boolean shouldBeNotifiedOf = false;
+                if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
+                    for (MessagingListener l : getListeners()) {
+                        l.synchronizeMailboxRemovedMessage(account, folder, localMessage);
+                    }
+                } else {
+                    if (shouldNotifyForMessage(account, localFolder, localMessage)) {
+                        shouldBeNotifiedOf = true;
                     }
                 }
-                progress.incrementAndGet();
-                for (MessagingListener l : getListeners()) {
-                    l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+
+                // we're only interested in messages that need removing
+                if (!shouldBeNotifiedOf) {
+                    MessageReference messageReference = localMessage.makeMessageReference();
+                    notificationController.removeNewMailNotification(account, messageReference);
                 }
             }
-        }
-    }
 
-    private boolean syncFlags(LocalMessage localMessage, Message remoteMessage) throws MessagingException {
-        boolean messageChanged = false;
-        if (localMessage == null || localMessage.isSet(Flag.DELETED)) {
-            return false;
-        }
-        if (remoteMessage.isSet(Flag.DELETED)) {
-            if (localMessage.getFolder().syncRemoteDeletions()) {
-                localMessage.setFlag(Flag.DELETED, true);
-                messageChanged = true;
-            }
-        } else {
-            for (Flag flag : MessagingController.SYNC_FLAGS) {
-                if (remoteMessage.isSet(flag) != localMessage.isSet(flag)) {
-                    localMessage.setFlag(flag, remoteMessage.isSet(flag));
-                    messageChanged = true;
-                }
+            progress.addAndGet(syncFlagMessages.size());
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
             }
         }
-        return messageChanged;
     }
 
     private String getRootCauseMessage(Throwable t) {
@@ -1650,7 +1692,7 @@ public class MessagingController {
     }
 
     private void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground(account, "processPendingCommands", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1691,6 +1733,12 @@ public class MessagingController {
         PendingCommand processingCommand = null;
         try {
             for (PendingCommand command : commands) {
+                if (CommandScheduler.isCurrentCommandCancelled()) {
+                    // The remaining commands stay in the database and are processed on the next run
+                    Timber.i("Stopped processing pending commands of %s, cancelled", account.getDescription());
+                    break;
+                }
+
                 processingCommand = command;
                 Timber.d("Processing pending command '%s'", command);
 
@@ -1983,7 +2031,7 @@ public class MessagingController {
 
     private void queueSetFlag(final Account account, final String folderName,
             final boolean newState, final Flag flag, final List<String> uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingSetFlag.create(folderName, newState, flag, uids);
@@ -2034,7 +2082,7 @@ public class MessagingController {
     }
 
     private void queueExpunge(final Account account, final String folderName) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingExpunge.create(folderName);
@@ -2398,7 +2446,7 @@ public class MessagingController {
 
     public void loadMessageRemotePartial(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemotePartial", listener, new Runnable() {
+        put(account, "loadMessageRemotePartial", listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, true);
@@ -2409,7 +2457,7 @@ public class MessagingController {
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageRemote(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemote", listener, new Runnable() {
+        put(account, "loadMessageRemote", listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, false);
@@ -2540,7 +2588,7 @@ public class MessagingController {
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put(account, "loadAttachment", listener, new Runnable() {
             @Override
             public void run() {
                 Folder remoteFolder = null;
@@ -2631,7 +2679,7 @@ public class MessagingController {
      */
     public void sendPendingMessages(final Account account,
             MessagingListener listener) {
-        putBackground("sendPendingMessages", listener, new Runnable() {
+        putBackground(account, "sendPendingMessages", listener, new Runnable() {
             @Override
             public void run() {
                 if (!account.isAvailable(context)) {
@@ -2991,7 +3039,8 @@ public class MessagingController {
         };
 
 
-        put("getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
+        // No deadline. The listener waits for the count, and skipping the command would leave it waiting forever.
+        put(account, "getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
     }
 
 
@@ -3033,7 +3082,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessages", null, new Runnable() {
+                putBackground(account, "moveMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false);
@@ -3050,7 +3099,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessagesInThread", null, new Runnable() {
+                putBackground(account, "moveMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -3075,7 +3124,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessages", null, new Runnable() {
+                putBackground(account, "copyMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(srcAccount, srcFolder, messages, destFolder, true);
@@ -3090,7 +3139,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessagesInThread", null, new Runnable() {
+                putBackground(account, "copyMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -3208,7 +3257,7 @@ public class MessagingController {
     }
 
     public void expunge(final Account account, final String folder) {
-        putBackground("expunge", null, new Runnable() {
+        putBackground(account, "expunge", null, new Runnable() {
             @Override
             public void run() {
                 queueExpunge(account, folder);
@@ -3242,7 +3291,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteThreads", null, new Runnable() {
+                putBackground(account, "deleteThreads", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteThreadsSynchronous(account, messageFolder.getName(), accountMessages);
@@ -3294,7 +3343,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteMessages", null, new Runnable() {
+                putBackground(account, "deleteMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteMessagesSynchronous(account, messageFolder.getName(), accountMessages, listener);
@@ -3317,7 +3366,7 @@ public class MessagingController {
             public void act(final Account account, final LocalFolder messageFolder,
                     final List<LocalMessage> accountMessages) {
 
-                putBackground("debugClearLocalMessages", null, new Runnable() {
+                putBackground(account, "debugClearLocalMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         for (LocalMessage message : accountMessages) {
@@ -3447,7 +3496,7 @@ public class MessagingController {
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground(account, "emptyTrash", listener, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -3486,7 +3535,7 @@ public class MessagingController {
     }
 
     public void clearFolder(final Account account, final String folderName, final ActivityListener listener) {
-        putBackground("clearFolder", listener, new Runnable() {
+        putBackground(account, "clearFolder", listener, new Runnable() {
             @Override
             public void run() {
                 clearFolderSynchronous(account, folderName, listener);
@@ -3599,7 +3648,7 @@ public class MessagingController {
         for (MessagingListener l : getListeners()) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, new Runnable() {
+        putBackground(account, "checkMail", listener, new Runnable() {
             @Override
             public void run() {
 
@@ -3624,12 +3673,17 @@ public class MessagingController {
                     Timber.e(e, "Unable to synchronize mail");
                     addErrorMessage(account, null, e);
                 }
-                putBackground("finalize sync", null, new Runnable() {
+                // Runs once the folder syncs queued for the individual accounts are done
+                commandScheduler.submitAfterPending("finalize sync", new Runnable() {
                             @Override
                             public void run() {
 
                                 Timber.i("Finished mail sync");
 
+                                if (K9.isDebug()) {
+                                    Timber.d("Metrics after mail sync:\n%s", Metrics.snapshot());
+                                }
+
                                 if (wakeLock != null) {
                                     wakeLock.release();
                                 }
@@ -3670,6 +3724,11 @@ public class MessagingController {
 
             Store localStore = account.getLocalStore();
             for (final Folder folder : localStore.getPersonalNamespaces(false)) {
+                if (CommandScheduler.isCurrentCommandCancelled()) {
+                    Timber.i("Stopped synchronizing account %s, cancelled", account.getDescription());
+                    break;
+                }
+
                 folder.open(Folder.OPEN_MODE_RW);
 
                 Folder.FolderClass fDisplayClass = folder.getDisplayClass();
@@ -3704,7 +3763,8 @@ public class MessagingController {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
             addErrorMessage(account, null, e);
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+            putBackground(account, "clear notification flag for " + account.getDescription(), null,
+                    new Runnable() {
                         @Override
                         public void run() {
                             Timber.v("Clearing notification flag for %s", account.getDescription());
@@ -3742,7 +3802,7 @@ public class MessagingController {
             return;
         }
 
-        putBackground("sync" + folder.getName(), null, new Runnable() {
+        putBackground(account, "sync" + folder.getName(), null, new Runnable() {
                     @Override
                     public void run() {
                         LocalFolder tLocalFolder = null;
@@ -3793,8 +3853,34 @@ public class MessagingController {
     }
 
 
+    /**
+     * Opens a connection to the account's incoming server in the background, so it's ready by the time the user wants
+     * to refresh or open a message. Called when the app comes to the foreground.
+     */
+    public void prewarmConnection(final Account account) {
+        long now = SystemClock.elapsedRealtime();
+        Long lastPrewarm = lastConnectionPrewarm.get(account.getUuid());
+        if (lastPrewarm != null && now - lastPrewarm < PREWARM_CONNECTION_INTERVAL) {
+            return;
+        }
+        lastConnectionPrewarm.put(account.getUuid(), now);
+
+        // Not queued in the account's lane, where it would wait for a running sync and be of no use by the time it
+        // runs. The connection pool takes care of the store being used concurrently.
+        put(null, "prewarmConnection:" + account.getDescription(), null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    account.getRemoteStore().prewarmConnection();
+                } catch (Exception e) {
+                    Timber.d(e, "Failed to pre-warm connection for account %s", account.getDescription());
+                }
+            }
+        });
+    }
+
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "compact:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3816,7 +3902,7 @@ public class MessagingController {
     }
 
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "clear:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3844,7 +3930,7 @@ public class MessagingController {
     }
 
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "recreate:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3873,6 +3959,15 @@ public class MessagingController {
 
 
     private boolean shouldNotifyForMessage(Account account, LocalFolder localFolder, Message message) {
+        return shouldNotifyForMessage(account, localFolder, message, null);
+    }
+
+    /**
+     * @param notificationCollector If not {@code null}, used to look up the sender in the contacts so the result
+     *         can be shared with other messages of the same sync pass.
+     */
+    private boolean shouldNotifyForMessage(Account account, LocalFolder localFolder, Message message,
+            NewMailNotificationCollector notificationCollector) {
         // If we don't even have an account name, don't show the notification.
         // (This happens during initial account setup)
         if (account.getName() == null) {
@@ -3940,14 +4035,20 @@ public class MessagingController {
             return false;
         }
 
-        if (account.isNotifyContactsMailOnly() && !contacts.isAnyInContacts(message.getFrom())) {
-            return false;
+        if (account.isNotifyContactsMailOnly()) {
+            Address[] from = message.getFrom();
+            boolean inContacts = (notificationCollector != null) ?
+                    notificationCollector.isAnyInContacts(from) : contacts.isAnyInContacts(from);
+            if (!inContacts) {
+                return false;
+            }
         }
 
         return true;
     }
 
     public void deleteAccount(Account account) {
+        commandScheduler.cancelLane(account.getUuid());
         notificationController.clearNewMailNotifications(account);
         memorizingMessagingListener.removeAccount(account);
     }
@@ -4020,28 +4121,6 @@ public class MessagingController {
         }
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            } else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            } else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     public MessagingListener getCheckMailListener() {
         return checkMailListener;
     }
@@ -4178,7 +4257,7 @@ public class MessagingController {
                 account.getDescription(), remoteFolder.getName());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
+        putBackground(account, "Push messageArrived of account " + account.getDescription()
                 + ", folder " + remoteFolder.getName(), null, new Runnable() {
             @Override
             public void run() {
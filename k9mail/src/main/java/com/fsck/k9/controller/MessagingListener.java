@@ -69,6 +69,7 @@ public interface MessagingListener {
 
     void remoteSearchStarted(String folder);
     void remoteSearchServerQueryComplete(String folderName, int numResults, int maxResults);
+    void remoteSearchMessagesLoaded(String folderName, int numLoaded, int numResults);
     void remoteSearchFinished(String folder, int numResults, int maxResults, List<Message> extraResults);
     void remoteSearchFailed(String folder, String err);
 
@@ -0,0 +1,99 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.helper.Contacts;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.notification.NotificationController;
+
+
+/**
+ * Collects the messages of a sync pass that we want to notify the user about, so the notifications can be posted in
+ * groups instead of once per message.
+ * <p>
+ * Pending messages are passed to the {@link NotificationController} when a message is added more than
+ * {@code maxDelayMillis} after the first pending message, and by {@link #flush()}. The collector also remembers which
+ * sender addresses belong to a contact, so every address is only looked up once per sync pass.
+ */
+class NewMailNotificationCollector {
+    private final NotificationController notificationController;
+    private final Contacts contacts;
+    private final Account account;
+    private final int previousUnreadMessageCount;
+    private final long maxDelayNanos;
+    private final Map<String, Boolean> contactLookups = new HashMap<>();
+
+    private List<LocalMessage> messages = new ArrayList<>();
+    private long startTime;
+
+
+    NewMailNotificationCollector(NotificationController notificationController, Contacts contacts, Account account,
+            int previousUnreadMessageCount, long maxDelayMillis) {
+        this.notificationController = notificationController;
+        this.contacts = contacts;
+        this.account = account;
+        this.previousUnreadMessageCount = previousUnreadMessageCount;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    void add(LocalMessage message) {
+        if (messages.isEmpty()) {
+            startTime = System.nanoTime();
+        }
+
+        messages.add(message);
+
+        if (System.nanoTime() - startTime >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<LocalMessage> pendingMessages = messages;
+        messages = new ArrayList<>();
+
+        notificationController.addNewMailNotifications(account, pendingMessages, previousUnreadMessageCount);
+    }
+
+    /**
+     * Same as {@link Contacts#isAnyInContacts(Address[])}, but only queries the contacts provider for addresses that
+     * haven't been looked up by this instance before.
+     */
+    boolean isAnyInContacts(Address[] addresses) {
+        if (addresses == null) {
+            return false;
+        }
+
+        for (Address address : addresses) {
+            String emailAddress = address.getAddress();
+            if (emailAddress == null) {
+                continue;
+            }
+
+            String key = emailAddress.toLowerCase(Locale.US);
+            Boolean inContacts = contactLookups.get(key);
+            if (inContacts == null) {
+                inContacts = contacts.isInContacts(emailAddress);
+                contactLookups.put(key, inContacts);
+            }
+
+            if (inContacts) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -170,6 +170,10 @@ public abstract class SimpleMessagingListener implements MessagingListener {
     public void remoteSearchServerQueryComplete(String folderName, int numResults, int maxResults) {
     }
 
+    @Override
+    public void remoteSearchMessagesLoaded(String folderName, int numLoaded, int numResults) {
+    }
+
     @Override
     public void remoteSearchFinished(String folder, int numResults, int maxResults, List<Message> extraResults) {
     }
@@ -0,0 +1,66 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Message;
+
+
+/**
+ * Collects downloaded messages so they can be stored in groups instead of one database transaction per message.
+ * <p>
+ * A group is passed to the {@link Callback} once it contains {@code maxCount} messages, once the sizes of its messages
+ * add up to {@code maxBytes}, or when a message is added more than {@code maxAgeMillis} after the first message of
+ * the group. The remaining messages are passed on by {@link #flush()}.
+ */
+class SmallMessageBatch<T extends Message> {
+    private final int maxCount;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final Callback<T> callback;
+
+    private List<T> messages;
+    private long bytes;
+    private long startTime;
+
+
+    SmallMessageBatch(int maxCount, long maxBytes, long maxAgeMillis, Callback<T> callback) {
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.callback = callback;
+        messages = new ArrayList<>(maxCount);
+    }
+
+    void add(T message) {
+        if (messages.isEmpty()) {
+            startTime = System.nanoTime();
+        }
+
+        messages.add(message);
+        bytes += Math.max(message.getSize(), 0);
+
+        if (messages.size() >= maxCount || bytes >= maxBytes || System.nanoTime() - startTime >= maxAgeNanos) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<T> group = messages;
+        messages = new ArrayList<>(maxCount);
+        bytes = 0;
+
+        callback.onGroupComplete(group);
+    }
+
+
+    interface Callback<T extends Message> {
+        void onGroupComplete(List<T> messages);
+    }
+}
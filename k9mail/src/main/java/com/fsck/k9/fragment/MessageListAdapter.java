@@ -6,11 +6,6 @@ import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
-import android.text.Spannable;
-import android.text.SpannableStringBuilder;
-import android.text.format.DateUtils;
-import android.text.style.AbsoluteSizeSpan;
-import android.text.style.ForegroundColorSpan;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
@@ -24,23 +19,9 @@ import com.fsck.k9.K9;
 import com.fsck.k9.R;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
-import com.fsck.k9.mailstore.DatabasePreviewType;
 import com.fsck.k9.ui.ContactBadge;
 
-import static com.fsck.k9.fragment.MLFProjectionInfo.ANSWERED_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.ATTACHMENT_COUNT_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.CC_LIST_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.DATE_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.FLAGGED_COLUMN;
 import static com.fsck.k9.fragment.MLFProjectionInfo.FOLDER_NAME_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.FORWARDED_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.PREVIEW_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.PREVIEW_TYPE_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.READ_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.SENDER_LIST_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.SUBJECT_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.THREAD_COUNT_COLUMN;
-import static com.fsck.k9.fragment.MLFProjectionInfo.TO_LIST_COLUMN;
 import static com.fsck.k9.fragment.MLFProjectionInfo.UID_COLUMN;
 
 
@@ -52,24 +33,29 @@ public class MessageListAdapter extends CursorAdapter {
     private Drawable mAnsweredIcon;
     private Drawable mForwardedAnsweredIcon;
     private FontSizes fontSizes = K9.getFontSizes();
+    private final MessageListItemCache itemCache;
 
     MessageListAdapter(MessageListFragment fragment) {
         super(fragment.getActivity(), null, 0);
         this.fragment = fragment;
+        MessageListItemFactory itemFactory = new MessageListItemFactory(fragment.getActivity(),
+                fragment.messageHelper, fontSizes, fragment.previewLines);
+        itemCache = new MessageListItemCache(itemFactory);
+        itemCache.setListener(new MessageListItemCache.Listener() {
+            @Override
+            public void onItemsCreated() {
+                // Replaces the placeholders of the visible rows
+                notifyDataSetChanged();
+            }
+        });
         mAttachmentIcon = fragment.getResources().getDrawable(R.drawable.ic_email_attachment_small);
         mAnsweredIcon = fragment.getResources().getDrawable(R.drawable.ic_email_answered_small);
         mForwardedIcon = fragment.getResources().getDrawable(R.drawable.ic_email_forwarded_small);
         mForwardedAnsweredIcon = fragment.getResources().getDrawable(R.drawable.ic_email_forwarded_answered_small);
     }
 
-    private String recipientSigil(boolean toMe, boolean ccMe) {
-        if (toMe) {
-            return fragment.getString(R.string.messagelist_sent_to_me_sigil);
-        } else if (ccMe) {
-            return fragment.getString(R.string.messagelist_sent_cc_me_sigil);
-        } else {
-            return "";
-        }
+    MessageListItemCache getItemCache() {
+        return itemCache;
     }
 
     @Override
@@ -142,70 +128,35 @@ public class MessageListAdapter extends CursorAdapter {
     public void bindView(View view, Context context, Cursor cursor) {
         Account account = fragment.getAccountFromCursor(cursor);
 
-        String fromList = cursor.getString(SENDER_LIST_COLUMN);
-        String toList = cursor.getString(TO_LIST_COLUMN);
-        String ccList = cursor.getString(CC_LIST_COLUMN);
-        Address[] fromAddrs = Address.unpack(fromList);
-        Address[] toAddrs = Address.unpack(toList);
-        Address[] ccAddrs = Address.unpack(ccList);
-
-        boolean fromMe = fragment.messageHelper.toMe(account, fromAddrs);
-        boolean toMe = fragment.messageHelper.toMe(account, toAddrs);
-        boolean ccMe = fragment.messageHelper.toMe(account, ccAddrs);
-
-        CharSequence displayName = fragment.messageHelper.getDisplayName(account, fromAddrs, toAddrs);
-        CharSequence displayDate = DateUtils.getRelativeTimeSpanString(context, cursor.getLong(DATE_COLUMN));
-
-        Address counterpartyAddress = fetchCounterPartyAddress(fromMe, toAddrs, ccAddrs, fromAddrs);
-
-        int threadCount = (fragment.showingThreadedList) ? cursor.getInt(THREAD_COUNT_COLUMN) : 0;
-
-        String subject = MlfUtils.buildSubject(cursor.getString(SUBJECT_COLUMN),
-                fragment.getString(R.string.general_no_subject), threadCount);
-
-        boolean read = (cursor.getInt(READ_COLUMN) == 1);
-        boolean flagged = (cursor.getInt(FLAGGED_COLUMN) == 1);
-        boolean answered = (cursor.getInt(ANSWERED_COLUMN) == 1);
-        boolean forwarded = (cursor.getInt(FORWARDED_COLUMN) == 1);
-
-        boolean hasAttachments = (cursor.getInt(ATTACHMENT_COUNT_COLUMN) > 0);
+        MessageListRow row = new MessageListRow(cursor, cursor.getLong(fragment.uniqueIdColumn), account,
+                fragment.showingThreadedList);
+        MessageListItem item = itemCache.getItem(row, fragment.senderAboveSubject, cursor.getPosition());
 
         MessageViewHolder holder = (MessageViewHolder) view.getTag();
 
-        int maybeBoldTypeface = (read) ? Typeface.NORMAL : Typeface.BOLD;
+        int maybeBoldTypeface = (row.read) ? Typeface.NORMAL : Typeface.BOLD;
 
-        long uniqueId = cursor.getLong(fragment.uniqueIdColumn);
-        boolean selected = fragment.selected.contains(uniqueId);
+        boolean selected = fragment.selected.contains(row.uniqueId);
 
         holder.chip.setBackgroundColor(account.getChipColor());
         if (fragment.checkboxes) {
             holder.selected.setChecked(selected);
         }
         if (fragment.stars) {
-            holder.flagged.setChecked(flagged);
+            holder.flagged.setChecked(row.flagged);
         }
         holder.position = cursor.getPosition();
         if (holder.contactBadge != null) {
-            updateContactBadge(holder, counterpartyAddress);
+            updateContactBadge(holder, item.counterpartyAddress);
         }
-        setBackgroundColor(view, selected, read);
+        setBackgroundColor(view, selected, row.read);
         if (fragment.activeMessage != null) {
             changeBackgroundColorIfActiveMessage(cursor, account, view);
         }
-        updateWithThreadCount(holder, threadCount);
-        CharSequence beforePreviewText = (fragment.senderAboveSubject) ? subject : displayName;
-        String sigil = recipientSigil(toMe, ccMe);
-        SpannableStringBuilder messageStringBuilder = new SpannableStringBuilder(sigil)
-                .append(beforePreviewText);
-        if (fragment.previewLines > 0) {
-            String preview = getPreview(cursor);
-            messageStringBuilder.append(" ").append(preview);
-        }
-        holder.preview.setText(messageStringBuilder, TextView.BufferType.SPANNABLE);
+        updateWithThreadCount(holder, row.threadCount);
+        holder.preview.setText(item.previewText, TextView.BufferType.SPANNABLE);
 
-        formatPreviewText(holder.preview, beforePreviewText, sigil);
-
-        Drawable statusHolder = buildStatusHolder(forwarded, answered);
+        Drawable statusHolder = buildStatusHolder(row.forwarded, row.answered);
 
         if (holder.from != null ) {
             holder.from.setTypeface(Typeface.create(holder.from.getTypeface(), maybeBoldTypeface));
@@ -213,12 +164,12 @@ public class MessageListAdapter extends CursorAdapter {
                 holder.from.setCompoundDrawablesWithIntrinsicBounds(
                         statusHolder, // left
                         null, // top
-                        hasAttachments ? mAttachmentIcon : null, // right
+                        row.hasAttachments ? mAttachmentIcon : null, // right
                         null); // bottom
 
-                holder.from.setText(displayName);
+                holder.from.setText(item.displayName);
             } else {
-                holder.from.setText(new SpannableStringBuilder(sigil).append(displayName));
+                holder.from.setText(item.displayNameWithSigil);
             }
         }
         if (holder.subject != null ) {
@@ -226,49 +177,14 @@ public class MessageListAdapter extends CursorAdapter {
                 holder.subject.setCompoundDrawablesWithIntrinsicBounds(
                         statusHolder, // left
                         null, // top
-                        hasAttachments ? mAttachmentIcon : null, // right
+                        row.hasAttachments ? mAttachmentIcon : null, // right
                         null); // bottom
             }
 
             holder.subject.setTypeface(Typeface.create(holder.subject.getTypeface(), maybeBoldTypeface));
-            holder.subject.setText(subject);
+            holder.subject.setText(item.subject);
         }
-        holder.date.setText(displayDate);
-    }
-
-    private void formatPreviewText(TextView preview, CharSequence beforePreviewText, String sigil) {
-        Spannable previewText = (Spannable)preview.getText();
-        previewText.setSpan(buildSenderSpan(), 0, beforePreviewText.length() + sigil.length(),
-                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-
-        int previewSpanColor = buildPreviewSpanColor();
-
-        // Set span (color) for preview message
-        previewText.setSpan(new ForegroundColorSpan(previewSpanColor), beforePreviewText.length() + sigil.length(),
-                previewText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-    }
-
-    /**
-     * Create a span section for the sender, and assign the correct font size and weight
-     */
-    private AbsoluteSizeSpan buildSenderSpan() {
-        int fontSize = (fragment.senderAboveSubject) ?
-                fontSizes.getMessageListSubject():
-                fontSizes.getMessageListSender();
-        return new AbsoluteSizeSpan(fontSize, true);
-    }
-
-    private Address fetchCounterPartyAddress(boolean fromMe, Address[] toAddrs, Address[] ccAddrs, Address[] fromAddrs) {
-        if (fromMe) {
-            if (toAddrs.length > 0) {
-                return toAddrs[0];
-            } else if (ccAddrs.length > 0) {
-                return ccAddrs[0];
-            }
-        } else if (fromAddrs.length > 0) {
-            return fromAddrs[0];
-        }
-        return null;
+        holder.date.setText(item.displayDate);
     }
 
     private void updateContactBadge(MessageViewHolder holder, Address counterpartyAddress) {
@@ -302,13 +218,6 @@ public class MessageListAdapter extends CursorAdapter {
         }
     }
 
-    private int buildPreviewSpanColor() {
-        //TODO: make this part of the theme
-        return (K9.getK9Theme() == K9.Theme.LIGHT) ?
-                Color.rgb(105, 105, 105) :
-                Color.rgb(160, 160, 160);
-    }
-
     private Drawable buildStatusHolder(boolean forwarded, boolean answered) {
         if (forwarded && answered) {
             return mForwardedAnsweredIcon;
@@ -347,24 +256,4 @@ public class MessageListAdapter extends CursorAdapter {
             holder.threadCount.setVisibility(View.GONE);
         }
     }
-
-    private String getPreview(Cursor cursor) {
-        String previewTypeString = cursor.getString(PREVIEW_TYPE_COLUMN);
-        DatabasePreviewType previewType = DatabasePreviewType.fromDatabaseValue(previewTypeString);
-
-        switch (previewType) {
-            case NONE:
-            case ERROR: {
-                return "";
-            }
-            case ENCRYPTED: {
-                return fragment.getString(R.string.preview_encrypted);
-            }
-            case TEXT: {
-                return cursor.getString(PREVIEW_COLUMN);
-            }
-        }
-
-        throw new AssertionError("Unknown preview type: " + previewType);
-    }
 }
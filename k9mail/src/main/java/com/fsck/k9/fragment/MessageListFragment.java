@@ -19,7 +19,6 @@ import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.Loader;
@@ -491,7 +490,10 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         cursors = new Cursor[len];
         cursorValid = new boolean[len];
         for (int i = 0; i < len; i++) {
-            loaderManager.initLoader(i, null, this);
+            Loader<Cursor> loader = loaderManager.initLoader(i, null, this);
+            if (loader instanceof MessageListLoader) {
+                ((MessageListLoader) loader).setItemCache(adapter.getItemCache());
+            }
             cursorValid[i] = false;
         }
     }
@@ -1348,6 +1350,13 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             fragmentListener.setMessageListProgress(Window.PROGRESS_START);
         }
 
+        @Override
+        public void remoteSearchMessagesLoaded(String folderName, int numLoaded, int numResults) {
+            long range = Window.PROGRESS_END - Window.PROGRESS_START;
+            int level = Window.PROGRESS_START + (int) (range * numLoaded / numResults);
+            fragmentListener.setMessageListProgress(level);
+        }
+
         @Override
         public void informUserOfStatus() {
             handler.refreshTitle();
@@ -2602,8 +2611,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
         String sortOrder = buildSortOrder();
 
-        return new CursorLoader(getActivity(), uri, projection, selection, selectionArgs,
-                sortOrder);
+        return new MessageListLoader(getActivity(), uri, projection, selection, selectionArgs, sortOrder, account,
+                id, accountUuids.length, showingThreadedList, adapter.getItemCache());
     }
 
     private String getThreadId(LocalSearch search) {
@@ -0,0 +1,39 @@
+package com.fsck.k9.fragment;
+
+
+import com.fsck.k9.mail.Address;
+
+
+/**
+ * Immutable display model of a message list row.
+ * <p>
+ * Everything that is expensive to compute (parsing the address lists, looking up contact names, formatting the date
+ * and preview) is done when the item is created, so {@link MessageListAdapter#bindView} only has to assign values to
+ * views. Items are created by {@link MessageListItemFactory}, usually on a background thread.
+ */
+class MessageListItem {
+    final MessageListRow row;
+    final boolean senderAboveSubject;
+    final long createdAt;
+    final CharSequence displayName;
+    final CharSequence displayNameWithSigil;
+    final CharSequence displayDate;
+    final String subject;
+    final CharSequence previewText;
+    final Address counterpartyAddress;
+
+
+    MessageListItem(MessageListRow row, boolean senderAboveSubject, long createdAt, CharSequence displayName,
+            CharSequence displayNameWithSigil, CharSequence displayDate, String subject, CharSequence previewText,
+            Address counterpartyAddress) {
+        this.row = row;
+        this.senderAboveSubject = senderAboveSubject;
+        this.createdAt = createdAt;
+        this.displayName = displayName;
+        this.displayNameWithSigil = displayNameWithSigil;
+        this.displayDate = displayDate;
+        this.subject = subject;
+        this.previewText = previewText;
+        this.counterpartyAddress = counterpartyAddress;
+    }
+}
@@ -0,0 +1,319 @@
+package com.fsck.k9.fragment;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+
+import com.fsck.k9.Account;
+import timber.log.Timber;
+
+
+/**
+ * Caches {@link MessageListItem} instances and creates them ahead of time, so binding a row never has to create one
+ * on the main thread.
+ * <p>
+ * Items are keyed by the unique id of the row. A cached item is only used if the row it was created from is unchanged.
+ * When a new cursor is swapped in, items of rows that didn't change are reused and all others are created again.
+ * <p>
+ * {@code prefetch()} is called by {@link MessageListLoader} on the loader's background thread, while it still has
+ * exclusive access to a freshly loaded cursor. It reads the rows of the whole cursor window, creates the items close to
+ * the current position right away and leaves the rest to a background thread. Cursors aren't thread-safe, so the
+ * cursor used by the adapter is never read from another thread.
+ * <p>
+ * {@link #getItem(MessageListRow, boolean, int)} is called on the main thread when a row is bound. If there's no item
+ * for the row, a placeholder is returned and the item is created in the background. The {@link Listener} is notified
+ * once it's ready.
+ * <p>
+ * Items older than {@link #MAX_ITEM_AGE} are still returned, but are created again in the background. The relative
+ * date ("5 minutes ago") would otherwise stay the same for as long as the list is open.
+ */
+class MessageListItemCache {
+    /**
+     * Number of rows before and after the current row whose items are created before the cursor is delivered.
+     */
+    static final int PREFETCH_DISTANCE = 20;
+    /**
+     * Maximum number of rows of a cursor window whose items are prepared.
+     */
+    static final int MAX_PREFETCH_ROWS = 500;
+    private static final int CACHE_SIZE = MAX_PREFETCH_ROWS + 4 * PREFETCH_DISTANCE;
+    private static final long MAX_ITEM_AGE = DateUtils.MINUTE_IN_MILLIS;
+    private static final int THREAD_KEEP_ALIVE_SECONDS = 30;
+
+
+    private static Executor defaultBackgroundExecutor;
+
+    private final MessageListItemFactory itemFactory;
+    private final Executor backgroundExecutor;
+    private final Executor mainThreadExecutor;
+    private final LruCache<Long, MessageListItem> cache = new LruCache<>(CACHE_SIZE);
+    private final Set<Long> pendingRequests = Collections.synchronizedSet(new HashSet<Long>());
+    private final Map<Long, Integer> prefetchGenerations = new HashMap<>();
+    private final AtomicBoolean notificationPending = new AtomicBoolean(false);
+
+    private volatile int currentPosition = 0;
+    private volatile boolean senderAboveSubject;
+    private Listener listener;
+
+
+    MessageListItemCache(MessageListItemFactory itemFactory) {
+        this(itemFactory, getDefaultBackgroundExecutor(), new Executor() {
+            private final Handler handler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    MessageListItemCache(MessageListItemFactory itemFactory, Executor backgroundExecutor,
+            Executor mainThreadExecutor) {
+        this.itemFactory = itemFactory;
+        this.backgroundExecutor = backgroundExecutor;
+        this.mainThreadExecutor = mainThreadExecutor;
+    }
+
+    /**
+     * Sets the listener that is notified on the main thread when items requested by
+     * {@link #getItem(MessageListRow, boolean, int)} were created.
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the item for {@code row}, or a placeholder if there's no item for the row yet. Never creates the item on
+     * the calling thread.
+     *
+     * @param position
+     *         The position of the row in the list. Used to decide which rows to prepare first on the next load.
+     */
+    MessageListItem getItem(MessageListRow row, boolean senderAboveSubject, int position) {
+        this.senderAboveSubject = senderAboveSubject;
+        currentPosition = position;
+
+        MessageListItem item = cache.get(row.uniqueId);
+        if (item != null && matches(item, row, senderAboveSubject)) {
+            if (!isFresh(item)) {
+                requestItem(row, senderAboveSubject);
+            }
+            return item;
+        }
+
+        requestItem(row, senderAboveSubject);
+        return itemFactory.createPlaceholder(row, senderAboveSubject);
+    }
+
+    /**
+     * Returns the position of the row that was bound last.
+     */
+    int getCurrentPosition() {
+        return currentPosition;
+    }
+
+    /**
+     * Prepares the items for the cursor's rows from {@code start} to {@code end} (inclusive).
+     * <p>
+     * Items of rows up to {@link #PREFETCH_DISTANCE} rows away from {@code position} are created before this method
+     * returns. The others are created on a background thread, closest to {@code position} first. Work still queued
+     * from an earlier call for the same cursor is dropped.
+     * <p>
+     * Must only be called by the thread that owns {@code cursor}. The cursor is moved to before the first row when this
+     * method returns.
+     *
+     * @param uniqueIdOffset
+     *         Added to the id of each row to get the unique id used by the adapter.
+     */
+    void prefetch(Cursor cursor, Account account, long uniqueIdOffset, boolean showingThreadedList, int start,
+            int end, int position) {
+        boolean senderAboveSubject = this.senderAboveSubject;
+        int generation = nextPrefetchGeneration(uniqueIdOffset);
+
+        int first = Math.max(0, start);
+        List<MessageListRow> rows = new ArrayList<>();
+        try {
+            for (int i = first; i <= end && cursor.moveToPosition(i); i++) {
+                long uniqueId = uniqueIdOffset + cursor.getLong(MLFProjectionInfo.ID_COLUMN);
+                rows.add(new MessageListRow(cursor, uniqueId, account, showingThreadedList));
+            }
+        } finally {
+            cursor.moveToPosition(-1);
+        }
+
+        int last = first + rows.size() - 1;
+        for (int i = Math.max(first, position - PREFETCH_DISTANCE); i <= Math.min(last, position + PREFETCH_DISTANCE);
+                i++) {
+            MessageListRow row = rows.get(i - first);
+            if (!isUpToDate(row, senderAboveSubject)) {
+                cache.put(row.uniqueId, itemFactory.create(row, senderAboveSubject));
+            }
+        }
+
+        // The background executor runs the most recently queued task first
+        int maxDistance = Math.max(position - first, last - position);
+        for (int distance = maxDistance; distance > PREFETCH_DISTANCE; distance--) {
+            for (int i : new int[] { position + distance, position - distance }) {
+                if (i >= first && i <= last) {
+                    prefetchInBackground(rows.get(i - first), senderAboveSubject, uniqueIdOffset, generation);
+                }
+            }
+        }
+    }
+
+    private void prefetchInBackground(final MessageListRow row, final boolean senderAboveSubject,
+            final long uniqueIdOffset, final int generation) {
+        if (isUpToDate(row, senderAboveSubject)) {
+            return;
+        }
+
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A newer cursor was loaded in the meantime. Don't replace its items with outdated ones.
+                if (!isCurrentPrefetchGeneration(uniqueIdOffset, generation) ||
+                        isUpToDate(row, senderAboveSubject)) {
+                    return;
+                }
+
+                try {
+                    cache.put(row.uniqueId, itemFactory.create(row, senderAboveSubject));
+                } catch (RuntimeException e) {
+                    // The item is requested again when the row is bound
+                    Timber.w(e, "Unable to prepare message list item");
+                }
+            }
+        });
+    }
+
+    private void requestItem(final MessageListRow row, final boolean senderAboveSubject) {
+        if (!pendingRequests.add(row.uniqueId)) {
+            return;
+        }
+
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean created = false;
+                try {
+                    // The item might have been prefetched while this request was queued
+                    if (!isUpToDate(row, senderAboveSubject)) {
+                        cache.put(row.uniqueId, itemFactory.create(row, senderAboveSubject));
+                    }
+                    created = true;
+                } catch (RuntimeException e) {
+                    Timber.w(e, "Unable to create message list item");
+                } finally {
+                    pendingRequests.remove(row.uniqueId);
+                }
+
+                if (created) {
+                    notifyListener();
+                }
+            }
+        });
+    }
+
+    private void notifyListener() {
+        // Items created in quick succession only cause one notification
+        if (!notificationPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        mainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                notificationPending.set(false);
+                if (listener != null) {
+                    listener.onItemsCreated();
+                }
+            }
+        });
+    }
+
+    private synchronized int nextPrefetchGeneration(long uniqueIdOffset) {
+        Integer generation = prefetchGenerations.get(uniqueIdOffset);
+        int nextGeneration = (generation == null) ? 0 : generation + 1;
+        prefetchGenerations.put(uniqueIdOffset, nextGeneration);
+        return nextGeneration;
+    }
+
+    private synchronized boolean isCurrentPrefetchGeneration(long uniqueIdOffset, int generation) {
+        Integer currentGeneration = prefetchGenerations.get(uniqueIdOffset);
+        return currentGeneration != null && currentGeneration == generation;
+    }
+
+    private boolean isUpToDate(MessageListRow row, boolean senderAboveSubject) {
+        MessageListItem item = cache.get(row.uniqueId);
+        return item != null && matches(item, row, senderAboveSubject) && isFresh(item);
+    }
+
+    private static boolean matches(MessageListItem item, MessageListRow row, boolean senderAboveSubject) {
+        return item.row.equals(row) && item.senderAboveSubject == senderAboveSubject;
+    }
+
+    private static boolean isFresh(MessageListItem item) {
+        return SystemClock.elapsedRealtime() - item.createdAt < MAX_ITEM_AGE;
+    }
+
+    private static synchronized Executor getDefaultBackgroundExecutor() {
+        if (defaultBackgroundExecutor == null) {
+            defaultBackgroundExecutor = createBackgroundExecutor();
+        }
+        return defaultBackgroundExecutor;
+    }
+
+    private static Executor createBackgroundExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LifoBlockingDeque<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "MessageListItemCache");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+    interface Listener {
+        void onItemsCreated();
+    }
+
+    /**
+     * Queue that hands out the most recently added element first, so rows that were just bound are created before
+     * rows that were prefetched earlier.
+     */
+    private static class LifoBlockingDeque<E> extends LinkedBlockingDeque<E> {
+        @Override
+        public boolean offer(@NonNull E e) {
+            return offerFirst(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.fsck.k9.fragment;
+
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.format.DateUtils;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.ForegroundColorSpan;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.FontSizes;
+import com.fsck.k9.K9;
+import com.fsck.k9.R;
+import com.fsck.k9.helper.MessageHelper;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mailstore.DatabasePreviewType;
+
+
+/**
+ * Creates {@link MessageListItem} instances. Safe to use from any thread.
+ */
+class MessageListItemFactory {
+    private final Context context;
+    private final MessageHelper messageHelper;
+    private final FontSizes fontSizes;
+    private final int previewLines;
+    private final String noSubject;
+    private final String sentToMeSigil;
+    private final String sentCcMeSigil;
+    private final String encryptedPreview;
+
+
+    MessageListItemFactory(Context context, MessageHelper messageHelper, FontSizes fontSizes, int previewLines) {
+        this.context = context.getApplicationContext();
+        this.messageHelper = messageHelper;
+        this.fontSizes = fontSizes;
+        this.previewLines = previewLines;
+
+        noSubject = context.getString(R.string.general_no_subject);
+        sentToMeSigil = context.getString(R.string.messagelist_sent_to_me_sigil);
+        sentCcMeSigil = context.getString(R.string.messagelist_sent_cc_me_sigil);
+        encryptedPreview = context.getString(R.string.preview_encrypted);
+    }
+
+    MessageListItem create(MessageListRow row, boolean senderAboveSubject) {
+        Account account = row.account;
+
+        Address[] fromAddrs = Address.unpack(row.senderList);
+        Address[] toAddrs = Address.unpack(row.toList);
+        Address[] ccAddrs = Address.unpack(row.ccList);
+
+        boolean fromMe = messageHelper.toMe(account, fromAddrs);
+        boolean toMe = messageHelper.toMe(account, toAddrs);
+        boolean ccMe = messageHelper.toMe(account, ccAddrs);
+
+        CharSequence displayName = messageHelper.getDisplayName(account, fromAddrs, toAddrs);
+        CharSequence displayDate = DateUtils.getRelativeTimeSpanString(context, row.date);
+
+        Address counterpartyAddress = fetchCounterPartyAddress(fromMe, toAddrs, ccAddrs, fromAddrs);
+
+        String subject = MlfUtils.buildSubject(row.subject, noSubject, row.threadCount);
+
+        String sigil = recipientSigil(toMe, ccMe);
+        CharSequence beforePreviewText = (senderAboveSubject) ? subject : displayName;
+        SpannableStringBuilder previewText = new SpannableStringBuilder(sigil).append(beforePreviewText);
+        if (previewLines > 0) {
+            previewText.append(" ").append(getPreview(row));
+        }
+        formatPreviewText(previewText, beforePreviewText, sigil, senderAboveSubject);
+
+        CharSequence displayNameWithSigil = new SpannableStringBuilder(sigil).append(displayName);
+
+        return new MessageListItem(row, senderAboveSubject, SystemClock.elapsedRealtime(), displayName,
+                displayNameWithSigil, displayDate, subject, previewText, counterpartyAddress);
+    }
+
+    /**
+     * Creates a placeholder that is shown until the real item is ready. Only uses values that are cheap to compute, so
+     * it can be called on the main thread.
+     */
+    MessageListItem createPlaceholder(MessageListRow row, boolean senderAboveSubject) {
+        String subject = MlfUtils.buildSubject(row.subject, noSubject, row.threadCount);
+        CharSequence previewText = (senderAboveSubject) ? subject : "";
+
+        return new MessageListItem(row, senderAboveSubject, 0, "", "", "", subject, previewText, null);
+    }
+
+    private String recipientSigil(boolean toMe, boolean ccMe) {
+        if (toMe) {
+            return sentToMeSigil;
+        } else if (ccMe) {
+            return sentCcMeSigil;
+        } else {
+            return "";
+        }
+    }
+
+    private void formatPreviewText(Spannable previewText, CharSequence beforePreviewText, String sigil,
+            boolean senderAboveSubject) {
+        previewText.setSpan(buildSenderSpan(senderAboveSubject), 0, beforePreviewText.length() + sigil.length(),
+                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        int previewSpanColor = buildPreviewSpanColor();
+
+        // Set span (color) for preview message
+        previewText.setSpan(new ForegroundColorSpan(previewSpanColor), beforePreviewText.length() + sigil.length(),
+                previewText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    /**
+     * Create a span section for the sender, and assign the correct font size and weight
+     */
+    private AbsoluteSizeSpan buildSenderSpan(boolean senderAboveSubject) {
+        int fontSize = (senderAboveSubject) ?
+                fontSizes.getMessageListSubject():
+                fontSizes.getMessageListSender();
+        return new AbsoluteSizeSpan(fontSize, true);
+    }
+
+    private int buildPreviewSpanColor() {
+        //TODO: make this part of the theme
+        return (K9.getK9Theme() == K9.Theme.LIGHT) ?
+                Color.rgb(105, 105, 105) :
+                Color.rgb(160, 160, 160);
+    }
+
+    private Address fetchCounterPartyAddress(boolean fromMe, Address[] toAddrs, Address[] ccAddrs, Address[] fromAddrs) {
+        if (fromMe) {
+            if (toAddrs.length > 0) {
+                return toAddrs[0];
+            } else if (ccAddrs.length > 0) {
+                return ccAddrs[0];
+            }
+        } else if (fromAddrs.length > 0) {
+            return fromAddrs[0];
+        }
+        return null;
+    }
+
+    private String getPreview(MessageListRow row) {
+        DatabasePreviewType previewType = DatabasePreviewType.fromDatabaseValue(row.previewType);
+
+        switch (previewType) {
+            case NONE:
+            case ERROR: {
+                return "";
+            }
+            case ENCRYPTED: {
+                return encryptedPreview;
+            }
+            case TEXT: {
+                return row.preview;
+            }
+        }
+
+        throw new AssertionError("Unknown preview type: " + previewType);
+    }
+}
@@ -0,0 +1,105 @@
+package com.fsck.k9.fragment;
+
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.helper.MergeCursorWithUniqueId;
+import timber.log.Timber;
+
+
+/**
+ * Loads the messages of one account for the message list and prepares the {@link MessageListItem}s for the rows
+ * of the cursor window before the cursor is handed to the main thread.
+ */
+class MessageListLoader extends CursorLoader {
+    private final Account account;
+    private final int cursorIndex;
+    private final int cursorCount;
+    private final boolean showingThreadedList;
+    private volatile MessageListItemCache itemCache;
+
+
+    /**
+     * @param cursorIndex
+     *         The index of this loader's cursor if there are several that are merged, 0 otherwise.
+     * @param cursorCount
+     *         The number of cursors shown in the message list.
+     */
+    MessageListLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, Account account, int cursorIndex, int cursorCount, boolean showingThreadedList,
+            MessageListItemCache itemCache) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        this.account = account;
+        this.cursorIndex = cursorIndex;
+        this.cursorCount = cursorCount;
+        this.showingThreadedList = showingThreadedList;
+        this.itemCache = itemCache;
+    }
+
+    /**
+     * Sets the cache to prepare items for. Loaders outlive configuration changes, but the adapter and its cache don't.
+     */
+    void setItemCache(MessageListItemCache itemCache) {
+        this.itemCache = itemCache;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor != null) {
+            prefetch(cursor);
+        }
+        return cursor;
+    }
+
+    private void prefetch(Cursor cursor) {
+        MessageListItemCache itemCache = this.itemCache;
+        if (itemCache == null) {
+            return;
+        }
+
+        // Rows of merged cursors are interleaved, so the position in this cursor is only an estimate
+        int position = Math.min(itemCache.getCurrentPosition() / cursorCount, cursor.getCount() - 1);
+        long uniqueIdOffset = (cursorCount > 1) ? MergeCursorWithUniqueId.getUniqueIdOffset(cursorIndex) : 0;
+
+        // Only rows that are already in memory are prepared. Reading others would fill the window again.
+        int start;
+        int end;
+        CursorWindow window = findCursorWindow(cursor);
+        if (window != null && window.getNumRows() > 0) {
+            start = window.getStartPosition();
+            end = start + window.getNumRows() - 1;
+        } else {
+            start = position - MessageListItemCache.PREFETCH_DISTANCE;
+            end = position + MessageListItemCache.PREFETCH_DISTANCE;
+        }
+
+        int maxRows = MessageListItemCache.MAX_PREFETCH_ROWS;
+        if (end - start + 1 > maxRows) {
+            start = Math.max(start, Math.min(position - maxRows / 2, end - maxRows + 1));
+            end = start + maxRows - 1;
+        }
+
+        try {
+            itemCache.prefetch(cursor, account, uniqueIdOffset, showingThreadedList, start, end, position);
+        } catch (RuntimeException e) {
+            // The items are created when the rows are bound instead
+            Timber.w(e, "Unable to prepare message list items");
+        }
+    }
+
+    private static CursorWindow findCursorWindow(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+
+        return (cursor instanceof AbstractWindowedCursor) ? ((AbstractWindowedCursor) cursor).getWindow() : null;
+    }
+}
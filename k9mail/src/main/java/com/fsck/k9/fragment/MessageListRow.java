@@ -0,0 +1,104 @@
+package com.fsck.k9.fragment;
+
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.fsck.k9.Account;
+
+import static com.fsck.k9.fragment.MLFProjectionInfo.ANSWERED_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.ATTACHMENT_COUNT_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.CC_LIST_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.DATE_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.FLAGGED_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.FORWARDED_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.PREVIEW_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.PREVIEW_TYPE_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.READ_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.SENDER_LIST_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.SUBJECT_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.THREAD_COUNT_COLUMN;
+import static com.fsck.k9.fragment.MLFProjectionInfo.TO_LIST_COLUMN;
+
+
+/**
+ * The raw values of a message list row as read from the cursor.
+ * <p>
+ * Reading these values is cheap. They are used to build a {@link MessageListItem} and to check whether a cached
+ * {@code MessageListItem} is still up to date.
+ */
+class MessageListRow {
+    final long uniqueId;
+    final Account account;
+    final String senderList;
+    final String toList;
+    final String ccList;
+    final long date;
+    final int threadCount;
+    final String subject;
+    final String previewType;
+    final String preview;
+    final boolean read;
+    final boolean flagged;
+    final boolean answered;
+    final boolean forwarded;
+    final boolean hasAttachments;
+
+
+    MessageListRow(Cursor cursor, long uniqueId, Account account, boolean showingThreadedList) {
+        this.uniqueId = uniqueId;
+        this.account = account;
+        senderList = cursor.getString(SENDER_LIST_COLUMN);
+        toList = cursor.getString(TO_LIST_COLUMN);
+        ccList = cursor.getString(CC_LIST_COLUMN);
+        date = cursor.getLong(DATE_COLUMN);
+        threadCount = (showingThreadedList) ? cursor.getInt(THREAD_COUNT_COLUMN) : 0;
+        subject = cursor.getString(SUBJECT_COLUMN);
+        previewType = cursor.getString(PREVIEW_TYPE_COLUMN);
+        preview = cursor.getString(PREVIEW_COLUMN);
+        read = (cursor.getInt(READ_COLUMN) == 1);
+        flagged = (cursor.getInt(FLAGGED_COLUMN) == 1);
+        answered = (cursor.getInt(ANSWERED_COLUMN) == 1);
+        forwarded = (cursor.getInt(FORWARDED_COLUMN) == 1);
+        hasAttachments = (cursor.getInt(ATTACHMENT_COUNT_COLUMN) > 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        MessageListRow other = (MessageListRow) o;
+        return uniqueId == other.uniqueId &&
+                date == other.date &&
+                threadCount == other.threadCount &&
+                read == other.read &&
+                flagged == other.flagged &&
+                answered == other.answered &&
+                forwarded == other.forwarded &&
+                hasAttachments == other.hasAttachments &&
+                account.getUuid().equals(other.account.getUuid()) &&
+                TextUtils.equals(senderList, other.senderList) &&
+                TextUtils.equals(toList, other.toList) &&
+                TextUtils.equals(ccList, other.ccList) &&
+                TextUtils.equals(subject, other.subject) &&
+                TextUtils.equals(previewType, other.previewType) &&
+                TextUtils.equals(preview, other.preview);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (uniqueId ^ (uniqueId >>> 32));
+        result = 31 * result + (int) (date ^ (date >>> 32));
+        result = 31 * result + threadCount;
+        result = 31 * result + (read ? 1 : 0);
+        result = 31 * result + (flagged ? 1 : 0);
+        result = 31 * result + (answered ? 1 : 0);
+        result = 31 * result + (forwarded ? 1 : 0);
+        return result;
+    }
+}
@@ -59,12 +59,19 @@ public class MergeCursorWithUniqueId extends MergeCursor {
                         " can only handle '_id' values up to " + SHIFT + " bits.");
             }
 
-            return (((long) mActiveCursorIndex) << SHIFT) + id;
+            return getUniqueIdOffset(mActiveCursorIndex) + id;
         }
 
         return super.getLong(columnIndex);
     }
 
+    /**
+     * Returns the value that is added to the '_id' values of the cursor at {@code cursorIndex} to make them unique.
+     */
+    public static long getUniqueIdOffset(int cursorIndex) {
+        return ((long) cursorIndex) << SHIFT;
+    }
+
     protected int getUniqueIdColumnIndex() {
         if (mColumnCount == -1) {
             mColumnCount = super.getColumnCount();
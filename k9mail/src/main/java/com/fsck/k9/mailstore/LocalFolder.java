@@ -34,6 +34,7 @@ import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.BoundaryGenerator;
 import com.fsck.k9.mail.FetchProfile;
@@ -41,6 +42,7 @@ import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
+import com.fsck.k9.mail.MemoryThresholdBodyFactory;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
@@ -52,6 +54,8 @@ import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.SizeAware;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
 import com.fsck.k9.mail.message.MessageHeaderParser;
 import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
@@ -70,6 +74,7 @@ import timber.log.Timber;
 
 public class LocalFolder extends Folder<LocalMessage> {
     private static final int MAX_BODY_SIZE_FOR_DATABASE = 16 * 1024;
+    private static final Histogram SAVE_MESSAGE_TIME = Metrics.histogram("localstore.save_message_us");
     private static final long INVALID_MESSAGE_PART_ID = -1;
 
 
@@ -594,7 +599,7 @@ public class LocalFolder extends Folder<LocalMessage> {
     public void save() throws MessagingException {
         StorageEditor editor = this.localStore.getStorage().edit();
         save(editor);
-        editor.commit();
+        editor.apply();
     }
 
     public void save(StorageEditor editor) throws MessagingException {
@@ -931,6 +936,50 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    /**
+     * Returns the state of the synchronized flags of all messages in this folder that haven't been deleted, keyed by
+     * UID. This only reads a few columns, so it's much cheaper than loading {@link LocalMessage} instances when the
+     * flags of many messages need to be compared with the server.
+     */
+    public Map<String, MessageFlagState> getMessageFlagStates() throws MessagingException {
+        try {
+            return localStore.getDatabase().execute(false, new DbCallback<Map<String, MessageFlagState>>() {
+                @Override
+                public Map<String, MessageFlagState> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+                    Cursor cursor = null;
+                    HashMap<String, MessageFlagState> result = new HashMap<>();
+
+                    try {
+                        open(OPEN_MODE_RO);
+
+                        cursor = db.rawQuery(
+                                "SELECT uid, id, read, flagged, answered, forwarded " +
+                                        "FROM messages " +
+                                        "WHERE empty = 0 AND deleted = 0 AND folder_id = ?",
+                                new String[] { Long.toString(databaseId) });
+
+                        while (cursor.moveToNext()) {
+                            String uid = cursor.getString(0);
+                            MessageFlagState flagState = new MessageFlagState(cursor.getLong(1),
+                                    cursor.getInt(2) == 1, cursor.getInt(3) == 1, cursor.getInt(4) == 1,
+                                    cursor.getInt(5) == 1);
+                            result.put(uid, flagState);
+                        }
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    } finally {
+                        Utility.closeQuietly(cursor);
+                    }
+
+                    return result;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
     public List<LocalMessage> getMessages(MessageRetrievalListener<LocalMessage> listener) throws MessagingException {
         return getMessages(listener, true);
     }
@@ -998,16 +1047,79 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
-    public List<LocalMessage> getMessagesByUids(@NonNull List<String> uids) throws MessagingException {
+    /**
+     * Loads the messages with the given UIDs using one query per {@link LocalStore#UID_CHECK_BATCH_SIZE} UIDs.
+     *
+     * @return The messages that exist in this folder, in the order of {@code uids}.
+     */
+    public List<LocalMessage> getMessagesByUids(@NonNull final List<String> uids) throws MessagingException {
         open(OPEN_MODE_RW);
-        List<LocalMessage> messages = new ArrayList<>();
-        for (String uid : uids) {
-            LocalMessage message = getMessage(uid);
-            if (message != null) {
-                messages.add(message);
-            }
+        try {
+            return this.localStore.getDatabase().execute(false, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    Map<String, LocalMessage> messagesByUid = new HashMap<>();
+                    List<String> selectionArgs = new ArrayList<>();
+                    int start = 0;
+
+                    while (start < uids.size()) {
+                        StringBuilder selection = new StringBuilder();
+
+                        selection.append("folder_id = ? AND uid IN (");
+                        selectionArgs.add(Long.toString(databaseId));
+
+                        int count = Math.min(uids.size() - start, LocalStore.UID_CHECK_BATCH_SIZE);
+
+                        for (int i = start, end = start + count; i < end; i++) {
+                            if (i > start) {
+                                selection.append(",?");
+                            } else {
+                                selection.append("?");
+                            }
+
+                            selectionArgs.add(uids.get(i));
+                        }
+
+                        selection.append(")");
+
+                        Cursor cursor = db.rawQuery(
+                                "SELECT " +
+                                LocalStore.GET_MESSAGES_COLS +
+                                "FROM messages " +
+                                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                                "WHERE " + selection,
+                                selectionArgs.toArray(LocalStore.EMPTY_STRING_ARRAY));
+
+                        try {
+                            while (cursor.moveToNext()) {
+                                LocalMessage message = new LocalMessage(localStore, null, LocalFolder.this);
+                                message.populateFromGetMessageCursor(cursor);
+                                messagesByUid.put(message.getUid(), message);
+                            }
+                        } catch (MessagingException e) {
+                            throw new WrappedException(e);
+                        } finally {
+                            Utility.closeQuietly(cursor);
+                        }
+
+                        selectionArgs.clear();
+                        start += count;
+                    }
+
+                    List<LocalMessage> messages = new ArrayList<>(messagesByUid.size());
+                    for (String uid : uids) {
+                        LocalMessage message = messagesByUid.get(uid);
+                        if (message != null) {
+                            messages.add(message);
+                        }
+                    }
+                    return messages;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
         }
-        return messages;
     }
 
     public List<LocalMessage> getMessagesByReference(@NonNull List<MessageReference> messageReferences)
@@ -1171,23 +1283,39 @@ public class LocalFolder extends Folder<LocalMessage> {
     }
 
     /**
-     * Convenience transaction wrapper for storing a message and set it as fully downloaded. Implemented mainly to speed up DB transaction commit.
+     * Returns a {@link BodyFactory} to be used when fetching remote messages that will be stored in this folder.
+     * <p>
+     * Bodies small enough to be stored in the database are kept in memory. Larger bodies are written to a file in the
+     * attachment directory, so {@link #appendMessages(List)} can move them into place by renaming the file. Callers
+     * have to call {@link MemoryThresholdBodyFactory#deleteSpillFiles()} when done storing the fetched messages.
+     * Files left behind by an earlier process are deleted the first time this is called.
+     */
+    public MemoryThresholdBodyFactory getBodyFactory() {
+        localStore.deleteStaleSpillFilesIfNecessary();
+        return new MemoryThresholdBodyFactory(MAX_BODY_SIZE_FOR_DATABASE, localStore.getAttachmentDirectory());
+    }
+
+    /**
+     * Stores completely downloaded messages in a single transaction and marks them as fully downloaded. If one of the
+     * messages can't be stored, none of them are.
      *
-     * @param message Message to store. Never <code>null</code>.
-     * @param runnable What to do before setting {@link Flag#X_DOWNLOADED_FULL}. Never <code>null</code>.
-     * @return The local version of the message. Never <code>null</code>.
+     * @return The stored messages, in the order of {@code messages}.
      */
-    public LocalMessage storeSmallMessage(final Message message, final Runnable runnable) throws MessagingException {
-        return this.localStore.getDatabase().execute(true, new DbCallback<LocalMessage>() {
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        return this.localStore.getDatabase().execute(true, new DbCallback<List<LocalMessage>>() {
             @Override
-            public LocalMessage doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+            public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                    UnavailableStorageException {
                 try {
-                    appendMessages(Collections.singletonList(message));
-                    final String uid = message.getUid();
-                    final LocalMessage result = getMessage(uid);
-                    runnable.run();
-                    // Set a flag indicating this message has now be fully downloaded
-                    result.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                    appendMessages(messages);
+
+                    List<LocalMessage> result = new ArrayList<>(messages.size());
+                    for (Message message : messages) {
+                        LocalMessage localMessage = getMessage(message.getUid());
+                        // Set a flag indicating this message has now be fully downloaded
+                        localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                        result.add(localMessage);
+                    }
                     return result;
                 } catch (MessagingException e) {
                     throw new WrappedException(e);
@@ -1212,7 +1340,14 @@ public class LocalFolder extends Folder<LocalMessage> {
         return appendMessages(messages, false);
     }
 
-    public void destroyMessages(final List<? extends Message> messages) {
+    public void destroyMessages(List<? extends Message> messages) {
+        for (int start = 0; start < messages.size(); start += LockableDatabase.MAX_ITEMS_PER_TRANSACTION) {
+            int end = Math.min(start + LockableDatabase.MAX_ITEMS_PER_TRANSACTION, messages.size());
+            destroyMessagesInTransaction(messages.subList(start, end));
+        }
+    }
+
+    private void destroyMessagesInTransaction(final List<? extends Message> messages) {
         try {
             this.localStore.getDatabase().execute(true, new DbCallback<Void>() {
                 @Override
@@ -1275,26 +1410,20 @@ public class LocalFolder extends Folder<LocalMessage> {
      * that the messages supplied as parameters are actually {@link LocalMessage} instances (in
      * fact, in most cases, they are not). Therefore, if you want to make local changes only to a
      * message, retrieve the appropriate local message instance first (if it already exists).
+     *
+     * Large lists of messages are saved using multiple transactions so other threads don't have to wait for the
+     * database for too long.
      * @return uidMap of srcUids -> destUids
      */
-    private Map<String, String> appendMessages(final List<? extends Message> messages, final boolean copy)
+    private Map<String, String> appendMessages(List<? extends Message> messages, boolean copy)
             throws MessagingException {
         open(OPEN_MODE_RW);
         try {
-            final Map<String, String> uidMap = new HashMap<>();
-            this.localStore.getDatabase().execute(true, new DbCallback<Void>() {
-                @Override
-                public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                    try {
-                        for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
-                        }
-                    } catch (MessagingException e) {
-                        throw new WrappedException(e);
-                    }
-                    return null;
-                }
-            });
+            Map<String, String> uidMap = new HashMap<>();
+            for (int start = 0; start < messages.size(); start += LockableDatabase.MAX_ITEMS_PER_TRANSACTION) {
+                int end = Math.min(start + LockableDatabase.MAX_ITEMS_PER_TRANSACTION, messages.size());
+                appendMessagesInTransaction(messages.subList(start, end), copy, uidMap);
+            }
 
             this.localStore.notifyChange();
 
@@ -1304,6 +1433,25 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    private void appendMessagesInTransaction(final List<? extends Message> messages, final boolean copy,
+            final Map<String, String> uidMap) throws MessagingException {
+        this.localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                try {
+                    for (Message message : messages) {
+                        long startTime = Metrics.startTimer();
+                        saveMessage(db, message, copy, uidMap);
+                        SAVE_MESSAGE_TIME.recordElapsed(startTime);
+                    }
+                } catch (MessagingException e) {
+                    throw new WrappedException(e);
+                }
+                return null;
+            }
+        });
+    }
+
     private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
             throws MessagingException {
         if (!(message instanceof MimeMessage)) {
@@ -1425,6 +1573,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                 cv.put("fulltext", fulltext);
                 db.replace("messages_fulltext", null, cv);
             }
+
+            saveHeaderFulltextIndexEntry(db, msgId, message);
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
@@ -1695,6 +1845,9 @@ public class LocalFolder extends Folder<LocalMessage> {
             }
         });
 
+        // The part might be displayed as part of the message text
+        localStore.getDisplayHtmlCache().removeMessage(getAccountUuid(), message.getMessagePartId());
+
         localStore.notifyChange();
     }
 
@@ -2005,9 +2158,26 @@ public class LocalFolder extends Folder<LocalMessage> {
         db.delete("threads", "message_id = ?", idArg);
     }
 
+    /**
+     * Index subject and address lists so {@link com.fsck.k9.search.SqlQueryBuilder} can search them without scanning
+     * the 'messages' table. The values are stored exactly like in the 'messages' table.
+     */
+    private void saveHeaderFulltextIndexEntry(SQLiteDatabase db, long messageId, Message message) {
+        ContentValues cv = new ContentValues();
+        cv.put("docid", messageId);
+        cv.put("subject", message.getSubject());
+        cv.put("sender_list", Address.pack(message.getFrom()));
+        cv.put("to_list", Address.pack(message.getRecipients(RecipientType.TO)));
+        cv.put("cc_list", Address.pack(message.getRecipients(RecipientType.CC)));
+        cv.put("bcc_list", Address.pack(message.getRecipients(RecipientType.BCC)));
+        cv.put("reply_to_list", Address.pack(message.getReplyTo()));
+        db.replace("messages_header_fulltext", null, cv);
+    }
+
     void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
         String[] idArg = { Long.toString(messageId) };
         db.delete("messages_fulltext", "docid = ?", idArg);
+        db.delete("messages_header_fulltext", "docid = ?", idArg);
     }
 
     void deleteMessagePartsAndDataFromDisk(final long rootMessagePartId) throws MessagingException {
@@ -2033,6 +2203,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                 return null;
             }
         });
+
+        localStore.getDisplayHtmlCache().removeMessage(getAccountUuid(), rootMessagePartId);
     }
 
     private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId) {
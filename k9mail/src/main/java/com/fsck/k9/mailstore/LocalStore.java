@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -42,6 +43,7 @@ import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.MemoryThresholdBodyFactory;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
@@ -56,11 +58,14 @@ import com.fsck.k9.message.extractors.AttachmentCounter;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
 import com.fsck.k9.message.extractors.MessageFulltextCreator;
 import com.fsck.k9.message.extractors.MessagePreviewCreator;
+import com.fsck.k9.message.html.DisplayHtmlCache;
 import com.fsck.k9.preferences.Storage;
 import com.fsck.k9.provider.EmailProvider;
 import com.fsck.k9.provider.EmailProvider.MessageColumns;
+import com.fsck.k9.search.ConditionsTreeNode;
 import com.fsck.k9.search.LocalSearch;
 import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchCondition;
 import com.fsck.k9.search.SearchSpecification.SearchField;
 import com.fsck.k9.search.SqlQueryBuilder;
 import org.apache.commons.io.IOUtils;
@@ -157,9 +162,10 @@ public class LocalStore extends Store {
     private static final int ATTACH_DATA_INDEX = 4;
 
     /**
-     * Maximum number of UIDs to check for existence at once.
+     * Maximum number of UIDs to check for existence or load at once.
      *
      * @see LocalFolder#extractNewMessages(List)
+     * @see LocalFolder#getMessagesByUids(List)
      */
     static final int UID_CHECK_BATCH_SIZE = 500;
 
@@ -177,7 +183,18 @@ public class LocalStore extends Store {
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
 
-    public static final int DB_VERSION = 60;
+    /**
+     * Number of tokens in a snippet returned by {@link #searchForMessages(LocalSearch, MessageSearchPage.Position, int)}.
+     */
+    private static final int SNIPPET_TOKEN_COUNT = 15;
+
+    /**
+     * Spill files must be this much older than the store to be considered stale. Accounts for the coarse
+     * modification times of some file systems.
+     */
+    private static final long STALE_SPILL_FILE_MARGIN = 60 * 1000;
+
+    public static final int DB_VERSION = 61;
 
     private final Context context;
     private final ContentResolver contentResolver;
@@ -189,6 +206,8 @@ public class LocalStore extends Store {
 
     private final Account account;
     private final LockableDatabase database;
+    private final long creationTime = System.currentTimeMillis();
+    private final AtomicBoolean staleSpillFilesDeleted = new AtomicBoolean(false);
 
     /**
      * local://localhost/path/to/database/uuid.db
@@ -343,6 +362,7 @@ public class LocalStore extends Store {
 
                 // We don't need the search data now either
                 db.delete("messages_fulltext", null, null);
+                db.delete("messages_header_fulltext", null, null);
 
                 return null;
             }
@@ -436,15 +456,22 @@ public class LocalStore extends Store {
 
     public void delete() throws UnavailableStorageException {
         database.delete();
+        getDisplayHtmlCache().removeAccount(account.getUuid());
     }
 
     public void recreate() throws UnavailableStorageException {
         database.recreate();
+        getDisplayHtmlCache().removeAccount(account.getUuid());
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
         markAllMessagePartsDataAsMissing();
         deleteAllMessagePartsDataFromDisk();
+        getDisplayHtmlCache().removeAccount(account.getUuid());
+    }
+
+    DisplayHtmlCache getDisplayHtmlCache() {
+        return DisplayHtmlCache.getInstance(context);
     }
 
     private void markAllMessagePartsDataAsMissing() throws MessagingException {
@@ -569,18 +596,13 @@ public class LocalStore extends Store {
         List<String> queryArgs = new ArrayList<>();
         SqlQueryBuilder.buildWhereClause(account, search.getConditions(), query, queryArgs);
 
-        // Avoid "ambiguous column name" error by prefixing "id" with the message table name
-        String where = SqlQueryBuilder.addPrefixToSelection(new String[] { "id" },
-                "messages.", query.toString());
-
         String[] selectionArgs = queryArgs.toArray(new String[queryArgs.size()]);
 
         String sqlQuery = "SELECT " + GET_MESSAGES_COLS + "FROM messages " +
                 "LEFT JOIN threads ON (threads.message_id = messages.id) " +
                 "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
-                "LEFT JOIN folders ON (folders.id = messages.folder_id) WHERE " +
-                "(empty = 0 AND deleted = 0)" +
-                ((!TextUtils.isEmpty(where)) ? " AND (" + where + ")" : "") +
+                "LEFT JOIN folders ON (folders.id = messages.folder_id) " +
+                "WHERE messages.id IN (" + buildSearchSubquery(query.toString()) + ")" +
                 " ORDER BY date DESC";
 
         Timber.d("Query = %s", sqlQuery);
@@ -588,6 +610,135 @@ public class LocalStore extends Store {
         return getMessages(retrievalListener, null, sqlQuery, selectionArgs);
     }
 
+    /**
+     * Returns one page of messages matching {@code search}, most recent first.
+     * <p>
+     * Only the messages of the requested page are loaded. If the search contains a message body condition, the page
+     * also contains a snippet of the body of each message with the search terms highlighted.
+     *
+     * @param after
+     *         The value of {@link MessageSearchPage#getNextPosition()} of the previous page, or {@code null} to get
+     *         the first page.
+     * @param limit
+     *         The maximum number of messages to return.
+     */
+    public MessageSearchPage searchForMessages(LocalSearch search, @Nullable MessageSearchPage.Position after,
+            int limit) throws MessagingException {
+
+        StringBuilder query = new StringBuilder();
+        final List<String> queryArgs = new ArrayList<>();
+        SqlQueryBuilder.buildWhereClause(account, search.getConditions(), query, queryArgs);
+
+        if (after != null) {
+            query.insert(0, "(").append(") AND (m.date < ? OR (m.date = ? AND m.id < ?))");
+            queryArgs.add(Long.toString(after.date));
+            queryArgs.add(Long.toString(after.date));
+            queryArgs.add(Long.toString(after.messageId));
+        }
+
+        final String sqlQuery = "SELECT " + GET_MESSAGES_COLS + "FROM messages " +
+                "LEFT JOIN threads ON (threads.message_id = messages.id) " +
+                "LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) " +
+                "LEFT JOIN folders ON (folders.id = messages.folder_id) " +
+                "WHERE messages.id IN (" + buildSearchSubquery(query.toString()) +
+                // Fetch one additional message to find out whether there's another page
+                " ORDER BY m.date DESC, m.id DESC LIMIT " + (limit + 1) + ")" +
+                " ORDER BY date DESC, messages.id DESC";
+
+        final List<LocalMessage> messages = database.execute(false, new DbCallback<List<LocalMessage>>() {
+            @Override
+            public List<LocalMessage> doDbWork(SQLiteDatabase db) throws WrappedException {
+                List<LocalMessage> result = new ArrayList<>();
+                Cursor cursor = db.rawQuery(sqlQuery, queryArgs.toArray(new String[queryArgs.size()]));
+                try {
+                    while (cursor.moveToNext()) {
+                        LocalMessage message = new LocalMessage(LocalStore.this, null, null);
+                        message.populateFromGetMessageCursor(cursor);
+                        result.add(message);
+                    }
+                } catch (MessagingException e) {
+                    throw new WrappedException(e);
+                } finally {
+                    cursor.close();
+                }
+                return result;
+            }
+        });
+
+        MessageSearchPage.Position nextPosition = null;
+        if (messages.size() > limit) {
+            messages.subList(limit, messages.size()).clear();
+            LocalMessage lastMessage = messages.get(limit - 1);
+            nextPosition = new MessageSearchPage.Position(lastMessage.getSentDate().getTime(),
+                    lastMessage.getDatabaseId());
+        }
+
+        String fulltextQuery = getMessageContentsQuery(search);
+        Map<Long, String> snippets = (fulltextQuery != null && !messages.isEmpty()) ?
+                getFulltextSnippets(fulltextQuery, messages) : Collections.<Long, String>emptyMap();
+
+        return new MessageSearchPage(messages, snippets, nextPosition);
+    }
+
+    /**
+     * Selects the IDs of all messages matching {@code where}. The conditions created by {@link SqlQueryBuilder}
+     * expect the 'messages' table to be called 'm'.
+     */
+    private static String buildSearchSubquery(String where) {
+        // Avoid "ambiguous column name" error by prefixing "id" with the message table name
+        String prefixedWhere = SqlQueryBuilder.addPrefixToSelection(new String[] { "id" }, "m.", where);
+
+        return "SELECT m.id FROM messages m " +
+                "LEFT JOIN threads ON (threads.message_id = m.id) " +
+                "WHERE (m.empty = 0 AND m.deleted = 0)" +
+                ((!TextUtils.isEmpty(prefixedWhere)) ? " AND (" + prefixedWhere + ")" : "");
+    }
+
+    private static String getMessageContentsQuery(LocalSearch search) {
+        for (ConditionsTreeNode node : search.getLeafSet()) {
+            SearchCondition condition = node.getCondition();
+            if (condition != null && condition.field == SearchField.MESSAGE_CONTENTS) {
+                return condition.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates snippets for the given messages. Only done for the messages of a page, because SQLite would otherwise
+     * compute a snippet for every match before sorting.
+     */
+    private Map<Long, String> getFulltextSnippets(final String fulltextQuery, List<LocalMessage> messages)
+            throws MessagingException {
+        final StringBuilder idList = new StringBuilder();
+        for (LocalMessage message : messages) {
+            if (idList.length() > 0) {
+                idList.append(',');
+            }
+            idList.append(message.getDatabaseId());
+        }
+
+        return database.execute(false, new DbCallback<Map<Long, String>>() {
+            @Override
+            public Map<Long, String> doDbWork(SQLiteDatabase db) throws WrappedException {
+                Map<Long, String> snippets = new HashMap<>();
+                Cursor cursor = db.rawQuery("SELECT docid, snippet(messages_fulltext, ?, ?, '\u2026', -1, " +
+                        SNIPPET_TOKEN_COUNT + ") FROM messages_fulltext " +
+                        "WHERE messages_fulltext MATCH ? AND docid IN (" + idList + ")",
+                        new String[] { MessageSearchPage.HIGHLIGHT_START, MessageSearchPage.HIGHLIGHT_END,
+                                fulltextQuery });
+                try {
+                    while (cursor.moveToNext()) {
+                        snippets.put(cursor.getLong(0), cursor.getString(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return snippets;
+            }
+        });
+    }
+
     /*
      * Given a query string, actually do the query for the messages and
      * call the MessageRetrievalListener for each one
@@ -891,10 +1042,23 @@ public class LocalStore extends Store {
     }
 
     File getAttachmentFile(String attachmentId) {
+        return new File(getAttachmentDirectory(), attachmentId);
+    }
+
+    File getAttachmentDirectory() {
         final StorageManager storageManager = StorageManager.getInstance(context);
-        final File attachmentDirectory = storageManager.getAttachmentDirectory(
-                account.getUuid(), database.getStorageProviderId());
-        return new File(attachmentDirectory, attachmentId);
+        return storageManager.getAttachmentDirectory(account.getUuid(), database.getStorageProviderId());
+    }
+
+    /**
+     * Deletes spill files that were left in the attachment directory when the app was killed while storing fetched
+     * messages. Only the first call does anything.
+     */
+    void deleteStaleSpillFilesIfNecessary() {
+        if (staleSpillFilesDeleted.compareAndSet(false, true)) {
+            MemoryThresholdBodyFactory.deleteSpillFilesOlderThan(getAttachmentDirectory(),
+                    creationTime - STALE_SPILL_FILE_MARGIN);
+        }
     }
 
     public static class AttachmentInfo {
@@ -1120,6 +1284,34 @@ public class LocalStore extends Store {
      */
     public void setFlag(final List<Long> messageIds, final Flag flag, final boolean newState)
             throws MessagingException {
+        updateFlag(messageIds, flag, newState);
+        notifyChange();
+    }
+
+    /**
+     * Change the state of several flags for lists of messages and notify observers once all changes have been
+     * written.
+     *
+     * @param flagsToSet
+     *         The messages to set each flag for, as lists of primary keys in the "messages" table.
+     * @param flagsToClear
+     *         The messages to clear each flag for, as lists of primary keys in the "messages" table.
+     *
+     * @see #setFlag(List, Flag, boolean)
+     */
+    public void setFlags(Map<Flag, List<Long>> flagsToSet, Map<Flag, List<Long>> flagsToClear)
+            throws MessagingException {
+        for (Map.Entry<Flag, List<Long>> entry : flagsToSet.entrySet()) {
+            updateFlag(entry.getValue(), entry.getKey(), true);
+        }
+        for (Map.Entry<Flag, List<Long>> entry : flagsToClear.entrySet()) {
+            updateFlag(entry.getValue(), entry.getKey(), false);
+        }
+        notifyChange();
+    }
+
+    private void updateFlag(final List<Long> messageIds, final Flag flag, final boolean newState)
+            throws MessagingException {
 
         final ContentValues cv = new ContentValues();
         cv.put(getColumnNameForFlag(flag), newState);
@@ -1146,7 +1338,7 @@ public class LocalStore extends Store {
 
             @Override
             public void postDbWork() {
-                notifyChange();
+                // Observers are notified once all batches have been written
             }
         }, FLAG_UPDATE_BATCH_SIZE);
     }
@@ -15,11 +15,23 @@ import timber.log.Timber;
 import com.fsck.k9.K9;
 import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.metrics.Histogram;
+import com.fsck.k9.mail.metrics.Metrics;
 
 import static java.lang.System.currentTimeMillis;
 
 
 public class LockableDatabase {
+    /**
+     * Maximum number of items a bulk write should process in a single transaction. Splitting large writes into several
+     * transactions keeps the time other threads have to wait for the database short.
+     */
+    public static final int MAX_ITEMS_PER_TRANSACTION = 50;
+
+    private static final Histogram READ_LOCK_WAIT_TIME = Metrics.histogram("db.read_lock_wait_us");
+    private static final Histogram WRITE_LOCK_WAIT_TIME = Metrics.histogram("db.write_lock_wait_us");
+    private static final Histogram TRANSACTION_TIME = Metrics.histogram("db.transaction_us");
+    private static final Histogram COMMIT_TIME = Metrics.histogram("db.commit_us");
 
     /**
      * Callback interface for DB operations. Concept is similar to Spring
@@ -179,7 +191,9 @@ public class LockableDatabase {
      *             If storage can't be locked because it is not available
      */
     protected void lockRead() throws UnavailableStorageException {
+        long startTime = Metrics.startTimer();
         mReadLock.lock();
+        READ_LOCK_WAIT_TIME.recordElapsed(startTime);
         try {
             getStorageManager().lockProvider(mStorageProviderId);
         } catch (UnavailableStorageException | RuntimeException e) {
@@ -225,7 +239,9 @@ public class LockableDatabase {
      *             If storage can't be locked because it is not available.
      */
     protected void lockWrite(final String providerId) throws UnavailableStorageException {
+        long startTime = Metrics.startTimer();
         mWriteLock.lock();
+        WRITE_LOCK_WAIT_TIME.recordElapsed(startTime);
         try {
             getStorageManager().lockProvider(providerId);
         } catch (UnavailableStorageException | RuntimeException e) {
@@ -266,6 +282,7 @@ public class LockableDatabase {
         final boolean doTransaction = transactional && inTransaction.get() == null;
         try {
             final boolean debug = K9.isDebug();
+            final long transactionStartTime = Metrics.startTimer();
             if (doTransaction) {
                 inTransaction.set(Boolean.TRUE);
                 mDb.beginTransaction();
@@ -285,7 +302,10 @@ public class LockableDatabase {
                         begin = 0L;
                     }
                     // not doing endTransaction in the same 'finally' block of unlockRead() because endTransaction() may throw an exception
+                    long commitStartTime = Metrics.startTimer();
                     mDb.endTransaction();
+                    COMMIT_TIME.recordElapsed(commitStartTime);
+                    TRANSACTION_TIME.recordElapsed(transactionStartTime);
                     if (debug) {
                         Timber.v("LockableDatabase: Transaction ended, took %d ms / %s",
                                 currentTimeMillis() - begin,
@@ -373,9 +393,8 @@ public class LockableDatabase {
             } catch (SQLiteException e) {
                 // TODO handle this error in a better way!
                 Timber.w(e, "Unable to open DB %s - removing file and retrying", databaseFile);
-                if (databaseFile.exists() && !databaseFile.delete()) {
-                    Timber.d("Failed to remove %s that couldn't be opened", databaseFile);
-                }
+                // A write-ahead log left behind would be applied to the new, empty database
+                deleteDatabase(databaseFile);
                 doOpenOrCreateDb(databaseFile);
             }
             if (mDb.getVersion() != mSchemaDefinition.getVersion()) {
@@ -395,6 +414,25 @@ public class LockableDatabase {
             // external storage
             mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
         }
+
+        enableWriteAheadLogging();
+    }
+
+    /**
+     * Without write-ahead logging SQLite uses a single connection per database. A long write transaction, e.g. while
+     * synchronizing a large folder, then blocks all queries from the UI until it's committed. In WAL mode readers use
+     * separate connections and see the last committed state while a write transaction is in progress.
+     * <p>
+     * WAL support on Android versions prior to Jelly Bean is unreliable, so we only enable it on newer versions.
+     */
+    private void enableWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+
+        if (!mDb.enableWriteAheadLogging()) {
+            Timber.w("LockableDatabase: Unable to enable write-ahead logging for DB %s", uUid);
+        }
     }
 
     /**
@@ -0,0 +1,46 @@
+package com.fsck.k9.mailstore;
+
+
+import com.fsck.k9.mail.Flag;
+
+
+/**
+ * The state of the flags that are synchronized with the server for a message in the local store.
+ *
+ * @see LocalFolder#getMessageFlagStates()
+ */
+public class MessageFlagState {
+    private final long databaseId;
+    private final boolean seen;
+    private final boolean flagged;
+    private final boolean answered;
+    private final boolean forwarded;
+
+
+    public MessageFlagState(long databaseId, boolean seen, boolean flagged, boolean answered, boolean forwarded) {
+        this.databaseId = databaseId;
+        this.seen = seen;
+        this.flagged = flagged;
+        this.answered = answered;
+        this.forwarded = forwarded;
+    }
+
+    public long getDatabaseId() {
+        return databaseId;
+    }
+
+    public boolean isSet(Flag flag) {
+        switch (flag) {
+            case SEEN:
+                return seen;
+            case FLAGGED:
+                return flagged;
+            case ANSWERED:
+                return answered;
+            case FORWARDED:
+                return forwarded;
+            default:
+                throw new IllegalArgumentException("Flag state isn't available: " + flag);
+        }
+    }
+}
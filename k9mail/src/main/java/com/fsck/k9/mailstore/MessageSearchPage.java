@@ -0,0 +1,83 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import android.support.annotation.Nullable;
+
+
+/**
+ * One page of results of a paginated message search.
+ *
+ * @see LocalStore#searchForMessages(com.fsck.k9.search.LocalSearch, Position, int)
+ */
+public class MessageSearchPage {
+    /**
+     * Marks the start of a search term in a snippet.
+     */
+    public static final String HIGHLIGHT_START = "\u0002";
+
+    /**
+     * Marks the end of a search term in a snippet.
+     */
+    public static final String HIGHLIGHT_END = "\u0003";
+
+
+    private final List<LocalMessage> messages;
+    private final Map<Long, String> snippets;
+    private final Position nextPosition;
+
+
+    MessageSearchPage(List<LocalMessage> messages, Map<Long, String> snippets, Position nextPosition) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.snippets = Collections.unmodifiableMap(snippets);
+        this.nextPosition = nextPosition;
+    }
+
+    /**
+     * Returns the messages of this page, most recent first.
+     */
+    public List<LocalMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns an excerpt of the message body around the search terms, or {@code null} if the search didn't contain a
+     * message body condition. Search terms are enclosed in {@link #HIGHLIGHT_START} and {@link #HIGHLIGHT_END}.
+     */
+    @Nullable
+    public String getSnippet(LocalMessage message) {
+        return snippets.get(message.getDatabaseId());
+    }
+
+    public boolean hasMore() {
+        return nextPosition != null;
+    }
+
+    /**
+     * Returns the position to pass to the next call to get the following page, or {@code null} if this is the last
+     * page.
+     */
+    @Nullable
+    public Position getNextPosition() {
+        return nextPosition;
+    }
+
+
+    /**
+     * Position in the result list used for keyset pagination. Results are ordered by date and database ID, so a page
+     * can be fetched without counting or skipping the rows before it.
+     */
+    public static class Position {
+        final long date;
+        final long messageId;
+
+
+        Position(long date, long messageId) {
+            this.date = date;
+            this.messageId = messageId;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.fsck.k9.mail.Part;
 public class MessageViewInfo {
     public final Message message;
     public final boolean isMessageIncomplete;
+    public final boolean hasMoreContent;
     public final Part rootPart;
     public final AttachmentResolver attachmentResolver;
     public final String text;
@@ -20,13 +21,14 @@ public class MessageViewInfo {
 
 
     public MessageViewInfo(
-            Message message, boolean isMessageIncomplete, Part rootPart,
+            Message message, boolean isMessageIncomplete, boolean hasMoreContent, Part rootPart,
             String text, List<AttachmentViewInfo> attachments,
             CryptoResultAnnotation cryptoResultAnnotation,
             AttachmentResolver attachmentResolver,
             String extraText, List<AttachmentViewInfo> extraAttachments) {
         this.message = message;
         this.isMessageIncomplete = isMessageIncomplete;
+        this.hasMoreContent = hasMoreContent;
         this.rootPart = rootPart;
         this.text = text;
         this.cryptoResultAnnotation = cryptoResultAnnotation;
@@ -37,14 +39,14 @@ public class MessageViewInfo {
     }
 
     public static MessageViewInfo createWithExtractedContent(
-            Message message, boolean isMessageIncomplete, Part rootPart,
+            Message message, boolean isMessageIncomplete, boolean hasMoreContent, Part rootPart,
             String text, List<AttachmentViewInfo> attachments,
             CryptoResultAnnotation cryptoResultAnnotation,
             AttachmentResolver attachmentResolver,
             String extraText, List<AttachmentViewInfo> extraAttachments
     ) {
         return new MessageViewInfo(
-                message, isMessageIncomplete, rootPart,
+                message, isMessageIncomplete, hasMoreContent, rootPart,
                 text, attachments,
                 cryptoResultAnnotation,
                 attachmentResolver,
@@ -53,7 +55,7 @@ public class MessageViewInfo {
     }
 
     public static MessageViewInfo createWithErrorState(Message message, boolean isMessageIncomplete) {
-        return new MessageViewInfo(message, isMessageIncomplete, null, null, null, null, null, null, null);
+        return new MessageViewInfo(message, isMessageIncomplete, false, null, null, null, null, null, null, null);
     }
 
 }
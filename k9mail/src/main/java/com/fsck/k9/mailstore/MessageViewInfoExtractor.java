@@ -1,10 +1,13 @@
 package com.fsck.k9.mailstore;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.support.annotation.Nullable;
@@ -23,6 +26,7 @@ import com.fsck.k9.mail.internet.Viewable;
 import com.fsck.k9.mail.internet.Viewable.Flowed;
 import com.fsck.k9.mailstore.util.FlowedMessageUtils;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
+import com.fsck.k9.message.html.DisplayHtmlCache;
 import com.fsck.k9.message.html.HtmlConverter;
 import com.fsck.k9.message.html.HtmlProcessor;
 import com.fsck.k9.ui.crypto.MessageCryptoAnnotations;
@@ -46,30 +50,64 @@ public class MessageViewInfoExtractor {
     private static final String FILENAME_SUFFIX = " ";
     private static final int FILENAME_SUFFIX_LENGTH = FILENAME_SUFFIX.length();
 
+    /**
+     * Number of bytes of decoded text that are displayed before the user asks to see more of a message.
+     */
+    public static final long DEFAULT_TEXT_SIZE_LIMIT = 256 * 1024;
+
+    /**
+     * Upper bound for the text size limit, so that a huge message can't use up all of the heap.
+     */
+    public static final long MAX_TEXT_SIZE_LIMIT = 4 * 1024 * 1024;
+
+    // First character of a DisplayHtmlCache entry, followed by the HTML
+    private static final char CACHE_ENTRY_COMPLETE = '0';
+    private static final char CACHE_ENTRY_TRUNCATED = '1';
+
 
     private final Context context;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
+    @Nullable
+    private final DisplayHtmlCache displayHtmlCache;
 
 
     public static MessageViewInfoExtractor getInstance() {
         Context context = Globals.getContext();
         AttachmentInfoExtractor attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
         HtmlProcessor htmlProcessor = HtmlProcessor.newInstance();
-        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor);
+        DisplayHtmlCache displayHtmlCache = DisplayHtmlCache.getInstance(context);
+        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, htmlProcessor, displayHtmlCache);
     }
 
     @VisibleForTesting
     MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
-            HtmlProcessor htmlProcessor) {
+            HtmlProcessor htmlProcessor, @Nullable DisplayHtmlCache displayHtmlCache) {
         this.context = context;
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.htmlProcessor = htmlProcessor;
+        this.displayHtmlCache = displayHtmlCache;
     }
 
     @WorkerThread
     public MessageViewInfo extractMessageForView(Message message, @Nullable MessageCryptoAnnotations annotations)
             throws MessagingException {
+        return extractMessageForView(message, annotations, DEFAULT_TEXT_SIZE_LIMIT);
+    }
+
+    /**
+     * Extract the contents of a message for display.
+     *
+     * @param textSizeLimit
+     *         Maximum number of bytes of decoded text to include in the output, capped at
+     *         {@link #MAX_TEXT_SIZE_LIMIT}. If the message contains more text and the limit can still be raised,
+     *         {@link MessageViewInfo#hasMoreContent} is set.
+     */
+    @WorkerThread
+    public MessageViewInfo extractMessageForView(Message message, @Nullable MessageCryptoAnnotations annotations,
+            long textSizeLimit) throws MessagingException {
+        textSizeLimit = Math.min(textSizeLimit, MAX_TEXT_SIZE_LIMIT);
+
         Part rootPart;
         CryptoResultAnnotation cryptoResultAnnotation;
         List<Part> extraParts;
@@ -89,14 +127,15 @@ public class MessageViewInfoExtractor {
         }
 
         List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
-        ViewableExtractedText viewable = extractViewableAndAttachments(
-                Collections.singletonList(rootPart), attachmentInfos);
+        // Only the HTML version of the message body is displayed
+        ViewableExtractedText viewable = extractViewableAndAttachmentsUsingCache(message, rootPart, attachmentInfos,
+                textSizeLimit);
 
         List<AttachmentViewInfo> extraAttachmentInfos = new ArrayList<>();
         String extraViewableText = null;
         if (extraParts != null) {
             ViewableExtractedText extraViewable =
-                    extractViewableAndAttachments(extraParts, extraAttachmentInfos);
+                    extractViewableAndAttachments(extraParts, extraAttachmentInfos, textSizeLimit, true);
             extraViewableText = extraViewable.text;
         }
 
@@ -105,12 +144,87 @@ public class MessageViewInfoExtractor {
         boolean isMessageIncomplete = !message.isSet(Flag.X_DOWNLOADED_FULL) ||
                 MessageExtractor.hasMissingParts(message);
 
-        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, rootPart, viewable.html,
-                attachmentInfos, cryptoResultAnnotation, attachmentResolver, extraViewableText, extraAttachmentInfos);
+        if (viewable.isTruncated) {
+            Timber.d("Only displaying the first %d bytes of text", textSizeLimit);
+        }
+        boolean hasMoreContent = viewable.isTruncated && textSizeLimit < MAX_TEXT_SIZE_LIMIT;
+
+        return MessageViewInfo.createWithExtractedContent(message, isMessageIncomplete, hasMoreContent,
+                rootPart, viewable.html, attachmentInfos, cryptoResultAnnotation, attachmentResolver,
+                extraViewableText, extraAttachmentInfos);
+    }
+
+    /**
+     * Same as {@link #extractViewableAndAttachments(List, List, long, boolean)} for the content part of a message, but
+     * the HTML is taken from the {@link DisplayHtmlCache} if possible. In that case the text of the message isn't read
+     * at all.
+     */
+    private ViewableExtractedText extractViewableAndAttachmentsUsingCache(Message message, Part rootPart,
+            List<AttachmentViewInfo> attachmentInfos, long textSizeLimit) throws MessagingException {
+        DisplayHtmlCache.Scope cacheScope = getDisplayHtmlCacheScope(message);
+        String contentPartId = getStoredContentPartId(message, rootPart);
+        if (displayHtmlCache == null || cacheScope == null || contentPartId == null) {
+            return extractViewableAndAttachments(Collections.singletonList(rootPart), attachmentInfos, textSizeLimit,
+                    false);
+        }
+
+        String cacheKey = DisplayHtmlCache.createKey(contentPartId, Long.toString(textSizeLimit),
+                htmlProcessor.getCustomHeadContents());
+        String cacheEntry = displayHtmlCache.get(cacheScope, cacheKey);
+        if (cacheEntry != null && !cacheEntry.isEmpty()) {
+            ArrayList<Viewable> viewableParts = new ArrayList<>();
+            ArrayList<Part> attachments = new ArrayList<>();
+            MessageExtractor.findViewablesAndAttachments(rootPart, viewableParts, attachments);
+            attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
+
+            boolean isTruncated = cacheEntry.charAt(0) == CACHE_ENTRY_TRUNCATED;
+            return new ViewableExtractedText(null, cacheEntry.substring(1), isTruncated);
+        }
+
+        ViewableExtractedText viewable = extractViewableAndAttachments(Collections.singletonList(rootPart),
+                attachmentInfos, textSizeLimit, false);
+
+        char truncatedMarker = viewable.isTruncated ? CACHE_ENTRY_TRUNCATED : CACHE_ENTRY_COMPLETE;
+        displayHtmlCache.put(cacheScope, cacheKey, truncatedMarker + viewable.html);
+
+        return viewable;
+    }
+
+    @Nullable
+    private static DisplayHtmlCache.Scope getDisplayHtmlCacheScope(Message message) {
+        if (!(message instanceof LocalMessage)) {
+            return null;
+        }
+
+        LocalMessage localMessage = (LocalMessage) message;
+        long messagePartId = localMessage.getMessagePartId();
+        if (messagePartId <= 0) {
+            return null;
+        }
+
+        return DisplayHtmlCache.Scope.forMessage(localMessage.getFolder().getAccountUuid(), messagePartId);
+    }
+
+    /**
+     * Returns the database ID of the part the displayed content is read from, or {@code null} if the content doesn't
+     * come from the local store. That's the case for content that was returned by a crypto provider, e.g. decrypted
+     * text. It must never be cached, because the cache is stored unencrypted. The content of signed messages is
+     * stored locally, so it's cached like any other message.
+     */
+    @Nullable
+    private static String getStoredContentPartId(Message message, Part rootPart) {
+        if (rootPart == message && message instanceof LocalMessage) {
+            return Long.toString(((LocalMessage) message).getMessagePartId());
+        } else if (rootPart instanceof LocalPart) {
+            return Long.toString(((LocalPart) rootPart).getPartId());
+        }
+
+        return null;
     }
 
     private ViewableExtractedText extractViewableAndAttachments(List<Part> parts,
-            List<AttachmentViewInfo> attachmentInfos) throws MessagingException {
+            List<AttachmentViewInfo> attachmentInfos, long textSizeLimit, boolean includeText)
+            throws MessagingException {
         ArrayList<Viewable> viewableParts = new ArrayList<>();
         ArrayList<Part> attachments = new ArrayList<>();
 
@@ -119,12 +233,23 @@ public class MessageViewInfoExtractor {
         }
 
         attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
-        return extractTextFromViewables(viewableParts);
+        return extractTextFromViewables(viewableParts, textSizeLimit, includeText);
+    }
+
+    @VisibleForTesting
+    ViewableExtractedText extractTextFromViewables(List<Viewable> viewables) throws MessagingException {
+        return extractTextFromViewables(viewables, MessageExtractor.NO_TEXT_SIZE_LIMIT, true);
     }
 
     /**
      * Extract the viewable textual parts of a message and return the rest as attachments.
      *
+     * @param textSizeLimit
+     *         Maximum number of bytes of decoded text to read from the viewable parts, or
+     *         {@link MessageExtractor#NO_TEXT_SIZE_LIMIT}.
+     * @param includeText
+     *         {@code true}, if a plain text version should be created in addition to the HTML version.
+     *
      * @return A {@link ViewableExtractedText} instance containing the textual parts of the message as
      *         plain text and HTML, and a list of message parts considered attachments.
      *
@@ -132,8 +257,8 @@ public class MessageViewInfoExtractor {
      *          In case of an error.
      */
     @VisibleForTesting
-    ViewableExtractedText extractTextFromViewables(List<Viewable> viewables)
-            throws MessagingException {
+    ViewableExtractedText extractTextFromViewables(List<Viewable> viewables, long textSizeLimit,
+            boolean includeText) throws MessagingException {
         try {
             // Collect all viewable parts
 
@@ -144,23 +269,33 @@ public class MessageViewInfoExtractor {
             // Used to suppress the divider for the first viewable part
             boolean hideDivider = true;
 
-            StringBuilder text = new StringBuilder();
+            PartTextReader reader = new PartTextReader(textSizeLimit);
+            StringBuilder text = includeText ? new StringBuilder() : null;
             StringBuilder html = new StringBuilder();
 
             for (Viewable viewable : viewables) {
+                if (reader.isLimitReached()) {
+                    reader.isTruncated = true;
+                    break;
+                }
+
                 if (viewable instanceof Textual) {
                     // This is either a text/plain or text/html part. Fill the variables 'text' and
                     // 'html', converting between plain text and HTML as necessary.
-                    text.append(buildText(viewable, !hideDivider));
-                    html.append(buildHtml(viewable, !hideDivider));
+                    if (text != null) {
+                        buildText(text, reader, viewable, !hideDivider);
+                    }
+                    buildHtml(html, reader, viewable, !hideDivider);
                     hideDivider = false;
                 } else if (viewable instanceof MessageHeader) {
                     MessageHeader header = (MessageHeader) viewable;
                     Part containerPart = header.getContainerPart();
                     Message innerMessage =  header.getMessage();
 
-                    addTextDivider(text, containerPart, !hideDivider);
-                    addMessageHeaderText(text, innerMessage);
+                    if (text != null) {
+                        addTextDivider(text, containerPart, !hideDivider);
+                        addMessageHeaderText(text, innerMessage);
+                    }
 
                     addHtmlDivider(html, containerPart, !hideDivider);
                     addMessageHeaderHtml(html, innerMessage);
@@ -182,15 +317,17 @@ public class MessageViewInfoExtractor {
 
                     // Fill the 'text' variable
                     boolean divider = !hideDivider;
-                    for (Viewable textViewable : textAlternative) {
-                        text.append(buildText(textViewable, divider));
-                        divider = true;
+                    if (text != null) {
+                        for (Viewable textViewable : textAlternative) {
+                            buildText(text, reader, textViewable, divider);
+                            divider = true;
+                        }
                     }
 
                     // Fill the 'html' variable
                     divider = !hideDivider;
                     for (Viewable htmlViewable : htmlAlternative) {
-                        html.append(buildHtml(htmlViewable, divider));
+                        buildHtml(html, reader, htmlViewable, divider);
                         divider = true;
                     }
                     hideDivider = false;
@@ -199,7 +336,7 @@ public class MessageViewInfoExtractor {
 
             String sanitizedHtml = htmlProcessor.processForDisplay(html.toString());
 
-            return new ViewableExtractedText(text.toString(), sanitizedHtml);
+            return new ViewableExtractedText(text != null ? text.toString() : null, sanitizedHtml, reader.isTruncated);
         } catch (Exception e) {
             throw new MessagingException("Couldn't extract viewable parts", e);
         }
@@ -213,21 +350,22 @@ public class MessageViewInfoExtractor {
      * to HTML if necessary.
      * </p>
      *
+     * @param html
+     *         The {@link StringBuilder} to append the HTML to.
+     * @param reader
+     *         The {@link PartTextReader} used to get the text of the viewable part.
      * @param viewable
      *         The viewable part to build the HTML from.
      * @param prependDivider
      *         {@code true}, if the HTML divider should be inserted as first element.
      *         {@code false}, otherwise.
-     *
-     * @return The contents of the supplied viewable instance as HTML.
      */
-    private StringBuilder buildHtml(Viewable viewable, boolean prependDivider) {
-        StringBuilder html = new StringBuilder();
+    private void buildHtml(StringBuilder html, PartTextReader reader, Viewable viewable, boolean prependDivider) {
         if (viewable instanceof Textual) {
             Part part = ((Textual)viewable).getPart();
             addHtmlDivider(html, part, prependDivider);
 
-            String t = MessageExtractor.getTextFromPart(part);
+            String t = reader.getTextFromPart(part);
             if (t == null) {
                 t = "";
             } else if (viewable instanceof Flowed) {
@@ -250,21 +388,18 @@ public class MessageViewInfoExtractor {
 
             boolean divider = prependDivider;
             for (Viewable htmlViewable : htmlAlternative) {
-                html.append(buildHtml(htmlViewable, divider));
+                buildHtml(html, reader, htmlViewable, divider);
                 divider = true;
             }
         }
-
-        return html;
     }
 
-    private StringBuilder buildText(Viewable viewable, boolean prependDivider) {
-        StringBuilder text = new StringBuilder();
+    private void buildText(StringBuilder text, PartTextReader reader, Viewable viewable, boolean prependDivider) {
         if (viewable instanceof Textual) {
             Part part = ((Textual)viewable).getPart();
             addTextDivider(text, part, prependDivider);
 
-            String t = MessageExtractor.getTextFromPart(part);
+            String t = reader.getTextFromPart(part);
             if (t == null) {
                 t = "";
             } else if (viewable instanceof Html) {
@@ -286,12 +421,10 @@ public class MessageViewInfoExtractor {
 
             boolean divider = prependDivider;
             for (Viewable textViewable : textAlternative) {
-                text.append(buildText(textViewable, divider));
+                buildText(text, reader, textViewable, divider);
                 divider = true;
             }
         }
-
-        return text;
     }
 
     /**
@@ -499,14 +632,91 @@ public class MessageViewInfoExtractor {
         html.append("</td></tr>");
     }
 
+    /**
+     * Reads the text of viewable parts while keeping track of how much of the text size limit has been used up.
+     * <p>
+     * The limit is measured in bytes of the decoded part bodies, i.e. before the charset is applied, because that is
+     * what {@link MessageExtractor#getTextFromPart(Part, long)} limits. The text of a part is only read once, even if
+     * it is used for both the plain text and the HTML version.
+     */
+    private static class PartTextReader {
+        private final long textSizeLimit;
+        private final Map<Part, String> partTexts = new IdentityHashMap<>();
+        private long remaining;
+        boolean isTruncated;
+
+
+        PartTextReader(long textSizeLimit) {
+            this.textSizeLimit = textSizeLimit;
+            remaining = textSizeLimit;
+        }
+
+        boolean isLimitReached() {
+            return textSizeLimit != MessageExtractor.NO_TEXT_SIZE_LIMIT && remaining <= 0;
+        }
+
+        String getTextFromPart(Part part) {
+            if (partTexts.containsKey(part)) {
+                return partTexts.get(part);
+            }
+
+            String text;
+            if (textSizeLimit == MessageExtractor.NO_TEXT_SIZE_LIMIT) {
+                text = MessageExtractor.getTextFromPart(part);
+            } else if (remaining <= 0) {
+                isTruncated = true;
+                text = null;
+            } else {
+                text = getLimitedTextFromPart(part);
+            }
+
+            partTexts.put(part, text);
+            return text;
+        }
+
+        private String getLimitedTextFromPart(Part part) {
+            String text = MessageExtractor.getTextFromPart(part, remaining);
+            if (text == null) {
+                return null;
+            }
+
+            long size = getDecodedBodySize(part, remaining, text);
+            if (size > remaining) {
+                // Text bodies created in memory are returned in full. Those are cut to as many characters as there
+                // are bytes left, which is as close as we get without encoding the text again.
+                if (text.length() > remaining) {
+                    text = text.substring(0, (int) remaining);
+                }
+
+                isTruncated = true;
+                remaining = 0;
+            } else {
+                remaining -= size;
+            }
+
+            return text;
+        }
+
+        private static long getDecodedBodySize(Part part, long limit, String text) {
+            try {
+                return MessageExtractor.getDecodedBodySize(part, limit);
+            } catch (IOException | MessagingException e) {
+                Timber.w(e, "Couldn't determine size of message part");
+                return Math.min(text.length(), limit);
+            }
+        }
+    }
+
     @VisibleForTesting
     static class ViewableExtractedText {
         public final String text;
         public final String html;
+        public final boolean isTruncated;
 
-        public ViewableExtractedText(String text, String html) {
+        public ViewableExtractedText(String text, String html, boolean isTruncated) {
             this.text = text;
             this.html = html;
+            this.isTruncated = isTruncated;
         }
     }
 }
@@ -210,10 +210,15 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "BEGIN " +
                 "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
                 "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM messages_header_fulltext WHERE docid = OLD.id; " +
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
         db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+
+        db.execSQL("DROP TABLE IF EXISTS messages_header_fulltext");
+        db.execSQL("CREATE VIRTUAL TABLE messages_header_fulltext USING fts4 " +
+                "(subject, sender_list, to_list, cc_list, bcc_list, reply_to_list)");
     }
 
 
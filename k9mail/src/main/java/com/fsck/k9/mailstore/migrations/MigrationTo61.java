@@ -0,0 +1,28 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo61 {
+    static void createHeaderFtsSearchTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE messages_header_fulltext USING fts4 " +
+                "(subject, sender_list, to_list, cc_list, bcc_list, reply_to_list)");
+
+        db.execSQL("INSERT INTO messages_header_fulltext " +
+                "(docid, subject, sender_list, to_list, cc_list, bcc_list, reply_to_list) " +
+                "SELECT id, subject, sender_list, to_list, cc_list, bcc_list, reply_to_list " +
+                "FROM messages WHERE deleted = 0 AND empty = 0");
+    }
+
+    static void updateDeleteMessageTrigger(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message");
+        db.execSQL("CREATE TRIGGER delete_message " +
+                "BEFORE DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
+                "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM messages_header_fulltext WHERE docid = OLD.id; " +
+                "END");
+    }
+}
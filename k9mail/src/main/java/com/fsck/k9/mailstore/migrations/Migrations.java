@@ -75,6 +75,9 @@ public class Migrations {
                 MigrationTo59.addMissingIndexes(db);
             case 59:
                 MigrationTo60.migratePendingCommands(db);
+            case 60:
+                MigrationTo61.createHeaderFtsSearchTable(db);
+                MigrationTo61.updateDeleteMessageTrigger(db);
         }
     }
 }
@@ -3,7 +3,7 @@ package com.fsck.k9.message.extractors;
 
 import android.support.annotation.NonNull;
 
-import com.fsck.k9.message.html.HtmlConverter;
+import com.fsck.k9.message.html.HtmlTextExtractor;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
@@ -49,7 +49,7 @@ public class MessageFulltextCreator {
             return text;
         }
 
-        return HtmlConverter.htmlToText(text);
+        return HtmlTextExtractor.extractText(text);
     }
 
     private boolean hasEmptyBody(Part textPart) {
@@ -3,7 +3,7 @@ package com.fsck.k9.message.extractors;
 
 import android.support.annotation.NonNull;
 
-import com.fsck.k9.message.html.HtmlConverter;
+import com.fsck.k9.message.html.HtmlTextExtractor;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
 
@@ -13,6 +13,11 @@ import static com.fsck.k9.mail.internet.MimeUtility.isSameMimeType;
 class PreviewTextExtractor {
     private static final int MAX_PREVIEW_LENGTH = 512;
     private static final int MAX_CHARACTERS_CHECKED_FOR_PREVIEW = 8192;
+    /**
+     * Amount of text extracted from HTML parts. Quotes and signatures are removed afterwards, so this is larger than
+     * {@link #MAX_PREVIEW_LENGTH}.
+     */
+    private static final int MAX_TEXT_LENGTH_FROM_HTML = 4 * MAX_PREVIEW_LENGTH;
 
 
     @NonNull
@@ -33,7 +38,7 @@ class PreviewTextExtractor {
             return text;
         }
 
-        return HtmlConverter.htmlToText(text);
+        return HtmlTextExtractor.extractText(text, MAX_TEXT_LENGTH_FROM_HTML);
     }
 
     private String stripTextForPreview(String text) {
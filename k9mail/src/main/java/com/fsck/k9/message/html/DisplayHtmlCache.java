@@ -0,0 +1,272 @@
+package com.fsck.k9.message.html;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * On-disk cache of HTML that was prepared for display by {@link HtmlProcessor}.
+ * <p>
+ * Entries are keyed by inputs that are known before the HTML is built, i.e. the ID of the stored message part and the
+ * display settings, so a hit avoids reading and converting the message text altogether. A changed theme or font
+ * setting simply results in a cache miss. Entries of a message are removed when its content changes. Every version of
+ * the sanitizer gets its own directory; directories of other versions are deleted when the cache is first used. When
+ * the cache grows beyond {@link #MAX_SIZE} the least recently used entries are removed.
+ * <p>
+ * Entries are stored in a directory per account and message, so they can be removed together with the message or
+ * account (see {@link #removeMessage(String, long)} and {@link #removeAccount(String)}). The cache is stored
+ * unencrypted; callers must not put decrypted content into it.
+ */
+public class DisplayHtmlCache {
+    private static final String DIRECTORY_NAME = "display_html";
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static DisplayHtmlCache instance;
+
+
+    /**
+     * Identifies the message an entry belongs to.
+     */
+    public static class Scope {
+        final String accountUuid;
+        final long messagePartId;
+
+        private Scope(String accountUuid, long messagePartId) {
+            this.accountUuid = accountUuid;
+            this.messagePartId = messagePartId;
+        }
+
+        /**
+         * @param messagePartId
+         *         The database ID of the message's root part. It changes whenever the message content is replaced.
+         */
+        public static Scope forMessage(String accountUuid, long messagePartId) {
+            return new Scope(accountUuid, messagePartId);
+        }
+    }
+
+
+    private final File baseDirectory;
+    private final File directory;
+    private final long maxSize;
+    private boolean initialized = false;
+    private long size;
+
+
+    public static synchronized DisplayHtmlCache getInstance(Context context) {
+        if (instance == null) {
+            File baseDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+            instance = new DisplayHtmlCache(baseDirectory, HtmlProcessor.VERSION, MAX_SIZE);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    DisplayHtmlCache(File baseDirectory, int version, long maxSize) {
+        this.baseDirectory = baseDirectory;
+        this.maxSize = maxSize;
+        directory = new File(baseDirectory, Integer.toString(version));
+    }
+
+    /**
+     * Creates a cache key from the given strings.
+     */
+    public static String createKey(String... parts) {
+        StringBuilder keyMaterial = new StringBuilder();
+        for (String part : parts) {
+            keyMaterial.append(part.length()).append(':').append(part);
+        }
+        return ByteString.encodeUtf8(keyMaterial.toString()).sha1().hex();
+    }
+
+    @WorkerThread
+    @Nullable
+    public String get(Scope scope, String key) {
+        initializeIfNecessary();
+
+        File file = new File(getMessageDirectory(scope.accountUuid, scope.messagePartId), key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(file));
+            String html = source.readUtf8();
+
+            // Used to find the least recently used entries when trimming the cache
+            file.setLastModified(System.currentTimeMillis());
+
+            return html;
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read cached HTML");
+            return null;
+        } finally {
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+    @WorkerThread
+    public void put(Scope scope, String key, String html) {
+        initializeIfNecessary();
+
+        File messageDirectory = getMessageDirectory(scope.accountUuid, scope.messagePartId);
+        File file = new File(messageDirectory, key);
+        File tempFile = new File(messageDirectory, key + TEMP_FILE_SUFFIX + Thread.currentThread().getId());
+
+        BufferedSink sink = null;
+        try {
+            if (!messageDirectory.isDirectory() && !messageDirectory.mkdirs()) {
+                Timber.w("Failed to create HTML cache directory");
+                return;
+            }
+
+            sink = Okio.buffer(Okio.sink(tempFile));
+            sink.writeUtf8(html);
+            sink.close();
+            sink = null;
+
+            // Readers never see a partially written entry
+            synchronized (this) {
+                long replacedLength = file.length();
+                if (!tempFile.renameTo(file)) {
+                    Timber.w("Failed to store cached HTML");
+                    return;
+                }
+
+                addToSize(file.length() - replacedLength);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Failed to write cached HTML");
+        } finally {
+            IOUtils.closeQuietly(sink);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries of a message. Called when the message content is deleted or replaced.
+     */
+    @WorkerThread
+    public void removeMessage(String accountUuid, long messagePartId) {
+        initializeIfNecessary();
+        removeDirectory(getMessageDirectory(accountUuid, messagePartId));
+    }
+
+    /**
+     * Removes all entries of an account. Called when the account is removed or its local store is recreated.
+     */
+    @WorkerThread
+    public void removeAccount(String accountUuid) {
+        initializeIfNecessary();
+        removeDirectory(new File(directory, accountUuid));
+    }
+
+    private File getMessageDirectory(String accountUuid, long messagePartId) {
+        return new File(new File(directory, accountUuid), Long.toString(messagePartId));
+    }
+
+    private synchronized void removeDirectory(File entryDirectory) {
+        if (!entryDirectory.isDirectory()) {
+            return;
+        }
+
+        long length = FileUtils.sizeOfDirectory(entryDirectory);
+        FileUtils.deleteQuietly(entryDirectory);
+        size -= length;
+    }
+
+    // Accesses the file system, so it's not done in the constructor which may be called on the main thread
+    private synchronized void initializeIfNecessary() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+
+        deleteOtherVersions();
+        size = directory.isDirectory() ? FileUtils.sizeOfDirectory(directory) : 0;
+    }
+
+    private synchronized void addToSize(long length) {
+        size += length;
+
+        if (size > maxSize) {
+            trim();
+        }
+    }
+
+    private void trim() {
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        Collection<File> entries = FileUtils.listFiles(directory, null, true);
+        File[] files = entries.toArray(new File[entries.size()]);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsLastModified = lhs.lastModified();
+                long rhsLastModified = rhs.lastModified();
+                return lhsLastModified < rhsLastModified ? -1 : (lhsLastModified == rhsLastModified ? 0 : 1);
+            }
+        });
+
+        // Shrink to 3/4 of the maximum size so we don't have to trim again right away
+        long targetSize = maxSize / 4 * 3;
+        for (File file : files) {
+            if (size <= targetSize) {
+                break;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                deleteIfEmpty(file.getParentFile());
+            }
+        }
+    }
+
+    // Removes the message directory and then the account directory once their last entry is gone
+    private void deleteIfEmpty(File entryDirectory) {
+        for (File current = entryDirectory; current != null && !current.equals(directory);
+                current = current.getParentFile()) {
+            String[] children = current.list();
+            if (children == null || children.length > 0 || !current.delete()) {
+                return;
+            }
+        }
+    }
+
+    private void deleteOtherVersions() {
+        File[] directories = baseDirectory.listFiles();
+        if (directories == null) {
+            return;
+        }
+
+        for (File otherDirectory : directories) {
+            if (!otherDirectory.equals(directory)) {
+                FileUtils.deleteQuietly(otherDirectory);
+            }
+        }
+    }
+}
@@ -7,8 +7,6 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.text.Annotation;
 import android.text.Editable;
@@ -177,17 +175,6 @@ public class HtmlConverter {
         return buff.toString();
     }
 
-    private static final String HTML_BLOCKQUOTE_COLOR_TOKEN = "$$COLOR$$";
-    private static final String HTML_BLOCKQUOTE_START = "<blockquote class=\"gmail_quote\" " +
-            "style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid $$COLOR$$; padding-left: 1ex;\">";
-    private static final String HTML_BLOCKQUOTE_END = "</blockquote>";
-    private static final String HTML_NEWLINE = "<br />";
-    private static final Pattern ASCII_PATTERN_FOR_HR = Pattern.compile(
-            "(^|\\Q" + HTML_NEWLINE + "\\E)\\s*((\\Q" + HTML_NEWLINE + "\\E)*" +
-            "((((\\Q" + HTML_NEWLINE + "\\E){0,2}([-=_]{3,})(\\Q" + HTML_NEWLINE +
-            "\\E){0,2})|(([-=_]{2,} ?)(8&lt;|<gt>8|%&lt;|<gt>%)" +
-            "( ?[-=_]{2,})))+(\\Q" + HTML_NEWLINE + "\\E|$)))");
-
     /**
      * Convert a text string into an HTML document.
      *
@@ -216,131 +203,12 @@ public class HtmlConverter {
             return simpleTextToHtml(text);
         }
         StringBuilder buff = new StringBuilder(text.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
-        boolean isStartOfLine = true;  // Are we currently at the start of a line?
-        int spaces = 0;
-        int quoteDepth = 0; // Number of DIVs deep we are.
-        int quotesThisLine = 0; // How deep we should be quoting for this line.
-        for (int index = 0; index < text.length(); index++) {
-            char c = text.charAt(index);
-            if (isStartOfLine) {
-                switch (c) {
-                case ' ':
-                    spaces++;
-                    break;
-                case '>':
-                    quotesThisLine++;
-                    spaces = 0;
-                    break;
-                case '\n':
-                    appendbq(buff, quotesThisLine, quoteDepth);
-                    quoteDepth = quotesThisLine;
-
-                    appendsp(buff, spaces);
-                    spaces = 0;
-
-                    appendchar(buff, c);
-                    isStartOfLine = true;
-                    quotesThisLine = 0;
-                    break;
-                default:
-                    isStartOfLine = false;
-
-                    appendbq(buff, quotesThisLine, quoteDepth);
-                    quoteDepth = quotesThisLine;
-
-                    appendsp(buff, spaces);
-                    spaces = 0;
-
-                    appendchar(buff, c);
-                    isStartOfLine = false;
-                    break;
-                }
-            }
-            else {
-                appendchar(buff, c);
-                if (c == '\n') {
-                    isStartOfLine = true;
-                    quotesThisLine = 0;
-                }
-            }
-        }
-        // Close off any quotes we may have opened.
-        if (quoteDepth > 0) {
-            for (int i = quoteDepth; i > 0; i--) {
-                buff.append(HTML_BLOCKQUOTE_END);
-            }
-        }
-        text = buff.toString();
-
-        // Make newlines at the end of blockquotes nicer by putting newlines beyond the first one outside of the
-        // blockquote.
-        text = text.replaceAll(
-                   "\\Q" + HTML_NEWLINE + "\\E((\\Q" + HTML_NEWLINE + "\\E)+?)\\Q" + HTML_BLOCKQUOTE_END + "\\E",
-                   HTML_BLOCKQUOTE_END + "$1"
-               );
-
-        text = ASCII_PATTERN_FOR_HR.matcher(text).replaceAll("<hr>");
-
-        StringBuffer sb = new StringBuffer(text.length() + TEXT_TO_HTML_EXTRA_BUFFER_LENGTH);
 
-        sb.append(htmlifyMessageHeader());
-        UriLinkifier.linkifyText(text, sb);
-        sb.append(htmlifyMessageFooter());
-
-        text = sb.toString();
-
-        // Above we replaced > with <gt>, now make it &gt;
-        text = text.replaceAll("<gt>", "&gt;");
-
-        return text;
-    }
-
-    private static void appendchar(StringBuilder buff, int c) {
-        switch (c) {
-        case '&':
-            buff.append("&amp;");
-            break;
-        case '<':
-            buff.append("&lt;");
-            break;
-        case '>':
-            // We use a token here which can't occur in htmlified text because &gt; is valid
-            // within links (where > is not), and linkifying links will include it if we
-            // do it here. We'll make another pass and change this back to &gt; after
-            // the linkification is done.
-            buff.append("<gt>");
-            break;
-        case '\r':
-            break;
-        case '\n':
-            // pine treats <br> as two newlines, but <br/> as one newline.  Use <br/> so our messages aren't
-            // doublespaced.
-            buff.append(HTML_NEWLINE);
-            break;
-        default:
-            buff.append((char)c);
-            break;
-        }
-    }
-
-    private static void appendsp(StringBuilder buff, int spaces) {
-        while (spaces > 0) {
-            buff.append(' ');
-            spaces--;
-        }
-    }
+        buff.append(htmlifyMessageHeader());
+        TextToHtml.appendAsHtml(text, buff);
+        buff.append(htmlifyMessageFooter());
 
-    private static void appendbq(StringBuilder buff, int quotesThisLine, int quoteDepth) {
-        // Add/remove blockquotes by comparing this line's quotes to the previous line's quotes.
-        if (quotesThisLine > quoteDepth) {
-            for (int i = quoteDepth; i < quotesThisLine; i++) {
-                buff.append(HTML_BLOCKQUOTE_START.replace(HTML_BLOCKQUOTE_COLOR_TOKEN, getQuoteColor(i + 1)));
-            }
-        } else if (quotesThisLine < quoteDepth) {
-            for (int i = quoteDepth; i > quotesThisLine; i--) {
-                buff.append(HTML_BLOCKQUOTE_END);
-            }
-        }
+        return buff.toString();
     }
 
     protected static final String QUOTE_COLOR_DEFAULT = "#ccc";
@@ -5,6 +5,13 @@ import org.jsoup.nodes.Document;
 
 
 public class HtmlProcessor {
+    /**
+     * Version of the output of {@link #processForDisplay(String)}. Increment this whenever the sanitizer or the
+     * conversion of message text to HTML changes, so that {@link DisplayHtmlCache} doesn't return outdated HTML.
+     */
+    static final int VERSION = 3;
+
+
     private final HtmlSanitizer htmlSanitizer;
 
 
@@ -19,15 +26,19 @@ public class HtmlProcessor {
 
     public String processForDisplay(String html) {
         Document document = htmlSanitizer.sanitize(html);
-        addCustomHeadContents(document);
+        document.head().append(getCustomHeadContents());
 
         return toCompactString(document);
     }
 
-    private void addCustomHeadContents(Document document) {
-        document.head().append("<meta name=\"viewport\" content=\"width=device-width\"/>" +
+    /**
+     * Returns the HTML added to the head of every document by {@link #processForDisplay(String)}. It depends on the
+     * theme and font settings, so it's part of the key of cached output.
+     */
+    public String getCustomHeadContents() {
+        return "<meta name=\"viewport\" content=\"width=device-width\"/>" +
                 HtmlConverter.cssStyleTheme() +
-                HtmlConverter.cssStylePre());
+                HtmlConverter.cssStylePre();
     }
 
     public static String toCompactString(Document document) {
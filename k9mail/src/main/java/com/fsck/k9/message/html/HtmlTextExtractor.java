@@ -0,0 +1,585 @@
+package com.fsck.k9.message.html;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Converts HTML to plain text in a single pass over the input, without building a document tree or a
+ * {@link android.text.Spanned}.
+ * <p>
+ * This is meant for message previews and the fulltext index, where only the text matters. The output roughly matches
+ * {@link HtmlConverter#htmlToText(String)}: whitespace is collapsed the way a browser would do it, block elements
+ * start a new line, character references are decoded, and comments as well as the contents of style, script, and
+ * title elements are skipped. Other formatting, e.g. of lists, is not preserved.
+ */
+public class HtmlTextExtractor {
+    private static final String HORIZONTAL_RULE = "_____________________________________________";
+
+    private static final Set<String> BLOCK_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "center", "dd", "div", "dl", "dt", "figure", "footer", "form",
+            "h1", "h2", "h3", "h4", "h5", "h6", "header", "li", "main", "nav", "ol", "p", "pre", "section", "table",
+            "tr", "ul")));
+
+    private static final Set<String> TAGS_WITH_IGNORED_CONTENT = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("style", "script", "title")));
+
+    private static final int MAX_ENTITY_NAME_LENGTH = 8;
+    private static final int MAX_NUMERIC_REFERENCE_LENGTH = 8;
+    private static final Map<String, String> ENTITIES = createEntityMap();
+
+
+    private final String html;
+    private final int maxLength;
+    private final StringBuilder output;
+    private int position = 0;
+    private boolean pendingSpace = false;
+
+
+    public static String extractText(String html) {
+        return extractText(html, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Converts HTML to plain text, stopping as soon as {@code maxLength} characters of text have been produced.
+     */
+    public static String extractText(String html, int maxLength) {
+        return new HtmlTextExtractor(html, maxLength).extract();
+    }
+
+    private HtmlTextExtractor(String html, int maxLength) {
+        this.html = html;
+        this.maxLength = maxLength;
+        output = new StringBuilder(Math.min(html.length(), maxLength));
+    }
+
+    private String extract() {
+        int length = html.length();
+        while (position < length && output.length() < maxLength) {
+            char c = html.charAt(position);
+            if (c == '<') {
+                parseMarkup();
+            } else if (c == '&') {
+                parseCharacterReference();
+            } else {
+                appendText(c);
+                position++;
+            }
+        }
+
+        if (output.length() > maxLength) {
+            output.setLength(maxLength);
+        }
+
+        return output.toString();
+    }
+
+    private void parseMarkup() {
+        if (html.startsWith("<!--", position)) {
+            skipPast("-->", position + 4);
+            return;
+        }
+
+        int nameStart = position + 1;
+        boolean closingTag = nameStart < html.length() && html.charAt(nameStart) == '/';
+        if (closingTag) {
+            nameStart++;
+        }
+
+        if (nameStart < html.length() && (html.charAt(nameStart) == '!' || html.charAt(nameStart) == '?')) {
+            // Doctype, processing instruction, or CDATA section
+            skipToEndOfTag(nameStart);
+            return;
+        }
+
+        int nameEnd = nameStart;
+        while (nameEnd < html.length() && isTagNameCharacter(html.charAt(nameEnd), nameEnd == nameStart)) {
+            nameEnd++;
+        }
+
+        if (nameEnd == nameStart) {
+            // Not a tag, e.g. "a < b"
+            appendText('<');
+            position++;
+            return;
+        }
+
+        String tagName = html.substring(nameStart, nameEnd).toLowerCase(Locale.US);
+        boolean selfClosing = skipToEndOfTag(nameEnd);
+
+        if (closingTag) {
+            if (BLOCK_TAGS.contains(tagName)) {
+                startNewLine();
+            }
+        } else if (TAGS_WITH_IGNORED_CONTENT.contains(tagName)) {
+            if (!selfClosing) {
+                skipContentOf(tagName);
+            }
+        } else if (tagName.equals("br")) {
+            appendLineBreak();
+        } else if (tagName.equals("hr")) {
+            startNewLine();
+            output.append(HORIZONTAL_RULE);
+            appendLineBreak();
+        } else if (tagName.equals("img")) {
+            pendingSpace = true;
+        } else if (BLOCK_TAGS.contains(tagName)) {
+            startNewLine();
+        }
+    }
+
+    /**
+     * Moves past the '>' that ends the current tag, ignoring any inside quoted attribute values.
+     *
+     * @return {@code true} if the tag ended with "/>".
+     */
+    private boolean skipToEndOfTag(int start) {
+        int length = html.length();
+        char quote = 0;
+        for (int i = start; i < length; i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                position = i + 1;
+                return html.charAt(i - 1) == '/';
+            }
+        }
+
+        position = length;
+        return false;
+    }
+
+    private void skipContentOf(String tagName) {
+        int length = html.length();
+        int nameLength = tagName.length();
+        for (int i = position; i < length; i++) {
+            if (html.charAt(i) == '<' && i + 1 < length && html.charAt(i + 1) == '/' &&
+                    html.regionMatches(true, i + 2, tagName, 0, nameLength) &&
+                    !isTagNameCharacterAt(i + 2 + nameLength)) {
+                skipToEndOfTag(i + 2 + nameLength);
+                return;
+            }
+        }
+
+        position = length;
+    }
+
+    private void skipPast(String terminator, int start) {
+        int index = html.indexOf(terminator, start);
+        position = (index == -1) ? html.length() : index + terminator.length();
+    }
+
+    private void parseCharacterReference() {
+        int start = position + 1;
+
+        if (start < html.length() && html.charAt(start) == '#') {
+            int semicolon = indexOfSemicolon(start + 1, MAX_NUMERIC_REFERENCE_LENGTH);
+            if (semicolon != -1) {
+                int codePoint = parseNumericReference(start + 1, semicolon);
+                if (codePoint > 0) {
+                    appendCodePoint(codePoint);
+                    position = semicolon + 1;
+                    return;
+                }
+            }
+        } else {
+            int end = start;
+            int limit = Math.min(html.length(), start + MAX_ENTITY_NAME_LENGTH + 1);
+            while (end < limit && Character.isLetterOrDigit(html.charAt(end))) {
+                end++;
+            }
+
+            if (end < html.length() && html.charAt(end) == ';') {
+                String replacement = ENTITIES.get(html.substring(start, end));
+                if (replacement != null) {
+                    appendDecoded(replacement);
+                    position = end + 1;
+                    return;
+                }
+            }
+        }
+
+        // Not a character reference we know, keep it as is
+        appendText('&');
+        position++;
+    }
+
+    private int indexOfSemicolon(int start, int maxDistance) {
+        int limit = Math.min(html.length(), start + maxDistance + 1);
+        for (int i = start; i < limit; i++) {
+            if (html.charAt(i) == ';') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int parseNumericReference(int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+
+        int radix = 10;
+        char first = html.charAt(start);
+        if (first == 'x' || first == 'X') {
+            radix = 16;
+            start++;
+            if (start >= end) {
+                return -1;
+            }
+        }
+
+        try {
+            int codePoint = Integer.parseInt(html.substring(start, end), radix);
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            appendText((char) codePoint);
+        } else {
+            appendDecoded(new String(Character.toChars(codePoint)));
+        }
+    }
+
+    private void appendDecoded(String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            appendText(text.charAt(i));
+        }
+    }
+
+    private void appendText(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case '\f': {
+                pendingSpace = true;
+                return;
+            }
+            case '\u00a0':
+            case '\ufffc': {
+                // Non-breaking spaces and object replacement characters don't display well in previews
+                c = ' ';
+                break;
+            }
+        }
+
+        if (pendingSpace && !isAtStartOfLine()) {
+            output.append(' ');
+        }
+        pendingSpace = false;
+
+        output.append(c);
+    }
+
+    private void appendLineBreak() {
+        pendingSpace = false;
+        output.append('\n');
+    }
+
+    private void startNewLine() {
+        pendingSpace = false;
+        if (!isAtStartOfLine()) {
+            output.append('\n');
+        }
+    }
+
+    private boolean isAtStartOfLine() {
+        int length = output.length();
+        return length == 0 || output.charAt(length - 1) == '\n';
+    }
+
+    private boolean isTagNameCharacterAt(int index) {
+        return index < html.length() && isTagNameCharacter(html.charAt(index), false);
+    }
+
+    private static boolean isTagNameCharacter(char c, boolean first) {
+        boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        return first ? letter : letter || (c >= '0' && c <= '9') || c == '-' || c == ':';
+    }
+
+    /**
+     * Returns the named character references defined by HTML 4, plus {@code &apos;}. Invisible formatting characters
+     * are dropped because they aren't useful in plain text.
+     */
+    private static Map<String, String> createEntityMap() {
+        Map<String, String> entities = new HashMap<>(512);
+        // Markup-significant and internationalization characters (HTMLspecial)
+        entities.put("quot", "\"");
+        entities.put("amp", "&");
+        entities.put("lt", "<");
+        entities.put("gt", ">");
+        entities.put("OElig", "\u0152");
+        entities.put("oelig", "\u0153");
+        entities.put("Scaron", "\u0160");
+        entities.put("scaron", "\u0161");
+        entities.put("Yuml", "\u0178");
+        entities.put("circ", "\u02c6");
+        entities.put("tilde", "\u02dc");
+        entities.put("ensp", "\u2002");
+        entities.put("emsp", "\u2003");
+        entities.put("thinsp", "\u2009");
+        entities.put("zwnj", "");
+        entities.put("zwj", "");
+        entities.put("lrm", "");
+        entities.put("rlm", "");
+        entities.put("ndash", "\u2013");
+        entities.put("mdash", "\u2014");
+        entities.put("lsquo", "\u2018");
+        entities.put("rsquo", "\u2019");
+        entities.put("sbquo", "\u201a");
+        entities.put("ldquo", "\u201c");
+        entities.put("rdquo", "\u201d");
+        entities.put("bdquo", "\u201e");
+        entities.put("dagger", "\u2020");
+        entities.put("Dagger", "\u2021");
+        entities.put("permil", "\u2030");
+        entities.put("lsaquo", "\u2039");
+        entities.put("rsaquo", "\u203a");
+        entities.put("euro", "\u20ac");
+
+        // ISO 8859-1 characters (HTMLlat1)
+        entities.put("nbsp", "\u00a0");
+        entities.put("iexcl", "\u00a1");
+        entities.put("cent", "\u00a2");
+        entities.put("pound", "\u00a3");
+        entities.put("curren", "\u00a4");
+        entities.put("yen", "\u00a5");
+        entities.put("brvbar", "\u00a6");
+        entities.put("sect", "\u00a7");
+        entities.put("uml", "\u00a8");
+        entities.put("copy", "\u00a9");
+        entities.put("ordf", "\u00aa");
+        entities.put("laquo", "\u00ab");
+        entities.put("not", "\u00ac");
+        entities.put("shy", "");
+        entities.put("reg", "\u00ae");
+        entities.put("macr", "\u00af");
+        entities.put("deg", "\u00b0");
+        entities.put("plusmn", "\u00b1");
+        entities.put("sup2", "\u00b2");
+        entities.put("sup3", "\u00b3");
+        entities.put("acute", "\u00b4");
+        entities.put("micro", "\u00b5");
+        entities.put("para", "\u00b6");
+        entities.put("middot", "\u00b7");
+        entities.put("cedil", "\u00b8");
+        entities.put("sup1", "\u00b9");
+        entities.put("ordm", "\u00ba");
+        entities.put("raquo", "\u00bb");
+        entities.put("frac14", "\u00bc");
+        entities.put("frac12", "\u00bd");
+        entities.put("frac34", "\u00be");
+        entities.put("iquest", "\u00bf");
+        entities.put("Agrave", "\u00c0");
+        entities.put("Aacute", "\u00c1");
+        entities.put("Acirc", "\u00c2");
+        entities.put("Atilde", "\u00c3");
+        entities.put("Auml", "\u00c4");
+        entities.put("Aring", "\u00c5");
+        entities.put("AElig", "\u00c6");
+        entities.put("Ccedil", "\u00c7");
+        entities.put("Egrave", "\u00c8");
+        entities.put("Eacute", "\u00c9");
+        entities.put("Ecirc", "\u00ca");
+        entities.put("Euml", "\u00cb");
+        entities.put("Igrave", "\u00cc");
+        entities.put("Iacute", "\u00cd");
+        entities.put("Icirc", "\u00ce");
+        entities.put("Iuml", "\u00cf");
+        entities.put("ETH", "\u00d0");
+        entities.put("Ntilde", "\u00d1");
+        entities.put("Ograve", "\u00d2");
+        entities.put("Oacute", "\u00d3");
+        entities.put("Ocirc", "\u00d4");
+        entities.put("Otilde", "\u00d5");
+        entities.put("Ouml", "\u00d6");
+        entities.put("times", "\u00d7");
+        entities.put("Oslash", "\u00d8");
+        entities.put("Ugrave", "\u00d9");
+        entities.put("Uacute", "\u00da");
+        entities.put("Ucirc", "\u00db");
+        entities.put("Uuml", "\u00dc");
+        entities.put("Yacute", "\u00dd");
+        entities.put("THORN", "\u00de");
+        entities.put("szlig", "\u00df");
+        entities.put("agrave", "\u00e0");
+        entities.put("aacute", "\u00e1");
+        entities.put("acirc", "\u00e2");
+        entities.put("atilde", "\u00e3");
+        entities.put("auml", "\u00e4");
+        entities.put("aring", "\u00e5");
+        entities.put("aelig", "\u00e6");
+        entities.put("ccedil", "\u00e7");
+        entities.put("egrave", "\u00e8");
+        entities.put("eacute", "\u00e9");
+        entities.put("ecirc", "\u00ea");
+        entities.put("euml", "\u00eb");
+        entities.put("igrave", "\u00ec");
+        entities.put("iacute", "\u00ed");
+        entities.put("icirc", "\u00ee");
+        entities.put("iuml", "\u00ef");
+        entities.put("eth", "\u00f0");
+        entities.put("ntilde", "\u00f1");
+        entities.put("ograve", "\u00f2");
+        entities.put("oacute", "\u00f3");
+        entities.put("ocirc", "\u00f4");
+        entities.put("otilde", "\u00f5");
+        entities.put("ouml", "\u00f6");
+        entities.put("divide", "\u00f7");
+        entities.put("oslash", "\u00f8");
+        entities.put("ugrave", "\u00f9");
+        entities.put("uacute", "\u00fa");
+        entities.put("ucirc", "\u00fb");
+        entities.put("uuml", "\u00fc");
+        entities.put("yacute", "\u00fd");
+        entities.put("thorn", "\u00fe");
+        entities.put("yuml", "\u00ff");
+
+        // Symbols, mathematical symbols, and Greek letters (HTMLsymbol)
+        entities.put("fnof", "\u0192");
+        entities.put("Alpha", "\u0391");
+        entities.put("Beta", "\u0392");
+        entities.put("Gamma", "\u0393");
+        entities.put("Delta", "\u0394");
+        entities.put("Epsilon", "\u0395");
+        entities.put("Zeta", "\u0396");
+        entities.put("Eta", "\u0397");
+        entities.put("Theta", "\u0398");
+        entities.put("Iota", "\u0399");
+        entities.put("Kappa", "\u039a");
+        entities.put("Lambda", "\u039b");
+        entities.put("Mu", "\u039c");
+        entities.put("Nu", "\u039d");
+        entities.put("Xi", "\u039e");
+        entities.put("Omicron", "\u039f");
+        entities.put("Pi", "\u03a0");
+        entities.put("Rho", "\u03a1");
+        entities.put("Sigma", "\u03a3");
+        entities.put("Tau", "\u03a4");
+        entities.put("Upsilon", "\u03a5");
+        entities.put("Phi", "\u03a6");
+        entities.put("Chi", "\u03a7");
+        entities.put("Psi", "\u03a8");
+        entities.put("Omega", "\u03a9");
+        entities.put("alpha", "\u03b1");
+        entities.put("beta", "\u03b2");
+        entities.put("gamma", "\u03b3");
+        entities.put("delta", "\u03b4");
+        entities.put("epsilon", "\u03b5");
+        entities.put("zeta", "\u03b6");
+        entities.put("eta", "\u03b7");
+        entities.put("theta", "\u03b8");
+        entities.put("iota", "\u03b9");
+        entities.put("kappa", "\u03ba");
+        entities.put("lambda", "\u03bb");
+        entities.put("mu", "\u03bc");
+        entities.put("nu", "\u03bd");
+        entities.put("xi", "\u03be");
+        entities.put("omicron", "\u03bf");
+        entities.put("pi", "\u03c0");
+        entities.put("rho", "\u03c1");
+        entities.put("sigmaf", "\u03c2");
+        entities.put("sigma", "\u03c3");
+        entities.put("tau", "\u03c4");
+        entities.put("upsilon", "\u03c5");
+        entities.put("phi", "\u03c6");
+        entities.put("chi", "\u03c7");
+        entities.put("psi", "\u03c8");
+        entities.put("omega", "\u03c9");
+        entities.put("thetasym", "\u03d1");
+        entities.put("upsih", "\u03d2");
+        entities.put("piv", "\u03d6");
+        entities.put("bull", "\u2022");
+        entities.put("hellip", "\u2026");
+        entities.put("prime", "\u2032");
+        entities.put("Prime", "\u2033");
+        entities.put("oline", "\u203e");
+        entities.put("frasl", "\u2044");
+        entities.put("image", "\u2111");
+        entities.put("weierp", "\u2118");
+        entities.put("real", "\u211c");
+        entities.put("trade", "\u2122");
+        entities.put("alefsym", "\u2135");
+        entities.put("larr", "\u2190");
+        entities.put("uarr", "\u2191");
+        entities.put("rarr", "\u2192");
+        entities.put("darr", "\u2193");
+        entities.put("harr", "\u2194");
+        entities.put("crarr", "\u21b5");
+        entities.put("lArr", "\u21d0");
+        entities.put("uArr", "\u21d1");
+        entities.put("rArr", "\u21d2");
+        entities.put("dArr", "\u21d3");
+        entities.put("hArr", "\u21d4");
+        entities.put("forall", "\u2200");
+        entities.put("part", "\u2202");
+        entities.put("exist", "\u2203");
+        entities.put("empty", "\u2205");
+        entities.put("nabla", "\u2207");
+        entities.put("isin", "\u2208");
+        entities.put("notin", "\u2209");
+        entities.put("ni", "\u220b");
+        entities.put("prod", "\u220f");
+        entities.put("sum", "\u2211");
+        entities.put("minus", "\u2212");
+        entities.put("lowast", "\u2217");
+        entities.put("radic", "\u221a");
+        entities.put("prop", "\u221d");
+        entities.put("infin", "\u221e");
+        entities.put("ang", "\u2220");
+        entities.put("and", "\u2227");
+        entities.put("or", "\u2228");
+        entities.put("cap", "\u2229");
+        entities.put("cup", "\u222a");
+        entities.put("int", "\u222b");
+        entities.put("there4", "\u2234");
+        entities.put("sim", "\u223c");
+        entities.put("cong", "\u2245");
+        entities.put("asymp", "\u2248");
+        entities.put("ne", "\u2260");
+        entities.put("equiv", "\u2261");
+        entities.put("le", "\u2264");
+        entities.put("ge", "\u2265");
+        entities.put("sub", "\u2282");
+        entities.put("sup", "\u2283");
+        entities.put("nsub", "\u2284");
+        entities.put("sube", "\u2286");
+        entities.put("supe", "\u2287");
+        entities.put("oplus", "\u2295");
+        entities.put("otimes", "\u2297");
+        entities.put("perp", "\u22a5");
+        entities.put("sdot", "\u22c5");
+        entities.put("lceil", "\u2308");
+        entities.put("rceil", "\u2309");
+        entities.put("lfloor", "\u230a");
+        entities.put("rfloor", "\u230b");
+        entities.put("lang", "\u2329");
+        entities.put("rang", "\u232a");
+        entities.put("loz", "\u25ca");
+        entities.put("spades", "\u2660");
+        entities.put("clubs", "\u2663");
+        entities.put("hearts", "\u2665");
+        entities.put("diams", "\u2666");
+
+        // Not part of HTML 4, but defined by XHTML and commonly used
+        entities.put("apos", "'");
+        return Collections.unmodifiableMap(entities);
+    }
+}
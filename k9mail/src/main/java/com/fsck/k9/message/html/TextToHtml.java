@@ -0,0 +1,597 @@
+package com.fsck.k9.message.html;
+
+
+/**
+ * Converts plain text to HTML in a single pass over the text.
+ * <p>
+ * Special characters are escaped, lines starting with '&gt;' are put into nested blockquotes, lines consisting of
+ * dashes, equal signs, or underscores (optionally with scissors like "8&lt;") are replaced by a horizontal rule, and
+ * URIs are linkified. The result is appended to a {@link StringBuilder}, so no intermediate strings are created for
+ * the whole text.
+ */
+class TextToHtml {
+    private static final String HTML_BLOCKQUOTE_COLOR_TOKEN = "$$COLOR$$";
+    private static final String HTML_BLOCKQUOTE_START = "<blockquote class=\"gmail_quote\" " +
+            "style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid $$COLOR$$; padding-left: 1ex;\">";
+    private static final String HTML_BLOCKQUOTE_END = "</blockquote>";
+    // pine treats <br> as two newlines, but <br/> as one newline. Use <br/> so our messages aren't doublespaced.
+    private static final String HTML_NEWLINE = "<br />";
+    private static final String HTML_HORIZONTAL_RULE = "<hr>";
+
+    private static final int MIN_HORIZONTAL_RULE_LENGTH = 3;
+    private static final int MIN_SCISSORS_RULE_LENGTH = 2;
+    // Up to this many line breaks next to a plain rule (i.e. not scissors) become part of the rule
+    private static final int MAX_LINE_BREAKS_NEXT_TO_PLAIN_RULE = 2;
+
+    // Flags describing a line that is a horizontal rule
+    private static final int RULE = 1;
+    private static final int RULE_STARTS_PLAIN = 1 << 1;
+    private static final int RULE_ENDS_PLAIN = 1 << 2;
+    private static final int RULE_INDENTED = 1 << 3;
+
+
+    private final String text;
+    private final StringBuilder html;
+    private final int htmlStart;
+
+    private int quoteDepth = 0;
+    private int pendingLineBreaks = 0;
+    private int movedLineBreaks = 0;
+    private boolean inHorizontalRule = false;
+    private int lastRuleType;
+    private int whitespaceLineStart = -1;
+    private int prefixQuotes;
+    private int prefixSpaces;
+
+    // Escaped copy of the part of the current line that is handed to the URI parsers
+    private String uriText;
+    private int uriTextEnd = 0;
+    private int uriTextPosition;
+    private int uriTextEscapedPosition;
+    private StringBuffer uriBuffer;
+
+    private StringBuilder ruleLine;
+
+
+    static void appendAsHtml(String text, StringBuilder html) {
+        new TextToHtml(text, html).appendHtml();
+    }
+
+    private TextToHtml(String text, StringBuilder html) {
+        this.text = text;
+        this.html = html;
+        htmlStart = html.length();
+    }
+
+    private void appendHtml() {
+        int length = text.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                appendLine(lineStart, length, false);
+                break;
+            }
+
+            appendLine(lineStart, lineEnd, true);
+            lineStart = lineEnd + 1;
+        }
+
+        endHorizontalRule();
+        setQuoteDepth(0);
+        flushLineBreaks();
+    }
+
+    private void appendLine(int start, int end, boolean endsWithLineBreak) {
+        int contentStart = parseLinePrefix(start, end);
+        int quotes = prefixQuotes;
+        int spaces = prefixSpaces;
+
+        if (contentStart == end && !endsWithLineBreak) {
+            // A last line consisting only of quote characters and spaces doesn't change anything
+            return;
+        }
+
+        int contentEnd = trimCarriageReturns(contentStart, end);
+
+        int ruleType = getHorizontalRuleType(contentStart, contentEnd);
+        if (ruleType != 0 && quotes > 0 && isFollowedByEndOfBlockquote(end, endsWithLineBreak, quotes)) {
+            // A rule needs to be followed by a line break, not by the end of a blockquote
+            ruleType = 0;
+        }
+        if (ruleType != 0 && spaces > 0) {
+            ruleType |= RULE_INDENTED;
+        }
+
+        if (spaces == 0 && contentStart == contentEnd) {
+            if (quotes != quoteDepth) {
+                endHorizontalRule();
+                setQuoteDepth(quotes);
+            }
+        } else if (ruleType == 0 || !appendHorizontalRule(quotes, ruleType)) {
+            endHorizontalRule();
+            setQuoteDepth(quotes);
+            flushLineBreaks();
+
+            // Whitespace in front of a horizontal rule is dropped together with the rule
+            whitespaceLineStart = isWhitespace(contentStart, contentEnd) ? getLineBreakStart() : -1;
+
+            for (int i = 0; i < spaces; i++) {
+                html.append(' ');
+            }
+            appendText(contentStart, end);
+        }
+
+        if (endsWithLineBreak) {
+            pendingLineBreaks++;
+        }
+    }
+
+    /**
+     * Reads the quote characters and spaces at the start of a line into {@link #prefixQuotes} and
+     * {@link #prefixSpaces}. Spaces in front of a quote character are ignored.
+     *
+     * @return The start of the line's content.
+     */
+    private int parseLinePrefix(int start, int end) {
+        int quotes = 0;
+        int spaces = 0;
+        int position = start;
+        for (; position < end; position++) {
+            char c = text.charAt(position);
+            if (c == ' ') {
+                spaces++;
+            } else if (c == '>') {
+                quotes++;
+                spaces = 0;
+            } else {
+                break;
+            }
+        }
+
+        prefixQuotes = quotes;
+        prefixSpaces = spaces;
+        return position;
+    }
+
+    private int trimCarriageReturns(int start, int end) {
+        int position = end;
+        while (position > start && text.charAt(position - 1) == '\r') {
+            position--;
+        }
+        return position;
+    }
+
+    /**
+     * Checks whether a quoted line is followed by the end of its blockquote, either directly or after empty lines
+     * that are moved out of the blockquote (see {@link #setQuoteDepth(int)}).
+     */
+    private boolean isFollowedByEndOfBlockquote(int lineEnd, boolean endsWithLineBreak, int quotes) {
+        if (!endsWithLineBreak) {
+            return true;
+        }
+
+        int length = text.length();
+        int lineBreaks = 1;
+        int start = lineEnd + 1;
+        while (start < length) {
+            int end = text.indexOf('\n', start);
+            boolean lastLine = end == -1;
+            if (lastLine) {
+                end = length;
+            }
+
+            int contentStart = parseLinePrefix(start, end);
+            if (lastLine && contentStart == end) {
+                break;
+            }
+
+            boolean emptyLine = prefixSpaces == 0 && contentStart == trimCarriageReturns(contentStart, end);
+            if (!emptyLine || prefixQuotes != quotes) {
+                return prefixQuotes < quotes && lineBreaks >= 2;
+            }
+
+            if (lastLine) {
+                break;
+            }
+
+            lineBreaks++;
+            start = end + 1;
+        }
+
+        // All blockquotes are closed at the end of the text
+        return lineBreaks >= 2;
+    }
+
+    /**
+     * Replaces the current line with a horizontal rule. Consecutive rules separated by few empty lines are merged.
+     *
+     * @return {@code false} if the line should be displayed as text, e.g. because it directly follows a blockquote
+     * start or end tag.
+     */
+    private boolean appendHorizontalRule(int quotes, int ruleType) {
+        boolean indented = (ruleType & RULE_INDENTED) != 0;
+
+        if (quotes != quoteDepth) {
+            endHorizontalRule();
+            setQuoteDepth(quotes);
+        } else if (inHorizontalRule) {
+            int maxLineBreaks = 0;
+            if ((lastRuleType & RULE_ENDS_PLAIN) != 0) {
+                maxLineBreaks += MAX_LINE_BREAKS_NEXT_TO_PLAIN_RULE;
+            }
+            if ((ruleType & RULE_STARTS_PLAIN) != 0) {
+                maxLineBreaks += MAX_LINE_BREAKS_NEXT_TO_PLAIN_RULE;
+            }
+
+            if (!indented && pendingLineBreaks <= maxLineBreaks) {
+                pendingLineBreaks = 0;
+                movedLineBreaks = 0;
+                lastRuleType = ruleType;
+                return true;
+            }
+
+            endHorizontalRule();
+        }
+
+        boolean atStartOfText = html.length() == htmlStart;
+        if (pendingLineBreaks == 0 && !atStartOfText) {
+            return false;
+        }
+
+        if (indented) {
+            // Only the line break right in front of an indented rule is replaced
+            whitespaceLineStart = -1;
+            pendingLineBreaks = Math.max(pendingLineBreaks - 1, 0);
+            flushLineBreaks();
+        } else {
+            // The rule replaces the empty lines and a line containing only whitespace in front of it
+            if (whitespaceLineStart != -1) {
+                html.setLength(whitespaceLineStart);
+                whitespaceLineStart = -1;
+            }
+            pendingLineBreaks = 0;
+            movedLineBreaks = 0;
+        }
+
+        html.append(HTML_HORIZONTAL_RULE);
+        inHorizontalRule = true;
+        lastRuleType = ruleType;
+        return true;
+    }
+
+    private void endHorizontalRule() {
+        if (inHorizontalRule) {
+            boolean endsPlain = (lastRuleType & RULE_ENDS_PLAIN) != 0;
+            int lineBreaksAfterRule = endsPlain ? MAX_LINE_BREAKS_NEXT_TO_PLAIN_RULE + 1 : 1;
+            pendingLineBreaks -= Math.min(pendingLineBreaks, lineBreaksAfterRule);
+            movedLineBreaks = Math.min(movedLineBreaks, pendingLineBreaks);
+            inHorizontalRule = false;
+        }
+    }
+
+    private void setQuoteDepth(int quotes) {
+        if (quotes == quoteDepth) {
+            return;
+        }
+
+        whitespaceLineStart = -1;
+
+        if (quotes < quoteDepth) {
+            int blockquotesToClose = quoteDepth - quotes;
+
+            // Make newlines at the end of blockquotes nicer by putting newlines beyond the first one outside of the
+            // blockquote. Line breaks that were already moved out of an inner blockquote stay where they are.
+            int lineBreaksInBlockquote = pendingLineBreaks - movedLineBreaks;
+            if (lineBreaksInBlockquote >= 2) {
+                pendingLineBreaks = movedLineBreaks;
+                flushLineBreaks();
+                html.append(HTML_BLOCKQUOTE_END);
+                pendingLineBreaks = lineBreaksInBlockquote - 1;
+                movedLineBreaks = pendingLineBreaks;
+                blockquotesToClose--;
+            }
+
+            if (blockquotesToClose > 0) {
+                flushLineBreaks();
+                for (int i = 0; i < blockquotesToClose; i++) {
+                    html.append(HTML_BLOCKQUOTE_END);
+                }
+            }
+        } else {
+            flushLineBreaks();
+            for (int level = quoteDepth + 1; level <= quotes; level++) {
+                html.append(HTML_BLOCKQUOTE_START.replace(HTML_BLOCKQUOTE_COLOR_TOKEN,
+                        HtmlConverter.getQuoteColor(level)));
+            }
+        }
+
+        quoteDepth = quotes;
+    }
+
+    private void flushLineBreaks() {
+        for (; pendingLineBreaks > 0; pendingLineBreaks--) {
+            html.append(HTML_NEWLINE);
+        }
+        movedLineBreaks = 0;
+    }
+
+    private int getLineBreakStart() {
+        int length = html.length();
+        if (length == htmlStart) {
+            return htmlStart;
+        }
+
+        int lineBreakStart = length - HTML_NEWLINE.length();
+        if (lineBreakStart >= htmlStart && html.indexOf(HTML_NEWLINE, lineBreakStart) == lineBreakStart) {
+            return lineBreakStart;
+        }
+
+        return -1;
+    }
+
+    private void appendText(int start, int end) {
+        int position = start;
+        while (position < end) {
+            if (isUriStartAllowed()) {
+                int uriEnd = appendUri(position, end);
+                if (uriEnd > position) {
+                    position = uriEnd;
+                    continue;
+                }
+            }
+
+            appendEscaped(text.charAt(position));
+            position++;
+        }
+    }
+
+    private boolean isUriStartAllowed() {
+        int length = html.length();
+        return length == htmlStart || UriLinkifier.isSchemeSeparator(html.charAt(length - 1));
+    }
+
+    /**
+     * Appends a link if a URI starts at {@code start}.
+     *
+     * @return The position after the URI, or {@code start} if there is no URI at this position.
+     */
+    private int appendUri(int start, int end) {
+        UriParser parser = UriLinkifier.getParser(text, start);
+        if (parser == null) {
+            return start;
+        }
+
+        // The parsers work on escaped text. A URI can't contain '>', so the part of the line up to the next '>' is
+        // escaped once and reused for all URIs in it.
+        if (start >= uriTextEnd) {
+            prepareUriText(start, end);
+        }
+        advanceUriTextPosition(start);
+
+        if (uriBuffer == null) {
+            uriBuffer = new StringBuffer();
+        }
+        uriBuffer.setLength(0);
+
+        int escapedStart = uriTextEscapedPosition;
+        int escapedEnd = parser.linkifyUri(uriText, escapedStart, uriBuffer);
+        if (escapedEnd <= escapedStart) {
+            return start;
+        }
+
+        html.append(uriBuffer);
+
+        while (uriTextEscapedPosition < escapedEnd) {
+            uriTextEscapedPosition += getEscapedLength(text.charAt(uriTextPosition));
+            uriTextPosition++;
+        }
+
+        if (uriTextEscapedPosition > escapedEnd) {
+            // The URI ended within an escaped character, e.g. "&amp" of "&amp;"
+            int remaining = uriTextEscapedPosition - escapedEnd;
+            html.append(uriText, escapedEnd, escapedEnd + remaining);
+        }
+
+        return uriTextPosition;
+    }
+
+    private void prepareUriText(int start, int end) {
+        int uriEnd = text.indexOf('>', start);
+        if (uriEnd == -1 || uriEnd > end) {
+            uriEnd = end;
+        }
+
+        StringBuilder escaped = new StringBuilder(uriEnd - start + 16);
+        for (int i = start; i < uriEnd; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': {
+                    escaped.append("&amp;");
+                    break;
+                }
+                case '<': {
+                    escaped.append("&lt;");
+                    break;
+                }
+                case '\r': {
+                    break;
+                }
+                default: {
+                    escaped.append(c);
+                    break;
+                }
+            }
+        }
+
+        uriText = escaped.toString();
+        uriTextEnd = uriEnd;
+        uriTextPosition = start;
+        uriTextEscapedPosition = 0;
+    }
+
+    private void advanceUriTextPosition(int position) {
+        while (uriTextPosition < position) {
+            uriTextEscapedPosition += getEscapedLength(text.charAt(uriTextPosition));
+            uriTextPosition++;
+        }
+    }
+
+    private void appendEscaped(char c) {
+        switch (c) {
+            case '&': {
+                html.append("&amp;");
+                break;
+            }
+            case '<': {
+                html.append("&lt;");
+                break;
+            }
+            case '>': {
+                html.append("&gt;");
+                break;
+            }
+            case '\r': {
+                break;
+            }
+            default: {
+                html.append(c);
+                break;
+            }
+        }
+    }
+
+    private static int getEscapedLength(char c) {
+        switch (c) {
+            case '&': {
+                return 5;
+            }
+            case '<': {
+                return 4;
+            }
+            case '\r': {
+                return 0;
+            }
+            default: {
+                return 1;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a line consists of dashes, equal signs, or underscores only, e.g. "-----", or forms a "cut here"
+     * line, e.g. "-- 8< --" or "-- %< ----- >8 --".
+     *
+     * @return {@code 0} if the line isn't a horizontal rule. Otherwise a combination of {@link #RULE} and the other
+     * {@code RULE_*} flags.
+     */
+    private int getHorizontalRuleType(int start, int end) {
+        int type = RULE;
+        int position = start;
+        for (; position < end; position++) {
+            char c = text.charAt(position);
+            if (c == '\r') {
+                continue;
+            } else if (!isWhitespace(c)) {
+                break;
+            }
+            type |= RULE_INDENTED;
+        }
+
+        if (position == end || !isRuleCharacter(text.charAt(position))) {
+            return 0;
+        }
+
+        // Carriage returns are dropped from the output, so they are ignored here as well
+        if (ruleLine == null) {
+            ruleLine = new StringBuilder();
+        }
+        ruleLine.setLength(0);
+        for (int i = position; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\r') {
+                ruleLine.append(c);
+            }
+        }
+
+        return getHorizontalRuleType(ruleLine, type);
+    }
+
+    private static int getHorizontalRuleType(CharSequence line, int type) {
+        int end = line.length();
+        int ruleLength = countRuleCharacters(line, 0);
+        int position = ruleLength;
+        if (position == end) {
+            boolean isRule = ruleLength >= MIN_HORIZONTAL_RULE_LENGTH;
+            return isRule ? type | RULE_STARTS_PLAIN | RULE_ENDS_PLAIN : 0;
+        }
+
+        if (ruleLength < MIN_SCISSORS_RULE_LENGTH) {
+            return 0;
+        }
+        if (ruleLength >= MIN_SCISSORS_RULE_LENGTH + MIN_HORIZONTAL_RULE_LENGTH) {
+            type |= RULE_STARTS_PLAIN;
+        }
+
+        while (true) {
+            if (line.charAt(position) == ' ') {
+                position++;
+            }
+
+            if (!isScissors(line, position)) {
+                return 0;
+            }
+            position += 2;
+
+            if (position < end && line.charAt(position) == ' ') {
+                position++;
+            }
+
+            ruleLength = countRuleCharacters(line, position);
+            position += ruleLength;
+            if (position == end) {
+                return (ruleLength >= MIN_SCISSORS_RULE_LENGTH) ? type : 0;
+            }
+
+            // Rule characters between two pairs of scissors belong to both of them
+            if (ruleLength < 2 * MIN_SCISSORS_RULE_LENGTH) {
+                return 0;
+            }
+        }
+    }
+
+    private static int countRuleCharacters(CharSequence line, int start) {
+        int position = start;
+        while (position < line.length() && isRuleCharacter(line.charAt(position))) {
+            position++;
+        }
+        return position - start;
+    }
+
+    private static boolean isScissors(CharSequence line, int position) {
+        if (position + 1 >= line.length()) {
+            return false;
+        }
+
+        char first = line.charAt(position);
+        char second = line.charAt(position + 1);
+        return ((first == '8' || first == '%') && second == '<') || (first == '>' && (second == '8' || second == '%'));
+    }
+
+    private boolean isWhitespace(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRuleCharacter(char c) {
+        return c == '-' || c == '=' || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\u000b' || c == '\f' || c == '\r';
+    }
+}
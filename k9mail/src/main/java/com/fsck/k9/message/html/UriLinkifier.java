@@ -2,19 +2,13 @@ package com.fsck.k9.message.html;
 
 
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import android.text.TextUtils;
+import java.util.Map.Entry;
 
 
 public class UriLinkifier {
-    private static final Pattern URI_SCHEME;
     private static final Map<String, UriParser> SUPPORTED_URIS;
-    private static final String SCHEME_SEPARATORS = " (\\n";
-    private static final String ALLOWED_SEPARATORS_PATTERN = "(?:^|[" + SCHEME_SEPARATORS + "])";
+    private static final String SCHEME_SEPARATORS = " (\n";
 
     static {
         SUPPORTED_URIS = new HashMap<>();
@@ -24,25 +18,17 @@ public class UriLinkifier {
         SUPPORTED_URIS.put("http:", httpParser);
         SUPPORTED_URIS.put("https:", httpParser);
         SUPPORTED_URIS.put("rtsp:", httpParser);
-
-        String allSchemes = TextUtils.join("|", SUPPORTED_URIS.keySet());
-        String pattern = ALLOWED_SEPARATORS_PATTERN + "(" + allSchemes + ")";
-        URI_SCHEME = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
     }
 
 
     public static void linkifyText(String text, StringBuffer outputBuffer) {
         int currentPos = 0;
-        Matcher matcher = URI_SCHEME.matcher(text);
+        int startPos = findUriStart(text, currentPos);
 
-        while (matcher.find(currentPos)) {
-            int startPos = matcher.start(1);
+        while (startPos != -1) {
+            outputBuffer.append(text, currentPos, startPos);
 
-            String textBeforeMatch = text.substring(currentPos, startPos);
-            outputBuffer.append(textBeforeMatch);
-
-            String scheme = matcher.group(1).toLowerCase(Locale.US);
-            UriParser parser = SUPPORTED_URIS.get(scheme);
+            UriParser parser = getParser(text, startPos);
             int newPos = parser.linkifyUri(text, startPos, outputBuffer);
 
             boolean uriWasNotLinkified = newPos <= startPos;
@@ -50,15 +36,70 @@ public class UriLinkifier {
                 outputBuffer.append(text.charAt(startPos));
                 currentPos = startPos + 1;
             } else {
-                currentPos = (newPos > currentPos) ? newPos : currentPos + 1;
+                currentPos = newPos;
             }
 
             if (currentPos >= text.length()) {
                 break;
             }
+
+            startPos = findUriStart(text, currentPos);
+        }
+
+        if (currentPos < text.length()) {
+            outputBuffer.append(text, currentPos, text.length());
+        }
+    }
+
+    /**
+     * Returns the parser for the URI scheme starting at {@code position}, or {@code null} if there is no supported
+     * scheme at this position. Schemes are matched case-insensitively.
+     */
+    static UriParser getParser(String text, int position) {
+        for (Entry<String, UriParser> entry : SUPPORTED_URIS.entrySet()) {
+            if (startsWithIgnoreAsciiCase(text, position, entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if a URI may start right after the given character.
+     */
+    static boolean isSchemeSeparator(char c) {
+        return SCHEME_SEPARATORS.indexOf(c) != -1;
+    }
+
+    private static int findUriStart(String text, int fromIndex) {
+        for (int i = fromIndex, length = text.length(); i < length; i++) {
+            boolean separatorBefore = i == 0 || (i > fromIndex && isSchemeSeparator(text.charAt(i - 1)));
+            if (separatorBefore && getParser(text, i) != null) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreAsciiCase(String text, int position, String lowerCasePrefix) {
+        int prefixLength = lowerCasePrefix.length();
+        if (position + prefixLength > text.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefixLength; i++) {
+            char c = text.charAt(position + i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+
+            if (c != lowerCasePrefix.charAt(i)) {
+                return false;
+            }
         }
 
-        String textAfterLastMatch = text.substring(currentPos);
-        outputBuffer.append(textAfterLastMatch);
+        return true;
     }
 }
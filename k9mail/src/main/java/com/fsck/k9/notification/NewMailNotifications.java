@@ -1,6 +1,10 @@
 package com.fsck.k9.notification;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import android.app.Notification;
 import android.support.v4.app.NotificationManagerCompat;
 import android.util.SparseArray;
@@ -49,18 +53,46 @@ class NewMailNotifications {
     }
 
     public void addNewMailNotification(Account account, LocalMessage message, int unreadMessageCount) {
-        NotificationContent content = contentCreator.createFromMessage(account, message);
+        addNewMailNotifications(account, Collections.singletonList(message), unreadMessageCount);
+    }
+
+    /**
+     * Add notifications for a number of new messages at once.
+     * <p>
+     * Each stacked notification and the summary notification are only posted once, no matter how many of the
+     * messages end up sharing the same stacked notification.
+     * </p>
+     */
+    public void addNewMailNotifications(Account account, List<LocalMessage> messages, int unreadMessageCount) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<NotificationContent> contents = new ArrayList<>(messages.size());
+        for (LocalMessage message : messages) {
+            contents.add(contentCreator.createFromMessage(account, message));
+        }
 
         synchronized (lock) {
             NotificationData notificationData = getOrCreateNotificationData(account, unreadMessageCount);
-            AddNotificationResult result = notificationData.addNotificationContent(content);
+            SparseArray<NotificationHolder> stackedNotifications = new SparseArray<>();
+
+            for (NotificationContent content : contents) {
+                AddNotificationResult result = notificationData.addNotificationContent(content);
+                NotificationHolder holder = result.getNotificationHolder();
+                int notificationId = holder.notificationId;
 
-            if (result.shouldCancelNotification()) {
-                int notificationId = result.getNotificationId();
-                cancelNotification(notificationId);
+                // Only cancel notifications that have been posted before this batch
+                if (result.shouldCancelNotification() && stackedNotifications.indexOfKey(notificationId) < 0) {
+                    cancelNotification(notificationId);
+                }
+
+                stackedNotifications.put(notificationId, holder);
             }
 
-            createStackedNotification(account, result.getNotificationHolder());
+            for (int i = 0, size = stackedNotifications.size(); i < size; i++) {
+                createStackedNotification(account, stackedNotifications.valueAt(i));
+            }
             createSummaryNotification(account, notificationData, false);
         }
     }
@@ -6,15 +6,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import android.content.Context;
 import android.net.Uri;
@@ -80,6 +80,10 @@ public class SettingsExporter {
     static final String EMAIL_ELEMENT = "email";
     static final String DESCRIPTION_ELEMENT = "description";
 
+    // Keys are looked up in sorted order so the output matches the order of the sorted preference keys
+    private static final Set<String> SORTED_IDENTITY_KEYS = new TreeSet<>(IdentitySettings.SETTINGS.keySet());
+    private static final Set<String> SORTED_FOLDER_KEYS = new TreeSet<>(FolderSettings.SETTINGS.keySet());
+
 
     public static String exportToFile(Context context, boolean includeGlobals, Set<String> accountUuids)
             throws SettingsImportExportException {
@@ -164,7 +168,7 @@ public class SettingsExporter {
                 exportAccounts = accountUuids;
             }
 
-            Map<String, Object> prefs = new TreeMap<String, Object>(storage.getAll());
+            SortedMap<String, Object> prefs = new TreeMap<String, Object>(storage.getAll());
 
             if (includeGlobals) {
                 serializer.startTag(null, GLOBAL_ELEMENT);
@@ -217,13 +221,18 @@ public class SettingsExporter {
         }
     }
 
-    private static void writeAccount(XmlSerializer serializer, Account account, Map<String, Object> prefs)
+    private static void writeAccount(XmlSerializer serializer, Account account, SortedMap<String, Object> prefs)
             throws IOException {
 
-        Set<Integer> identities = new HashSet<>();
-        Set<String> folders = new HashSet<>();
         String accountUuid = account.getUuid();
 
+        // All keys of this account sort between "<uuid>." and "<uuid>/" ('/' follows '.' in ASCII). Only the names of
+        // identities and folders are collected while going over them; their settings are looked up by key when they
+        // are written, so this doesn't require another pass over all preferences for every identity and folder.
+        SortedMap<String, Object> accountPrefs = prefs.subMap(accountUuid + ".", accountUuid + "/");
+        Set<Integer> identities = new TreeSet<>();
+        Set<String> folders = new TreeSet<>();
+
         serializer.startTag(null, ACCOUNT_ELEMENT);
         serializer.attribute(null, UUID_ATTRIBUTE, accountUuid);
 
@@ -300,23 +309,10 @@ public class SettingsExporter {
 
         // Write account settings
         serializer.startTag(null, SETTINGS_ELEMENT);
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
-            String key = entry.getKey();
+        int keyPartStart = accountUuid.length() + 1;
+        for (Map.Entry<String, Object> entry : accountPrefs.entrySet()) {
+            String keyPart = entry.getKey().substring(keyPartStart);
             String valueString = entry.getValue().toString();
-            String[] comps = key.split("\\.", 2);
-
-            if (comps.length < 2) {
-                // Skip global settings
-                continue;
-            }
-
-            String keyUuid = comps[0];
-            String keyPart = comps[1];
-
-            if (!keyUuid.equals(accountUuid)) {
-                // Setting doesn't belong to the account we're currently writing.
-                continue;
-            }
 
             int indexOfLastDot = keyPart.lastIndexOf(".");
             boolean hasThirdPart = indexOfLastDot != -1 && indexOfLastDot < keyPart.length() - 1;
@@ -363,12 +359,9 @@ public class SettingsExporter {
         if (identities.size() > 0) {
             serializer.startTag(null, IDENTITIES_ELEMENT);
 
-            // Sort identity indices (that's why we store them as Integers)
-            List<Integer> sortedIdentities = new ArrayList<>(identities);
-            Collections.sort(sortedIdentities);
-
-            for (Integer identityIndex : sortedIdentities) {
-                writeIdentity(serializer, accountUuid, identityIndex.toString(), prefs);
+            // Identity indices are sorted (that's why we store them as Integers)
+            for (Integer identityIndex : identities) {
+                writeIdentity(serializer, accountUuid, identityIndex.toString(), accountPrefs);
             }
             serializer.endTag(null, IDENTITIES_ELEMENT);
         }
@@ -376,7 +369,7 @@ public class SettingsExporter {
         if (folders.size() > 0) {
             serializer.startTag(null, FOLDERS_ELEMENT);
             for (String folder : folders) {
-                writeFolder(serializer, accountUuid, folder, prefs);
+                writeFolder(serializer, accountUuid, folder, accountPrefs);
             }
             serializer.endTag(null, FOLDERS_ELEMENT);
         }
@@ -414,21 +407,9 @@ public class SettingsExporter {
 
         // Write identity settings
         serializer.startTag(null, SETTINGS_ELEMENT);
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
-            String key = entry.getKey();
-            String valueString = entry.getValue().toString();
-            String[] comps = key.split("\\.");
-
-            if (comps.length < 3) {
-                // Skip non-identity config entries
-                continue;
-            }
-
-            String keyUuid = comps[0];
-            String identityKey = comps[1];
-            String identityIndex = comps[2];
-            if (!keyUuid.equals(accountUuid) || !identityIndex.equals(identity)) {
-                // Skip entries that belong to another identity
+        for (String identityKey : SORTED_IDENTITY_KEYS) {
+            String valueString = (String) prefs.get(prefix + identityKey + suffix);
+            if (valueString == null) {
                 continue;
             }
 
@@ -460,24 +441,12 @@ public class SettingsExporter {
         serializer.startTag(null, FOLDER_ELEMENT);
         serializer.attribute(null, NAME_ATTRIBUTE, folder);
 
-        // Write folder settings
-        for (Map.Entry<String, Object> entry : prefs.entrySet()) {
-            String key = entry.getKey();
-            String valueString = entry.getValue().toString();
-            int indexOfFirstDot = key.indexOf('.');
-            int indexOfLastDot = key.lastIndexOf('.');
+        String prefix = accountUuid + "." + folder + ".";
 
-            if (indexOfFirstDot == -1 || indexOfLastDot == -1 || indexOfFirstDot == indexOfLastDot) {
-                // Skip non-folder config entries
-                continue;
-            }
-
-            String keyUuid = key.substring(0, indexOfFirstDot);
-            String folderName = key.substring(indexOfFirstDot + 1, indexOfLastDot);
-            String folderKey = key.substring(indexOfLastDot + 1);
-
-            if (!keyUuid.equals(accountUuid) || !folderName.equals(folder)) {
-                // Skip entries that belong to another folder
+        // Write folder settings
+        for (String folderKey : SORTED_FOLDER_KEYS) {
+            String valueString = (String) prefs.get(prefix + folderKey);
+            if (valueString == null) {
                 continue;
             }
 
@@ -36,6 +36,11 @@ import org.xmlpull.v1.XmlPullParserFactory;
 
 
 public class SettingsImporter {
+    /**
+     * Number of folders whose settings are written to the preference storage in one go.
+     */
+    private static final int FOLDER_IMPORT_BATCH_SIZE = 100;
+
 
     /**
      * Class to list the contents of an import file/stream.
@@ -94,6 +99,13 @@ public class SettingsImporter {
         }
     }
 
+    /**
+     * Receives progress updates while settings are imported. Methods are called on the importing thread.
+     */
+    public interface ImportProgressListener {
+        void onFolderSettingsImported(String accountName, int importedFolders, int totalFolders);
+    }
+
     /**
      * Parses an import {@link InputStream} and returns information on whether it contains global
      * settings and/or account settings. For all account configurations found, the name of the
@@ -165,6 +177,16 @@ public class SettingsImporter {
      */
     public static ImportResults importSettings(Context context, InputStream inputStream, boolean globalSettings,
             List<String> accountUuids, boolean overwrite) throws SettingsImportExportException {
+        return importSettings(context, inputStream, globalSettings, accountUuids, overwrite, null);
+    }
+
+    /**
+     * Same as {@link #importSettings(Context, InputStream, boolean, List, boolean)}, but reports the progress of
+     * importing folder settings to {@code progressListener}, which may be {@code null}.
+     */
+    public static ImportResults importSettings(Context context, InputStream inputStream, boolean globalSettings,
+            List<String> accountUuids, boolean overwrite, ImportProgressListener progressListener)
+            throws SettingsImportExportException {
 
         try {
             boolean globalSettingsImported = false;
@@ -206,25 +228,39 @@ public class SettingsImporter {
                                 AccountDescriptionPair importResult = importAccount(context, editor,
                                         imported.contentVersion, account, overwrite);
 
+                                // Folder settings are committed separately. Remember what was stored for this
+                                // account before, so a failure doesn't leave the account half-imported.
+                                String importedUuid = importResult.imported.uuid;
+                                Map<String, String> previousSettings = getAccountSettings(storage, importedUuid);
+
                                 if (editor.commit()) {
                                     Timber.v("Committed settings for account \"%s\" to the settings database.",
                                             importResult.imported.name);
 
-                                    // Add UUID of the account we just imported to the list of
-                                    // account UUIDs
-                                    if (!importResult.overwritten) {
-                                        editor = storage.edit();
+                                    try {
+                                        // Write folder settings before the account is added to the list of accounts
+                                        importFolders(storage, imported.contentVersion, importResult, account.folders,
+                                                progressListener);
+
+                                        // Add UUID of the account we just imported to the list of
+                                        // account UUIDs
+                                        if (!importResult.overwritten) {
+                                            editor = storage.edit();
 
-                                        String newUuid = importResult.imported.uuid;
-                                        String oldAccountUuids = storage.getString("accountUuids", "");
-                                        String newAccountUuids = (oldAccountUuids.length() > 0) ?
-                                                oldAccountUuids + "," + newUuid : newUuid;
+                                            String oldAccountUuids = storage.getString("accountUuids", "");
+                                            String newAccountUuids = (oldAccountUuids.length() > 0) ?
+                                                    oldAccountUuids + "," + importedUuid : importedUuid;
 
-                                        putString(editor, "accountUuids", newAccountUuids);
+                                            putString(editor, "accountUuids", newAccountUuids);
 
-                                        if (!editor.commit()) {
-                                            throw new SettingsImportExportException("Failed to set account UUID list");
+                                            if (!editor.commit()) {
+                                                throw new SettingsImportExportException(
+                                                        "Failed to set account UUID list");
+                                            }
                                         }
+                                    } catch (Exception e) {
+                                        restoreAccountSettings(storage, importedUuid, previousSettings);
+                                        throw e;
                                     }
 
                                     // Reload accounts
@@ -426,12 +462,7 @@ public class SettingsImporter {
             throw new InvalidSettingValueException();
         }
 
-        // Write folder settings
-        if (account.folders != null) {
-            for (ImportedFolder folder : account.folders) {
-                importFolder(editor, contentVersion, uuid, folder, mergeImportedAccount, prefs);
-            }
-        }
+        // Folder settings are written in batches by importFolders()
 
         //TODO: sync folder settings with localstore?
 
@@ -439,8 +470,74 @@ public class SettingsImporter {
         return new AccountDescriptionPair(original, imported, mergeImportedAccount);
     }
 
+    /**
+     * Writes folder settings in batches of {@link #FOLDER_IMPORT_BATCH_SIZE} folders, so accounts with thousands of
+     * folders don't end up in one huge transaction. Each batch is committed before the next one is built, so pending
+     * writes can't be merged into a single transaction.
+     */
+    private static void importFolders(Storage storage, int contentVersion, AccountDescriptionPair importResult,
+            List<ImportedFolder> folders, ImportProgressListener progressListener)
+            throws SettingsImportExportException {
+        if (folders == null) {
+            return;
+        }
+
+        String uuid = importResult.imported.uuid;
+        boolean overwrite = importResult.overwritten;
+        int totalFolders = folders.size();
+        int importedFolders = 0;
+        while (importedFolders < totalFolders) {
+            int batchEnd = Math.min(importedFolders + FOLDER_IMPORT_BATCH_SIZE, totalFolders);
+
+            StorageEditor editor = storage.edit();
+            for (ImportedFolder folder : folders.subList(importedFolders, batchEnd)) {
+                importFolder(editor, contentVersion, uuid, folder, overwrite, storage);
+            }
+
+            if (!editor.commit()) {
+                throw new SettingsImportExportException("Failed to commit folder settings");
+            }
+
+            importedFolders = batchEnd;
+            if (progressListener != null) {
+                progressListener.onFolderSettingsImported(importResult.imported.name, importedFolders, totalFolders);
+            }
+        }
+    }
+
+    private static Map<String, String> getAccountSettings(Storage storage, String uuid) {
+        String prefix = uuid + ".";
+        Map<String, String> settings = new HashMap<>();
+        for (Map.Entry<String, String> entry : storage.getAll().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                settings.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Puts the settings of an account back to what they were before the import. Keys that didn't exist before are
+     * removed, so a new account leaves nothing behind.
+     */
+    private static void restoreAccountSettings(Storage storage, String uuid, Map<String, String> previousSettings) {
+        StorageEditor editor = storage.edit();
+        for (String key : getAccountSettings(storage, uuid).keySet()) {
+            if (!previousSettings.containsKey(key)) {
+                editor.remove(key);
+            }
+        }
+        for (Map.Entry<String, String> entry : previousSettings.entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue());
+        }
+
+        if (!editor.commit()) {
+            Timber.e("Failed to restore settings of account %s after an import error", uuid);
+        }
+    }
+
     private static void importFolder(StorageEditor editor, int contentVersion, String uuid, ImportedFolder folder,
-            boolean overwrite, Preferences prefs) {
+            boolean overwrite, Storage storage) {
 
         // Validate folder settings
         Map<String, Object> validatedSettings =
@@ -457,7 +554,7 @@ public class SettingsImporter {
         // Merge folder settings if necessary
         Map<String, String> writeSettings;
         if (overwrite) {
-            writeSettings = FolderSettings.getFolderSettings(prefs.getStorage(), uuid, folder.name);
+            writeSettings = FolderSettings.getFolderSettings(storage, uuid, folder.name);
             writeSettings.putAll(stringSettings);
         } else {
             writeSettings = stringSettings;
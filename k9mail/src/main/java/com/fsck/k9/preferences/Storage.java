@@ -3,10 +3,14 @@ package com.fsck.k9.preferences;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -14,6 +18,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 import android.os.SystemClock;
+import android.support.annotation.NonNull;
 
 import com.fsck.k9.helper.UrlEncodingHelper;
 import com.fsck.k9.helper.Utility;
@@ -24,16 +29,39 @@ public class Storage {
     private static ConcurrentMap<Context, Storage> storages =
         new ConcurrentHashMap<Context, Storage>();
 
-    private volatile ConcurrentMap<String, String> storage = new ConcurrentHashMap<String, String>();
+    private volatile StorageSnapshot storage = StorageSnapshot.EMPTY;
 
     private int DB_VERSION = 2;
     private String DB_NAME = "preferences_storage";
 
-    private ThreadLocal<ConcurrentMap<String, String>> workingStorage
-    = new ThreadLocal<ConcurrentMap<String, String>>();
-    private ThreadLocal<SQLiteDatabase> workingDB =
-        new ThreadLocal<SQLiteDatabase>();
-    private ThreadLocal<List<String>> workingChangedKeys = new ThreadLocal<List<String>>();
+    /**
+     * Database handle that stays open for the lifetime of this instance. Guarded by {@link #flushLock}.
+     */
+    private SQLiteDatabase db;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement deleteStatement;
+
+    /**
+     * Guards {@link #storage}, {@link #pendingWrites} and {@link #flushScheduled}.
+     */
+    private final Object writeLock = new Object();
+    // Values applied to memory but not yet written to the database. A key mapped to null will be deleted.
+    private Map<String, String> pendingWrites = new HashMap<String, String>();
+    private boolean flushScheduled = false;
+
+    /**
+     * Serializes database writes. Only one thread writes at a time.
+     */
+    private final Object flushLock = new Object();
+
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "PreferencesStorage");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
 
     private Context context = null;
@@ -162,90 +190,188 @@ public class Storage {
         long startTime = SystemClock.elapsedRealtime();
         Timber.i("Loading preferences from DB into Storage");
         Cursor cursor = null;
-        SQLiteDatabase mDb = null;
         try {
-            mDb = openDB();
+            db = openDB();
+            insertStatement = db.compileStatement(
+                    "INSERT INTO preferences_storage (primkey, value) VALUES (?, ?)");
+            deleteStatement = db.compileStatement("DELETE FROM preferences_storage WHERE primkey = ?");
 
-            cursor = mDb.rawQuery("SELECT primkey, value FROM preferences_storage", null);
+            Map<String, String> values = new HashMap<String, String>();
+            cursor = db.rawQuery("SELECT primkey, value FROM preferences_storage", null);
             while (cursor.moveToNext()) {
                 String key = cursor.getString(0);
                 String value = cursor.getString(1);
-                Timber.d("Loading key '%s', value = '%s'", key, value);
-                storage.put(key, value);
+                values.put(key, value);
             }
+            storage = StorageSnapshot.copyOf(values);
         } finally {
             Utility.closeQuietly(cursor);
-            if (mDb != null) {
-                mDb.close();
-            }
             long endTime = SystemClock.elapsedRealtime();
-            Timber.i("Preferences load took %d ms", endTime - startTime);
+            Timber.i("Preferences load of %d values took %d ms", storage.size(), endTime - startTime);
         }
     }
 
     private Storage(Context context) {
         this.context = context;
-        loadValues();
+        synchronized (flushLock) {
+            loadValues();
+        }
     }
 
-    private void keyChange(String key) {
-        List<String> changedKeys = workingChangedKeys.get();
-        if (!changedKeys.contains(key)) {
-            changedKeys.add(key);
+    /**
+     * Writes the changes to the database and updates the in-memory values once they have been saved.
+     * <p>
+     * Changes from {@link #apply(Map, List)} that haven't been saved yet are written in the same transaction. If the
+     * write fails, the in-memory values are left unchanged and the exception is rethrown.
+     */
+    void commit(Map<String, String> insertables, List<String> removals) {
+        synchronized (flushLock) {
+            Map<String, String> appliedWrites;
+            synchronized (writeLock) {
+                appliedWrites = pendingWrites;
+                pendingWrites = new HashMap<String, String>();
+            }
+
+            Map<String, String> writes = new HashMap<String, String>(appliedWrites);
+            for (String key : removals) {
+                writes.put(key, null);
+            }
+            writes.putAll(insertables);
+
+            try {
+                writeToDatabase(writes);
+            } catch (RuntimeException e) {
+                restorePendingWrites(appliedWrites);
+                throw e;
+            }
+
+            synchronized (writeLock) {
+                // Changes applied while the database was written are newer than ours; keep them on top
+                storage = withWrites(storage.withChanges(insertables, removals), pendingWrites);
+            }
         }
     }
 
-    void put(Map<String, String> insertables) {
-        String sql = "INSERT INTO preferences_storage (primkey, value) VALUES (?, ?)";
-        SQLiteStatement stmt = workingDB.get().compileStatement(sql);
-
-        for (Map.Entry<String, String> entry : insertables.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            stmt.bindString(1, key);
-            stmt.bindString(2, value);
-            stmt.execute();
-            stmt.clearBindings();
-            liveUpdate(key, value);
+    private static StorageSnapshot withWrites(StorageSnapshot snapshot, Map<String, String> writes) {
+        if (writes.isEmpty()) {
+            return snapshot;
+        }
+
+        Map<String, String> insertables = new HashMap<String, String>();
+        List<String> removals = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            if (entry.getValue() == null) {
+                removals.add(entry.getKey());
+            } else {
+                insertables.put(entry.getKey(), entry.getValue());
+            }
         }
-        stmt.close();
+        return snapshot.withChanges(insertables, removals);
     }
 
-    private void liveUpdate(String key, String value) {
-        workingStorage.get().put(key, value);
+    /**
+     * Applies the changes to the in-memory values right away and writes them to the database in the background.
+     * <p>
+     * Changes applied in quick succession are collected and written in a single transaction. Use
+     * {@link #flushPendingWrites()} to make sure they have been saved.
+     */
+    void apply(Map<String, String> insertables, List<String> removals) {
+        synchronized (writeLock) {
+            storage = storage.withChanges(insertables, removals);
+
+            for (String key : removals) {
+                pendingWrites.put(key, null);
+            }
+            pendingWrites.putAll(insertables);
+        }
 
-        keyChange(key);
+        flushPendingWritesInBackground();
     }
 
-    void remove(String key) {
-        workingDB.get().delete("preferences_storage", "primkey = ?", new String[] { key });
-        workingStorage.get().remove(key);
+    /**
+     * Writes all changes made with {@link #apply(Map, List)} to the database on the background thread without waiting
+     * for it.
+     * <p>
+     * Called when the app goes to the background, so changes whose write failed earlier are retried before the process
+     * is killed.
+     */
+    public void flushPendingWritesInBackground() {
+        synchronized (writeLock) {
+            if (flushScheduled || pendingWrites.isEmpty()) {
+                return;
+            }
+            flushScheduled = true;
+        }
+
+        flushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (writeLock) {
+                    flushScheduled = false;
+                }
 
-        keyChange(key);
+                try {
+                    flushPendingWrites();
+                } catch (Exception e) {
+                    Timber.e(e, "Failed to save preferences");
+                }
+            }
+        });
     }
 
-    void doInTransaction(Runnable dbWork) {
-        ConcurrentMap<String, String> newStorage = new ConcurrentHashMap<String, String>();
-        newStorage.putAll(storage);
-        workingStorage.set(newStorage);
+    /**
+     * Writes all changes made with {@link #apply(Map, List)} to the database before returning.
+     */
+    public void flushPendingWrites() {
+        synchronized (flushLock) {
+            Map<String, String> writes;
+            synchronized (writeLock) {
+                writes = pendingWrites;
+                pendingWrites = new HashMap<String, String>();
+            }
+
+            if (writes.isEmpty()) {
+                return;
+            }
 
-        SQLiteDatabase mDb = openDB();
-        workingDB.set(mDb);
+            try {
+                writeToDatabase(writes);
+            } catch (RuntimeException e) {
+                restorePendingWrites(writes);
+                throw e;
+            }
+        }
+    }
 
-        List<String> changedKeys = new ArrayList<String>();
-        workingChangedKeys.set(changedKeys);
+    // Keeps the changes around so the next write can retry them. Newer values for the same key take precedence.
+    private void restorePendingWrites(Map<String, String> writes) {
+        synchronized (writeLock) {
+            writes.putAll(pendingWrites);
+            pendingWrites = writes;
+        }
+    }
 
-        mDb.beginTransaction();
+    // Must be called while holding flushLock
+    private void writeToDatabase(Map<String, String> writes) {
+        db.beginTransaction();
         try {
-            dbWork.run();
-            mDb.setTransactionSuccessful();
-            storage = newStorage;
+            for (Map.Entry<String, String> entry : writes.entrySet()) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+                if (value == null) {
+                    deleteStatement.bindString(1, key);
+                    deleteStatement.execute();
+                } else {
+                    insertStatement.bindString(1, key);
+                    insertStatement.bindString(2, value);
+                    insertStatement.execute();
+                }
+            }
+            db.setTransactionSuccessful();
         } finally {
-            workingDB.remove();
-            workingStorage.remove();
-            workingChangedKeys.remove();
-            mDb.endTransaction();
-            mDb.close();
+            insertStatement.clearBindings();
+            deleteStatement.clearBindings();
+            db.endTransaction();
         }
     }
 
@@ -17,12 +17,12 @@ public class StorageEditor {
     private Map<String, String> changes = new HashMap<String, String>();
     private List<String> removals = new ArrayList<String>();
 
-    Map<String, String> snapshot = new HashMap<String, String>();
+    private final Map<String, String> snapshot;
 
 
     StorageEditor(Storage storage) {
         this.storage = storage;
-        snapshot.putAll(storage.getAll());
+        snapshot = storage.getAll();
     }
 
     public void copy(android.content.SharedPreferences input) {
@@ -49,32 +49,37 @@ public class StorageEditor {
         }
     }
 
+    /**
+     * Applies the changes to the in-memory preferences immediately and saves them to the database in the background.
+     * Use this instead of {@link #commit()} when many edits are made in quick succession; they are saved in a single
+     * transaction.
+     */
+    public void apply() {
+        storage.apply(getInsertables(), removals);
+    }
+
     private void commitChanges() {
         long startTime = SystemClock.elapsedRealtime();
         Timber.i("Committing preference changes");
-        Runnable committer = new Runnable() {
-            public void run() {
-                for (String removeKey : removals) {
-                    storage.remove(removeKey);
-                }
-                Map<String, String> insertables = new HashMap<String, String>();
-                for (Entry<String, String> entry : changes.entrySet()) {
-                    String key = entry.getKey();
-                    String newValue = entry.getValue();
-                    String oldValue = snapshot.get(key);
-                    if (removals.contains(key) || !newValue.equals(oldValue)) {
-                        insertables.put(key, newValue);
-                    }
-                }
-                storage.put(insertables);
-            }
-        };
-        storage.doInTransaction(committer);
+        storage.commit(getInsertables(), removals);
         long endTime = SystemClock.elapsedRealtime();
         Timber.i("Preferences commit took %d ms", endTime - startTime);
 
     }
 
+    private Map<String, String> getInsertables() {
+        Map<String, String> insertables = new HashMap<String, String>();
+        for (Entry<String, String> entry : changes.entrySet()) {
+            String key = entry.getKey();
+            String newValue = entry.getValue();
+            String oldValue = snapshot.get(key);
+            if (removals.contains(key) || !newValue.equals(oldValue)) {
+                insertables.put(key, newValue);
+            }
+        }
+        return insertables;
+    }
+
     public StorageEditor putBoolean(String key,
             boolean value) {
         changes.put(key, "" + value);
@@ -0,0 +1,192 @@
+package com.fsck.k9.preferences;
+
+
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Immutable map of preference values.
+ * <p>
+ * Creating a modified copy only copies the parts of the map that change. Entries are distributed by hash over a
+ * two-level tree with 32 branches per level, i.e. 1024 buckets. A new snapshot copies the root and, for each changed
+ * key, the inner node and the bucket the key belongs to. Everything else is shared with the previous snapshot. So an
+ * edit no longer copies all values, which made a series of edits quadratic in the number of preferences.
+ */
+class StorageSnapshot extends AbstractMap<String, String> {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int BRANCH_FACTOR = 1 << BITS_PER_LEVEL;
+    private static final int LEVEL_MASK = BRANCH_FACTOR - 1;
+
+    static final StorageSnapshot EMPTY = new StorageSnapshot(new Object[BRANCH_FACTOR], 0);
+
+
+    // Each element is null or an inner node: an Object[] whose elements are null or a Map<String, String> bucket.
+    // Nodes and buckets are never modified once they're part of a snapshot.
+    private final Object[] root;
+    private final int size;
+    private volatile Set<Entry<String, String>> entrySet;
+
+
+    private StorageSnapshot(Object[] root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static StorageSnapshot copyOf(Map<String, String> values) {
+        return EMPTY.withChanges(values, Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns a new snapshot with {@code removals} removed and {@code insertables} added.
+     */
+    StorageSnapshot withChanges(Map<String, String> insertables, Collection<String> removals) {
+        Builder builder = new Builder(this);
+        for (String key : removals) {
+            builder.remove(key);
+        }
+        for (Entry<String, String> entry : insertables.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String get(Object key) {
+        Map<String, String> bucket = getBucket(root, hash(key));
+        return (bucket != null) ? bucket.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, String> bucket = getBucket(root, hash(key));
+        return bucket != null && bucket.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Set<Entry<String, String>> result = entrySet;
+        if (result == null) {
+            Map<String, String> values = new HashMap<>(size);
+            for (Object node : root) {
+                if (node == null) {
+                    continue;
+                }
+                for (Object bucket : (Object[]) node) {
+                    if (bucket != null) {
+                        values.putAll(toBucket(bucket));
+                    }
+                }
+            }
+
+            result = Collections.unmodifiableMap(values).entrySet();
+            entrySet = result;
+        }
+        return result;
+    }
+
+    private static int hash(Object key) {
+        int hash = (key == null) ? 0 : key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int rootIndex(int hash) {
+        return hash & LEVEL_MASK;
+    }
+
+    private static int nodeIndex(int hash) {
+        return (hash >>> BITS_PER_LEVEL) & LEVEL_MASK;
+    }
+
+    private static Map<String, String> getBucket(Object[] root, int hash) {
+        Object[] node = (Object[]) root[rootIndex(hash)];
+        return (node != null) ? toBucket(node[nodeIndex(hash)]) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> toBucket(Object bucket) {
+        return (Map<String, String>) bucket;
+    }
+
+
+    /**
+     * Creates a modified copy of a snapshot. Nodes and buckets are copied the first time they're changed, later
+     * changes to the same node or bucket modify the copy.
+     */
+    private static class Builder {
+        private final Object[] root;
+        private final BitSet copiedNodes = new BitSet(BRANCH_FACTOR);
+        private final BitSet copiedBuckets = new BitSet(BRANCH_FACTOR * BRANCH_FACTOR);
+        private int size;
+
+
+        Builder(StorageSnapshot snapshot) {
+            root = snapshot.root.clone();
+            size = snapshot.size;
+        }
+
+        void put(String key, String value) {
+            if (value == null) {
+                remove(key);
+                return;
+            }
+
+            int hash = hash(key);
+            Map<String, String> bucket = getBucket(root, hash);
+            if (bucket != null && value.equals(bucket.get(key))) {
+                return;
+            }
+
+            bucket = getWritableBucket(hash);
+            if (bucket.put(key, value) == null) {
+                size++;
+            }
+        }
+
+        void remove(String key) {
+            int hash = hash(key);
+            Map<String, String> bucket = getBucket(root, hash);
+            if (bucket == null || !bucket.containsKey(key)) {
+                return;
+            }
+
+            getWritableBucket(hash).remove(key);
+            size--;
+        }
+
+        StorageSnapshot build() {
+            return new StorageSnapshot(root, size);
+        }
+
+        private Map<String, String> getWritableBucket(int hash) {
+            int rootIndex = rootIndex(hash);
+            Object[] node = (Object[]) root[rootIndex];
+            if (!copiedNodes.get(rootIndex)) {
+                node = (node != null) ? node.clone() : new Object[BRANCH_FACTOR];
+                root[rootIndex] = node;
+                copiedNodes.set(rootIndex);
+            }
+
+            int nodeIndex = nodeIndex(hash);
+            int bucketIndex = rootIndex * BRANCH_FACTOR + nodeIndex;
+            Map<String, String> bucket = toBucket(node[nodeIndex]);
+            if (!copiedBuckets.get(bucketIndex)) {
+                bucket = (bucket != null) ? new HashMap<>(bucket) : new HashMap<String, String>();
+                node[nodeIndex] = bucket;
+                copiedBuckets.set(bucketIndex);
+            }
+
+            return bucket;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.fsck.k9.search;
 
 import java.util.List;
+import java.util.Locale;
 
 import timber.log.Timber;
 
@@ -100,8 +101,82 @@ public class SqlQueryBuilder {
 
     private static void appendCondition(SearchCondition condition, StringBuilder query,
             List<String> selectionArgs) {
+        if (condition.attribute == Attribute.CONTAINS && isHeaderFulltextColumn(condition.field)) {
+            String fulltextQuery = buildHeaderFulltextQuery(getColumnName(condition), condition.value);
+            if (fulltextQuery != null) {
+                appendHeaderFulltextCondition(condition, fulltextQuery, query, selectionArgs);
+                return;
+            }
+        }
+
+        query.append(getColumnName(condition));
+        appendExprRight(condition, query, selectionArgs);
+    }
+
+    /**
+     * Uses the 'messages_header_fulltext' index to find candidate messages instead of scanning the 'messages' table.
+     * <p>
+     * The index matches tokens that start with the search terms. The original {@code LIKE} expression is still
+     * applied to the candidates so the result only contains messages where the search string appears as is.
+     */
+    private static void appendHeaderFulltextCondition(SearchCondition condition, String fulltextQuery,
+            StringBuilder query, List<String> selectionArgs) {
+        query.append("(m.id IN (SELECT docid FROM messages_header_fulltext WHERE messages_header_fulltext MATCH ?)");
+        selectionArgs.add(fulltextQuery);
+
+        query.append(" AND ");
         query.append(getColumnName(condition));
         appendExprRight(condition, query, selectionArgs);
+        query.append(")");
+    }
+
+    /**
+     * Builds an FTS query that restricts each token of {@code value} to {@code columnName} and matches it as a prefix.
+     * <p>
+     * Tokens are split the same way SQLite's "simple" tokenizer does it: ASCII letters and digits, and all non-ASCII
+     * characters are part of a token, everything else is a separator.
+     *
+     * @return The FTS query, or {@code null} if {@code value} doesn't contain any tokens.
+     */
+    static String buildHeaderFulltextQuery(String columnName, String value) {
+        StringBuilder fulltextQuery = new StringBuilder();
+        int tokenStart = -1;
+        for (int i = 0, length = value.length(); i <= length; i++) {
+            boolean isTokenChar = i < length && isFulltextTokenChar(value.charAt(i));
+            if (isTokenChar && tokenStart == -1) {
+                tokenStart = i;
+            } else if (!isTokenChar && tokenStart != -1) {
+                if (fulltextQuery.length() > 0) {
+                    fulltextQuery.append(' ');
+                }
+                // Lower case so tokens can't be mistaken for operators like OR or NEAR
+                fulltextQuery.append(columnName).append(':')
+                        .append(value.substring(tokenStart, i).toLowerCase(Locale.US)).append('*');
+                tokenStart = -1;
+            }
+        }
+
+        return (fulltextQuery.length() > 0) ? fulltextQuery.toString() : null;
+    }
+
+    private static boolean isFulltextTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c >= 0x80;
+    }
+
+    private static boolean isHeaderFulltextColumn(SearchField field) {
+        switch (field) {
+            case SUBJECT:
+            case SENDER:
+            case TO:
+            case CC:
+            case BCC:
+            case REPLY_TO: {
+                return true;
+            }
+            default: {
+                return false;
+            }
+        }
     }
 
     private static long getFolderId(Account account, String folderName) {
@@ -20,15 +20,17 @@ public class LocalMessageExtractorLoader extends AsyncTaskLoader<MessageViewInfo
 
 
     private final Message message;
+    private final long textSizeLimit;
     private MessageViewInfo messageViewInfo;
     @Nullable
     private MessageCryptoAnnotations annotations;
 
-    public LocalMessageExtractorLoader(
-            Context context, Message message, @Nullable MessageCryptoAnnotations annotations) {
+    public LocalMessageExtractorLoader(Context context, Message message,
+            @Nullable MessageCryptoAnnotations annotations, long textSizeLimit) {
         super(context);
         this.message = message;
         this.annotations = annotations;
+        this.textSizeLimit = textSizeLimit;
     }
 
     @Override
@@ -52,14 +54,16 @@ public class LocalMessageExtractorLoader extends AsyncTaskLoader<MessageViewInfo
     @WorkerThread
     public MessageViewInfo loadInBackground() {
         try {
-            return messageViewInfoExtractor.extractMessageForView(message, annotations);
+            return messageViewInfoExtractor.extractMessageForView(message, annotations, textSizeLimit);
         } catch (Exception e) {
             Timber.e(e, "Error while decoding message");
             return null;
         }
     }
 
-    public boolean isCreatedFor(LocalMessage localMessage, MessageCryptoAnnotations messageCryptoAnnotations) {
-        return annotations == messageCryptoAnnotations && message.equals(localMessage);
+    public boolean isCreatedFor(LocalMessage localMessage, MessageCryptoAnnotations messageCryptoAnnotations,
+            long textSizeLimit) {
+        return annotations == messageCryptoAnnotations && message.equals(localMessage) &&
+                this.textSizeLimit == textSizeLimit;
     }
 }
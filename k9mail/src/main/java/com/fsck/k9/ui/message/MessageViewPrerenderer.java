@@ -0,0 +1,107 @@
+package com.fsck.k9.ui.message;
+
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.controller.SimpleMessagingListener;
+import com.fsck.k9.crypto.MessageDecryptVerifier;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.MessageViewInfoExtractor;
+import timber.log.Timber;
+
+
+/**
+ * Prepares the display HTML of newly synchronized messages in the background, so it is already in the
+ * {@link com.fsck.k9.message.html.DisplayHtmlCache} when the user opens the message.
+ * <p>
+ * Only messages that were downloaded completely and aren't encrypted are processed. At most
+ * {@link #MAX_PENDING_MESSAGES} messages are queued; new messages arriving while the queue is full are skipped.
+ */
+public class MessageViewPrerenderer extends SimpleMessagingListener {
+    private static final int MAX_PENDING_MESSAGES = 20;
+
+
+    private final MessageViewInfoExtractor messageViewInfoExtractor;
+    private final ThreadPoolExecutor executor;
+
+
+    public MessageViewPrerenderer(MessageViewInfoExtractor messageViewInfoExtractor) {
+        this.messageViewInfoExtractor = messageViewInfoExtractor;
+
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_MESSAGES), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                                runnable.run();
+                            }
+                        });
+                        thread.setName("MessageViewPrerenderer");
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void synchronizeMailboxNewMessage(final Account account, final String folderName, Message message) {
+        if (!message.isSet(Flag.X_DOWNLOADED_FULL)) {
+            return;
+        }
+
+        final String uid = message.getUid();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prerender(account, folderName, uid);
+            }
+        });
+    }
+
+    private void prerender(Account account, String folderName, String uid) {
+        LocalFolder localFolder = null;
+        try {
+            localFolder = account.getLocalStore().getFolder(folderName);
+            localFolder.open(Folder.OPEN_MODE_RO);
+
+            LocalMessage message = localFolder.getMessage(uid);
+            if (message == null) {
+                return;
+            }
+
+            FetchProfile fetchProfile = new FetchProfile();
+            fetchProfile.add(FetchProfile.Item.BODY);
+            localFolder.fetch(Collections.singletonList(message), fetchProfile, null);
+
+            // Encrypted messages are displayed with the decrypted content, which isn't available here
+            if (!MessageDecryptVerifier.findEncryptedParts(message).isEmpty() ||
+                    !MessageDecryptVerifier.findPgpInlineParts(message).isEmpty()) {
+                return;
+            }
+
+            messageViewInfoExtractor.extractMessageForView(message, null);
+        } catch (Exception e) {
+            Timber.w(e, "Failed to prepare message for display");
+        } finally {
+            if (localFolder != null) {
+                localFolder.close();
+            }
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class MessageTopView extends LinearLayout {
     private LayoutInflater mInflater;
     private ViewGroup containerView;
     private Button mDownloadRemainder;
+    private Button showMoreContentButton;
     private AttachmentViewCallback attachmentCallback;
     private Button showPicturesButton;
     private boolean isShowingProgress;
@@ -73,6 +74,9 @@ public class MessageTopView extends LinearLayout {
         mDownloadRemainder = (Button) findViewById(R.id.download_remainder);
         mDownloadRemainder.setVisibility(View.GONE);
 
+        showMoreContentButton = (Button) findViewById(R.id.show_more_content);
+        showMoreContentButton.setVisibility(View.GONE);
+
         showPicturesButton = (Button) findViewById(R.id.show_pictures);
         setShowPicturesButtonListener();
 
@@ -102,6 +106,7 @@ public class MessageTopView extends LinearLayout {
         mDownloadRemainder.setVisibility(View.GONE);
         containerView.removeAllViews();
         setShowDownloadButton(messageViewInfo);
+        setShowMoreContentButton(messageViewInfo);
     }
 
     public void showMessage(Account account, MessageViewInfo messageViewInfo) {
@@ -261,6 +266,10 @@ public class MessageTopView extends LinearLayout {
         mDownloadRemainder.setOnClickListener(listener);
     }
 
+    public void setOnShowMoreContentClickListener(OnClickListener listener) {
+        showMoreContentButton.setOnClickListener(listener);
+    }
+
     public void setAttachmentCallback(AttachmentViewCallback callback) {
         attachmentCallback = callback;
     }
@@ -287,6 +296,19 @@ public class MessageTopView extends LinearLayout {
         }
     }
 
+    private void setShowMoreContentButton(MessageViewInfo messageViewInfo) {
+        if (messageViewInfo.hasMoreContent) {
+            showMoreContentButton.setEnabled(true);
+            showMoreContentButton.setVisibility(View.VISIBLE);
+        } else {
+            showMoreContentButton.setVisibility(View.GONE);
+        }
+    }
+
+    public void disableShowMoreContentButton() {
+        showMoreContentButton.setEnabled(false);
+    }
+
     private void showShowPicturesButton() {
         showPicturesButton.setVisibility(View.VISIBLE);
     }
@@ -194,6 +194,14 @@ public class MessageViewFragment extends Fragment implements ConfirmationDialogF
             }
         });
 
+        mMessageView.setOnShowMoreContentClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mMessageView.disableShowMoreContentButton();
+                messageLoaderHelper.asyncShowMoreMessageContent();
+            }
+        });
+
         mFragmentListener.messageHeaderViewAvailable(mMessageView.getMessageHeaderView());
 
         return view;
@@ -0,0 +1,98 @@
+package com.fsck.k9;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class DeferredStartupTasksTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+
+    private final List<String> executedTasks = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Test
+    public void start_shouldRunTasksInOrder() throws Exception {
+        new DeferredStartupTasks(DIRECT_EXECUTOR)
+                .add(recordingTask("first"))
+                .add(recordingTask("second"))
+                .start();
+
+        assertEquals(Arrays.asList("first", "second"), executedTasks);
+    }
+
+    @Test
+    public void start_withFailingTask_shouldRunRemainingTasks() throws Exception {
+        new DeferredStartupTasks(DIRECT_EXECUTOR)
+                .add(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("test");
+                    }
+                })
+                .add(recordingTask("second"))
+                .start();
+
+        assertEquals(Collections.singletonList("second"), executedTasks);
+    }
+
+    @Test
+    public void start_withBlockedTask_shouldReturnWithoutWaiting() throws Exception {
+        final CountDownLatch blockTask = new CountDownLatch(1);
+        final CountDownLatch tasksDone = new CountDownLatch(1);
+
+        new DeferredStartupTasks()
+                .add(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            blockTask.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                })
+                .add(new Runnable() {
+                    @Override
+                    public void run() {
+                        executedTasks.add("second");
+                        tasksDone.countDown();
+                    }
+                })
+                .start();
+
+        assertTrue(executedTasks.isEmpty());
+
+        blockTask.countDown();
+        assertTrue(tasksDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("second"), executedTasks);
+    }
+
+
+    private Runnable recordingTask(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executedTasks.add(name);
+            }
+        };
+    }
+}
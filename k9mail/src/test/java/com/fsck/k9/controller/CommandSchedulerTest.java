@@ -0,0 +1,224 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class CommandSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+
+    private CommandScheduler commandScheduler;
+
+
+    @Before
+    public void setUp() throws Exception {
+        commandScheduler = new CommandScheduler(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        commandScheduler.stop(1000L);
+    }
+
+    @Test
+    public void submit_withCommandsInSameLane_shouldRunCommandsInOrder() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account", "blocker", awaiting(blocker), false, 0);
+        commandScheduler.submit("account", "one", recording(executionOrder, "one", done), false, 0);
+        commandScheduler.submit("account", "two", recording(executionOrder, "two", done), false, 0);
+        commandScheduler.submit("account", "three", recording(executionOrder, "three", done), true, 0);
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(asList("three", "one", "two"), executionOrder);
+    }
+
+    @Test
+    public void submit_withBlockedLane_shouldRunCommandsOfOtherLanes() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account1", "blocker", awaiting(blocker), false, 0);
+        commandScheduler.submit("account2", "other", recording(executionOrder, "other", done), false, 0);
+
+        try {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+    @Test
+    public void submitAfterPending_shouldRunAfterCommandsOfAllLanes() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account1", "blocker", awaiting(blocker), false, 0);
+        commandScheduler.submit("account1", "one", recording(executionOrder, "one", done), false, 0);
+        commandScheduler.submit("account2", "two", recording(executionOrder, "two", done), false, 0);
+        commandScheduler.submitAfterPending("finish", recording(executionOrder, "finish", done));
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("finish", executionOrder.get(2));
+    }
+
+    @Test
+    public void submitAfterPending_withLaneCancelledWhileBarrierIsQueued_shouldStillRunCommand() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account", "blocker", awaiting(blocker), false, 0);
+        commandScheduler.submit("account", "queued", recording(executionOrder, "queued", done), false, 0);
+        commandScheduler.submitAfterPending("finish", recording(executionOrder, "finish", done));
+        commandScheduler.cancelLane("account");
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("finish"), executionOrder);
+    }
+
+    @Test
+    public void cancel_beforeCommandStarted_shouldSkipCommand() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account", "blocker", awaiting(blocker), false, 0);
+        CommandScheduler.Command command = commandScheduler.submit("account", "cancelled",
+                recording(executionOrder, "cancelled", done), false, 0);
+        commandScheduler.submit("account", "other", recording(executionOrder, "other", done), false, 0);
+        command.cancel();
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("other"), executionOrder);
+    }
+
+    @Test
+    public void submit_withDeadlinePassedBeforeStart_shouldSkipCommand() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        commandScheduler.submit("account", "blocker", awaiting(blocker), false, 0);
+        commandScheduler.submit("account", "expired", recording(executionOrder, "expired", done), false, 1);
+        commandScheduler.submit("account", "other", recording(executionOrder, "other", done), false, 0);
+        Thread.sleep(50);
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("other"), executionOrder);
+    }
+
+    @Test
+    public void cancelLane_shouldSignalCancellationToRunningCommand() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicBoolean cancelledBeforeCancel = new AtomicBoolean(true);
+
+        commandScheduler.submit("account", "worker", new Runnable() {
+            @Override
+            public void run() {
+                cancelledBeforeCancel.set(CommandScheduler.isCurrentCommandCancelled());
+                started.countDown();
+                try {
+                    proceed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (CommandScheduler.isCurrentCommandCancelled()) {
+                    cancelled.countDown();
+                }
+            }
+        }, false, 0);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        commandScheduler.cancelLane("account");
+        proceed.countDown();
+
+        assertTrue(cancelled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(cancelledBeforeCancel.get());
+    }
+
+    @Test
+    public void cancelLane_shouldNotInterruptRunningCommand() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        commandScheduler.submit("account", "worker", new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    proceed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                done.countDown();
+            }
+        }, false, 0);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        commandScheduler.cancelLane("account");
+        proceed.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+    }
+
+    @Test
+    public void isCurrentCommandCancelled_outsideOfCommand_shouldReturnFalse() throws Exception {
+        assertFalse(CommandScheduler.isCurrentCommandCancelled());
+    }
+
+    private Runnable awaiting(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private Runnable recording(final List<String> executionOrder, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executionOrder.add(name);
+                done.countDown();
+            }
+        };
+    }
+}
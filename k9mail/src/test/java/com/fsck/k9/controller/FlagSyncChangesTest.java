@@ -0,0 +1,105 @@
+package com.fsck.k9.controller;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.MessageFlagState;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+
+public class FlagSyncChangesTest {
+    private static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
+
+
+    private final LocalStore localStore = mock(LocalStore.class);
+    private final LocalFolder localFolder = mock(LocalFolder.class);
+
+
+    @Test
+    public void apply_shouldGroupChangesByFlagAndState() throws Exception {
+        FlagSyncChanges changes = new FlagSyncChanges(SYNC_FLAGS, true);
+        changes.add(new MessageFlagState(1, false, false, false, false), createRemoteMessage("1", Flag.SEEN));
+        changes.add(new MessageFlagState(2, false, true, false, false), createRemoteMessage("2", Flag.SEEN));
+        changes.add(new MessageFlagState(3, true, false, false, false), createRemoteMessage("3", Flag.SEEN));
+
+        changes.apply(localStore, localFolder);
+
+        Map<Flag, List<Long>> expectedSetFlags = new EnumMap<>(Flag.class);
+        expectedSetFlags.put(Flag.SEEN, Arrays.asList(1L, 2L));
+        Map<Flag, List<Long>> expectedClearedFlags = new EnumMap<>(Flag.class);
+        expectedClearedFlags.put(Flag.FLAGGED, Collections.singletonList(2L));
+        verify(localStore).setFlags(expectedSetFlags, expectedClearedFlags);
+        verify(localStore, never()).setFlag(anyListOf(Long.class), any(Flag.class), anyBoolean());
+        assertEquals(Arrays.asList("1", "2"), changes.getChangedUids());
+    }
+
+    @Test
+    public void apply_withoutDifferences_shouldNotUpdateLocalStore() throws Exception {
+        FlagSyncChanges changes = new FlagSyncChanges(SYNC_FLAGS, true);
+        changes.add(new MessageFlagState(1, true, true, false, false),
+                createRemoteMessage("1", Flag.SEEN, Flag.FLAGGED));
+        changes.add(null, createRemoteMessage("2", Flag.SEEN));
+
+        changes.apply(localStore, localFolder);
+
+        verifyZeroInteractions(localStore);
+        assertTrue(changes.getChangedUids().isEmpty());
+    }
+
+    @Test
+    public void apply_withRemoteDeletion_shouldDeleteLocalMessage() throws Exception {
+        LocalMessage localMessage = mock(LocalMessage.class);
+        when(localFolder.getMessagesByUids(Collections.singletonList("1")))
+                .thenReturn(Collections.singletonList(localMessage));
+        FlagSyncChanges changes = new FlagSyncChanges(SYNC_FLAGS, true);
+        changes.add(new MessageFlagState(1, false, false, false, false), createRemoteMessage("1", Flag.DELETED));
+
+        changes.apply(localStore, localFolder);
+
+        verify(localMessage).setFlag(Flag.DELETED, true);
+        assertEquals(Collections.singletonList("1"), changes.getChangedUids());
+    }
+
+    @Test
+    public void apply_withRemoteDeletionNotSynced_shouldIgnoreMessage() throws Exception {
+        FlagSyncChanges changes = new FlagSyncChanges(SYNC_FLAGS, false);
+        changes.add(new MessageFlagState(1, false, false, false, false), createRemoteMessage("1", Flag.DELETED));
+
+        changes.apply(localStore, localFolder);
+
+        verify(localFolder, never()).getMessagesByUids(anyListOf(String.class));
+        assertTrue(changes.getChangedUids().isEmpty());
+    }
+
+
+    private Message createRemoteMessage(String uid, Flag... flags) {
+        Message message = mock(Message.class);
+        when(message.getUid()).thenReturn(uid);
+        for (Flag flag : flags) {
+            when(message.isSet(flag)).thenReturn(true);
+        }
+        return message;
+    }
+}
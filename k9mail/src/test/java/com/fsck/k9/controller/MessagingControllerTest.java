@@ -3,6 +3,7 @@ package com.fsck.k9.controller;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -18,10 +19,12 @@ import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.AuthenticationFailedException;
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.MemoryThresholdBodyFactory;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
@@ -39,6 +42,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Captor;
 import org.mockito.InOrder;
 import org.mockito.Matchers;
@@ -63,6 +67,7 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -76,6 +81,7 @@ public class MessagingControllerTest {
     private static final String SENT_FOLDER_NAME = "Sent";
     private static final int MAXIMUM_SMALL_MESSAGE_SIZE = 1000;
     private static final String MESSAGE_UID1 = "message-uid1";
+    private static final long COMMAND_TIMEOUT_MILLIS = 5000;
 
 
     private MessagingController controller;
@@ -96,6 +102,8 @@ public class MessagingControllerTest {
     @Mock
     private LocalFolder sentFolder;
     @Mock
+    private MemoryThresholdBodyFactory bodyFactory;
+    @Mock
     private Folder remoteFolder;
     @Mock
     private LocalStore localStore;
@@ -360,6 +368,15 @@ public class MessagingControllerTest {
         verify(listener, never()).listFoldersFinished(account);
     }
 
+    @Test
+    public void getFolderUnreadMessageCount_shouldReportCountToListener() throws Exception {
+        when(localFolder.getUnreadMessageCount()).thenReturn(3);
+
+        controller.getFolderUnreadMessageCount(account, FOLDER_NAME, listener);
+
+        verify(listener, timeout(COMMAND_TIMEOUT_MILLIS)).folderStatusChanged(account, FOLDER_NAME, 3);
+    }
+
     @Test
     public void searchLocalMessagesSynchronous_shouldCallSearchForMessagesOnLocalStore()
             throws Exception {
@@ -499,6 +516,32 @@ public class MessagingControllerTest {
                 fetchProfileCaptor.capture(), Matchers.<MessageRetrievalListener>eq(null));
     }
 
+    @Test
+    public void searchRemoteMessagesSynchronous_shouldReportLoadedMessages() throws Exception {
+        setupRemoteSearch();
+
+        controller.searchRemoteMessagesSynchronous("1", FOLDER_NAME, "query", reqFlags, forbiddenFlags, listener);
+
+        verify(listener).remoteSearchMessagesLoaded(FOLDER_NAME, 2, 2);
+    }
+
+    @Test
+    public void searchRemoteMessagesSynchronous_whenInterrupted_shouldNotFetchMessages() throws Exception {
+        setupRemoteSearch();
+
+        Thread.currentThread().interrupt();
+        try {
+            controller.searchRemoteMessagesSynchronous("1", FOLDER_NAME, "query", reqFlags, forbiddenFlags,
+                    listener);
+        } finally {
+            Thread.interrupted();
+        }
+
+        verify(remoteFolder, never()).fetch(any(List.class), any(FetchProfile.class),
+                any(MessageRetrievalListener.class));
+        verify(listener).remoteSearchFinished(FOLDER_NAME, 0, 50, Collections.<Message>emptyList());
+    }
+
     @Test
     public void searchRemoteMessagesSynchronous_shouldNotifyOnFailure() throws Exception {
         setupRemoteSearch();
@@ -825,10 +868,41 @@ public class MessagingControllerTest {
 
         controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
 
-        verify(remoteFolder, atLeast(2)).fetch(any(List.class), fetchProfileCaptor.capture(),
-                any(MessageRetrievalListener.class));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(1).size());
-        assertTrue(fetchProfileCaptor.getAllValues().get(1).contains(FetchProfile.Item.BODY));
+        verify(remoteFolder, atLeastOnce()).fetch(any(List.class), fetchProfileCaptor.capture(),
+                any(MessageRetrievalListener.class), any(BodyFactory.class));
+        assertEquals(1, fetchProfileCaptor.getAllValues().get(0).size());
+        assertTrue(fetchProfileCaptor.getAllValues().get(0).contains(FetchProfile.Item.BODY));
+    }
+
+    @Test
+    public void synchronizeMailboxSynchronous_withSmallMessageThatCantBeStored_shouldStoreOtherMessages()
+            throws Exception {
+        final Message goodMessage = buildSmallNewMessage();
+        final Message badMessage = buildSmallNewMessage();
+        when(goodMessage.getUid()).thenReturn("UID1");
+        when(badMessage.getUid()).thenReturn("UID2");
+        LocalMessage localMessage = mock(LocalMessage.class);
+        messageCountInRemoteFolder(2);
+        hasUnsyncedRemoteMessages(goodMessage, badMessage);
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchWithMessages(goodMessage, badMessage);
+        doThrow(MessagingException.class).when(localFolder).storeSmallMessages(Collections.singletonList(badMessage));
+        doThrow(MessagingException.class).when(localFolder).storeSmallMessages(Matchers.argThat(
+                new ArgumentMatcher<List<Message>>() {
+                    @Override
+                    public boolean matches(Object argument) {
+                        return ((List<?>) argument).size() > 1;
+                    }
+                }));
+        when(localFolder.storeSmallMessages(Collections.singletonList(goodMessage)))
+                .thenReturn(Collections.singletonList(localMessage));
+        controller.addListener(listener);
+
+        controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(goodMessage));
+        verify(localFolder).storeSmallMessages(Collections.singletonList(badMessage));
+        verify(listener).synchronizeMailboxNewMessage(account, FOLDER_NAME, localMessage);
     }
 
     @Test
@@ -843,12 +917,16 @@ public class MessagingControllerTest {
         controller.synchronizeMailboxSynchronous(account, FOLDER_NAME, listener, remoteFolder);
 
         //TODO: Don't bother fetching messages of a size we don't have
-        verify(remoteFolder, atLeast(4)).fetch(any(List.class), fetchProfileCaptor.capture(),
+        verify(remoteFolder, atLeast(2)).fetch(any(List.class), fetchProfileCaptor.capture(),
                 any(MessageRetrievalListener.class));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(2).size());
-        assertEquals(FetchProfile.Item.STRUCTURE, fetchProfileCaptor.getAllValues().get(2).get(0));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(3).size());
-        assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
+        assertEquals(1, fetchProfileCaptor.getAllValues().get(1).size());
+        assertEquals(FetchProfile.Item.STRUCTURE, fetchProfileCaptor.getAllValues().get(1).get(0));
+
+        ArgumentCaptor<FetchProfile> bodyFetchProfileCaptor = ArgumentCaptor.forClass(FetchProfile.class);
+        verify(remoteFolder, atLeast(2)).fetch(any(List.class), bodyFetchProfileCaptor.capture(),
+                any(MessageRetrievalListener.class), any(BodyFactory.class));
+        assertEquals(1, bodyFetchProfileCaptor.getAllValues().get(1).size());
+        assertEquals(FetchProfile.Item.BODY_SANE, bodyFetchProfileCaptor.getAllValues().get(1).get(0));
     }
 
     private void setupAccountWithMessageToSend() throws MessagingException {
@@ -883,6 +961,30 @@ public class MessagingControllerTest {
         }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), any(MessageRetrievalListener.class));
     }
 
+    private void respondToFetchWithMessages(final Message... messages) throws MessagingException {
+        Answer<Void> answer = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                FetchProfile fetchProfile = (FetchProfile) invocation.getArguments()[1];
+                MessageRetrievalListener listener = (MessageRetrievalListener) invocation.getArguments()[2];
+                boolean fetchesMessages = fetchProfile.contains(FetchProfile.Item.ENVELOPE) ||
+                        fetchProfile.contains(FetchProfile.Item.BODY);
+                if (listener != null && fetchesMessages) {
+                    for (int i = 0; i < messages.length; i++) {
+                        listener.messageStarted(messages[i].getUid(), i + 1, messages.length);
+                        listener.messageFinished(messages[i], i + 1, messages.length);
+                    }
+                    listener.messagesFinished(messages.length);
+                }
+                return null;
+            }
+        };
+        doAnswer(answer).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class),
+                any(MessageRetrievalListener.class));
+        doAnswer(answer).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class),
+                any(MessageRetrievalListener.class), any(BodyFactory.class));
+    }
+
     private Message buildSmallNewMessage() {
         Message message = mock(Message.class);
         when(message.olderThan(any(Date.class))).thenReturn(false);
@@ -921,6 +1023,11 @@ public class MessagingControllerTest {
                 .thenReturn(Collections.singletonList(remoteMessage));
     }
 
+    private void hasUnsyncedRemoteMessages(Message... messages) throws MessagingException {
+        when(remoteFolder.getMessages(anyInt(), anyInt(), any(Date.class), any(MessageRetrievalListener.class)))
+                .thenReturn(Arrays.asList(messages));
+    }
+
     private void configureAccount() throws MessagingException {
         when(account.isAvailable(appContext)).thenReturn(true);
         when(account.getLocalStore()).thenReturn(localStore);
@@ -932,6 +1039,7 @@ public class MessagingControllerTest {
 
     private void configureLocalStore() throws MessagingException {
         when(localStore.getFolder(FOLDER_NAME)).thenReturn(localFolder);
+        when(localFolder.getBodyFactory()).thenReturn(bodyFactory);
         when(localFolder.getName()).thenReturn(FOLDER_NAME);
         when(localStore.getFolder(K9.ERROR_FOLDER_NAME)).thenReturn(errorFolder);
         when(localStore.getPersonalNamespaces(false)).thenReturn(Collections.singletonList(localFolder));
@@ -0,0 +1,105 @@
+package com.fsck.k9.controller;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.helper.Contacts;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.notification.NotificationController;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class NewMailNotificationCollectorTest {
+    private NotificationController notificationController;
+    private Contacts contacts;
+    private Account account;
+
+
+    @Before
+    public void setUp() throws Exception {
+        notificationController = mock(NotificationController.class);
+        contacts = mock(Contacts.class);
+        account = mock(Account.class);
+    }
+
+    @Test
+    public void add_beforeMaxDelay_shouldNotPostNotifications() throws Exception {
+        NewMailNotificationCollector collector = createCollector(60000);
+
+        collector.add(mock(LocalMessage.class));
+        collector.add(mock(LocalMessage.class));
+
+        verify(notificationController, never()).addNewMailNotifications(eq(account),
+                anyListOf(LocalMessage.class), anyInt());
+    }
+
+    @Test
+    public void add_withMaxDelayReached_shouldPostNotifications() throws Exception {
+        NewMailNotificationCollector collector = createCollector(0);
+        LocalMessage message = mock(LocalMessage.class);
+
+        collector.add(message);
+
+        verify(notificationController).addNewMailNotifications(account, Collections.singletonList(message), 42);
+    }
+
+    @Test
+    public void flush_shouldPostPendingMessagesOnce() throws Exception {
+        NewMailNotificationCollector collector = createCollector(60000);
+        LocalMessage messageOne = mock(LocalMessage.class);
+        LocalMessage messageTwo = mock(LocalMessage.class);
+        collector.add(messageOne);
+        collector.add(messageTwo);
+
+        collector.flush();
+        collector.flush();
+
+        verify(notificationController).addNewMailNotifications(account, Arrays.asList(messageOne, messageTwo), 42);
+    }
+
+    @Test
+    public void isAnyInContacts_shouldLookUpEachAddressOnce() throws Exception {
+        NewMailNotificationCollector collector = createCollector(60000);
+        when(contacts.isInContacts("alice@example.com")).thenReturn(true);
+        Address[] from = Address.parse("Alice <alice@example.com>");
+        Address[] fromDifferentCase = Address.parse("ALICE@example.com");
+
+        assertTrue(collector.isAnyInContacts(from));
+        assertTrue(collector.isAnyInContacts(from));
+        assertTrue(collector.isAnyInContacts(fromDifferentCase));
+
+        verify(contacts, times(1)).isInContacts("alice@example.com");
+        verify(contacts, never()).isInContacts("ALICE@example.com");
+    }
+
+    @Test
+    public void isAnyInContacts_withUnknownAddress_shouldReturnFalse() throws Exception {
+        NewMailNotificationCollector collector = createCollector(60000);
+
+        assertFalse(collector.isAnyInContacts(Address.parse("bob@example.com")));
+        assertFalse(collector.isAnyInContacts(null));
+    }
+
+
+    private NewMailNotificationCollector createCollector(long maxDelayMillis) {
+        return new NewMailNotificationCollector(notificationController, contacts, account, 42, maxDelayMillis);
+    }
+}
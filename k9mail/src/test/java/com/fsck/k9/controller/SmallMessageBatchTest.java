@@ -0,0 +1,93 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fsck.k9.mail.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class SmallMessageBatchTest {
+    private final List<List<Message>> groups = new ArrayList<>();
+    private final SmallMessageBatch.Callback<Message> callback = new SmallMessageBatch.Callback<Message>() {
+        @Override
+        public void onGroupComplete(List<Message> messages) {
+            groups.add(messages);
+        }
+    };
+
+
+    @Test
+    public void add_withMaxCountReached_shouldPassOnGroup() throws Exception {
+        SmallMessageBatch<Message> batch = new SmallMessageBatch<>(2, 1000, 60000, callback);
+        Message first = createMessage(10);
+        Message second = createMessage(10);
+        Message third = createMessage(10);
+
+        batch.add(first);
+        batch.add(second);
+        batch.add(third);
+
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(first, second), groups.get(0));
+    }
+
+    @Test
+    public void add_withMaxBytesReached_shouldPassOnGroup() throws Exception {
+        SmallMessageBatch<Message> batch = new SmallMessageBatch<>(10, 100, 60000, callback);
+        Message small = createMessage(10);
+        Message large = createMessage(95);
+
+        batch.add(small);
+        batch.add(large);
+
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(small, large), groups.get(0));
+    }
+
+    @Test
+    public void add_withMaxAgeReached_shouldPassOnGroup() throws Exception {
+        SmallMessageBatch<Message> batch = new SmallMessageBatch<>(10, 1000, 0, callback);
+        Message message = createMessage(10);
+
+        batch.add(message);
+
+        assertEquals(1, groups.size());
+    }
+
+    @Test
+    public void flush_shouldPassOnRemainingMessagesOnce() throws Exception {
+        SmallMessageBatch<Message> batch = new SmallMessageBatch<>(10, 1000, 60000, callback);
+        Message message = createMessage(10);
+        batch.add(message);
+
+        batch.flush();
+        batch.flush();
+
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(message), groups.get(0));
+    }
+
+    @Test
+    public void flush_withoutMessages_shouldNotCallCallback() throws Exception {
+        SmallMessageBatch<Message> batch = new SmallMessageBatch<>(10, 1000, 60000, callback);
+
+        batch.flush();
+
+        assertTrue(groups.isEmpty());
+    }
+
+
+    private Message createMessage(long size) {
+        Message message = mock(Message.class);
+        when(message.getSize()).thenReturn(size);
+        return message;
+    }
+}
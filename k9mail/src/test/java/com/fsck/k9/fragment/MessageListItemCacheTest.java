@@ -0,0 +1,265 @@
+package com.fsck.k9.fragment;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageListItemCacheTest {
+    private static final long UNIQUE_ID_OFFSET = 1L << 48;
+
+
+    private Account account;
+    private MessageListItemFactory itemFactory;
+    private QueueExecutor backgroundExecutor;
+    private MessageListItemCache.Listener listener;
+    private MessageListItemCache itemCache;
+    private long itemCreatedAt;
+
+
+    @Before
+    public void setUp() throws Exception {
+        account = mock(Account.class);
+        when(account.getUuid()).thenReturn("account-uuid");
+
+        itemCreatedAt = SystemClock.elapsedRealtime();
+        itemFactory = mock(MessageListItemFactory.class);
+        when(itemFactory.create(any(MessageListRow.class), anyBoolean())).thenAnswer(new Answer<MessageListItem>() {
+            @Override
+            public MessageListItem answer(InvocationOnMock invocation) throws Throwable {
+                MessageListRow row = (MessageListRow) invocation.getArguments()[0];
+                boolean senderAboveSubject = (Boolean) invocation.getArguments()[1];
+                return new MessageListItem(row, senderAboveSubject, itemCreatedAt, null, null, null,
+                        row.subject, null, null);
+            }
+        });
+        when(itemFactory.createPlaceholder(any(MessageListRow.class), anyBoolean()))
+                .thenAnswer(new Answer<MessageListItem>() {
+                    @Override
+                    public MessageListItem answer(InvocationOnMock invocation) throws Throwable {
+                        MessageListRow row = (MessageListRow) invocation.getArguments()[0];
+                        boolean senderAboveSubject = (Boolean) invocation.getArguments()[1];
+                        return new MessageListItem(row, senderAboveSubject, 0, "", "", "", row.subject, "", null);
+                    }
+                });
+
+        backgroundExecutor = new QueueExecutor();
+        listener = mock(MessageListItemCache.Listener.class);
+        itemCache = new MessageListItemCache(itemFactory, backgroundExecutor, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+        itemCache.setListener(listener);
+    }
+
+    @Test
+    public void getItem_withoutCachedItem_shouldReturnPlaceholder() throws Exception {
+        MessageListItem result = itemCache.getItem(createRow(createCursor(false), 1), false, 0);
+
+        verify(itemFactory, never()).create(any(MessageListRow.class), anyBoolean());
+        assertEquals(0, result.createdAt);
+    }
+
+    @Test
+    public void getItem_withoutCachedItem_shouldCreateItemInBackgroundAndNotifyListener() throws Exception {
+        MessageListRow row = createRow(createCursor(false), 1);
+        itemCache.getItem(row, false, 0);
+
+        backgroundExecutor.runAll();
+        MessageListItem result = itemCache.getItem(row, false, 0);
+
+        verify(listener).onItemsCreated();
+        assertEquals(itemCreatedAt, result.createdAt);
+    }
+
+    @Test
+    public void getItem_withPendingRequest_shouldNotRequestItemAgain() throws Exception {
+        MessageListRow row = createRow(createCursor(false), 1);
+        itemCache.getItem(row, false, 0);
+
+        itemCache.getItem(row, false, 0);
+
+        assertEquals(1, backgroundExecutor.size());
+    }
+
+    @Test
+    public void getItem_withUnchangedRowAfterCursorSwap_shouldReuseItem() throws Exception {
+        MessageListItem item = getCreatedItem(createRow(createCursor(false), 1), false);
+
+        MessageListItem result = itemCache.getItem(createRow(createCursor(false), 1), false, 0);
+
+        assertSame(item, result);
+        assertEquals(0, backgroundExecutor.size());
+    }
+
+    @Test
+    public void getItem_withChangedRowAfterCursorSwap_shouldCreateNewItem() throws Exception {
+        MessageListItem item = getCreatedItem(createRow(createCursor(false), 1), false);
+
+        MessageListItem result = getCreatedItem(createRow(createCursor(true), 1), false);
+
+        assertNotSame(item, result);
+        assertEquals(true, result.row.read);
+    }
+
+    @Test
+    public void getItem_withChangedSenderAboveSubject_shouldCreateNewItem() throws Exception {
+        MessageListItem item = getCreatedItem(createRow(createCursor(false), 1), false);
+
+        MessageListItem result = getCreatedItem(createRow(createCursor(false), 1), true);
+
+        assertNotSame(item, result);
+        assertEquals(true, result.senderAboveSubject);
+    }
+
+    @Test
+    public void getItem_withExpiredItem_shouldReturnItemAndRefreshItInBackground() throws Exception {
+        itemCreatedAt = SystemClock.elapsedRealtime() - 2 * DateUtils.MINUTE_IN_MILLIS;
+        MessageListRow row = createRow(createCursor(false), 1);
+        MessageListItem item = getCreatedItem(row, false);
+
+        MessageListItem result = itemCache.getItem(row, false, 0);
+
+        assertSame(item, result);
+        assertEquals(1, backgroundExecutor.size());
+    }
+
+    @Test
+    public void getItem_afterPrefetch_shouldReturnPrefetchedItem() throws Exception {
+        itemCache.prefetch(createCursor(false), account, 0, false, 0, 1, 0);
+        MessageListRow row = createRow(createCursor(false), 1);
+
+        MessageListItem result = itemCache.getItem(row, false, 1);
+
+        verify(itemFactory, times(2)).create(any(MessageListRow.class), anyBoolean());
+        assertEquals(row, result.row);
+        assertEquals(itemCreatedAt, result.createdAt);
+    }
+
+    @Test
+    public void prefetch_shouldCreateDistantItemsInBackground() throws Exception {
+        int rowCount = MessageListItemCache.PREFETCH_DISTANCE + 3;
+        itemCache.prefetch(createCursor(rowCount), account, 0, false, 0, rowCount - 1, 0);
+        verify(itemFactory, times(MessageListItemCache.PREFETCH_DISTANCE + 1))
+                .create(any(MessageListRow.class), anyBoolean());
+
+        backgroundExecutor.runAll();
+
+        verify(itemFactory, times(rowCount)).create(any(MessageListRow.class), anyBoolean());
+        verify(listener, never()).onItemsCreated();
+    }
+
+    @Test
+    public void prefetch_withNewerPrefetchOfSameCursor_shouldSkipOutdatedBackgroundWork() throws Exception {
+        int rowCount = MessageListItemCache.PREFETCH_DISTANCE + 3;
+        itemCache.prefetch(createCursor(rowCount), account, 0, false, 0, rowCount - 1, 0);
+        itemCache.prefetch(createCursor(rowCount), account, 0, false, 0, MessageListItemCache.PREFETCH_DISTANCE, 0);
+
+        backgroundExecutor.runAll();
+
+        verify(itemFactory, times(MessageListItemCache.PREFETCH_DISTANCE + 1))
+                .create(any(MessageListRow.class), anyBoolean());
+    }
+
+    @Test
+    public void prefetch_shouldMoveCursorBeforeFirstRow() throws Exception {
+        Cursor loadedCursor = createCursor(false);
+
+        itemCache.prefetch(loadedCursor, account, 0, false, 0, MessageListItemCache.PREFETCH_DISTANCE, 0);
+
+        assertEquals(-1, loadedCursor.getPosition());
+    }
+
+    @Test
+    public void prefetch_withUniqueIdOffset_shouldUseUniqueIdOfMergedCursor() throws Exception {
+        itemCache.prefetch(createCursor(false), account, UNIQUE_ID_OFFSET, false, 0, 0, 0);
+        MessageListRow row = createRow(createCursor(false), UNIQUE_ID_OFFSET);
+
+        itemCache.getItem(row, false, 0);
+
+        verify(itemFactory, times(1)).create(any(MessageListRow.class), anyBoolean());
+        assertEquals(0, backgroundExecutor.size());
+    }
+
+    private MessageListItem getCreatedItem(MessageListRow row, boolean senderAboveSubject) {
+        itemCache.getItem(row, senderAboveSubject, 0);
+        backgroundExecutor.runAll();
+        return itemCache.getItem(row, senderAboveSubject, 0);
+    }
+
+    private MessageListRow createRow(Cursor cursor, long uniqueIdOffset) {
+        cursor.moveToFirst();
+        return new MessageListRow(cursor, uniqueIdOffset + cursor.getLong(MLFProjectionInfo.ID_COLUMN), account,
+                false);
+    }
+
+    private Cursor createCursor(boolean read) {
+        MatrixCursor cursor = new MatrixCursor(MLFProjectionInfo.PROJECTION);
+        cursor.addRow(new Object[] { 1L, "uid1", 0L, "Subject 1", 1000L, "alice@example.com", "bob@example.com",
+                null, read ? 1 : 0, 0, 0, 0, 0, 1L, "text", "Preview 1", 1L, "account-uuid", "INBOX" });
+        cursor.addRow(new Object[] { 2L, "uid2", 0L, "Subject 2", 2000L, "carol@example.com", "bob@example.com",
+                null, 0, 0, 0, 0, 0, 1L, "text", "Preview 2", 2L, "account-uuid", "INBOX" });
+        return cursor;
+    }
+
+    private Cursor createCursor(int rowCount) {
+        MatrixCursor cursor = new MatrixCursor(MLFProjectionInfo.PROJECTION);
+        for (long id = 1; id <= rowCount; id++) {
+            cursor.addRow(new Object[] { id, "uid" + id, 0L, "Subject " + id, id * 1000L, "alice@example.com",
+                    "bob@example.com", null, 0, 0, 0, 0, 0, 1L, "text", "Preview " + id, id, "account-uuid",
+                    "INBOX" });
+        }
+        return cursor;
+    }
+
+
+    private static class QueueExecutor implements Executor {
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.addFirst(command);
+        }
+
+        int size() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.removeFirst().run();
+            }
+        }
+    }
+}
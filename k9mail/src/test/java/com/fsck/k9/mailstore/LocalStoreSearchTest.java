@@ -0,0 +1,162 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.search.LocalSearch;
+import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchField;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class LocalStoreSearchTest {
+    private static final long FOLDER_ID = 1;
+
+
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        StorageManager storageManager = StorageManager.getInstance(RuntimeEnvironment.application);
+        storageManager.getDatabase(account.getUuid(), account.getLocalStorageProviderId()).getParentFile().mkdirs();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        insertFolder();
+    }
+
+    @Test
+    public void searchForMessages_shouldReturnMostRecentMatchesFirst() throws Exception {
+        insertMessage(1, 1000L, "apple pie recipe");
+        insertMessage(2, 3000L, "apple cider");
+        insertMessage(3, 2000L, "banana bread");
+        insertMessage(4, 4000L, "fresh apple juice");
+
+        MessageSearchPage page = localStore.searchForMessages(bodySearch("apple"), null, 10);
+
+        assertMessageIds(page.getMessages(), 4, 2, 1);
+        assertFalse(page.hasMore());
+        assertNull(page.getNextPosition());
+    }
+
+    @Test
+    public void searchForMessages_withPosition_shouldReturnFollowingPage() throws Exception {
+        insertMessage(1, 1000L, "apple one");
+        insertMessage(2, 2000L, "apple two");
+        insertMessage(3, 2000L, "apple three");
+        insertMessage(4, 3000L, "apple four");
+        insertMessage(5, 4000L, "apple five");
+
+        MessageSearchPage firstPage = localStore.searchForMessages(bodySearch("apple"), null, 2);
+        MessageSearchPage secondPage = localStore.searchForMessages(bodySearch("apple"),
+                firstPage.getNextPosition(), 2);
+        MessageSearchPage thirdPage = localStore.searchForMessages(bodySearch("apple"),
+                secondPage.getNextPosition(), 2);
+
+        assertMessageIds(firstPage.getMessages(), 5, 4);
+        assertTrue(firstPage.hasMore());
+        assertMessageIds(secondPage.getMessages(), 3, 2);
+        assertTrue(secondPage.hasMore());
+        assertMessageIds(thirdPage.getMessages(), 1);
+        assertFalse(thirdPage.hasMore());
+    }
+
+    @Test
+    public void searchForMessages_withBodyCondition_shouldReturnHighlightedSnippets() throws Exception {
+        insertMessage(1, 1000L, "an apple a day keeps the doctor away");
+
+        MessageSearchPage page = localStore.searchForMessages(bodySearch("apple"), null, 10);
+
+        String snippet = page.getSnippet(page.getMessages().get(0));
+        assertTrue(snippet.contains(MessageSearchPage.HIGHLIGHT_START + "apple" + MessageSearchPage.HIGHLIGHT_END));
+    }
+
+    @Test
+    public void searchForMessages_withoutBodyCondition_shouldNotReturnSnippets() throws Exception {
+        insertMessage(1, 1000L, "apple");
+
+        LocalSearch search = new LocalSearch();
+        search.and(SearchField.SUBJECT, "Message", Attribute.CONTAINS);
+        MessageSearchPage page = localStore.searchForMessages(search, null, 10);
+
+        assertMessageIds(page.getMessages(), 1);
+        assertNull(page.getSnippet(page.getMessages().get(0)));
+    }
+
+    private LocalSearch bodySearch(String query) {
+        LocalSearch search = new LocalSearch();
+        search.and(SearchField.MESSAGE_CONTENTS, query, Attribute.CONTAINS);
+        return search;
+    }
+
+    private void insertFolder() throws Exception {
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                ContentValues folder = new ContentValues();
+                folder.put("id", FOLDER_ID);
+                folder.put("name", "Inbox");
+                db.insert("folders", null, folder);
+                return null;
+            }
+        });
+    }
+
+    private void insertMessage(final long id, final long date, final String text) throws Exception {
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                ContentValues message = new ContentValues();
+                message.put("id", id);
+                message.put("folder_id", FOLDER_ID);
+                message.put("uid", "uid" + id);
+                message.put("subject", "Message " + id);
+                message.put("date", date);
+                message.put("empty", 0);
+                message.put("deleted", 0);
+                db.insert("messages", null, message);
+
+                ContentValues thread = new ContentValues();
+                thread.put("message_id", id);
+                db.insert("threads", null, thread);
+
+                ContentValues fulltext = new ContentValues();
+                fulltext.put("docid", id);
+                fulltext.put("fulltext", text);
+                db.insert("messages_fulltext", null, fulltext);
+                return null;
+            }
+        });
+    }
+
+    private static void assertMessageIds(List<LocalMessage> messages, long... expectedIds) {
+        assertEquals(expectedIds.length, messages.size());
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertEquals(expectedIds[i], messages.get(i).getDatabaseId());
+        }
+    }
+}
@@ -35,7 +35,10 @@ import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -59,7 +62,7 @@ public class MessageViewInfoExtractorTest {
         GlobalsHelper.setContext(context);
 
         HtmlProcessor htmlProcessor = createFakeHtmlProcessor();
-        messageViewInfoExtractor = new MessageViewInfoExtractor(context,null, htmlProcessor);
+        messageViewInfoExtractor = new MessageViewInfoExtractor(context, null, htmlProcessor, null);
     }
 
     @Test
@@ -75,7 +78,7 @@ public class MessageViewInfoExtractorTest {
         // Prepare fixture
         HtmlProcessor htmlProcessor = mock(HtmlProcessor.class);
         MessageViewInfoExtractor messageViewInfoExtractor =
-                new MessageViewInfoExtractor(context, null, htmlProcessor);
+                new MessageViewInfoExtractor(context, null, htmlProcessor, null);
         String value = "--sanitized html--";
         when(htmlProcessor.processForDisplay(anyString())).thenReturn(value);
 
@@ -213,6 +216,85 @@ public class MessageViewInfoExtractorTest {
         assertEquals(expectedHtml, container.html);
     }
 
+    @Test
+    public void extractTextFromViewables_withTextSizeLimit_shouldTruncateText() throws MessagingException {
+        TextBody body = new TextBody(BODY_TEXT);
+        MimeMessage message = new MimeMessage();
+        message.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain");
+        MimeMessageHelper.setBody(message, body);
+
+        List<Part> outputNonViewableParts = new ArrayList<>();
+        ArrayList<Viewable> outputViewableParts = new ArrayList<>();
+        MessageExtractor.findViewablesAndAttachments(message, outputViewableParts, outputNonViewableParts);
+        ViewableExtractedText container =
+                messageViewInfoExtractor.extractTextFromViewables(outputViewableParts, 8, true);
+
+        assertEquals("K-9 Mail", container.text);
+        assertEquals("<pre class=\"k9mail\">K-9 Mail</pre>", container.html);
+        assertTrue(container.isTruncated);
+    }
+
+    @Test
+    public void extractTextFromViewables_withTextSizeLimitReached_shouldSkipRemainingParts()
+            throws MessagingException {
+        String bodyText1 = "text body 1";
+        String bodyText2 = "text body 2";
+        MimeMultipart multipart = MimeMultipart.newInstance();
+        multipart.addBodyPart(new MimeBodyPart(new TextBody(bodyText1), "text/plain"));
+        multipart.addBodyPart(new MimeBodyPart(new TextBody(bodyText2), "text/plain"));
+        MimeMessage message = new MimeMessage();
+        MimeMessageHelper.setBody(message, multipart);
+
+        List<Part> outputNonViewableParts = new ArrayList<>();
+        ArrayList<Viewable> outputViewableParts = new ArrayList<>();
+        MessageExtractor.findViewablesAndAttachments(message, outputViewableParts, outputNonViewableParts);
+        ViewableExtractedText container = messageViewInfoExtractor.extractTextFromViewables(outputViewableParts,
+                bodyText1.length(), true);
+
+        assertEquals(bodyText1, container.text);
+        assertEquals("<pre class=\"k9mail\">" + bodyText1 + "</pre>", container.html);
+        assertTrue(container.isTruncated);
+    }
+
+    @Test
+    public void extractTextFromViewables_withMultiByteCharacters_shouldCountBytesAgainstTextSizeLimit()
+            throws MessagingException {
+        String bodyText1 = "\u00e4\u00f6\u00fc";
+        String bodyText2 = "abc";
+        MimeMultipart multipart = MimeMultipart.newInstance();
+        multipart.addBodyPart(new MimeBodyPart(new TextBody(bodyText1), "text/plain"));
+        multipart.addBodyPart(new MimeBodyPart(new TextBody(bodyText2), "text/plain"));
+        MimeMessage message = new MimeMessage();
+        MimeMessageHelper.setBody(message, multipart);
+
+        List<Part> outputNonViewableParts = new ArrayList<>();
+        ArrayList<Viewable> outputViewableParts = new ArrayList<>();
+        MessageExtractor.findViewablesAndAttachments(message, outputViewableParts, outputNonViewableParts);
+        ViewableExtractedText container = messageViewInfoExtractor.extractTextFromViewables(outputViewableParts,
+                6, true);
+
+        assertEquals(bodyText1, container.text);
+        assertTrue(container.isTruncated);
+    }
+
+    @Test
+    public void extractTextFromViewables_withTextBelowTextSizeLimit_shouldNotTruncate() throws MessagingException {
+        TextBody body = new TextBody(BODY_TEXT);
+        MimeMessage message = new MimeMessage();
+        message.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "text/plain");
+        MimeMessageHelper.setBody(message, body);
+
+        List<Part> outputNonViewableParts = new ArrayList<>();
+        ArrayList<Viewable> outputViewableParts = new ArrayList<>();
+        MessageExtractor.findViewablesAndAttachments(message, outputViewableParts, outputNonViewableParts);
+        ViewableExtractedText container =
+                messageViewInfoExtractor.extractTextFromViewables(outputViewableParts, 1024, false);
+
+        assertNull(container.text);
+        assertEquals("<pre class=\"k9mail\">" + BODY_TEXT_HTML + "</pre>", container.html);
+        assertFalse(container.isTruncated);
+    }
+
     @Test
     public void testTextPlusRfc822Message() throws MessagingException {
         Locale.setDefault(Locale.US);
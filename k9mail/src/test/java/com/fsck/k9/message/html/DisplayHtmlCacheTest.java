@@ -0,0 +1,147 @@
+package com.fsck.k9.message.html;
+
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class DisplayHtmlCacheTest {
+    private static final String ACCOUNT_UUID = "00000000-0000-4000-0000-000000000001";
+    private static final DisplayHtmlCache.Scope SCOPE = DisplayHtmlCache.Scope.forMessage(ACCOUNT_UUID, 1);
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File baseDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        baseDirectory = temporaryFolder.newFolder("display_html");
+    }
+
+    @Test
+    public void get_withUnknownKey_shouldReturnNull() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 1024);
+
+        assertNull(cache.get(SCOPE, DisplayHtmlCache.createKey("unknown")));
+    }
+
+    @Test
+    public void get_afterPut_shouldReturnStoredHtml() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 1024);
+        String key = DisplayHtmlCache.createKey("head", "<p>Hello</p>");
+
+        cache.put(SCOPE, key, "<html><body>Hall\u00f6chen</body></html>");
+
+        assertEquals("<html><body>Hall\u00f6chen</body></html>", cache.get(SCOPE, key));
+    }
+
+    @Test
+    public void createKey_shouldNotDependOnlyOnConcatenation() throws Exception {
+        assertNotEquals(DisplayHtmlCache.createKey("ab", "c"), DisplayHtmlCache.createKey("a", "bc"));
+    }
+
+    @Test
+    public void get_withNewVersion_shouldDeleteEntriesOfOldVersion() throws Exception {
+        DisplayHtmlCache oldCache = new DisplayHtmlCache(baseDirectory, 1, 1024);
+        String key = DisplayHtmlCache.createKey("html");
+        oldCache.put(SCOPE, key, "old");
+
+        DisplayHtmlCache newCache = new DisplayHtmlCache(baseDirectory, 2, 1024);
+
+        assertNull(newCache.get(SCOPE, key));
+        assertFalse(new File(baseDirectory, "1").exists());
+    }
+
+    @Test
+    public void put_exceedingMaxSize_shouldRemoveLeastRecentlyUsedEntries() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 100);
+        String firstKey = DisplayHtmlCache.createKey("first");
+        String secondKey = DisplayHtmlCache.createKey("second");
+        cache.put(SCOPE, firstKey, repeat('a', 40));
+        new File(new File(new File(new File(baseDirectory, "1"), ACCOUNT_UUID), "1"), firstKey).setLastModified(1000);
+
+        cache.put(SCOPE, secondKey, repeat('b', 70));
+
+        assertNull(cache.get(SCOPE, firstKey));
+        assertNotNull(cache.get(SCOPE, secondKey));
+    }
+
+    @Test
+    public void put_exceedingMaxSize_shouldRemoveEmptyDirectories() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 100);
+        String otherAccountUuid = "00000000-0000-4000-0000-000000000002";
+        DisplayHtmlCache.Scope otherScope = DisplayHtmlCache.Scope.forMessage(otherAccountUuid, 2);
+        String key = DisplayHtmlCache.createKey("html");
+        cache.put(otherScope, key, repeat('a', 40));
+        File otherAccountDirectory = new File(new File(baseDirectory, "1"), otherAccountUuid);
+        new File(new File(otherAccountDirectory, "2"), key).setLastModified(1000);
+
+        cache.put(SCOPE, key, repeat('b', 70));
+
+        assertFalse(otherAccountDirectory.exists());
+        assertTrue(new File(baseDirectory, "1").exists());
+    }
+
+    @Test
+    public void put_withExistingKey_shouldNotCountReplacedEntry() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 100);
+        String key = DisplayHtmlCache.createKey("html");
+        cache.put(SCOPE, key, repeat('a', 60));
+
+        cache.put(SCOPE, key, repeat('b', 60));
+
+        assertEquals(repeat('b', 60), cache.get(SCOPE, key));
+    }
+
+    @Test
+    public void removeMessage_shouldRemoveEntriesOfMessageOnly() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 1024);
+        DisplayHtmlCache.Scope otherScope = DisplayHtmlCache.Scope.forMessage(ACCOUNT_UUID, 2);
+        String key = DisplayHtmlCache.createKey("html");
+        cache.put(SCOPE, key, "first");
+        cache.put(otherScope, key, "second");
+
+        cache.removeMessage(ACCOUNT_UUID, 1);
+
+        assertNull(cache.get(SCOPE, key));
+        assertEquals("second", cache.get(otherScope, key));
+    }
+
+    @Test
+    public void removeAccount_shouldRemoveAllEntriesOfAccount() throws Exception {
+        DisplayHtmlCache cache = new DisplayHtmlCache(baseDirectory, 1, 1024);
+        DisplayHtmlCache.Scope otherScope = DisplayHtmlCache.Scope.forMessage(ACCOUNT_UUID, 2);
+        String key = DisplayHtmlCache.createKey("html");
+        cache.put(SCOPE, key, "first");
+        cache.put(otherScope, key, "second");
+
+        cache.removeAccount(ACCOUNT_UUID);
+
+        assertNull(cache.get(SCOPE, key));
+        assertNull(cache.get(otherScope, key));
+        assertFalse(new File(new File(baseDirectory, "1"), ACCOUNT_UUID).exists());
+    }
+
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
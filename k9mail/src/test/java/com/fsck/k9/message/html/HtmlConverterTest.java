@@ -293,4 +293,38 @@ public class HtmlConverterTest {
         String result = HtmlConverter.textToHtml(text);
         assertEquals("<pre class=\"k9mail\">hello<hr>world<br /></pre>", result);
     }
+
+    @Test
+    public void textToHtml_withUris_shouldLinkifyAndEscape() {
+        String text = "Visit http://example.org/?a=1&b=2 or (https://example.com/path>) now";
+        String result = HtmlConverter.textToHtml(text);
+        assertEquals("<pre class=\"k9mail\">Visit " +
+                "<a href=\"http://example.org/?a=1&amp;b=2\">http://example.org/?a=1&amp;b=2</a> or " +
+                "(<a href=\"https://example.com/path\">https://example.com/path</a>&gt;) now</pre>", result);
+    }
+
+    @Test
+    public void textToHtml_withEmptyLinesAtEndOfNestedQuotes_shouldMoveLineBreaksOutOfInnerBlockquote() {
+        String text = "text\n> quote\n>> nested\n>>\n>\n\nreply";
+        String result = HtmlConverter.textToHtml(text);
+        assertEquals("<pre class=\"k9mail\">text<br />"
+                + "<blockquote class=\"gmail_quote\" style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid #729fcf; padding-left: 1ex;\">"
+                +   " quote<br />"
+                +   "<blockquote class=\"gmail_quote\" style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid #ad7fa8; padding-left: 1ex;\">"
+                +     " nested"
+                +   "</blockquote>"
+                +   "<br /><br />"
+                + "</blockquote>"
+                + "<br />reply</pre>", result);
+    }
+
+    @Test
+    public void textToHtml_withHorizontalRuleInQuote_shouldReplaceRule() {
+        String text = "> first\n> ------\n> second";
+        String result = HtmlConverter.textToHtml(text);
+        assertEquals("<pre class=\"k9mail\">"
+                + "<blockquote class=\"gmail_quote\" style=\"margin: 0pt 0pt 1ex 0.8ex; border-left: 1px solid #729fcf; padding-left: 1ex;\">"
+                +   " first<hr> second"
+                + "</blockquote></pre>", result);
+    }
 }
@@ -0,0 +1,102 @@
+package com.fsck.k9.message.html;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class HtmlTextExtractorTest {
+    @Test
+    public void extractText_shouldRemoveTags() throws Exception {
+        String text = HtmlTextExtractor.extractText("<b>The quick brown fox</b> jumps over the <i>lazy</i> dog");
+
+        assertEquals("The quick brown fox jumps over the lazy dog", text);
+    }
+
+    @Test
+    public void extractText_shouldCollapseWhitespace() throws Exception {
+        String text = HtmlTextExtractor.extractText("  one\r\n   two\t three  ");
+
+        assertEquals("one two three", text);
+    }
+
+    @Test
+    public void extractText_shouldStartNewLineForBlockElements() throws Exception {
+        String text = HtmlTextExtractor.extractText("<p>one</p><div>two</div>three<br>four");
+
+        assertEquals("one\ntwo\nthree\nfour", text);
+    }
+
+    @Test
+    public void extractText_shouldSkipIgnoredContent() throws Exception {
+        String text = HtmlTextExtractor.extractText("<html><head><title>Title</title>" +
+                "<STYLE type=\"text/css\">p { color: red; }</style></head>" +
+                "<body><!-- <p>comment</p> -->text<script>document.write('</p>');</script> end</body></html>");
+
+        assertEquals("text end", text);
+    }
+
+    @Test
+    public void extractText_shouldDecodeCharacterReferences() throws Exception {
+        String text = HtmlTextExtractor.extractText("&lt;a&gt; &amp; &#65;&#x42; caf&eacute;&nbsp;&hellip;");
+
+        assertEquals("<a> & AB caf\u00e9 \u2026", text);
+    }
+
+    @Test
+    public void extractText_shouldDecodeAccentedLetters() throws Exception {
+        String text = HtmlTextExtractor.extractText("&aacute; &eacute; &ntilde; &ouml; &ecirc;");
+
+        assertEquals("\u00e1 \u00e9 \u00f1 \u00f6 \u00ea", text);
+    }
+
+    @Test
+    public void extractText_shouldDecodeSymbolsAndGreekLetters() throws Exception {
+        String text = HtmlTextExtractor.extractText("&alpha;&Omega; &le; &infin; &rarr; &spades; &thetasym;");
+
+        assertEquals("\u03b1\u03a9 \u2264 \u221e \u2192 \u2660 \u03d1", text);
+    }
+
+    @Test
+    public void extractText_shouldDecodeSpecialCharacters() throws Exception {
+        String text = HtmlTextExtractor.extractText("&OElig;&scaron; &dagger;&permil; &lsaquo;x&rsaquo; a&lrm;b");
+
+        assertEquals("\u0152\u0161 \u2020\u2030 \u2039x\u203a ab", text);
+    }
+
+    @Test
+    public void extractText_withUnknownOrInvalidReferences_shouldKeepText() throws Exception {
+        String text = HtmlTextExtractor.extractText("&unknown; &#; AT&T");
+
+        assertEquals("&unknown; &#; AT&T", text);
+    }
+
+    @Test
+    public void extractText_withLessThanSignInText_shouldKeepIt() throws Exception {
+        String text = HtmlTextExtractor.extractText("1 < 2");
+
+        assertEquals("1 < 2", text);
+    }
+
+    @Test
+    public void extractText_withGreaterThanSignInAttribute_shouldSkipWholeTag() throws Exception {
+        String text = HtmlTextExtractor.extractText("<a title=\"a > b\">link</a>");
+
+        assertEquals("link", text);
+    }
+
+    @Test
+    public void extractText_withHorizontalRule_shouldInsertUnderscores() throws Exception {
+        String text = HtmlTextExtractor.extractText("above<hr>below");
+
+        assertEquals("above\n_____________________________________________\nbelow", text);
+    }
+
+    @Test
+    public void extractText_withMaxLength_shouldStopEarly() throws Exception {
+        String text = HtmlTextExtractor.extractText("<p>The quick brown fox</p><p>jumps over the lazy dog</p>", 9);
+
+        assertEquals("The quick", text);
+    }
+}
@@ -3,6 +3,7 @@ package com.fsck.k9.preferences;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -178,6 +179,54 @@ public class SettingsImporterTest {
                 .getAccount(validUUID).isEnabled());
     }
 
+    @Test
+    public void importSettings_withManyFolders_shouldImportFolderSettingsInBatches()
+            throws SettingsImportExportException {
+        String validUUID = UUID.randomUUID().toString();
+        StringBuilder folders = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            folders.append("<folder name=\"Folder").append(i).append("\">")
+                    .append("<settings><value key=\"displayMode\">FIRST_CLASS</value></settings>")
+                    .append("</folder>");
+        }
+        InputStream inputStream = new StringInputStream("<k9settings format=\"1\" version=\"1\">" +
+                "<accounts><account uuid=\"" + validUUID + "\"><name>Account</name>" +
+                "<incoming-server type=\"IMAP\">" +
+                    "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                    "<username>user@gmail.com</username>" +
+                    "<authentication-type>CRAM_MD5</authentication-type>" +
+                    "<host>googlemail.com</host>" +
+                "</incoming-server>" +
+                "<outgoing-server type=\"SMTP\">" +
+                    "<connection-security>SSL_TLS_REQUIRED</connection-security>" +
+                    "<username>user@googlemail.com</username>" +
+                    "<authentication-type>CRAM_MD5</authentication-type>" +
+                    "<host>googlemail.com</host>" +
+                "</outgoing-server>" +
+                "<identities><identity><email>user@gmail.com</email></identity></identities>" +
+                "<folders>" + folders + "</folders>" +
+                "</account></accounts></k9settings>");
+        List<String> accountUuids = new ArrayList<>();
+        accountUuids.add(validUUID);
+        final List<Integer> progress = new ArrayList<>();
+        SettingsImporter.ImportProgressListener progressListener = new SettingsImporter.ImportProgressListener() {
+            @Override
+            public void onFolderSettingsImported(String accountName, int importedFolders, int totalFolders) {
+                assertEquals(250, totalFolders);
+                progress.add(importedFolders);
+            }
+        };
+
+        SettingsImporter.ImportResults results = SettingsImporter.importSettings(
+                RuntimeEnvironment.application, inputStream, false, accountUuids, false, progressListener);
+
+        assertEquals(1, results.importedAccounts.size());
+        assertEquals(Arrays.asList(100, 200, 250), progress);
+        Storage storage = Preferences.getPreferences(RuntimeEnvironment.application).getStorage();
+        assertEquals("FIRST_CLASS", storage.getString(validUUID + ".Folder0.displayMode", null));
+        assertEquals("FIRST_CLASS", storage.getString(validUUID + ".Folder249.displayMode", null));
+    }
+
     @Test
     public void getImportStreamContents_account() throws SettingsImportExportException {
         String validUUID = UUID.randomUUID().toString();
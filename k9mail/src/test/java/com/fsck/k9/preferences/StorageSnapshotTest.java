@@ -0,0 +1,111 @@
+package com.fsck.k9.preferences;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class StorageSnapshotTest {
+
+    @Test
+    public void withChanges_shouldNotModifyOriginal() throws Exception {
+        StorageSnapshot original = StorageSnapshot.copyOf(map("a", "1", "b", "2"));
+
+        original.withChanges(map("a", "3", "c", "4"), Collections.singletonList("b"));
+
+        assertEquals(map("a", "1", "b", "2"), original);
+    }
+
+    @Test
+    public void withChanges_shouldApplyRemovalsAndInsertions() throws Exception {
+        StorageSnapshot original = StorageSnapshot.copyOf(map("a", "1", "b", "2"));
+
+        StorageSnapshot result = original.withChanges(map("a", "3", "c", "4"), Collections.singletonList("b"));
+
+        assertEquals(map("a", "3", "c", "4"), result);
+        assertEquals(2, result.size());
+        assertEquals("3", result.get("a"));
+        assertFalse(result.containsKey("b"));
+        assertNull(result.get("b"));
+    }
+
+    @Test
+    public void withChanges_withRemovedAndReinsertedKey_shouldKeepKey() throws Exception {
+        StorageSnapshot original = StorageSnapshot.copyOf(map("a", "1"));
+
+        StorageSnapshot result = original.withChanges(map("a", "2"), Collections.singletonList("a"));
+
+        assertEquals(1, result.size());
+        assertEquals("2", result.get("a"));
+    }
+
+    @Test
+    public void withChanges_removingUnknownKey_shouldNotChangeSize() throws Exception {
+        StorageSnapshot original = StorageSnapshot.copyOf(map("a", "1"));
+
+        StorageSnapshot result = original.withChanges(Collections.<String, String>emptyMap(),
+                Arrays.asList("x", "y"));
+
+        assertEquals(1, result.size());
+        assertEquals(map("a", "1"), result);
+    }
+
+    @Test
+    public void withChanges_manyEdits_shouldMatchHashMap() throws Exception {
+        Map<String, String> expected = new HashMap<>();
+        StorageSnapshot snapshot = StorageSnapshot.EMPTY;
+
+        for (int i = 0; i < 500; i++) {
+            String key = "key" + (i % 97);
+            if (i % 5 == 0) {
+                expected.remove(key);
+                snapshot = snapshot.withChanges(Collections.<String, String>emptyMap(),
+                        Collections.singletonList(key));
+            } else {
+                expected.put(key, "value" + i);
+                snapshot = snapshot.withChanges(map(key, "value" + i), Collections.<String>emptyList());
+            }
+        }
+
+        assertEquals(expected.size(), snapshot.size());
+        assertEquals(expected, snapshot);
+        assertTrue(snapshot.entrySet().containsAll(expected.entrySet()));
+    }
+
+    @Test
+    public void withChanges_withManyKeys_shouldNotModifyOriginal() throws Exception {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        StorageSnapshot original = StorageSnapshot.copyOf(values);
+
+        StorageSnapshot result = original.withChanges(map("key1", "changed", "new", "value"),
+                Arrays.asList("key2", "key3"));
+
+        assertEquals(values, original);
+        assertEquals(4999, result.size());
+        assertEquals("changed", result.get("key1"));
+        assertEquals("value", result.get("new"));
+        assertFalse(result.containsKey("key2"));
+        assertEquals("value4999", result.get("key4999"));
+    }
+
+
+    private static Map<String, String> map(String... keysAndValues) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
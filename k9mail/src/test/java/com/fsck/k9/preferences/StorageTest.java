@@ -0,0 +1,86 @@
+package com.fsck.k9.preferences;
+
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class StorageTest {
+    private Storage storage;
+
+
+    @Before
+    public void setUp() {
+        storage = Storage.getStorage(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void commit_shouldUpdateMemoryAndDatabase() {
+        assertTrue(storage.edit().putString("commitKey", "value").commit());
+
+        assertEquals("value", storage.getString("commitKey", null));
+        assertEquals("value", readFromDatabase("commitKey"));
+    }
+
+    @Test
+    public void commit_withRemoval_shouldRemoveFromMemoryAndDatabase() {
+        storage.edit().putString("removedKey", "value").commit();
+
+        assertTrue(storage.edit().remove("removedKey").commit());
+
+        assertNull(storage.getString("removedKey", null));
+        assertNull(readFromDatabase("removedKey"));
+    }
+
+    @Test
+    public void apply_shouldUpdateMemoryImmediately() {
+        storage.edit().putString("appliedKey", "value").apply();
+
+        assertEquals("value", storage.getString("appliedKey", null));
+    }
+
+    @Test
+    public void flushPendingWrites_afterApply_shouldWriteToDatabase() {
+        storage.edit().putString("flushedKey", "value").apply();
+
+        storage.flushPendingWrites();
+
+        assertEquals("value", readFromDatabase("flushedKey"));
+    }
+
+    @Test
+    public void commit_afterApply_shouldWriteAppliedChangesToo() {
+        storage.edit().putString("appliedBeforeCommit", "applied").apply();
+
+        storage.edit().putString("committedAfterApply", "committed").commit();
+
+        assertEquals("applied", readFromDatabase("appliedBeforeCommit"));
+        assertEquals("committed", readFromDatabase("committedAfterApply"));
+        assertEquals("applied", storage.getString("appliedBeforeCommit", null));
+    }
+
+
+    private String readFromDatabase(String key) {
+        SQLiteDatabase db = RuntimeEnvironment.application.openOrCreateDatabase("preferences_storage",
+                Context.MODE_PRIVATE, null);
+        Cursor cursor = db.rawQuery("SELECT value FROM preferences_storage WHERE primkey = ?", new String[] { key });
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+            db.close();
+        }
+    }
+}
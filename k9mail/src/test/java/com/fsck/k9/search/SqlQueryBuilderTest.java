@@ -0,0 +1,45 @@
+package com.fsck.k9.search;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class SqlQueryBuilderTest {
+    @Test
+    public void buildHeaderFulltextQuery_withSingleWord() throws Exception {
+        String query = SqlQueryBuilder.buildHeaderFulltextQuery("subject", "Invoice");
+
+        assertEquals("subject:invoice*", query);
+    }
+
+    @Test
+    public void buildHeaderFulltextQuery_withEmailAddress_shouldSplitAtSeparators() throws Exception {
+        String query = SqlQueryBuilder.buildHeaderFulltextQuery("sender_list", "alice@example.org");
+
+        assertEquals("sender_list:alice* sender_list:example* sender_list:org*", query);
+    }
+
+    @Test
+    public void buildHeaderFulltextQuery_withOperatorKeyword_shouldUseLowerCase() throws Exception {
+        String query = SqlQueryBuilder.buildHeaderFulltextQuery("subject", "this OR that");
+
+        assertEquals("subject:this* subject:or* subject:that*", query);
+    }
+
+    @Test
+    public void buildHeaderFulltextQuery_withNonAsciiCharacters_shouldKeepThemInToken() throws Exception {
+        String query = SqlQueryBuilder.buildHeaderFulltextQuery("to_list", "M\u00fcller");
+
+        assertEquals("to_list:m\u00fcller*", query);
+    }
+
+    @Test
+    public void buildHeaderFulltextQuery_withoutTokens_shouldReturnNull() throws Exception {
+        String query = SqlQueryBuilder.buildHeaderFulltextQuery("subject", " \"*@ ");
+
+        assertNull(query);
+    }
+}